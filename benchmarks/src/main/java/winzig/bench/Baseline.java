@@ -0,0 +1,77 @@
+package winzig.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+
+/**
+ * Entry points into the compiler of an earlier build, to benchmark a change against the code it replaced.
+ * The build's compiler jar is given by the winzig.baseline system property, eg.
+ * -Dwinzig.baseline=../baseline/compiler/target/winzig-compiler-1.0-SNAPSHOT.jar, and loaded apart from the
+ * current compiler. Its classes are bound once through method handles, like Compiler's
+ */
+final class Baseline {
+    static final String PROPERTY = "winzig.baseline";
+
+    private static final MethodHandle NEW_LEXER;
+    private static final MethodHandle TOKENIZE;
+    private static final MethodHandle BUFFER_STREAM;
+    private static final MethodHandle NEW_PARSER;
+    private static final MethodHandle PARSE;
+
+    static {
+        String jar = System.getProperty(PROPERTY);
+        if (jar == null)
+            throw new IllegalStateException("Set -D" + PROPERTY + " to the compiler jar of the build to compare against");
+        try {
+            ClassLoader loader = new URLClassLoader(new URL[]{Paths.get(jar).toUri().toURL()},
+                    ClassLoader.getPlatformClassLoader());
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> lexer = Class.forName("Lexer", true, loader);
+            Class<?> tokenBuffer = Class.forName("TokenBuffer", true, loader);
+            Class<?> tokenStream = Class.forName("TokenStream", true, loader);
+            Class<?> parser = Class.forName("Parser", true, loader);
+
+            NEW_LEXER = erase(lookup.findConstructor(lexer, MethodType.methodType(void.class)));
+            TOKENIZE = erase(lookup.findVirtual(lexer, "tokenize", MethodType.methodType(tokenBuffer, CharSequence.class)));
+            BUFFER_STREAM = erase(lookup.findVirtual(tokenBuffer, "stream", MethodType.methodType(tokenStream)));
+            NEW_PARSER = erase(lookup.findConstructor(parser, MethodType.methodType(void.class, tokenStream)));
+            PARSE = erase(lookup.findVirtual(parser, "parse", MethodType.methodType(int.class)));
+        } catch (ReflectiveOperationException | MalformedURLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Baseline() {
+    }
+
+    /**
+     * Erase the baseline's class types to Object, they are not the current compiler's classes of the same names
+     */
+    private static MethodHandle erase(MethodHandle h) {
+        MethodType type = h.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i).getPackageName().isEmpty())
+                type = type.changeParameterType(i, Object.class);
+        }
+        if (type.returnType().getPackageName().isEmpty() && !type.returnType().isPrimitive())
+            type = type.changeReturnType(Object.class);
+        return h.asType(type);
+    }
+
+    static Object tokenize(String program) throws Throwable {
+        return (Object) TOKENIZE.invokeExact((Object) NEW_LEXER.invokeExact(), (CharSequence) program);
+    }
+
+    static Object newParser(Object tokenBuffer) throws Throwable {
+        return (Object) NEW_PARSER.invokeExact((Object) BUFFER_STREAM.invokeExact(tokenBuffer));
+    }
+
+    static int parse(Object parser) throws Throwable {
+        return (int) PARSE.invokeExact(parser);
+    }
+}
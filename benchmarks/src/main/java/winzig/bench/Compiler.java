@@ -0,0 +1,273 @@
+package winzig.bench;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+
+/**
+ * Entry points into the compiler phases.
+ * The compiler classes live in the unnamed package, which named packages such as the JMH generated ones cannot
+ * import, so they are bound once through method handles. The handles are static final, so the JIT inlines the calls
+ */
+final class Compiler {
+    private static final MethodHandle NEW_LEXER;
+    private static final MethodHandle SCAN;
+    private static final MethodHandle SCREEN;
+    private static final MethodHandle TOKENIZE;
+    private static final MethodHandle SCAN_TOKENS;
+    private static final MethodHandle NEW_SOURCE_TEXT;
+    private static final MethodHandle NEW_INCREMENTAL_LEXER;
+    private static final MethodHandle RELEX;
+    private static final MethodHandle BUFFER_SIZE;
+    private static final MethodHandle BUFFER_STREAM;
+    private static final MethodHandle NEW_LEXER_STREAM;
+    private static final MethodHandle NEW_PARSER;
+    private static final MethodHandle PARSE;
+    private static final MethodHandle NEW_DIAGNOSTICS;
+    private static final MethodHandle PARSE_DIAGNOSTICS;
+    private static final MethodHandle WRITE_AST;
+    private static final MethodHandle TREE;
+    private static final MethodHandle ARENA_SIZE;
+    private static final MethodHandle TO_AST_NODE;
+    private static final MethodHandle TRAVERSE;
+    private static final MethodHandle NEW_AST_WRITER;
+    private static final MethodHandle WRITE_TREE;
+    private static final MethodHandle NEW_SEMANTIC_ANALYZER;
+    private static final MethodHandle ANALYZE;
+    private static final MethodHandle NEW_INTERPRETER;
+    private static final MethodHandle INTERPRET;
+    private static final MethodHandle NEW_AST_INTERPRETER;
+    private static final MethodHandle WALK;
+    private static final MethodHandle NEW_JVM_COMPILER;
+    private static final MethodHandle RUN_JVM;
+    private static final MethodHandle NEW_BYTECODE_COMPILER;
+    private static final MethodHandle BYTECODE;
+    private static final MethodHandle NEW_VM;
+    private static final MethodHandle RUN_VM;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> lexer = Class.forName("Lexer");
+            Class<?> tokenBuffer = Class.forName("TokenBuffer");
+            Class<?> tokenStream = Class.forName("TokenStream");
+            Class<?> lexerTokenStream = Class.forName("LexerTokenStream");
+            Class<?> parser = Class.forName("Parser");
+            Class<?> arena = Class.forName("AstArena");
+            Class<?> astNode = Class.forName("ASTNode");
+            Class<?> astWriter = Class.forName("AstWriter");
+            Class<?> sourceText = Class.forName("SourceText");
+            Class<?> incrementalLexer = Class.forName("IncrementalLexer");
+            Class<?> diagnostics = Class.forName("Diagnostics");
+            Class<?> parseResult = Class.forName("ParseResult");
+            Class<?> semanticAnalyzer = Class.forName("SemanticAnalyzer");
+            Class<?> interpreter = Class.forName("Interpreter");
+            Class<?> astInterpreter = Class.forName("AstInterpreter");
+            Class<?> jvmCompiler = Class.forName("JvmCompiler");
+            Class<?> bytecodeCompiler = Class.forName("BytecodeCompiler");
+            Class<?> bytecode = Class.forName("Bytecode");
+            Class<?> bytecodeVm = Class.forName("BytecodeVM");
+
+            NEW_LEXER = generic(lookup.findConstructor(lexer, MethodType.methodType(void.class)));
+            SCAN = generic(lookup.findVirtual(lexer, "scan", MethodType.methodType(ArrayList.class, CharSequence.class)));
+            SCREEN = generic(lookup.findVirtual(lexer, "screen", MethodType.methodType(ArrayList.class, ArrayList.class)));
+            TOKENIZE = generic(lookup.findVirtual(lexer, "tokenize", MethodType.methodType(tokenBuffer, CharSequence.class)));
+            SCAN_TOKENS = generic(lookup.findVirtual(lexer, "scanTokens", MethodType.methodType(tokenBuffer, CharSequence.class)));
+            NEW_SOURCE_TEXT = generic(lookup.findConstructor(sourceText, MethodType.methodType(void.class, char[].class, int.class)));
+            NEW_INCREMENTAL_LEXER = generic(lookup.findConstructor(incrementalLexer, MethodType.methodType(void.class, lexer)));
+            RELEX = generic(lookup.findVirtual(incrementalLexer, "relex",
+                    MethodType.methodType(tokenBuffer, tokenBuffer, int.class, int.class, CharSequence.class)));
+            BUFFER_SIZE = generic(lookup.findVirtual(tokenBuffer, "size", MethodType.methodType(int.class)));
+            BUFFER_STREAM = generic(lookup.findVirtual(tokenBuffer, "stream", MethodType.methodType(tokenStream)));
+            NEW_LEXER_STREAM = generic(lookup.findConstructor(lexerTokenStream, MethodType.methodType(void.class, CharSequence.class)));
+            NEW_PARSER = generic(lookup.findConstructor(parser, MethodType.methodType(void.class, tokenStream)));
+            PARSE = generic(lookup.findVirtual(parser, "parse", MethodType.methodType(int.class)));
+            NEW_DIAGNOSTICS = generic(lookup.findConstructor(diagnostics, MethodType.methodType(void.class, int.class)));
+            PARSE_DIAGNOSTICS = generic(lookup.findVirtual(parser, "parse", MethodType.methodType(parseResult, diagnostics)));
+            WRITE_AST = generic(lookup.findVirtual(parser, "writeAST", MethodType.methodType(void.class, Writer.class)));
+            TREE = generic(lookup.findVirtual(parser, "tree", MethodType.methodType(arena)));
+            ARENA_SIZE = generic(lookup.findVirtual(arena, "size", MethodType.methodType(int.class)));
+            TO_AST_NODE = generic(lookup.findVirtual(arena, "toASTNode", MethodType.methodType(astNode, int.class)));
+            TRAVERSE = generic(lookup.findVirtual(astNode, "traverse", MethodType.methodType(String.class, int.class)));
+            NEW_AST_WRITER = generic(lookup.findConstructor(astWriter, MethodType.methodType(void.class, Writer.class)));
+            WRITE_TREE = generic(lookup.findVirtual(astWriter, "write", MethodType.methodType(void.class, arena, int.class)));
+            NEW_SEMANTIC_ANALYZER = generic(lookup.findConstructor(semanticAnalyzer,
+                    MethodType.methodType(void.class, arena, diagnostics)));
+            ANALYZE = generic(lookup.findVirtual(semanticAnalyzer, "analyze", MethodType.methodType(boolean.class, int.class)));
+            NEW_INTERPRETER = generic(lookup.findConstructor(interpreter,
+                    MethodType.methodType(void.class, arena, int.class, semanticAnalyzer)));
+            INTERPRET = generic(lookup.findVirtual(interpreter, "run",
+                    MethodType.methodType(void.class, Reader.class, Writer.class)));
+            NEW_AST_INTERPRETER = generic(lookup.findConstructor(astInterpreter,
+                    MethodType.methodType(void.class, arena, int.class)));
+            WALK = generic(lookup.findVirtual(astInterpreter, "run",
+                    MethodType.methodType(void.class, Reader.class, Writer.class)));
+            NEW_JVM_COMPILER = generic(lookup.findConstructor(jvmCompiler,
+                    MethodType.methodType(void.class, arena, int.class, semanticAnalyzer)));
+            RUN_JVM = generic(lookup.findVirtual(jvmCompiler, "run",
+                    MethodType.methodType(void.class, Reader.class, Writer.class)));
+            NEW_BYTECODE_COMPILER = generic(lookup.findConstructor(bytecodeCompiler,
+                    MethodType.methodType(void.class, arena, int.class, semanticAnalyzer)));
+            BYTECODE = generic(lookup.findVirtual(bytecodeCompiler, "bytecode", MethodType.methodType(bytecode)));
+            NEW_VM = generic(lookup.findConstructor(bytecodeVm, MethodType.methodType(void.class, bytecode)));
+            RUN_VM = generic(lookup.findVirtual(bytecodeVm, "run",
+                    MethodType.methodType(void.class, Reader.class, Writer.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Compiler() {
+    }
+
+    /**
+     * Erase compiler class types to Object so the handles can be invoked from here
+     */
+    private static MethodHandle generic(MethodHandle h) {
+        MethodType type = h.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i).getPackageName().isEmpty())
+                type = type.changeParameterType(i, Object.class);
+        }
+        if (type.returnType().getPackageName().isEmpty() && !type.returnType().isPrimitive())
+            type = type.changeReturnType(Object.class);
+        return h.asType(type);
+    }
+
+    static Object newLexer() throws Throwable {
+        return (Object) NEW_LEXER.invokeExact();
+    }
+
+    static ArrayList<?> scan(Object lexer, CharSequence program) throws Throwable {
+        return (ArrayList<?>) SCAN.invokeExact(lexer, program);
+    }
+
+    static ArrayList<?> screen(Object lexer, ArrayList<?> tokens) throws Throwable {
+        return (ArrayList<?>) SCREEN.invokeExact(lexer, (ArrayList) tokens);
+    }
+
+    static Object tokenize(Object lexer, CharSequence program) throws Throwable {
+        return (Object) TOKENIZE.invokeExact(lexer, program);
+    }
+
+    static Object scanTokens(Object lexer, CharSequence program) throws Throwable {
+        return (Object) SCAN_TOKENS.invokeExact(lexer, program);
+    }
+
+    static CharSequence sourceText(String program) throws Throwable {
+        return (CharSequence) (Object) NEW_SOURCE_TEXT.invokeExact(program.toCharArray(), program.length());
+    }
+
+    static Object incrementalLexer(Object lexer) throws Throwable {
+        return (Object) NEW_INCREMENTAL_LEXER.invokeExact(lexer);
+    }
+
+    static Object relex(Object incrementalLexer, Object tokenBuffer, int offset, int removed, CharSequence inserted)
+            throws Throwable {
+        return (Object) RELEX.invokeExact(incrementalLexer, tokenBuffer, offset, removed, inserted);
+    }
+
+    static int size(Object tokenBuffer) throws Throwable {
+        return (int) BUFFER_SIZE.invokeExact(tokenBuffer);
+    }
+
+    static Object stream(Object tokenBuffer) throws Throwable {
+        return (Object) BUFFER_STREAM.invokeExact(tokenBuffer);
+    }
+
+    static Object lexerStream(CharSequence program) throws Throwable {
+        return (Object) NEW_LEXER_STREAM.invokeExact(program);
+    }
+
+    static Object newParser(Object tokenStream) throws Throwable {
+        return (Object) NEW_PARSER.invokeExact(tokenStream);
+    }
+
+    static int parse(Object parser) throws Throwable {
+        return (int) PARSE.invokeExact(parser);
+    }
+
+    static Object diagnostics(int limit) throws Throwable {
+        return (Object) NEW_DIAGNOSTICS.invokeExact(limit);
+    }
+
+    static Object parse(Object parser, Object diagnostics) throws Throwable {
+        return (Object) PARSE_DIAGNOSTICS.invokeExact(parser, diagnostics);
+    }
+
+    static void writeAST(Object parser, Writer out) throws Throwable {
+        WRITE_AST.invokeExact(parser, out);
+    }
+
+    static Object tree(Object parser) throws Throwable {
+        return (Object) TREE.invokeExact(parser);
+    }
+
+    static int nodes(Object arena) throws Throwable {
+        return (int) ARENA_SIZE.invokeExact(arena);
+    }
+
+    static Object toASTNode(Object arena, int node) throws Throwable {
+        return (Object) TO_AST_NODE.invokeExact(arena, node);
+    }
+
+    static String traverse(Object astNode) throws Throwable {
+        return (String) TRAVERSE.invokeExact(astNode, 0);
+    }
+
+    static void writeTree(Object arena, int root, Writer out) throws Throwable {
+        Object writer = (Object) NEW_AST_WRITER.invokeExact(out);
+        WRITE_TREE.invokeExact(writer, arena, root);
+    }
+
+    static boolean analyze(Object arena, int root, Object diagnostics) throws Throwable {
+        return analyzer(arena, root, diagnostics) != null;
+    }
+
+    /**
+     * @return the SemanticAnalyzer after analyzing, null if it found problems
+     */
+    static Object analyzer(Object arena, int root, Object diagnostics) throws Throwable {
+        Object analyzer = (Object) NEW_SEMANTIC_ANALYZER.invokeExact(arena, diagnostics);
+        return (boolean) ANALYZE.invokeExact(analyzer, root) ? analyzer : null;
+    }
+
+    static Object interpreter(Object arena, int root, Object analyzer) throws Throwable {
+        return (Object) NEW_INTERPRETER.invokeExact(arena, root, analyzer);
+    }
+
+    static void interpret(Object interpreter, Reader in, Writer out) throws Throwable {
+        INTERPRET.invokeExact(interpreter, in, out);
+    }
+
+    static Object astInterpreter(Object arena, int root) throws Throwable {
+        return (Object) NEW_AST_INTERPRETER.invokeExact(arena, root);
+    }
+
+    static void walk(Object astInterpreter, Reader in, Writer out) throws Throwable {
+        WALK.invokeExact(astInterpreter, in, out);
+    }
+
+    static Object jvmCompiler(Object arena, int root, Object analyzer) throws Throwable {
+        return (Object) NEW_JVM_COMPILER.invokeExact(arena, root, analyzer);
+    }
+
+    static void runJvm(Object jvmCompiler, Reader in, Writer out) throws Throwable {
+        RUN_JVM.invokeExact(jvmCompiler, in, out);
+    }
+
+    static Object bytecode(Object arena, int root, Object analyzer) throws Throwable {
+        return (Object) BYTECODE.invokeExact((Object) NEW_BYTECODE_COMPILER.invokeExact(arena, root, analyzer));
+    }
+
+    static Object vm(Object bytecode) throws Throwable {
+        return (Object) NEW_VM.invokeExact(bytecode);
+    }
+
+    static void runVm(Object vm, Reader in, Writer out) throws Throwable {
+        RUN_VM.invokeExact(vm, in, out);
+    }
+}
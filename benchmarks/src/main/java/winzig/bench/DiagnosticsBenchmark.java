@@ -0,0 +1,74 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking a deeply nested program with the error, if any, in its innermost statement, where the parser stack is
+ * deepest. Compares stopping at the first problem, collecting all of them, and the throwing parse()
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiagnosticsBenchmark {
+    @Param({"8", "64"})
+    public int depth;
+
+    @Param({"valid", "syntaxError", "lexicalError"})
+    public String program;
+
+    private CharSequence text;
+
+    @Setup
+    public void setup() throws Throwable {
+        String source = new ProgramGenerator(42).generateNested(depth);
+        int innermost = source.lastIndexOf("g0 := g0 + 1");
+        switch (program) {
+            case "syntaxError":
+                source = source.substring(0, innermost) + "g0 := )" + source.substring(innermost + 12);
+                break;
+            case "lexicalError":
+                source = source.substring(0, innermost) + "g0 := g0 @ 1" + source.substring(innermost + 12);
+                break;
+            default:
+                break;
+        }
+        text = Compiler.sourceText(source);
+    }
+
+    @Benchmark
+    public Object firstProblem() throws Throwable {
+        Object parser = Compiler.newParser(Compiler.stream(Compiler.tokenize(Compiler.newLexer(), text)));
+        return Compiler.parse(parser, Compiler.diagnostics(1));
+    }
+
+    @Benchmark
+    public Object allProblems() throws Throwable {
+        Object parser = Compiler.newParser(Compiler.stream(Compiler.tokenize(Compiler.newLexer(), text)));
+        return Compiler.parse(parser, Compiler.diagnostics(Integer.MAX_VALUE));
+    }
+
+    @Benchmark
+    public Object throwing() throws Throwable {
+        Object parser = Compiler.newParser(Compiler.stream(Compiler.tokenize(Compiler.newLexer(), text)));
+        try {
+            return Compiler.parse(parser);
+        } catch (Exception e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing with precedence climbing against the original recursive Expression, Term, Factor, Primary chain, which
+ * recursiveChain runs from a Baseline build from before precedence climbing.
+ * "generated" is an ordinary generated program, "chains" assigns long mixed operator chains and "prefixes" long
+ * runs of unary operators
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+    private static final String[] OPERATORS = {" + ", " * ", " - ", " mod ", " or ", " and ", " / "};
+
+    @Param({"generated", "chains", "prefixes"})
+    public String input;
+
+    private Object tokenBuffer;
+    private Object baselineTokenBuffer;
+
+    @Setup
+    public void setup(BenchmarkParams params) throws Throwable {
+        String text;
+        switch (input) {
+            case "chains":
+                text = program(100, 1000, "");
+                break;
+            case "prefixes":
+                text = program(100, 500, "- ");
+                break;
+            default:
+                text = new ProgramGenerator(42).generate(256 * 1024);
+        }
+        if (params.getBenchmark().endsWith("recursiveChain"))
+            baselineTokenBuffer = Baseline.tokenize(text);
+        else
+            tokenBuffer = Compiler.tokenize(Compiler.newLexer(), Compiler.sourceText(text));
+    }
+
+    /**
+     * Statements assigning chains of length operators, each operand with the prefix in front
+     */
+    private static String program(int statements, int length, String prefix) {
+        StringBuilder out = new StringBuilder("program chains:\nvar a, b : integer;\nbegin\n");
+        for (int s = 0; s < statements; s++) {
+            out.append("    a := ");
+            if (prefix.isEmpty()) {
+                out.append("b");
+                for (int i = 0; i < length; i++)
+                    out.append(OPERATORS[(s + i) % OPERATORS.length]).append(i % 2 == 0 ? "a" : "b");
+            } else {
+                out.append(prefix.repeat(length)).append("b");
+            }
+            out.append(";\n");
+        }
+        out.append("    output(a)\nend chains.\n");
+        return out.toString();
+    }
+
+    @Benchmark
+    public int precedenceClimbing() throws Throwable {
+        return Compiler.parse(Compiler.newParser(Compiler.stream(tokenBuffer)));
+    }
+
+    @Benchmark
+    public int recursiveChain() throws Throwable {
+        return Baseline.parse(Baseline.newParser(baselineTokenBuffer));
+    }
+}
@@ -0,0 +1,68 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single char edits in the middle of a generated program: incremental re-lexing against a full rescan.
+ * Every invocation inserts a char and the next one removes it again, so the text stays the same size
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalLexBenchmark {
+    @Param({"1024"})
+    public int sizeKb;
+
+    /**
+     * 'x' extends an identifier, ' ' splits it in two
+     */
+    @Param({"x", " "})
+    public String inserted;
+
+    private CharSequence program;
+    private Object lexer;
+    private Object incremental;
+    private Object tokens;
+    private int offset;
+    private boolean insert = true;
+
+    @Setup
+    public void setup() throws Throwable {
+        String text = new ProgramGenerator(42).generate(sizeKb * 1024);
+        //Edit right after an identifier in the middle of the text
+        offset = text.indexOf(" g", text.length() / 2) + 2;
+        program = Compiler.sourceText(text);
+        lexer = Compiler.newLexer();
+        incremental = Compiler.incrementalLexer(lexer);
+        tokens = Compiler.scanTokens(lexer, program);
+    }
+
+    @Benchmark
+    public Object relex() throws Throwable {
+        tokens = insert
+                ? Compiler.relex(incremental, tokens, offset, 0, inserted)
+                : Compiler.relex(incremental, tokens, offset, 1, "");
+        insert = !insert;
+        return tokens;
+    }
+
+    @Benchmark
+    public Object fullRescan() throws Throwable {
+        return Compiler.scanTokens(Compiler.newLexer(), program);
+    }
+}
@@ -0,0 +1,30 @@
+package winzig.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Benchmark inputs. 'winzig_NN' names a program in the test program folder (system property winzig.programs,
+ * default winzig_test_programs), 'scaled_N' a generated program of about N KB
+ */
+final class Inputs {
+    private Inputs() {
+    }
+
+    static String load(String name) throws IOException {
+        if (name.startsWith("scaled_"))
+            return scaled(Integer.parseInt(name.substring("scaled_".length())) * 1024);
+
+        Path dir = Paths.get(System.getProperty("winzig.programs", "winzig_test_programs"));
+        return new String(Files.readAllBytes(dir.resolve(name)));
+    }
+
+    /**
+     * A generated program of roughly the given size, always the same for a given size
+     */
+    static String scaled(int bytes) {
+        return new ProgramGenerator(42).generate(bytes);
+    }
+}
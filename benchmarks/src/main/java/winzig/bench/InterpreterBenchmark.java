@@ -0,0 +1,99 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running test programs on inputs that keep them busy, compiled to closures (Interpreter) against walking the AST
+ * (AstInterpreter) and against compiled to Bytecode for the BytecodeVM: winzig_01 loops over the factors of large
+ * numbers, winzig_09 recurses through the Ackermann function and winzig_13 dispatches through nested cases for 1000
+ * numbers. All run the same parsed and analyzed tree, so closures/walk is the speedup of compiling to closures and
+ * vm/closures that of the register machine; compile and compileBytecode time the compilations themselves
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"winzig_01", "winzig_09", "winzig_13"})
+    public String program;
+
+    private String input;
+    private Object tree;
+    private int root;
+    private Object analyzer;
+    private Object interpreter;
+    private Object astInterpreter;
+    private Object vm;
+    private final NullWriter out = new NullWriter();
+
+    @Setup
+    public void setup() throws Throwable {
+        Object parser = Compiler.newParser(Compiler.stream(Compiler.tokenize(Compiler.newLexer(), Inputs.load(program))));
+        root = Compiler.parse(parser);
+        tree = Compiler.tree(parser);
+        analyzer = Compiler.analyzer(tree, root, Compiler.diagnostics(1));
+        if (analyzer == null)
+            throw new IllegalStateException(program + " has semantic errors");
+        interpreter = Compiler.interpreter(tree, root, analyzer);
+        astInterpreter = Compiler.astInterpreter(tree, root);
+        vm = Compiler.vm(Compiler.bytecode(tree, root, analyzer));
+        input = input(program);
+    }
+
+    private static String input(String program) {
+        switch (program) {
+            case "winzig_01":
+                return "50000 65536 99991 100000 0";
+            case "winzig_09":
+                return "2 3 3 5";
+            default:
+                StringBuilder numbers = new StringBuilder();
+                for (int n = 0; n < 1000; n++)
+                    numbers.append(n).append(' ');
+                return numbers.toString();
+        }
+    }
+
+    @Benchmark
+    public long closures() throws Throwable {
+        Compiler.interpret(interpreter, new StringReader(input), out);
+        return out.chars;
+    }
+
+    @Benchmark
+    public long walk() throws Throwable {
+        Compiler.walk(astInterpreter, new StringReader(input), out);
+        return out.chars;
+    }
+
+    @Benchmark
+    public long vm() throws Throwable {
+        Compiler.runVm(vm, new StringReader(input), out);
+        return out.chars;
+    }
+
+    @Benchmark
+    public Object compile() throws Throwable {
+        return Compiler.interpreter(tree, root, analyzer);
+    }
+
+    @Benchmark
+    public Object compileBytecode() throws Throwable {
+        return Compiler.bytecode(tree, root, analyzer);
+    }
+}
@@ -0,0 +1,80 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * winzig_01 printing the factors of ten numbers from n, compiled to a JVM class (JvmCompiler) against compiled to
+ * closures (Interpreter). Its inner loop runs about 10n times, so at large n jvm/closures is the speedup of code
+ * the JIT compiles like Java on a loop-heavy program; compile times building the class file, and runFirst also
+ * loads it, as -run -jvm does for each program
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JvmBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int n;
+
+    private String input;
+    private Object tree;
+    private int root;
+    private Object analyzer;
+    private Object interpreter;
+    private Object jvmCompiler;
+    private final NullWriter out = new NullWriter();
+
+    @Setup
+    public void setup() throws Throwable {
+        Object parser = Compiler.newParser(Compiler.stream(Compiler.tokenize(Compiler.newLexer(), Inputs.load("winzig_01"))));
+        root = Compiler.parse(parser);
+        tree = Compiler.tree(parser);
+        analyzer = Compiler.analyzer(tree, root, Compiler.diagnostics(1));
+        if (analyzer == null)
+            throw new IllegalStateException("winzig_01 has semantic errors");
+        interpreter = Compiler.interpreter(tree, root, analyzer);
+        jvmCompiler = Compiler.jvmCompiler(tree, root, analyzer);
+        StringBuilder numbers = new StringBuilder();
+        for (int i = 0; i < 10; i++)
+            numbers.append(n + i).append(' ');
+        input = numbers.append(0).toString();
+    }
+
+    @Benchmark
+    public long jvm() throws Throwable {
+        Compiler.runJvm(jvmCompiler, new StringReader(input), out);
+        return out.chars;
+    }
+
+    @Benchmark
+    public long closures() throws Throwable {
+        Compiler.interpret(interpreter, new StringReader(input), out);
+        return out.chars;
+    }
+
+    @Benchmark
+    public Object compile() throws Throwable {
+        return Compiler.jvmCompiler(tree, root, analyzer);
+    }
+
+    @Benchmark
+    public long runFirst() throws Throwable {
+        Compiler.runJvm(Compiler.jvmCompiler(tree, root, analyzer), new StringReader(input), out);
+        return out.chars;
+    }
+}
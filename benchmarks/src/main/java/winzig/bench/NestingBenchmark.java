@@ -0,0 +1,53 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and walking programs nested thousands of levels deep, on the default thread stack. The parser and the
+ * tree walks keep their nesting on the heap, so the time per level should stay flat as the depth grows
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestingBenchmark {
+    @Param({"64", "1024", "8192"})
+    public int depth;
+
+    private CharSequence text;
+    private Object tree;
+    private int root;
+
+    @Setup
+    public void setup() throws Throwable {
+        text = Compiler.sourceText(new ProgramGenerator(42).generateNested(depth));
+        Object parser = Compiler.newParser(Compiler.stream(Compiler.tokenize(Compiler.newLexer(), text)));
+        root = Compiler.parse(parser);
+        tree = Compiler.tree(parser);
+    }
+
+    @Benchmark
+    public int parse() throws Throwable {
+        Object parser = Compiler.newParser(Compiler.stream(Compiler.tokenize(Compiler.newLexer(), text)));
+        return Compiler.parse(parser);
+    }
+
+    @Benchmark
+    public Object toASTNode() throws Throwable {
+        return Compiler.toASTNode(tree, root);
+    }
+}
@@ -0,0 +1,33 @@
+package winzig.bench;
+
+import java.io.Writer;
+
+/**
+ * Writer that only counts characters, so output benchmarks measure the emitter and not the disk
+ */
+final class NullWriter extends Writer {
+    long chars;
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        chars += len;
+    }
+
+    @Override
+    public void write(String str) {
+        chars += str.length();
+    }
+
+    @Override
+    public void write(int c) {
+        chars++;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,127 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every compiler phase on its own and end to end.
+ * Besides ops/s each benchmark reports bytes and tokens as rates (bytes/s, tokens/s); run with -prof gc for the
+ * allocation rate
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark {
+    @Param({"winzig_01", "winzig_02", "winzig_03", "winzig_04", "winzig_05", "winzig_06", "winzig_07", "winzig_08",
+            "winzig_09", "winzig_10", "winzig_11", "winzig_12", "winzig_13", "winzig_14", "winzig_15",
+            "scaled_64", "scaled_1024", "scaled_16384"})
+    public String input;
+
+    private String program;
+    private int rawTokens;
+    private int tokens;
+    private ArrayList<?> scanned;
+    private Object tokenBuffer;
+    private Object tree;
+    private int root;
+    private Object astNode;
+
+    /**
+     * Work done per operation, reported by JMH as rates
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            tokens = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        program = Inputs.load(input);
+        Object lexer = Compiler.newLexer();
+        scanned = Compiler.scan(lexer, program);
+        rawTokens = scanned.size();
+        tokenBuffer = Compiler.tokenize(lexer, program);
+        tokens = Compiler.size(tokenBuffer);
+
+        Object parser = Compiler.newParser(Compiler.stream(tokenBuffer));
+        root = Compiler.parse(parser);
+        tree = Compiler.tree(parser);
+        astNode = Compiler.toASTNode(tree, root);
+    }
+
+    @Benchmark
+    public Object scan(Throughput t) throws Throwable {
+        count(t, rawTokens);
+        return Compiler.scan(Compiler.newLexer(), program);
+    }
+
+    @Benchmark
+    public Object screen(Throughput t) throws Throwable {
+        count(t, rawTokens);
+        return Compiler.screen(Compiler.newLexer(), scanned);
+    }
+
+    @Benchmark
+    public Object tokenize(Throughput t) throws Throwable {
+        count(t, tokens);
+        return Compiler.tokenize(Compiler.newLexer(), program);
+    }
+
+    @Benchmark
+    public int parse(Throughput t) throws Throwable {
+        count(t, tokens);
+        return Compiler.parse(Compiler.newParser(Compiler.stream(tokenBuffer)));
+    }
+
+    @Benchmark
+    public String traverse(Throughput t) throws Throwable {
+        count(t, tokens);
+        return Compiler.traverse(astNode);
+    }
+
+    @Benchmark
+    public long writeAst(Throughput t) throws Throwable {
+        count(t, tokens);
+        NullWriter out = new NullWriter();
+        Compiler.writeTree(tree, root, out);
+        return out.chars;
+    }
+
+    @Benchmark
+    public long endToEnd(Throughput t) throws Throwable {
+        count(t, tokens);
+        NullWriter out = new NullWriter();
+        Compiler.writeAST(Compiler.newParser(Compiler.lexerStream(program)), out);
+        return out.chars;
+    }
+
+    private void count(Throughput t, int tokenCount) {
+        t.bytes += program.length();
+        t.tokens += tokenCount;
+    }
+}
@@ -0,0 +1,425 @@
+package winzig.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Seeded generator of valid Winzig programs following the productions documented in Parser:
+ * Consts, Types, Dclns, SubProgs of Fcn with Params, nested if/while/for/repeat/loop/case statements and
+ * arbitrarily deep expressions. Programs are also declaration and type consistent: every name is declared,
+ * integer and boolean expressions are kept apart and functions are called with the right number of arguments.
+ * The same seed and limits always produce the same program
+ */
+public class ProgramGenerator {
+    private static final String[] RELATIONS = {"<", "<=", ">", ">=", "=", "<>"};
+
+    private final Random random;
+    private final int maxDepth;
+    private final int maxExpressionDepth;
+    private StringBuilder out;
+
+    //Arity of every function generated so far, function i is named f<i>
+    private int[] arities = new int[16];
+    private int functions;
+    //Integer variables in scope: globals g0..g<GLOBALS-1>, and inside a function p0.. and l0..
+    private static final int GLOBALS = 6;
+    private static final int LOCALS = 3;
+    private int params = -1;
+
+    /**
+     * @param seed random seed
+     * @param maxDepth deepest statement nesting
+     * @param maxExpressionDepth deepest expression nesting
+     */
+    public ProgramGenerator(long seed, int maxDepth, int maxExpressionDepth) {
+        this.random = new Random(seed);
+        this.maxDepth = maxDepth;
+        this.maxExpressionDepth = maxExpressionDepth;
+    }
+
+    public ProgramGenerator(long seed) {
+        this(seed, 6, 3);
+    }
+
+    /**
+     * A program of at least targetBytes characters, grown by adding functions
+     */
+    public String generate(int targetBytes) {
+        out = new StringBuilder(targetBytes + 4096);
+        functions = 0;
+        header();
+        while (out.length() < targetBytes)
+            function();
+        mainBody(4);
+        return out.toString();
+    }
+
+    /**
+     * A small program whose main body nests statements exactly depth levels deep,
+     * cycling through if, while, for, repeat, loop, case and begin
+     */
+    public String generateNested(int depth) {
+        out = new StringBuilder(depth * 64 + 512);
+        functions = 0;
+        header();
+        out.append("begin\n");
+        for (int d = 0; d < depth; d++) {
+            switch (d % 7) {
+                case 0: out.append("if g0 < ").append(d).append(" then "); break;
+                case 1: out.append("while g1 > ").append(d).append(" do "); break;
+                case 2: out.append("for (g2 := 0; g2 < ").append(d).append("; g2 := g2 + 1) "); break;
+                case 3: out.append("repeat "); break;
+                case 4: out.append("loop "); break;
+                case 5: out.append("case g3 of ").append(d).append(": "); break;
+                default: out.append("begin "); break;
+            }
+        }
+        out.append("g0 := g0 + 1");
+        for (int d = depth - 1; d >= 0; d--) {
+            switch (d % 7) {
+                case 3: out.append(" until g4 = ").append(d); break;
+                case 4: out.append("; exit pool"); break;
+                case 5: out.append("; end"); break;
+                case 6: out.append(" end"); break;
+                default: break;
+            }
+        }
+        out.append("\nend generated.\n");
+        return out.toString();
+    }
+
+    private void header() {
+        out.append("{ Generated Winzig program }\nprogram generated:\n");
+        out.append("const c0 = 7, c1 = 42, k0 = 'a';\n");
+        out.append("type Color = (red, green, blue);\n");
+        out.append("var\n    g0, g1, g2 : integer;\n    g3, g4, g5 : integer;\n    e0 : Color;\n    b0 : boolean;\n\n");
+    }
+
+    private void function() {
+        int arity = 1 + random.nextInt(3);
+        String name = "f" + functions;
+
+        out.append("function ").append(name).append(" ( ");
+        for (int i = 0; i < arity; i++) {
+            if (i > 0)
+                out.append("; ");
+            out.append('p').append(i).append(" : integer");
+        }
+        out.append(" ) : integer;\n");
+        if (random.nextInt(4) == 0)
+            out.append("const m").append(functions).append(" = ").append(random.nextInt(100)).append(";\n");
+        out.append("var\n    l0, l1, l2 : integer;\n");
+
+        params = arity;
+        out.append("begin\n");
+        int statements = 2 + random.nextInt(6);
+        for (int i = 0; i < statements; i++) {
+            indent(1);
+            statement(1);
+            out.append(";\n");
+        }
+        indent(1);
+        out.append("return (");
+        intExpression(0);
+        out.append(")\nend ").append(name).append(";\n\n");
+        params = -1;
+
+        if (functions == arities.length)
+            arities = Arrays.copyOf(arities, functions * 2);
+        arities[functions++] = arity;
+    }
+
+    private void mainBody(int statements) {
+        out.append("begin\n");
+        for (int i = 0; i < statements; i++) {
+            indent(1);
+            statement(1);
+            out.append(";\n");
+        }
+        indent(1);
+        out.append("output (\"done\", g0)\nend generated.\n");
+    }
+
+    private void statement(int depth) {
+        int kinds = depth >= maxDepth ? 5 : 13;
+        switch (random.nextInt(kinds)) {
+            case 0:
+            case 1:
+                variable();
+                out.append(" := ");
+                intExpression(0);
+                break;
+
+            case 2:
+                out.append("output (");
+                intExpression(0);
+                out.append(", ");
+                intExpression(0);
+                out.append(')');
+                break;
+
+            case 3:
+                out.append("read (");
+                variable();
+                out.append(')');
+                break;
+
+            case 4:
+                if (random.nextBoolean()) {
+                    variable();
+                    out.append(" :=: ");
+                    variable();
+                } else {
+                    out.append("e0 := ").append(random.nextBoolean() ? "succ(e0)" : "green");
+                }
+                break;
+
+            case 5:
+                out.append("if ");
+                condition(0);
+                out.append(" then\n");
+                nested(depth);
+                if (random.nextBoolean()) {
+                    out.append('\n');
+                    indent(depth);
+                    out.append("else\n");
+                    nested(depth);
+                }
+                break;
+
+            case 6:
+                out.append("while ");
+                condition(0);
+                out.append(" do\n");
+                nested(depth);
+                break;
+
+            case 7:
+                out.append("repeat\n");
+                statementList(depth + 1);
+                out.append('\n');
+                indent(depth);
+                out.append("until ");
+                condition(0);
+                break;
+
+            case 8:
+                String counter = variableName();
+                out.append("for (").append(counter).append(" := 0; ");
+                out.append(counter).append(" < ").append(1 + random.nextInt(100)).append("; ");
+                out.append(counter).append(" := ").append(counter).append(" + 1)\n");
+                nested(depth);
+                break;
+
+            case 9:
+                out.append("loop\n");
+                statementList(depth + 1);
+                out.append(";\n");
+                indent(depth + 1);
+                out.append("if ");
+                condition(0);
+                out.append(" then exit\n");
+                indent(depth);
+                out.append("pool");
+                break;
+
+            case 10:
+                out.append("case ");
+                intExpression(0);
+                out.append(" of\n");
+                int clauses = 1 + random.nextInt(4);
+                for (int i = 0; i < clauses; i++) {
+                    indent(depth + 1);
+                    out.append(i * 10);
+                    if (random.nextBoolean())
+                        out.append("..").append(i * 10 + 5);
+                    if (random.nextBoolean())
+                        out.append(", c").append(random.nextInt(2));
+                    out.append(":\n");
+                    nested(depth + 1);
+                    out.append(";\n");
+                }
+                if (random.nextBoolean()) {
+                    indent(depth + 1);
+                    out.append("otherwise\n");
+                    nested(depth + 1);
+                    out.append('\n');
+                }
+                indent(depth);
+                out.append("end");
+                break;
+
+            case 11:
+                out.append("begin\n");
+                statementList(depth + 1);
+                out.append('\n');
+                indent(depth);
+                out.append("end");
+                break;
+
+            default:
+                out.append("b0 := ");
+                condition(0);
+                break;
+        }
+    }
+
+    private void nested(int depth) {
+        indent(depth + 1);
+        statement(depth + 1);
+    }
+
+    private void statementList(int depth) {
+        int statements = 1 + random.nextInt(3);
+        for (int i = 0; i < statements; i++) {
+            if (i > 0)
+                out.append(";\n");
+            indent(depth);
+            statement(depth);
+        }
+    }
+
+    /**
+     * Boolean valued Expression
+     */
+    private void condition(int depth) {
+        int choice = depth >= maxExpressionDepth ? 0 : random.nextInt(4);
+        switch (choice) {
+            case 0:
+            case 1:
+                intExpression(depth + 1);
+                out.append(' ').append(RELATIONS[random.nextInt(RELATIONS.length)]).append(' ');
+                intExpression(depth + 1);
+                break;
+
+            case 2:
+                out.append('(');
+                condition(depth + 1);
+                out.append(random.nextBoolean() ? ") and (" : ") or (");
+                condition(depth + 1);
+                out.append(')');
+                break;
+
+            default:
+                out.append("not (");
+                condition(depth + 1);
+                out.append(')');
+                break;
+        }
+    }
+
+    /**
+     * Integer valued Term: Factor list of '+' or '-'
+     */
+    private void intExpression(int depth) {
+        int factors = depth >= maxExpressionDepth ? 1 : 1 + random.nextInt(2);
+        for (int i = 0; i < factors; i++) {
+            if (i > 0)
+                out.append(random.nextBoolean() ? " + " : " - ");
+            factor(depth);
+        }
+    }
+
+    /**
+     * Factor: Primary list of '*', '/' or 'mod'
+     */
+    private void factor(int depth) {
+        int primaries = depth >= maxExpressionDepth ? 1 : 1 + random.nextInt(2);
+        for (int i = 0; i < primaries; i++) {
+            if (i > 0) {
+                int op = random.nextInt(3);
+                out.append(op == 0 ? " * " : op == 1 ? " / " : " mod ");
+            }
+            primary(depth);
+        }
+    }
+
+    private void primary(int depth) {
+        int choice = depth >= maxExpressionDepth ? random.nextInt(3) : random.nextInt(9);
+        switch (choice) {
+            case 0:
+                variable();
+                break;
+
+            case 1:
+                out.append(random.nextInt(1000));
+                break;
+
+            case 2:
+                out.append('c').append(random.nextInt(2));
+                break;
+
+            case 3:
+                out.append('(');
+                intExpression(depth + 1);
+                out.append(')');
+                break;
+
+            case 4:
+                out.append('-');
+                primary(depth + 1);
+                break;
+
+            case 5:
+                out.append(random.nextBoolean() ? "succ(" : "pred(");
+                intExpression(depth + 1);
+                out.append(')');
+                break;
+
+            case 6:
+                out.append(random.nextBoolean() ? "ord(k0)" : "ord(e0)");
+                break;
+
+            default:
+                if (functions == 0) {
+                    variable();
+                    break;
+                }
+                int f = random.nextInt(functions);
+                out.append('f').append(f).append('(');
+                for (int i = 0; i < arities[f]; i++) {
+                    if (i > 0)
+                        out.append(", ");
+                    intExpression(depth + 2);
+                }
+                out.append(')');
+                break;
+        }
+    }
+
+    private void variable() {
+        out.append(variableName());
+    }
+
+    private String variableName() {
+        if (params < 0)
+            return "g" + random.nextInt(GLOBALS);
+
+        int choice = random.nextInt(params + LOCALS + GLOBALS);
+        if (choice < params)
+            return "p" + choice;
+        if (choice < params + LOCALS)
+            return "l" + (choice - params);
+        return "g" + (choice - params - LOCALS);
+    }
+
+    private void indent(int depth) {
+        for (int i = 0; i < depth; i++)
+            out.append("    ");
+    }
+
+    /**
+     * ProgramGenerator <seed> <size in KB> [max nesting depth] prints a generated program,
+     * ProgramGenerator <seed> -nested <depth> prints a program nested depth levels deep
+     */
+    public static void main(String[] args) {
+        long seed = Long.parseLong(args[0]);
+        if (args[1].equals("-nested")) {
+            System.out.print(new ProgramGenerator(seed).generateNested(Integer.parseInt(args[2])));
+            return;
+        }
+
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+        System.out.print(new ProgramGenerator(seed, depth, 3).generate(Integer.parseInt(args[1]) * 1024));
+    }
+}
@@ -0,0 +1,44 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end compile time of generated programs from 1 KB to 100 MB. Time per KB should stay flat if the
+ * pipeline scales linearly; run with -prof gc to see allocation per size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ScalingBenchmark {
+    @Param({"1", "10", "100", "1000", "10000", "100000"})
+    public int sizeKb;
+
+    private String program;
+
+    @Setup
+    public void setup() {
+        program = new ProgramGenerator(42).generate(sizeKb * 1024);
+    }
+
+    @Benchmark
+    public long compile() throws Throwable {
+        NullWriter out = new NullWriter();
+        Compiler.writeAST(Compiler.newParser(Compiler.lexerStream(program)), out);
+        return out.chars;
+    }
+}
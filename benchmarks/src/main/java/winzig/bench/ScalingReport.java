@@ -0,0 +1,73 @@
+package winzig.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Prints CSV of compile time and heap against input size for generated programs, ready for plotting.
+ * ScalingReport [size in KB]... (default 1 10 100 1000 10000 100000); give the JVM a large -Xmx for the big sizes
+ */
+public class ScalingReport {
+    public static void main(String[] args) throws Throwable {
+        int[] sizes = {1, 10, 100, 1000, 10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        //Warm the pipeline up so the small sizes are not measured in the interpreter
+        String warmup = new ProgramGenerator(7).generate(256 * 1024);
+        for (int i = 0; i < 20; i++)
+            compile(warmup);
+
+        System.out.println("bytes,ast_nodes,compile_ms,mb_per_s,peak_heap_mb,retained_heap_mb");
+        for (int size: sizes) {
+            String program = new ProgramGenerator(42).generate(size * 1024);
+            long base = usedHeap();
+            resetPeaks();
+
+            long start = System.nanoTime();
+            Object parser = Compiler.newParser(Compiler.lexerStream(program));
+            Compiler.writeAST(parser, new NullWriter());
+            long nanos = System.nanoTime() - start;
+
+            long peak = peakHeap() - base;
+            long retained = usedHeap() - base;
+            int nodes = Compiler.nodes(Compiler.tree(parser));
+            System.out.println(String.format("%d,%d,%.3f,%.1f,%.1f,%.1f",
+                    program.length(), nodes, nanos / 1e6, program.length() / (nanos / 1e3),
+                    peak / 1e6, retained / 1e6));
+        }
+    }
+
+    private static void compile(String program) throws Throwable {
+        Compiler.writeAST(Compiler.newParser(Compiler.lexerStream(program)), new NullWriter());
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    private static void resetPeaks() {
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,56 @@
+package winzig.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The semantic pass against the parse it follows, on generated programs, which are declaration and type
+ * consistent. Both start from screened tokens and a parsed tree respectively, so analyze/parse is the cost of the
+ * pass as a fraction of parsing
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SemanticBenchmark {
+    @Param({"64", "1024"})
+    public int sizeKb;
+
+    private Object tokens;
+    private Object tree;
+    private int root;
+
+    @Setup
+    public void setup() throws Throwable {
+        CharSequence text = Compiler.sourceText(new ProgramGenerator(42).generate(sizeKb * 1024));
+        tokens = Compiler.tokenize(Compiler.newLexer(), text);
+        Object parser = Compiler.newParser(Compiler.stream(tokens));
+        root = Compiler.parse(parser);
+        tree = Compiler.tree(parser);
+        if (!Compiler.analyze(tree, root, Compiler.diagnostics(1)))
+            throw new IllegalStateException("Generated program has semantic errors");
+    }
+
+    @Benchmark
+    public int parse() throws Throwable {
+        return Compiler.parse(Compiler.newParser(Compiler.stream(tokens)));
+    }
+
+    @Benchmark
+    public boolean analyze() throws Throwable {
+        return Compiler.analyze(tree, root, Compiler.diagnostics(1));
+    }
+}
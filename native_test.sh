@@ -0,0 +1,44 @@
+#!/bin/sh
+#Compile each test program to a native executable with winzigc -native, run it on an input, and compare its
+#output, errors and exit code with an interpreter run. Needs mvn package done first, and as and ld on x86-64 Linux
+cd "$(dirname "$0")" || exit 1
+JAR=compiler/target/winzig-compiler-1.0-SNAPSHOT.jar
+OUT=$(mktemp -d)
+trap 'rm -rf "$OUT"' EXIT
+
+input() {
+    case $1 in
+        winzig_01) echo "50000 65536 99991 100000 0" ;;
+        winzig_09) echo "2 3 3 5" ;;
+        winzig_13) seq 0 40 ;;
+        *) seq 1 30 | tr '\n' ' '; echo ;;
+    esac
+}
+
+failed=0
+for program in winzig_test_programs/winzig_??; do
+    name=$(basename "$program")
+    if ! java -jar "$JAR" -native "$program" -out "$OUT/$name" 2> "$OUT/build"; then
+        echo "$name: does not compile"
+        cat "$OUT/build"
+        failed=1
+        continue
+    fi
+    executable=$(ls "$OUT/$name" | grep -v '\.s$')
+    input "$name" | java -jar "$JAR" -run "$program" > "$OUT/expected" 2> "$OUT/expected.err"
+    expected=$?
+    input "$name" | "$OUT/$name/$executable" > "$OUT/actual" 2> "$OUT/actual.err"
+    actual=$?
+    if [ $expected -ne $actual ]; then
+        echo "$name: exit code $actual, expected $expected"
+        failed=1
+    elif ! cmp -s "$OUT/expected" "$OUT/actual" || ! cmp -s "$OUT/expected.err" "$OUT/actual.err"; then
+        echo "$name: output differs"
+        diff "$OUT/expected" "$OUT/actual" | head -10
+        diff "$OUT/expected.err" "$OUT/actual.err" | head -10
+        failed=1
+    else
+        echo "$name: ok"
+    fi
+done
+exit $failed
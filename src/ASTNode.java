@@ -1,12 +1,16 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
 
 public class ASTNode {
     public String value;
+    //Interned name id when the node holds an identifier, -1 otherwise
+    public int symbol = -1;
     public ArrayList<ASTNode> children = new ArrayList<ASTNode>();
 
     ASTNode(LexerToken token) {
         value = token.value;
+        symbol = token.symbol;
     }
     ASTNode(String val) {
         value = val;
@@ -20,22 +24,33 @@ public class ASTNode {
         return children.get(n);
     }
 
+    /**
+     * Tree below this node in the '. . name(n)' format, this node being at depth d
+     */
     public String traverse(int d) {
-        String treeStr = "";
-        for (int i = 0; i < d; i++) {
-            System.out.print(". ");
-            treeStr += ". ";
-        }
-        treeStr += this.value;
-        System.out.print(this.value);
-        treeStr += "(" + children.size() + ")"  + "\n";
-        System.out.println("(" + children.size() + ")");
-        for (int j=0; j< children.size(); j++) {
-            getChild(j).traverse(d+1);
+        StringBuilder treeStr = new StringBuilder();
+        ArrayDeque<ASTNode> nodes = new ArrayDeque<ASTNode>();
+        //Depth of each node on the stack, in the same order
+        int[] depths = new int[16];
+        int top = 0;
+        nodes.push(this);
+        depths[top++] = d;
+
+        while (!nodes.isEmpty()) {
+            ASTNode node = nodes.pop();
+            int depth = depths[--top];
+            for (int i = 0; i < depth; i++)
+                treeStr.append(". ");
+            treeStr.append(node.value).append('(').append(node.children.size()).append(")\n");
+
+            for (int j = node.children.size() - 1; j >= 0; j--) {
+                if (top == depths.length)
+                    depths = Arrays.copyOf(depths, top * 2);
+                nodes.push(node.getChild(j));
+                depths[top++] = depth + 1;
+            }
         }
 
-        return treeStr;
+        return treeStr.toString();
     }
-
-
 }
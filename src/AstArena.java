@@ -0,0 +1,308 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Flat AST storage. Node i is described by parallel int arrays: its kind (node name interned in labels),
+ * first child, next sibling, child count and the interned symbol of the identifier it holds (-1 if none).
+ * Nodes are only ever appended, so a whole tree is a handful of arrays instead of an object graph.
+ * Each node also has a source span in screened tokens: its width, and its offset from the first token of its
+ * parent (the root's offset is absolute). Spans relative to the parent stay valid when a subtree is moved, so
+ * the IncrementalParser can hang unchanged subtrees under new parents without touching them
+ */
+public class AstArena {
+    public static final int NONE = -1;
+
+    private NameTable labels = new NameTable();
+    private int[] kind;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] childCount;
+    private int[] symbol;
+    private int[] offset;
+    private int[] width;
+    private int size = 0;
+
+    public AstArena() {
+        this(256);
+    }
+
+    public AstArena(int capacity) {
+        kind = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        childCount = new int[capacity];
+        symbol = new int[capacity];
+        offset = new int[capacity];
+        width = new int[capacity];
+    }
+
+    /**
+     * Append a node without children
+     *
+     * @param label node name, eg. 'program', '<identifier>' or an identifier/literal value
+     * @param sym interned identifier symbol, or NONE
+     * @return node index
+     */
+    public int add(String label, int sym) {
+        if (size == kind.length)
+            grow(size * 2);
+        kind[size] = labels.intern(label);
+        firstChild[size] = NONE;
+        nextSibling[size] = NONE;
+        childCount[size] = 0;
+        symbol[size] = sym;
+        offset[size] = 0;
+        width[size] = 0;
+        return size++;
+    }
+
+    private void grow(int capacity) {
+        kind = Arrays.copyOf(kind, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        childCount = Arrays.copyOf(childCount, capacity);
+        symbol = Arrays.copyOf(symbol, capacity);
+        offset = Arrays.copyOf(offset, capacity);
+        width = Arrays.copyOf(width, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String label(int node) {
+        return labels.name(kind[node]);
+    }
+
+    public int kind(int node) {
+        return kind[node];
+    }
+
+    public int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    public int childCount(int node) {
+        return childCount[node];
+    }
+
+    public int symbol(int node) {
+        return symbol[node];
+    }
+
+    /**
+     * Kind id of a node name, the same id kind() returns for nodes with that name
+     */
+    public int kindOf(String label) {
+        return labels.intern(label);
+    }
+
+    /**
+     * First token of the node relative to the first token of its parent, absolute for a root
+     */
+    public int offset(int node) {
+        return offset[node];
+    }
+
+    /**
+     * Number of tokens the node spans
+     */
+    public int width(int node) {
+        return width[node];
+    }
+
+    public void setFirstChild(int node, int child) {
+        firstChild[node] = child;
+    }
+
+    public void setNextSibling(int node, int sibling) {
+        nextSibling[node] = sibling;
+    }
+
+    public void setChildCount(int node, int count) {
+        childCount[node] = count;
+    }
+
+    public void setSpan(int node, int offset, int width) {
+        this.offset[node] = offset;
+        this.width[node] = width;
+    }
+
+    public void setOffset(int node, int offset) {
+        this.offset[node] = offset;
+    }
+
+    /**
+     * Drop the nodes appended since the arena had size nodes
+     */
+    public void truncate(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Copy the tree rooted at node to the front of the arena, in preorder, and drop every other node.
+     * Node names only dropped nodes had, such as identifiers and literals typed and deleted again, are dropped
+     * too, so kind ids change: ids from kindOf must be looked up again
+     *
+     * @return index of the root after the copy
+     */
+    public int compact(int node) {
+        NameTable oldLabels = labels;
+        labels = new NameTable();
+        //New kind of each old kind, NONE until a node of that kind is copied
+        int[] relabel = new int[oldLabels.size()];
+        Arrays.fill(relabel, NONE);
+        int[] oldKind = kind;
+        int[] oldFirstChild = firstChild;
+        int[] oldNextSibling = nextSibling;
+        int[] oldChildCount = childCount;
+        int[] oldSymbol = symbol;
+        int[] oldOffset = offset;
+        int[] oldWidth = width;
+        int capacity = kind.length;
+        kind = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        childCount = new int[capacity];
+        symbol = new int[capacity];
+        offset = new int[capacity];
+        width = new int[capacity];
+        size = 0;
+
+        //Pairs of old node and the copy it is linked from, as first child (copy) or next sibling (-copy - 1)
+        int[] pending = new int[64];
+        int count = 0;
+        pending[count++] = node;
+        pending[count++] = NONE;
+        int root = NONE;
+        while (count > 0) {
+            int link = pending[--count];
+            int from = pending[--count];
+
+            int copy = size++;
+            if (relabel[oldKind[from]] == NONE)
+                relabel[oldKind[from]] = labels.intern(oldLabels.name(oldKind[from]));
+            kind[copy] = relabel[oldKind[from]];
+            firstChild[copy] = NONE;
+            nextSibling[copy] = NONE;
+            childCount[copy] = oldChildCount[from];
+            symbol[copy] = oldSymbol[from];
+            offset[copy] = oldOffset[from];
+            width[copy] = oldWidth[from];
+            if (root == NONE)
+                root = copy;
+            else if (link >= 0)
+                firstChild[link] = copy;
+            else
+                nextSibling[-link - 1] = copy;
+
+            if (count + 4 > pending.length)
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            //Sibling pushed first so the children are copied before it
+            if (from != node && oldNextSibling[from] != NONE) {
+                pending[count++] = oldNextSibling[from];
+                pending[count++] = -copy - 1;
+            }
+            if (oldFirstChild[from] != NONE) {
+                pending[count++] = oldFirstChild[from];
+                pending[count++] = copy;
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Callbacks of walk
+     */
+    public interface Visitor {
+        /**
+         * Called on a node before its children
+         *
+         * @return false to skip the children, exit is called all the same
+         */
+        boolean enter(int node);
+
+        /**
+         * Called on a node after its children
+         */
+        void exit(int node);
+    }
+
+    /**
+     * Depth first walk of the subtree rooted at node, children in order. Driven by an explicit stack, so the depth
+     * of the tree is not limited by the Java stack
+     */
+    public void walk(int node, Visitor visitor) {
+        //Nodes to enter, and ~node for nodes to exit once the ones above them are done
+        int[] pending = new int[64];
+        int count = 0;
+        pending[count++] = node;
+        while (count > 0) {
+            int next = pending[--count];
+            if (next < 0) {
+                visitor.exit(~next);
+                continue;
+            }
+
+            pending[count++] = ~next;
+            if (!visitor.enter(next))
+                continue;
+            int children = childCount[next];
+            if (count + children > pending.length)
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, count + children));
+            //Pushed last to first so the first child is entered next
+            int i = count + children;
+            for (int child = firstChild[next]; child != NONE; child = nextSibling[child])
+                pending[--i] = child;
+            count += children;
+        }
+    }
+
+    /**
+     * Levels of the subtree rooted at node, 1 for a leaf
+     */
+    public int height(int node) {
+        int[] height = new int[2];
+        walk(node, new Visitor() {
+            public boolean enter(int node) {
+                height[0]++;
+                height[1] = Math.max(height[1], height[0]);
+                return true;
+            }
+
+            public void exit(int node) {
+                height[0]--;
+            }
+        });
+        return height[1];
+    }
+
+    /**
+     * Materialize the subtree rooted at node as ASTNode objects for consumers of the object tree
+     */
+    public ASTNode toASTNode(int node) {
+        ArrayDeque<ASTNode> open = new ArrayDeque<ASTNode>();
+        ASTNode[] root = new ASTNode[1];
+        walk(node, new Visitor() {
+            public boolean enter(int node) {
+                ASTNode n = new ASTNode(label(node));
+                n.symbol = symbol[node];
+                if (open.isEmpty())
+                    root[0] = n;
+                else
+                    open.peek().addChild(n);
+                open.push(n);
+                return true;
+            }
+
+            public void exit(int node) {
+                open.pop();
+            }
+        });
+        return root[0];
+    }
+}
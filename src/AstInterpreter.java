@@ -0,0 +1,361 @@
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs a program by walking its AST directly: every node is dispatched on its label each time it runs, and names
+ * are looked up by their text in maps, the function's first and then the program's. The straightforward way to
+ * run a program, kept as the reference the Interpreter is checked and benchmarked against; it runs programs
+ * with the same semantics, on the Java stack, so it is not meant for deeply nested programs.
+ * The program must have analyzed without errors
+ */
+public class AstInterpreter {
+    //Key of a function's result in its names, not a valid identifier
+    private static final String RESULT = "";
+
+    private final AstArena tree;
+    private final int root;
+    //Levels of the AST, which the walk nests as deep on the Java stack
+    private final int height;
+    //Functions by name
+    private final Map<String, Integer> functions = new HashMap<String, Integer>();
+    //Names of the program, and of the function running, null in the program's body, with the types of their
+    //variables by name
+    private Map<String, Integer> globals;
+    private Map<String, Integer> locals;
+    private Map<String, String> globalTypes;
+    private Map<String, String> localTypes;
+    private ProgramIO io;
+
+    /**
+     * @param tree AST of the program
+     * @param root its program node
+     */
+    public AstInterpreter(AstArena tree, int root) {
+        this.tree = tree;
+        this.root = root;
+        height = tree.height(root);
+    }
+
+    /**
+     * Run the program, from fresh variables each time
+     *
+     * @param in what read reads
+     * @param out where output writes, flushed at the end
+     * @throws Exception on reading past the end of the input, dividing by zero or recursing too deep
+     */
+    public void run(Reader in, Writer out) throws Exception {
+        io = new ProgramIO(in, out);
+        globals = new HashMap<String, Integer>();
+        globalTypes = new HashMap<String, String>();
+        locals = null;
+        globals.put("d", 0);
+        for (int section = 1; section <= 3; section++)
+            declare(child(root, section), globals, globalTypes);
+        for (int fcn = tree.firstChild(child(root, 4)); fcn != AstArena.NONE; fcn = tree.nextSibling(fcn))
+            functions.put(text(tree.firstChild(fcn)), fcn);
+        try {
+            ProgramThread.run(height, () -> execute(child(root, 5)));
+        } catch (ArithmeticException e) {
+            throw new Exception("Division by zero");
+        } catch (StackOverflowError e) {
+            throw new Exception("Recursion too deep");
+        } finally {
+            io.flush();
+        }
+    }
+
+    /**
+     * The names of Consts, Types, Dclns or Params into a map, variables starting at 0
+     */
+    private void declare(int section, Map<String, Integer> names, Map<String, String> types) throws Exception {
+        for (int node = tree.firstChild(section); node != AstArena.NONE; node = tree.nextSibling(node)) {
+            int first = tree.firstChild(node);
+            switch (tree.label(node)) {
+                case "const":
+                    names.put(text(first), evaluate(tree.nextSibling(first)));
+                    break;
+
+                case "type":
+                    int ordinal = 0;
+                    for (int literal = tree.firstChild(tree.nextSibling(first)); literal != AstArena.NONE;
+                         literal = tree.nextSibling(literal))
+                        names.put(text(literal), ordinal++);
+                    break;
+
+                default:
+                    int type = first;
+                    while (tree.nextSibling(type) != AstArena.NONE)
+                        type = tree.nextSibling(type);
+                    for (int name = first; name != type; name = tree.nextSibling(name)) {
+                        names.put(text(name), 0);
+                        types.put(text(name), text(type));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Run a statement
+     *
+     * @return Interpreter.NORMAL, EXIT or RETURN
+     */
+    private int execute(int node) throws Exception {
+        int first = tree.firstChild(node);
+        switch (tree.label(node)) {
+            case "block":
+                for (int statement = first; statement != AstArena.NONE; statement = tree.nextSibling(statement)) {
+                    int status = execute(statement);
+                    if (status != Interpreter.NORMAL)
+                        return status;
+                }
+                return Interpreter.NORMAL;
+
+            case "assign":
+                store(text(first), evaluate(tree.nextSibling(first)));
+                return Interpreter.NORMAL;
+
+            case "swap":
+                int second = tree.nextSibling(first);
+                int value = load(text(first));
+                store(text(first), load(text(second)));
+                store(text(second), value);
+                return Interpreter.NORMAL;
+
+            case "output":
+                for (int item = first; item != AstArena.NONE; item = tree.nextSibling(item)) {
+                    if (tree.label(item).equals("integer")) {
+                        io.write(evaluate(tree.firstChild(item)));
+                    } else {
+                        String quoted = text(item);
+                        io.write(quoted.substring(1, quoted.length() - 1));
+                    }
+                }
+                return Interpreter.NORMAL;
+
+            case "read":
+                for (int name = first; name != AstArena.NONE; name = tree.nextSibling(name))
+                    store(text(name), isChar(name) ? io.readChar() : io.readInteger());
+                return Interpreter.NORMAL;
+
+            case "if":
+                if (evaluate(first) != 0)
+                    return execute(tree.nextSibling(first));
+                int otherwise = tree.nextSibling(tree.nextSibling(first));
+                return otherwise == AstArena.NONE ? Interpreter.NORMAL : execute(otherwise);
+
+            case "while":
+                while (evaluate(first) != 0) {
+                    int status = execute(tree.nextSibling(first));
+                    if (status != Interpreter.NORMAL)
+                        return status == Interpreter.EXIT ? Interpreter.NORMAL : status;
+                }
+                return Interpreter.NORMAL;
+
+            case "for":
+                int condition = tree.nextSibling(first);
+                int step = tree.nextSibling(condition);
+                execute(first);
+                while (evaluate(condition) != 0) {
+                    int status = execute(tree.nextSibling(step));
+                    if (status != Interpreter.NORMAL)
+                        return status == Interpreter.EXIT ? Interpreter.NORMAL : status;
+                    execute(step);
+                }
+                return Interpreter.NORMAL;
+
+            case "repeat":
+            case "loop":
+                boolean repeat = tree.label(node).equals("repeat");
+                while (true) {
+                    int statement = first;
+                    for (; statement != AstArena.NONE && (!repeat || tree.nextSibling(statement) != AstArena.NONE);
+                         statement = tree.nextSibling(statement)) {
+                        int status = execute(statement);
+                        if (status != Interpreter.NORMAL)
+                            return status == Interpreter.EXIT ? Interpreter.NORMAL : status;
+                    }
+                    if (repeat && evaluate(statement) != 0)
+                        return Interpreter.NORMAL;
+                }
+
+            case "case":
+                value = evaluate(first);
+                for (int clause = tree.nextSibling(first); clause != AstArena.NONE; clause = tree.nextSibling(clause)) {
+                    int label = tree.firstChild(clause);
+                    if (tree.label(clause).equals("otherwise"))
+                        return execute(label);
+                    for (; tree.nextSibling(label) != AstArena.NONE; label = tree.nextSibling(label)) {
+                        boolean matches = tree.label(label).equals("..")
+                                ? value >= evaluate(tree.firstChild(label))
+                                && value <= evaluate(tree.nextSibling(tree.firstChild(label)))
+                                : value == evaluate(label);
+                        if (matches) {
+                            while (tree.nextSibling(label) != AstArena.NONE)
+                                label = tree.nextSibling(label);
+                            return execute(label);
+                        }
+                    }
+                }
+                return Interpreter.NORMAL;
+
+            case "exit":
+                return Interpreter.EXIT;
+
+            case "return":
+                locals.put(RESULT, evaluate(first));
+                return Interpreter.RETURN;
+
+            default:
+                //<null>
+                return Interpreter.NORMAL;
+        }
+    }
+
+    private int evaluate(int node) throws Exception {
+        int first = tree.firstChild(node);
+        String label = tree.label(node);
+        switch (label) {
+            case "<identifier>":
+                return load(text(node));
+
+            case "<integer>":
+                return Integer.parseInt(text(node));
+
+            case "<char>":
+                return text(node).charAt(1);
+
+            case "call":
+                return call(node);
+
+            case "eof":
+                return io.eof() ? 1 : 0;
+
+            case "true":
+                return 1;
+
+            case "not":
+                return evaluate(first) ^ 1;
+
+            case "succ":
+                return evaluate(first) + 1;
+
+            case "pred":
+                return evaluate(first) - 1;
+
+            case "chr":
+            case "ord":
+                return evaluate(first);
+
+            default:
+                break;
+        }
+
+        int left = evaluate(first);
+        if (tree.childCount(node) == 1)
+            return label.equals("-") ? -left : left;
+        int right = evaluate(tree.nextSibling(first));
+        switch (label) {
+            case "+":
+                return left + right;
+            case "-":
+                return left - right;
+            case "*":
+                return left * right;
+            case "/":
+                return left / right;
+            case "mod":
+                return left % right;
+            case "and":
+                return left & right;
+            case "or":
+                return left | right;
+            case "<=":
+                return left <= right ? 1 : 0;
+            case "<":
+                return left < right ? 1 : 0;
+            case ">=":
+                return left >= right ? 1 : 0;
+            case ">":
+                return left > right ? 1 : 0;
+            case "=":
+                return left == right ? 1 : 0;
+            default:
+                return left != right ? 1 : 0;
+        }
+    }
+
+    /**
+     * Call a function with its arguments evaluated by the caller, in new names of its own
+     */
+    private int call(int node) throws Exception {
+        int name = tree.firstChild(node);
+        int fcn = functions.get(text(name));
+        int[] arguments = new int[tree.childCount(node) - 1];
+        int i = 0;
+        for (int argument = tree.nextSibling(name); argument != AstArena.NONE; argument = tree.nextSibling(argument))
+            arguments[i++] = evaluate(argument);
+
+        Map<String, Integer> names = new HashMap<String, Integer>();
+        Map<String, String> types = new HashMap<String, String>();
+        declare(child(fcn, 1), names, types);
+        i = 0;
+        for (int var = tree.firstChild(child(fcn, 1)); var != AstArena.NONE; var = tree.nextSibling(var)) {
+            for (int param = tree.firstChild(var); tree.nextSibling(param) != AstArena.NONE;
+                 param = tree.nextSibling(param))
+                names.put(text(param), arguments[i++]);
+        }
+        names.put(RESULT, 0);
+
+        Map<String, Integer> callerNames = locals;
+        Map<String, String> callerTypes = localTypes;
+        locals = names;
+        localTypes = types;
+        try {
+            for (int section = 3; section <= 5; section++)
+                declare(child(fcn, section), names, types);
+            execute(child(fcn, 6));
+            return names.get(RESULT);
+        } finally {
+            locals = callerNames;
+            localTypes = callerTypes;
+        }
+    }
+
+    private int load(String name) {
+        if (locals != null && locals.containsKey(name))
+            return locals.get(name);
+        if (globals.containsKey(name))
+            return globals.get(name);
+        return name.equals("true") ? 1 : 0;
+    }
+
+    private void store(String name, int value) {
+        if (locals != null && locals.containsKey(name))
+            locals.put(name, value);
+        else
+            globals.put(name, value);
+    }
+
+    /**
+     * Whether read reads a char into a variable: it is declared with type char, in the function or the program
+     */
+    private boolean isChar(int name) {
+        String text = text(name);
+        String type = locals != null && locals.containsKey(text) ? localTypes.get(text) : globalTypes.get(text);
+        return "char".equals(type);
+    }
+
+    private int child(int node, int index) {
+        int child = tree.firstChild(node);
+        for (int i = 0; i < index; i++)
+            child = tree.nextSibling(child);
+        return child;
+    }
+
+    private String text(int node) {
+        return tree.label(tree.firstChild(node));
+    }
+}
@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Emits an AST in the '. . name(n)' format, one node per line in preorder.
+ * Walks the arena with an explicit stack and writes straight to the Writer, so no intermediate Strings are built
+ * and the tree depth is not limited by the Java stack
+ */
+public class AstWriter {
+    private final Writer out;
+
+    public AstWriter(Writer out) {
+        this.out = out;
+    }
+
+    public void write(AstArena tree, int root) throws IOException {
+        int[] nodes = new int[64];
+        int[] depths = new int[64];
+        int top = 0;
+        nodes[top] = root;
+        depths[top++] = 0;
+
+        while (top > 0) {
+            int node = nodes[--top];
+            int depth = depths[top];
+
+            for (int i = 0; i < depth; i++)
+                out.write(". ");
+            out.write(tree.label(node));
+            out.write('(');
+            out.write(Integer.toString(tree.childCount(node)));
+            out.write(")\n");
+
+            //Push children last to first so the first child is written next
+            int count = tree.childCount(node);
+            if (top + count > nodes.length) {
+                int capacity = Math.max(nodes.length * 2, top + count);
+                nodes = Arrays.copyOf(nodes, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+            int i = top + count;
+            for (int child = tree.firstChild(node); child != AstArena.NONE; child = tree.nextSibling(child)) {
+                nodes[--i] = child;
+                depths[i] = depth + 1;
+            }
+            top += count;
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many programs concurrently on a work stealing pool.
+ * Every file is compiled by its own Lexer/Parser instances, so workers share nothing but the pool
+ */
+public class BatchCompiler {
+    private final int threads;
+
+    public BatchCompiler(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * A file to compile, with its path relative to the directory it was found in, or as given for files named
+     * directly or in a manifest, which is where its output goes under the output directory
+     */
+    static class Input {
+        final Path file;
+        final Path relative;
+
+        Input(Path file, Path relative) {
+            this.file = file;
+            this.relative = relative;
+        }
+    }
+
+    /**
+     * Outcome of compiling one file
+     */
+    static class Result {
+        final Path input;
+        final Path output;
+        final long nanos;
+        final Exception error;
+
+        Result(Path input, Path output, long nanos, Exception error) {
+            this.input = input;
+            this.output = output;
+            this.nanos = nanos;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Compile every input into outputDir and print a summary
+     *
+     * @param inputs source files, directories (all files in them except .tree files) or @manifest files listing one
+     *               path per line
+     * @param outputDir directory receiving <input path>.tree for every input, the path relative to the directory it
+     *                  was found in, or as given; inputs that would overwrite an earlier one's output fail
+     * @return true if every file compiled
+     * @throws IOException if the inputs cannot be listed or outputDir cannot be created
+     */
+    public boolean compileAll(List<String> inputs, Path outputDir) throws IOException {
+        List<Input> files = collect(inputs);
+        Files.createDirectories(outputDir);
+
+        List<Callable<Result>> tasks = new ArrayList<Callable<Result>>(files.size());
+        Map<Path, Path> outputs = new HashMap<Path, Path>();
+        for (Input input: files) {
+            Path output = outputDir.resolve(input.relative + ".tree").normalize();
+            Path first = outputs.putIfAbsent(output, input.file);
+            if (first != null) {
+                Exception clash = new IOException("Same output " + output + " as " + first);
+                tasks.add(() -> new Result(input.file, output, 0, clash));
+            } else {
+                tasks.add(() -> compile(input.file, output));
+            }
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Result> results = new ArrayList<Result>(files.size());
+        try {
+            for (Future<Result> future: pool.invokeAll(tasks))
+                results.add(future.get());
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Batch compilation interrupted", e);
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return printSummary(results, elapsed);
+    }
+
+    /**
+     * Compile one input; winzigc.compile moves the output into place only once complete, so a failure leaves no
+     * partial or empty output behind
+     */
+    private static Result compile(Path input, Path output) {
+        long start = System.nanoTime();
+        try {
+            winzigc.compile(input.toString(), output.toString());
+            return new Result(input, output, System.nanoTime() - start, null);
+        } catch (Exception e) {
+            return new Result(input, output, System.nanoTime() - start, e);
+        }
+    }
+
+    private boolean printSummary(List<Result> results, long elapsed) {
+        int failed = 0;
+        for (Result r: results) {
+            if (r.error != null) {
+                failed++;
+                System.out.println("FAILED " + r.input + ": " + r.error.getMessage());
+            }
+        }
+        System.out.println(String.format("Compiled %d files, %d failed, in %.1f ms on %d threads",
+                results.size(), failed, elapsed / 1e6, threads));
+        return failed == 0;
+    }
+
+    private static List<Input> collect(List<String> inputs) throws IOException {
+        List<Input> files = new ArrayList<Input>();
+        for (String input: inputs) {
+            if (input.startsWith("@")) {
+                try (Stream<String> lines = Files.lines(Paths.get(input.substring(1)))) {
+                    files.addAll(lines.map(String::trim)
+                            .filter(l -> !l.isEmpty() && !l.startsWith("#"))
+                            .map(l -> given(Paths.get(l)))
+                            .collect(Collectors.toList()));
+                }
+            } else if (Files.isDirectory(Paths.get(input))) {
+                Path root = Paths.get(input);
+                try (Stream<Path> entries = Files.list(root)) {
+                    files.addAll(entries.filter(Files::isRegularFile)
+                            .filter(p -> !p.getFileName().toString().endsWith(".tree"))
+                            .sorted()
+                            .map(p -> new Input(p, root.relativize(p)))
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                files.add(given(Paths.get(input)));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A file named directly, its output under the path as given, without its root or any ..
+     */
+    private static Input given(Path file) {
+        Path relative = file.normalize();
+        if (relative.getRoot() != null)
+            relative = relative.getRoot().relativize(relative);
+        while (relative.getNameCount() > 1 && relative.getName(0).toString().equals(".."))
+            relative = relative.subpath(1, relative.getNameCount());
+        return new Input(file, relative);
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * A program compiled by the BytecodeCompiler for the BytecodeVM, a register machine. Its instructions are ints in
+ * one flat code array, each an opcode followed by its operands: registers r of the running function's frame,
+ * immediate values i, globals g, strings s of the constant pool, functions f and jump offsets j, relative to the
+ * instruction's opcode.
+ * A frame holds a function's parameters, then its variables, then its temporaries. The program's body runs in
+ * the frame at the bottom, whose first registers are the program's variables, so functions reach those as
+ * globals, by their index there. A call passes its arguments in consecutive registers of the caller, which
+ * become the first registers of the callee's frame
+ */
+public class Bytecode {
+    public static final int HALT = 0;
+    public static final int MOVE = 1;
+    public static final int LOADI = 2;
+    public static final int GETG = 3;
+    public static final int SETG = 4;
+    public static final int ADD = 5;
+    public static final int SUB = 6;
+    public static final int MUL = 7;
+    public static final int DIV = 8;
+    public static final int MOD = 9;
+    public static final int AND = 10;
+    public static final int OR = 11;
+    public static final int ADDI = 12;
+    public static final int RSUBI = 13;
+    public static final int MULI = 14;
+    public static final int DIVI = 15;
+    public static final int MODI = 16;
+    public static final int NEG = 17;
+    public static final int NOT = 18;
+    public static final int JMP = 19;
+    public static final int JZ = 20;
+    public static final int JNZ = 21;
+    //Compare two registers and jump, in the order of the relations: =, <>, <, <=, >, >=
+    public static final int JEQ = 22;
+    public static final int JNE = 23;
+    public static final int JLT = 24;
+    public static final int JLE = 25;
+    public static final int JGT = 26;
+    public static final int JGE = 27;
+    //Compare a register with an immediate and jump, in the same order
+    public static final int JEQI = 28;
+    public static final int JNEI = 29;
+    public static final int JLTI = 30;
+    public static final int JLEI = 31;
+    public static final int JGTI = 32;
+    public static final int JGEI = 33;
+    public static final int TABLE = 34;
+    public static final int LOOKUP = 35;
+    public static final int CALL = 36;
+    public static final int RET = 37;
+    public static final int RETI = 38;
+    public static final int READI = 39;
+    public static final int READC = 40;
+    public static final int EOF = 41;
+    public static final int WRITE = 42;
+    public static final int WRITEI = 43;
+    public static final int WRITES = 44;
+
+    //Names and operands of the opcodes, as above; TABLE and LOOKUP are followed by their jump tables
+    private static final String[] NAMES = {
+            "HALT", "MOVE", "LOADI", "GETG", "SETG", "ADD", "SUB", "MUL", "DIV", "MOD", "AND", "OR",
+            "ADDI", "RSUBI", "MULI", "DIVI", "MODI", "NEG", "NOT", "JMP", "JZ", "JNZ",
+            "JEQ", "JNE", "JLT", "JLE", "JGT", "JGE", "JEQI", "JNEI", "JLTI", "JLEI", "JGTI", "JGEI",
+            "TABLE", "LOOKUP", "CALL", "RET", "RETI", "READI", "READC", "EOF", "WRITE", "WRITEI", "WRITES"
+    };
+    private static final String[] OPERANDS = {
+            "", "rr", "ri", "rg", "gr", "rrr", "rrr", "rrr", "rrr", "rrr", "rrr", "rrr",
+            "rri", "rri", "rri", "rri", "rri", "rr", "rr", "j", "rj", "rj",
+            "rrj", "rrj", "rrj", "rrj", "rrj", "rrj", "rij", "rij", "rij", "rij", "rij", "rij",
+            "rii", "ri", "rfr", "r", "i", "r", "r", "r", "r", "i", "s"
+    };
+
+    //Fields of each function in functions
+    static final int ENTRY = 0;
+    static final int PARAMETERS = 1;
+    static final int LOCALS = 2;
+    static final int REGISTERS = 3;
+    static final int FUNCTION_SIZE = 4;
+
+    final String name;
+    final int[] code;
+    //Constant pool: the strings of output
+    final String[] strings;
+    //Entry, parameters, parameters and variables, and frame size of each function, and their names
+    final int[] functions;
+    final String[] functionNames;
+    //Entry and frame size of the program's body, and the names of its variables, d first
+    final int mainEntry;
+    final int mainRegisters;
+    final String[] globalNames;
+
+    Bytecode(String name, int[] code, String[] strings, int[] functions, String[] functionNames, int mainEntry,
+             int mainRegisters, String[] globalNames) {
+        this.name = name;
+        this.code = code;
+        this.strings = strings;
+        this.functions = functions;
+        this.functionNames = functionNames;
+        this.mainEntry = mainEntry;
+        this.mainRegisters = mainRegisters;
+        this.globalNames = globalNames;
+    }
+
+    /**
+     * Size of the code, in ints
+     */
+    public int length() {
+        return code.length;
+    }
+
+    /**
+     * Listing of the code, an instruction a line with its address, each function and the program's body under a
+     * header with its frame, then the constant pool
+     */
+    public String disassemble() {
+        StringBuilder listing = new StringBuilder("program ").append(name).append('\n');
+        listing.append("globals:");
+        for (int g = 0; g < globalNames.length; g++)
+            listing.append(" g").append(g).append('=').append(globalNames[g]);
+        listing.append('\n');
+        int pc = 0;
+        while (pc < code.length) {
+            for (int f = 0; f < functionNames.length; f++) {
+                if (functions[f * FUNCTION_SIZE + ENTRY] == pc)
+                    listing.append("function ").append(functionNames[f])
+                            .append(": parameters ").append(functions[f * FUNCTION_SIZE + PARAMETERS])
+                            .append(", locals ").append(functions[f * FUNCTION_SIZE + LOCALS])
+                            .append(", registers ").append(functions[f * FUNCTION_SIZE + REGISTERS]).append('\n');
+            }
+            if (pc == mainEntry)
+                listing.append("main: registers ").append(mainRegisters).append('\n');
+            pc = instruction(listing, pc);
+        }
+        listing.append("strings:\n");
+        for (int s = 0; s < strings.length; s++)
+            listing.append(String.format("%6d  \"%s\"%n", s, strings[s]));
+        return listing.toString();
+    }
+
+    /**
+     * One line of the listing
+     *
+     * @return address of the next instruction
+     */
+    private int instruction(StringBuilder listing, int pc) {
+        int opcode = code[pc];
+        if (opcode < 0 || opcode >= NAMES.length) {
+            listing.append(String.format("%6d  .word %d%n", pc, opcode));
+            return pc + 1;
+        }
+        listing.append(String.format("%6d  %-7s", pc, NAMES[opcode]));
+        String operands = OPERANDS[opcode];
+        int at = pc + 1;
+        for (int i = 0; i < operands.length(); i++, at++) {
+            listing.append(i == 0 ? " " : ", ");
+            int operand = code[at];
+            switch (operands.charAt(i)) {
+                case 'r':
+                    listing.append('r').append(operand);
+                    break;
+                case 'g':
+                    listing.append('g').append(operand);
+                    break;
+                case 's':
+                    listing.append('s').append(operand);
+                    break;
+                case 'f':
+                    listing.append(functionNames[operand]);
+                    break;
+                case 'j':
+                    listing.append("-> ").append(pc + operand);
+                    break;
+                default:
+                    listing.append(operand);
+                    break;
+            }
+        }
+        if (opcode == TABLE) {
+            //r, low, count, then the default and a jump for each value from low
+            int count = code[pc + 3];
+            listing.append(", default -> ").append(pc + code[at++]);
+            for (int i = 0; i < count; i++)
+                listing.append(String.format("%n        %10d -> %d", code[pc + 2] + i, pc + code[at++]));
+        } else if (opcode == LOOKUP) {
+            //r, count, then the default and a key and jump for each key, sorted
+            int count = code[pc + 2];
+            listing.append(", default -> ").append(pc + code[at++]);
+            for (int i = 0; i < count; i++, at += 2)
+                listing.append(String.format("%n        %10d -> %d", code[at], pc + code[at + 1]));
+        }
+        listing.append('\n');
+        return at;
+    }
+}
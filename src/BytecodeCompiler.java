@@ -0,0 +1,1356 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a program to Bytecode in one walk over the AST. Names are resolved to registers: the parameters and
+ * variables of a function are the first registers of its frame, those of the program the first of the bottom
+ * frame, reached from functions as globals, and constants are folded into the code. Expressions go to
+ * temporaries above them, allocated as a stack, so each operator is one instruction, with an immediate operand
+ * when one side is constant, and an assignment puts the value of its last instruction straight into the variable.
+ * Relational operators in conditions compare and jump in one instruction. The condition of a while, and the step
+ * and condition of a for, are moved after the body, so each time round a loop ends in a single jump back to the
+ * body while its condition holds. case jumps through a table when its labels span few values, searches its labels
+ * when they are single values and tries each range otherwise.
+ * The program must have analyzed without errors
+ */
+public class BytecodeCompiler {
+    //What a name is bound to
+    private static final int UNBOUND = 0;
+    private static final int LOCAL = 1;
+    private static final int GLOBAL = 2;
+    private static final int CONSTANT = 3;
+    private static final int FUNCTION = 4;
+
+    //Kinds of operands: a value known when compiling, the register of a variable, a temporary register
+    private static final int IMMEDIATE = 0;
+    private static final int VARIABLE = 1;
+    private static final int TEMPORARY = 2;
+
+    //Roles of the node kinds compiled; the relational operators are in the order of Bytecode.JEQ to JGE
+    private static final int OTHER = 0;
+    private static final int PROGRAM = 1;
+    private static final int FCN = 2;
+    private static final int PARAMS = 3;
+    private static final int CONST = 4;
+    private static final int TYPE = 5;
+    private static final int VAR = 6;
+    private static final int IDENTIFIER = 7;
+    private static final int INTEGER_LITERAL = 8;
+    private static final int CHAR_LITERAL = 9;
+    private static final int STRING_LITERAL = 10;
+    private static final int PLUS = 11;
+    private static final int MINUS = 12;
+    private static final int TIMES = 13;
+    private static final int DIVIDE = 14;
+    private static final int MOD = 15;
+    private static final int AND = 16;
+    private static final int OR = 17;
+    private static final int NOT = 18;
+    private static final int EQ = 19;
+    private static final int NE = 20;
+    private static final int LT = 21;
+    private static final int LE = 22;
+    private static final int GT = 23;
+    private static final int GE = 24;
+    private static final int SUCC = 25;
+    private static final int PRED = 26;
+    private static final int EOF = 27;
+    private static final int TRUE = 28;
+    private static final int CALL = 29;
+    private static final int ASSIGN = 30;
+    private static final int SWAP = 31;
+    private static final int OUT_INTEGER = 32;
+    private static final int READ = 33;
+    private static final int IF = 34;
+    private static final int WHILE = 35;
+    private static final int FOR = 36;
+    private static final int REPEAT = 37;
+    private static final int LOOP = 38;
+    private static final int CASE = 39;
+    private static final int CLAUSE = 40;
+    private static final int OTHERWISE = 41;
+    private static final int RANGE = 42;
+    private static final int EXIT = 43;
+    private static final int RETURN = 44;
+
+    //Widest range of case labels dispatched through a table
+    private static final int MAX_TABLE = 256;
+
+    //Flags of the open nodes: children skipped, and a condition child that has jumped already
+    private static final int SKIPPED = 1;
+    private static final int BRANCHED = 2;
+
+    private final AstArena tree;
+    private final SemanticAnalyzer analyzer;
+    //Role of each node kind, by the kind id in the tree; kinds past the end are OTHER
+    private int[] roles = new int[64];
+    //Binding of each declared name, by the identifier node declaring it, and its register, global, value or
+    //function number
+    private final int[] bindings;
+    private final int[] values;
+    private final List<String> globals = new ArrayList<String>();
+    private final List<String> functionNames = new ArrayList<String>();
+    private int[] functions = new int[4 * Bytecode.FUNCTION_SIZE];
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+    private int[] code = new int[256];
+    private int length = 0;
+    //Where the last instruction put its result, -1 if it was not a single instruction with one
+    private int lastResult = -1;
+    //Address of each label, -1 until bound, and the jumps to patch: where the offset goes, the instruction it is
+    //relative to, and the label
+    private int[] labels = new int[64];
+    private int labelCount = 0;
+    private int[] fixups = new int[3 * 64];
+    private int fixupCount = 0;
+    //Frame being compiled: whether it is a function's, its parameters and variables, the next free temporary
+    //and the most registers used
+    private boolean inFunction = false;
+    private int localCount = 0;
+    private int parameterCount = 0;
+    private int top = 0;
+    private int maxTop = 0;
+    //Operands of the operators not compiled yet, the kind and the value or register of each
+    private int[] operandKinds = new int[64];
+    private int[] operandValues = new int[64];
+    private int operands = 0;
+    //Nodes entered and not exited yet, with their roles, the index of their next child, their first label and
+    //their flags
+    private int[] openNodes = new int[64];
+    private int[] openRoles = new int[64];
+    private int[] openChildren = new int[64];
+    private int[] openLabels = new int[64];
+    private int[] openFlags = new int[64];
+    private int open = 0;
+    //Code of the conditions and steps of the loops open, cut out to go after their bodies, and where the code to
+    //cut next starts for each open node, with the first label made in it
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+    private int[] openStarts = new int[64];
+    private int[] openLabelStarts = new int[64];
+    private int mainEntry = 0;
+    private int mainRegisters = 0;
+    private final Bytecode bytecode;
+
+    /**
+     * Compile a program
+     *
+     * @param tree AST of the program
+     * @param root its program node
+     * @param analyzer the SemanticAnalyzer that analyzed it
+     */
+    public BytecodeCompiler(AstArena tree, int root, SemanticAnalyzer analyzer) {
+        this.tree = tree;
+        this.analyzer = analyzer;
+        bindings = new int[tree.size()];
+        values = new int[tree.size()];
+
+        role("program", PROGRAM);
+        role("fcn", FCN);
+        role("params", PARAMS);
+        role("const", CONST);
+        role("type", TYPE);
+        role("var", VAR);
+        role(LexerTokenType.IDENTIFIER.val, IDENTIFIER);
+        role(LexerTokenType.INTEGER.val, INTEGER_LITERAL);
+        role(LexerTokenType.CHAR.val, CHAR_LITERAL);
+        role(LexerTokenType.STRING.val, STRING_LITERAL);
+        role("+", PLUS);
+        role("-", MINUS);
+        role("*", TIMES);
+        role("/", DIVIDE);
+        role("mod", MOD);
+        role("and", AND);
+        role("or", OR);
+        role("not", NOT);
+        role("=", EQ);
+        role("<>", NE);
+        role("<", LT);
+        role("<=", LE);
+        role(">", GT);
+        role(">=", GE);
+        role("succ", SUCC);
+        role("pred", PRED);
+        role("eof", EOF);
+        role("true", TRUE);
+        role("call", CALL);
+        role("assign", ASSIGN);
+        role("swap", SWAP);
+        role("integer", OUT_INTEGER);
+        role("read", READ);
+        role("if", IF);
+        role("while", WHILE);
+        role("for", FOR);
+        role("repeat", REPEAT);
+        role("loop", LOOP);
+        role("case", CASE);
+        role("case_clause", CLAUSE);
+        role("otherwise", OTHERWISE);
+        role("..", RANGE);
+        role("exit", EXIT);
+        role("return", RETURN);
+
+        globals.add("d");
+        tree.walk(root, new AstArena.Visitor() {
+            public boolean enter(int node) {
+                return BytecodeCompiler.this.enter(node);
+            }
+
+            public void exit(int node) {
+                BytecodeCompiler.this.exit(node);
+            }
+        });
+        for (int i = 0; i < fixupCount; i += 3)
+            code[fixups[i]] = labels[fixups[i + 2]] - fixups[i + 1];
+        bytecode = new Bytecode(text(tree.firstChild(root)), Arrays.copyOf(code, length),
+                strings.toArray(new String[0]), Arrays.copyOf(functions, functionNames.size() * Bytecode.FUNCTION_SIZE),
+                functionNames.toArray(new String[0]), mainEntry, mainRegisters, globals.toArray(new String[0]));
+    }
+
+    private void role(String label, int role) {
+        int kind = tree.kindOf(label);
+        if (kind >= roles.length)
+            roles = Arrays.copyOf(roles, Math.max(roles.length * 2, kind + 1));
+        roles[kind] = role;
+    }
+
+    private int role(int node) {
+        int kind = tree.kind(node);
+        return kind < roles.length ? roles[kind] : OTHER;
+    }
+
+    public Bytecode bytecode() {
+        return bytecode;
+    }
+
+    /**
+     * Declarations, code before each child and the leaves of expressions, on the way down
+     *
+     * @return false for the nodes whose children were dealt with here
+     */
+    private boolean enter(int node) {
+        int parentRole = OTHER;
+        int index = 0;
+        if (open > 0) {
+            parentRole = openRoles[open - 1];
+            index = openChildren[open - 1]++;
+            before(open - 1, index);
+        }
+        int role = role(node);
+        if (open == openNodes.length) {
+            openNodes = Arrays.copyOf(openNodes, open * 2);
+            openRoles = Arrays.copyOf(openRoles, open * 2);
+            openChildren = Arrays.copyOf(openChildren, open * 2);
+            openLabels = Arrays.copyOf(openLabels, open * 2);
+            openFlags = Arrays.copyOf(openFlags, open * 2);
+            openStarts = Arrays.copyOf(openStarts, open * 2);
+            openLabelStarts = Arrays.copyOf(openLabelStarts, open * 2);
+        }
+        openNodes[open] = node;
+        openRoles[open] = role;
+        openChildren[open] = 0;
+        openLabels[open] = -1;
+        openFlags[open++] = 0;
+
+        boolean children = enter(node, role, parentRole, index);
+        if (!children)
+            openFlags[open - 1] |= SKIPPED;
+        return children;
+    }
+
+    private boolean enter(int node, int role, int parentRole, int index) {
+        switch (role) {
+            case PROGRAM:
+                //Every function first, numbered, so calls can come before the function
+                for (int fcn = tree.firstChild(child(node, 4)); fcn != AstArena.NONE; fcn = tree.nextSibling(fcn)) {
+                    bind(tree.firstChild(fcn), FUNCTION, functionNames.size());
+                    functionNames.add(text(tree.firstChild(fcn)));
+                }
+                return true;
+
+            case FCN:
+                inFunction = true;
+                localCount = 0;
+                return true;
+
+            case PARAMS:
+                for (int var = tree.firstChild(node); var != AstArena.NONE; var = tree.nextSibling(var))
+                    declareVariables(var);
+                parameterCount = localCount;
+                return false;
+
+            case CONST:
+                int name = tree.firstChild(node);
+                bind(name, CONSTANT, constant(tree.nextSibling(name)));
+                return false;
+
+            case TYPE:
+                int ordinal = 0;
+                for (int literal = tree.firstChild(child(node, 1)); literal != AstArena.NONE;
+                     literal = tree.nextSibling(literal))
+                    bind(literal, CONSTANT, ordinal++);
+                return false;
+
+            case VAR:
+                declareVariables(node);
+                return false;
+
+            case IDENTIFIER:
+                //Not the names of the program, functions and types, assignment targets or case labels
+                if (parentRole != PROGRAM && parentRole != FCN && !(parentRole == CALL && index == 0)
+                        && !(parentRole == ASSIGN && index == 0) && parentRole != CLAUSE)
+                    pushName(node);
+                return false;
+
+            case INTEGER_LITERAL:
+            case CHAR_LITERAL:
+                if (parentRole != CLAUSE)
+                    push(IMMEDIATE, constant(node));
+                return false;
+
+            case STRING_LITERAL:
+                String quoted = text(node);
+                instruction(Bytecode.WRITES);
+                word(string(quoted.substring(1, quoted.length() - 1)));
+                return false;
+
+            case TRUE:
+                //The missing condition of a for
+                push(IMMEDIATE, 1);
+                return false;
+
+            case SWAP:
+                int left = tree.firstChild(node);
+                int right = tree.nextSibling(left);
+                int saved = allocate();
+                get(saved, left);
+                if (kind(left) == GLOBAL && inFunction) {
+                    int value = allocate();
+                    get(value, right);
+                    set(left, value);
+                } else {
+                    get(register(left), right);
+                }
+                set(right, saved);
+                top = saved;
+                return false;
+
+            case READ:
+                for (int variable = tree.firstChild(node); variable != AstArena.NONE;
+                     variable = tree.nextSibling(variable)) {
+                    boolean global = kind(variable) == GLOBAL && inFunction;
+                    int target = global ? allocate() : register(variable);
+                    instruction(analyzer.type(variable) == SemanticAnalyzer.CHAR ? Bytecode.READC : Bytecode.READI);
+                    word(target);
+                    if (global) {
+                        set(variable, target);
+                        top--;
+                    }
+                }
+                return false;
+
+            case IF:
+                newLabels(2);
+                return true;
+
+            case WHILE:
+                //End, body, condition
+                newLabels(3);
+                jump(Bytecode.JMP, openLabels[open - 1] + 2);
+                mark(open - 1);
+                return true;
+
+            case REPEAT:
+            case LOOP:
+                //End, then the top
+                newLabels(2);
+                bind(openLabels[open - 1] + 1);
+                return true;
+
+            case FOR:
+                //End, body, step, condition
+                newLabels(4);
+                return true;
+
+            case CASE:
+                //End, then one for each clause by its index, then no match
+                newLabels(tree.childCount(node) + 1);
+                return true;
+
+            case CLAUSE:
+            case OTHERWISE:
+                bind(openLabels[open - 2] + index);
+                return true;
+
+            case RANGE:
+                return false;
+
+            case EXIT:
+                for (int o = open - 2; o >= 0; o--) {
+                    int loop = openRoles[o];
+                    if (loop == WHILE || loop == REPEAT || loop == LOOP || loop == FOR) {
+                        jump(Bytecode.JMP, openLabels[o]);
+                        return false;
+                    }
+                }
+                leave();
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Code between the children of an open node, before the child at index
+     */
+    private void before(int at, int index) {
+        int node = openNodes[at];
+        int base = openLabels[at];
+        switch (openRoles[at]) {
+            case PROGRAM:
+                if (index == 5) {
+                    mainEntry = length;
+                    inFunction = false;
+                    top = maxTop = globals.size();
+                }
+                break;
+
+            case FCN:
+                if (index == 6) {
+                    int f = values[tree.firstChild(node)] * Bytecode.FUNCTION_SIZE;
+                    if (f + Bytecode.FUNCTION_SIZE > functions.length)
+                        functions = Arrays.copyOf(functions, Math.max(functions.length * 2, f + Bytecode.FUNCTION_SIZE));
+                    functions[f + Bytecode.ENTRY] = length;
+                    functions[f + Bytecode.PARAMETERS] = parameterCount;
+                    functions[f + Bytecode.LOCALS] = localCount;
+                    top = maxTop = localCount;
+                }
+                break;
+
+            case IF:
+                if (index == 1) {
+                    branch(at, false, base);
+                } else if (index == 2) {
+                    jump(Bytecode.JMP, base + 1);
+                    bind(base);
+                }
+                break;
+
+            case WHILE:
+                if (index == 1) {
+                    branch(at, true, base + 1);
+                    cut(at);
+                    bind(base + 1);
+                }
+                break;
+
+            case FOR:
+                if (index == 1) {
+                    jump(Bytecode.JMP, base + 3);
+                    mark(at);
+                } else if (index == 2) {
+                    branch(at, true, base + 1);
+                    cut(at);
+                    mark(at);
+                } else if (index == 3) {
+                    cut(at);
+                    bind(base + 1);
+                }
+                break;
+
+            case CASE:
+                if (index == 1)
+                    dispatch(node, base);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Operators, stores and the ends of statements, on the way up once the children are done
+     */
+    private void exit(int node) {
+        int at = --open;
+        if ((openFlags[at] & SKIPPED) != 0)
+            return;
+        int base = openLabels[at];
+        int role = openRoles[at];
+        switch (role) {
+            case PROGRAM:
+                instruction(Bytecode.HALT);
+                mainRegisters = maxTop;
+                break;
+
+            case FCN:
+                leave();
+                functions[values[tree.firstChild(node)] * Bytecode.FUNCTION_SIZE + Bytecode.REGISTERS] = maxTop;
+                break;
+
+            case PLUS:
+            case MINUS:
+                if (tree.childCount(node) == 1) {
+                    if (role == MINUS)
+                        unary(Bytecode.NEG);
+                } else {
+                    binary(role);
+                }
+                break;
+
+            case TIMES:
+            case DIVIDE:
+            case MOD:
+            case AND:
+            case OR:
+                binary(role);
+                break;
+
+            case NOT:
+                unary(Bytecode.NOT);
+                break;
+
+            case SUCC:
+            case PRED:
+                push(IMMEDIATE, 1);
+                binary(role == SUCC ? PLUS : MINUS);
+                break;
+
+            case EQ:
+            case NE:
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+                compare(role, at);
+                break;
+
+            case EOF:
+                int result = allocate();
+                instruction(Bytecode.EOF);
+                word(result);
+                lastResult = length - 1;
+                push(TEMPORARY, result);
+                break;
+
+            case CALL:
+                call(node);
+                break;
+
+            case ASSIGN:
+                assign(tree.firstChild(node));
+                break;
+
+            case OUT_INTEGER:
+                int value = pop();
+                if (operandKinds[value] == IMMEDIATE) {
+                    instruction(Bytecode.WRITEI);
+                    word(operandValues[value]);
+                } else {
+                    instruction(Bytecode.WRITE);
+                    word(operandValues[value]);
+                }
+                release(value);
+                break;
+
+            case IF:
+                bind(tree.childCount(node) == 3 ? base + 1 : base);
+                break;
+
+            case WHILE:
+                bind(base + 2);
+                paste();
+                bind(base);
+                break;
+
+            case LOOP:
+                jump(Bytecode.JMP, base + 1);
+                bind(base);
+                break;
+
+            case REPEAT:
+                //Back to the top while the condition is false
+                branch(at, false, base + 1);
+                bind(base);
+                break;
+
+            case FOR:
+                Chunk step = chunks.remove(chunks.size() - 1);
+                bind(base + 2);
+                paste(step);
+                bind(base + 3);
+                paste();
+                bind(base);
+                break;
+
+            case CLAUSE:
+            case OTHERWISE:
+                jump(Bytecode.JMP, openLabels[at - 1]);
+                break;
+
+            case CASE:
+                bind(base + tree.childCount(node));
+                bind(base);
+                break;
+
+            case RETURN:
+                value = pop();
+                if (operandKinds[value] == IMMEDIATE) {
+                    instruction(Bytecode.RETI);
+                    word(operandValues[value]);
+                } else {
+                    instruction(Bytecode.RET);
+                    word(operandValues[value]);
+                }
+                release(value);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * An arithmetic or logical operator on the top two operands, folded if both are known
+     */
+    private void binary(int role) {
+        int right = pop();
+        int left = pop();
+        int leftKind = operandKinds[left];
+        int rightKind = operandKinds[right];
+        int a = operandValues[left];
+        int b = operandValues[right];
+        if (leftKind == IMMEDIATE && rightKind == IMMEDIATE && !((role == DIVIDE || role == MOD) && b == 0)) {
+            push(IMMEDIATE, fold(role, a, b));
+            return;
+        }
+        //Immediates on the right where the order does not matter
+        if (leftKind == IMMEDIATE && (role == PLUS || role == TIMES)) {
+            int swapped = a;
+            a = b;
+            b = swapped;
+            leftKind = rightKind;
+            rightKind = IMMEDIATE;
+        }
+        int free = Math.min(freed(left), freed(right));
+        int opcode;
+        if (rightKind == IMMEDIATE && role != AND && role != OR) {
+            //A constant divided by a constant 0 is left to fail when it runs
+            if (leftKind == IMMEDIATE)
+                a = load(a);
+            switch (role) {
+                case PLUS:
+                    opcode = Bytecode.ADDI;
+                    break;
+                case MINUS:
+                    //x - c is x + -c, wrapping around like the subtraction
+                    opcode = Bytecode.ADDI;
+                    b = -b;
+                    break;
+                case TIMES:
+                    opcode = Bytecode.MULI;
+                    break;
+                case DIVIDE:
+                    opcode = Bytecode.DIVI;
+                    break;
+                default:
+                    opcode = Bytecode.MODI;
+                    break;
+            }
+        } else if (leftKind == IMMEDIATE && role == MINUS) {
+            opcode = Bytecode.RSUBI;
+            int swapped = a;
+            a = b;
+            b = swapped;
+        } else {
+            opcode = Bytecode.ADD + role - PLUS;
+            if (leftKind == IMMEDIATE)
+                a = load(a);
+            if (rightKind == IMMEDIATE)
+                b = load(b);
+        }
+        top = free;
+        int result = allocate();
+        instruction(opcode);
+        word(result);
+        lastResult = length - 1;
+        word(a);
+        word(b);
+        push(TEMPORARY, result);
+    }
+
+    private static int fold(int role, int a, int b) {
+        switch (role) {
+            case PLUS:
+                return a + b;
+            case MINUS:
+                return a - b;
+            case TIMES:
+                return a * b;
+            case DIVIDE:
+                return a / b;
+            case MOD:
+                return a % b;
+            case AND:
+                return a & b;
+            default:
+                return a | b;
+        }
+    }
+
+    /**
+     * NEG or NOT of the top operand
+     */
+    private void unary(int opcode) {
+        int operand = pop();
+        int value = operandValues[operand];
+        if (operandKinds[operand] == IMMEDIATE) {
+            push(IMMEDIATE, opcode == Bytecode.NEG ? -value : value ^ 1);
+            return;
+        }
+        top = freed(operand);
+        int result = allocate();
+        instruction(opcode);
+        word(result);
+        lastResult = length - 1;
+        word(value);
+        push(TEMPORARY, result);
+    }
+
+    /**
+     * A relational operator: a jump to the false label of the statement if it is its condition, otherwise 0 or 1
+     * in a temporary
+     */
+    private void compare(int role, int at) {
+        int parentAt = at - 1;
+        int parentRole = openRoles[parentAt];
+        int index = openChildren[parentAt] - 1;
+        boolean condition = (parentRole == IF || parentRole == WHILE) && index == 0
+                || parentRole == FOR && index == 1
+                || parentRole == REPEAT && index == tree.childCount(openNodes[parentAt]) - 1;
+        int right = pop();
+        int left = pop();
+        int free = Math.min(freed(left), freed(right));
+        if (condition) {
+            //Jump to the body of a while or for when true, to the else or end of an if or the top of a repeat when
+            //false
+            if (parentRole == WHILE || parentRole == FOR)
+                compareJump(role, left, right, openLabels[parentAt] + 1);
+            else
+                compareJump(negate(role), left, right, openLabels[parentAt] + (parentRole == REPEAT ? 1 : 0));
+            top = free;
+            openFlags[parentAt] |= BRANCHED;
+            return;
+        }
+        int yes = newLabel();
+        int done = newLabel();
+        compareJump(role, left, right, yes);
+        top = free;
+        int result = allocate();
+        load(result, 0);
+        jump(Bytecode.JMP, done);
+        bind(yes);
+        load(result, 1);
+        bind(done);
+        push(TEMPORARY, result);
+    }
+
+    /**
+     * Jump to a label if a relation between two operands holds, in one instruction; decided now if both are known
+     */
+    private void compareJump(int role, int left, int right, int label) {
+        int a = operandValues[left];
+        int b = operandValues[right];
+        if (operandKinds[left] == IMMEDIATE && operandKinds[right] == IMMEDIATE) {
+            if (holds(role, a, b))
+                jump(Bytecode.JMP, label);
+            return;
+        }
+        if (operandKinds[left] == IMMEDIATE) {
+            role = mirror(role);
+            int swapped = a;
+            a = b;
+            b = swapped;
+        } else if (operandKinds[right] != IMMEDIATE) {
+            jump(Bytecode.JEQ + role - EQ, a, b, label);
+            return;
+        }
+        jump(Bytecode.JEQI + role - EQ, a, b, label);
+    }
+
+    private static boolean holds(int role, int a, int b) {
+        switch (role) {
+            case EQ:
+                return a == b;
+            case NE:
+                return a != b;
+            case LT:
+                return a < b;
+            case LE:
+                return a <= b;
+            case GT:
+                return a > b;
+            default:
+                return a >= b;
+        }
+    }
+
+    /**
+     * The relation that holds when this one does not
+     */
+    private static int negate(int role) {
+        switch (role) {
+            case EQ:
+                return NE;
+            case NE:
+                return EQ;
+            case LT:
+                return GE;
+            case LE:
+                return GT;
+            case GT:
+                return LE;
+            default:
+                return LT;
+        }
+    }
+
+    /**
+     * The relation with its sides swapped
+     */
+    private static int mirror(int role) {
+        switch (role) {
+            case LT:
+                return GT;
+            case LE:
+                return GE;
+            case GT:
+                return LT;
+            case GE:
+                return LE;
+            default:
+                return role;
+        }
+    }
+
+    /**
+     * Jump to a label when the condition operand is true, or false, unless the condition jumped already
+     */
+    private void branch(int at, boolean when, int label) {
+        if ((openFlags[at] & BRANCHED) != 0)
+            return;
+        int condition = pop();
+        if (operandKinds[condition] == IMMEDIATE) {
+            if ((operandValues[condition] != 0) == when)
+                jump(Bytecode.JMP, label);
+        } else {
+            jump(when ? Bytecode.JNZ : Bytecode.JZ, operandValues[condition], label);
+        }
+        release(condition);
+    }
+
+    /**
+     * Mark where the code of an open node to cut starts
+     */
+    private void mark(int at) {
+        openStarts[at] = length;
+        openLabelStarts[at] = labelCount;
+    }
+
+    /**
+     * Cut the code of an open node since its mark out, to paste it back later, with its jumps and the labels bound
+     * in it. Those labels were all made since the mark, as the code only holds expressions and a step
+     */
+    private void cut(int at) {
+        int start = openStarts[at];
+        int firstLabel = openLabelStarts[at];
+        //Jumps are in the order of the code
+        int firstFixup = fixupCount;
+        while (firstFixup > 0 && fixups[firstFixup - 3] >= start)
+            firstFixup -= 3;
+        Chunk chunk = new Chunk();
+        chunk.code = Arrays.copyOfRange(code, start, length);
+        chunk.fixups = Arrays.copyOfRange(fixups, firstFixup, fixupCount);
+        for (int i = 0; i < chunk.fixups.length; i += 3) {
+            chunk.fixups[i] -= start;
+            chunk.fixups[i + 1] -= start;
+        }
+        chunk.firstLabel = firstLabel;
+        chunk.lastLabel = labelCount;
+        for (int label = firstLabel; label < labelCount; label++)
+            labels[label] -= start;
+        chunks.add(chunk);
+        length = start;
+        fixupCount = firstFixup;
+        lastResult = -1;
+    }
+
+    /**
+     * Paste the code cut last at the end
+     */
+    private void paste() {
+        paste(chunks.remove(chunks.size() - 1));
+    }
+
+    private void paste(Chunk chunk) {
+        int start = length;
+        for (int word: chunk.code)
+            word(word);
+        for (int i = 0; i < chunk.fixups.length; i += 3) {
+            if (fixupCount + 3 > fixups.length)
+                fixups = Arrays.copyOf(fixups, fixups.length * 2);
+            fixups[fixupCount++] = chunk.fixups[i] + start;
+            fixups[fixupCount++] = chunk.fixups[i + 1] + start;
+            fixups[fixupCount++] = chunk.fixups[i + 2];
+        }
+        for (int label = chunk.firstLabel; label < chunk.lastLabel; label++)
+            labels[label] += start;
+        lastResult = -1;
+    }
+
+    /**
+     * Jump from the selector operand to the label of the first clause with a matching label, or the otherwise
+     * clause, or the end
+     */
+    private void dispatch(int node, int base) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        int noMatch = base + tree.childCount(node);
+        int index = 1;
+        for (int clause = tree.nextSibling(tree.firstChild(node)); clause != AstArena.NONE;
+             clause = tree.nextSibling(clause), index++) {
+            if (role(clause) == OTHERWISE) {
+                noMatch = base + index;
+                continue;
+            }
+            for (int label = tree.firstChild(clause); tree.nextSibling(label) != AstArena.NONE;
+                 label = tree.nextSibling(label)) {
+                boolean range = role(label) == RANGE;
+                int low = constant(range ? tree.firstChild(label) : label);
+                int high = range ? constant(child(label, 1)) : low;
+                if (low <= high)
+                    ranges.add(new int[]{low, high, base + index});
+            }
+        }
+
+        int selector = pop();
+        int value = operandValues[selector];
+        release(selector);
+        if (operandKinds[selector] == IMMEDIATE) {
+            int target = noMatch;
+            for (int[] range: ranges) {
+                if (value >= range[0] && value <= range[1]) {
+                    target = range[2];
+                    break;
+                }
+            }
+            jump(Bytecode.JMP, target);
+            return;
+        }
+        if (ranges.isEmpty()) {
+            jump(Bytecode.JMP, noMatch);
+            return;
+        }
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        boolean single = true;
+        for (int[] range: ranges) {
+            min = Math.min(min, range[0]);
+            max = Math.max(max, range[1]);
+            single &= range[0] == range[1];
+        }
+        if (max - min < MAX_TABLE) {
+            int[] targets = new int[(int) (max - min + 1)];
+            Arrays.fill(targets, noMatch);
+            //Last to first, so the first clause to match wins
+            for (int r = ranges.size() - 1; r >= 0; r--) {
+                int[] range = ranges.get(r);
+                Arrays.fill(targets, (int) (range[0] - min), (int) (range[1] - min + 1), range[2]);
+            }
+            int pc = instruction(Bytecode.TABLE);
+            word(value);
+            word((int) min);
+            word(targets.length);
+            offset(pc, noMatch);
+            for (int target: targets)
+                offset(pc, target);
+        } else if (single) {
+            ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+            int count = 0;
+            for (int r = 0; r < ranges.size(); r++) {
+                //Sorted stably, the first clause of a value comes first
+                if (count == 0 || ranges.get(count - 1)[0] != ranges.get(r)[0])
+                    ranges.set(count++, ranges.get(r));
+            }
+            int pc = instruction(Bytecode.LOOKUP);
+            word(value);
+            word(count);
+            offset(pc, noMatch);
+            for (int r = 0; r < count; r++) {
+                word(ranges.get(r)[0]);
+                offset(pc, ranges.get(r)[2]);
+            }
+        } else {
+            for (int[] range: ranges) {
+                if (range[0] == range[1]) {
+                    jump(Bytecode.JEQI, value, range[0], range[2]);
+                } else {
+                    int next = newLabel();
+                    jump(Bytecode.JLTI, value, range[0], next);
+                    jump(Bytecode.JLEI, value, range[1], range[2]);
+                    bind(next);
+                }
+            }
+            jump(Bytecode.JMP, noMatch);
+        }
+    }
+
+    /**
+     * A call with its arguments moved to consecutive registers above everything live, where the callee's frame
+     * starts
+     */
+    private void call(int node) {
+        int count = tree.childCount(node) - 1;
+        int first = operands - count;
+        int free = top;
+        for (int i = first; i < operands; i++)
+            free = Math.min(free, freed(i));
+        //Last to first: a temporary is never below its argument's register, and the registers of the arguments
+        //before it are below it
+        for (int i = operands - 1; i >= first; i--) {
+            int target = free + i - first;
+            if (operandKinds[i] == IMMEDIATE)
+                load(target, operandValues[i]);
+            else
+                move(target, operandValues[i]);
+        }
+        maxTop = Math.max(maxTop, free + count);
+        operands = first;
+        top = free;
+        int result = allocate();
+        instruction(Bytecode.CALL);
+        word(result);
+        lastResult = length - 1;
+        word(values[analyzer.declaration(tree.firstChild(node))]);
+        word(free);
+        push(TEMPORARY, result);
+    }
+
+    /**
+     * Store the top operand in a variable, making the instruction that computed it put it there directly if it can
+     */
+    private void assign(int target) {
+        int value = pop();
+        int kind = operandKinds[value];
+        int source = operandValues[value];
+        int free = freed(value);
+        if (kind(target) == GLOBAL && inFunction) {
+            if (kind == IMMEDIATE)
+                source = load(source);
+            set(target, source);
+        } else if (kind == TEMPORARY && lastResult >= 0 && code[lastResult] == source) {
+            code[lastResult] = register(target);
+        } else if (kind == IMMEDIATE) {
+            load(register(target), source);
+        } else {
+            move(register(target), source);
+        }
+        top = free;
+    }
+
+    /**
+     * Leave the function with 0, or the program, as at its end
+     */
+    private void leave() {
+        if (inFunction) {
+            instruction(Bytecode.RETI);
+            word(0);
+        } else {
+            instruction(Bytecode.HALT);
+        }
+    }
+
+    /**
+     * Push the value of a name: a variable's register, a global of the program read into a temporary in a
+     * function, or a constant
+     */
+    private void pushName(int node) {
+        switch (kind(node)) {
+            case LOCAL:
+                push(VARIABLE, values[analyzer.declaration(node)]);
+                break;
+
+            case GLOBAL:
+                if (inFunction) {
+                    int result = allocate();
+                    get(result, node);
+                    push(TEMPORARY, result);
+                } else {
+                    push(VARIABLE, global(node));
+                }
+                break;
+
+            case CONSTANT:
+                push(IMMEDIATE, constantOf(node));
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Copy a variable into a register
+     */
+    private void get(int register, int node) {
+        if (kind(node) == GLOBAL && inFunction) {
+            instruction(Bytecode.GETG);
+            word(register);
+            lastResult = length - 1;
+            word(global(node));
+        } else {
+            move(register, register(node));
+        }
+    }
+
+    /**
+     * Copy a register into a variable
+     */
+    private void set(int node, int register) {
+        if (kind(node) == GLOBAL && inFunction) {
+            instruction(Bytecode.SETG);
+            word(global(node));
+            word(register);
+        } else {
+            move(register(node), register);
+        }
+    }
+
+    /**
+     * Register of a variable in the frame being compiled: its own, or in the program's body, its global's
+     */
+    private int register(int node) {
+        return kind(node) == LOCAL ? values[analyzer.declaration(node)] : global(node);
+    }
+
+    private int global(int node) {
+        int declaration = analyzer.declaration(node);
+        return declaration == AstArena.NONE ? 0 : values[declaration];
+    }
+
+    private void move(int target, int source) {
+        if (target == source)
+            return;
+        instruction(Bytecode.MOVE);
+        word(target);
+        word(source);
+    }
+
+    private void load(int target, int value) {
+        instruction(Bytecode.LOADI);
+        word(target);
+        word(value);
+    }
+
+    /**
+     * Load a value into a new temporary
+     *
+     * @return the temporary
+     */
+    private int load(int value) {
+        int register = allocate();
+        load(register, value);
+        return register;
+    }
+
+    private int allocate() {
+        maxTop = Math.max(maxTop, top + 1);
+        return top++;
+    }
+
+    private void push(int kind, int value) {
+        if (operands == operandKinds.length) {
+            operandKinds = Arrays.copyOf(operandKinds, operands * 2);
+            operandValues = Arrays.copyOf(operandValues, operands * 2);
+        }
+        operandKinds[operands] = kind;
+        operandValues[operands++] = value;
+    }
+
+    /**
+     * Pop an operand; its kind and value stay where they were until the next push
+     *
+     * @return its index
+     */
+    private int pop() {
+        return --operands;
+    }
+
+    /**
+     * The first register free once an operand is no longer used: its own if it is a temporary
+     */
+    private int freed(int operand) {
+        return operandKinds[operand] == TEMPORARY ? operandValues[operand] : top;
+    }
+
+    private void release(int operand) {
+        top = Math.min(top, freed(operand));
+    }
+
+    /**
+     * Registers for the names of a Dcln or of Params, in order: a function's from 0, the program's after the
+     * globals declared before
+     */
+    private void declareVariables(int var) {
+        for (int name = tree.firstChild(var); tree.nextSibling(name) != AstArena.NONE; name = tree.nextSibling(name)) {
+            if (inFunction) {
+                bind(name, LOCAL, localCount++);
+            } else {
+                bind(name, GLOBAL, globals.size());
+                globals.add(text(name));
+            }
+        }
+    }
+
+    private int string(String value) {
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+        }
+        return index;
+    }
+
+    private int instruction(int opcode) {
+        lastResult = -1;
+        word(opcode);
+        return length - 1;
+    }
+
+    private void word(int word) {
+        if (length == code.length)
+            code = Arrays.copyOf(code, length * 2);
+        code[length++] = word;
+    }
+
+    private void jump(int opcode, int label) {
+        int pc = instruction(opcode);
+        offset(pc, label);
+    }
+
+    private void jump(int opcode, int register, int label) {
+        int pc = instruction(opcode);
+        word(register);
+        offset(pc, label);
+    }
+
+    private void jump(int opcode, int register, int operand, int label) {
+        int pc = instruction(opcode);
+        word(register);
+        word(operand);
+        offset(pc, label);
+    }
+
+    /**
+     * The offset of a label from the instruction at pc, patched once the code is done
+     */
+    private void offset(int pc, int label) {
+        if (fixupCount + 3 > fixups.length)
+            fixups = Arrays.copyOf(fixups, fixups.length * 2);
+        fixups[fixupCount++] = length;
+        fixups[fixupCount++] = pc;
+        fixups[fixupCount++] = label;
+        word(0);
+    }
+
+    private int newLabel() {
+        if (labelCount == labels.length)
+            labels = Arrays.copyOf(labels, labelCount * 2);
+        labels[labelCount] = -1;
+        return labelCount++;
+    }
+
+    /**
+     * Labels for the open node, consecutive from openLabels
+     */
+    private void newLabels(int count) {
+        openLabels[open - 1] = newLabel();
+        for (int i = 1; i < count; i++)
+            newLabel();
+    }
+
+    private void bind(int label) {
+        labels[label] = length;
+        lastResult = -1;
+    }
+
+    private void bind(int name, int binding, int value) {
+        bindings[name] = binding;
+        values[name] = value;
+    }
+
+    /**
+     * How the name of an identifier node is bound where it is used; d, unless declared, is the first global
+     */
+    private int kind(int node) {
+        int declaration = analyzer.declaration(node);
+        if (declaration != AstArena.NONE)
+            return bindings[declaration];
+        if (text(node).equals("d"))
+            return GLOBAL;
+        if (text(node).equals("true") || text(node).equals("false"))
+            return CONSTANT;
+        return UNBOUND;
+    }
+
+    /**
+     * Value of a constant name, true and false included
+     */
+    private int constantOf(int node) {
+        int declaration = analyzer.declaration(node);
+        if (declaration != AstArena.NONE)
+            return values[declaration];
+        return text(node).equals("true") ? 1 : 0;
+    }
+
+    /**
+     * Value of a ConstValue or case label: an integer, a char or a constant name
+     */
+    private int constant(int node) {
+        String text = text(node);
+        switch (role(node)) {
+            case INTEGER_LITERAL:
+                return Integer.parseInt(text);
+            case CHAR_LITERAL:
+                return text.charAt(1);
+            default:
+                return constantOf(node);
+        }
+    }
+
+    /**
+     * Code cut out of the code array: its words, its jumps with their offsets and instructions relative to its start,
+     * and the range of labels bound in it, also relative
+     */
+    private static final class Chunk {
+        int[] code;
+        int[] fixups;
+        int firstLabel;
+        int lastLabel;
+    }
+
+    private int child(int node, int index) {
+        int child = tree.firstChild(node);
+        for (int i = 0; i < index; i++)
+            child = tree.nextSibling(child);
+        return child;
+    }
+
+    private String text(int node) {
+        return tree.label(tree.firstChild(node));
+    }
+}
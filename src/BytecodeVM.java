@@ -0,0 +1,330 @@
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Runs Bytecode in one dispatch loop over its code array, with the registers of all frames in one int array and
+ * the calls in another, so running allocates nothing but the arrays growing for deeper calls. Programs that are
+ * not trusted can be given a budget of instructions, and stop with an error once they use it up; memory is bounded
+ * by a maximum call depth and number of registers
+ */
+public class BytecodeVM {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    private static final int MAX_DEPTH = 1 << 16;
+    private static final int MAX_REGISTERS = 1 << 22;
+
+    private final Bytecode program;
+    private long budget = UNLIMITED;
+    private long executed = 0;
+    //Registers of the frames, and for each call the address to return to, the caller's frame and the register
+    //of the result, absolute
+    private int[] registers = new int[256];
+    private int[] calls = new int[3 * 64];
+
+    public BytecodeVM(Bytecode program) {
+        this.program = program;
+    }
+
+    /**
+     * Limit the instructions each run executes
+     *
+     * @param instructions the budget, UNLIMITED by default
+     */
+    public void setBudget(long instructions) {
+        budget = instructions;
+    }
+
+    /**
+     * Instructions executed by the last run
+     */
+    public long executed() {
+        return executed;
+    }
+
+    /**
+     * Run the program, from fresh variables each time
+     *
+     * @param in what read reads
+     * @param out where output writes, flushed at the end
+     * @throws Exception on reading past the end of the input, dividing by zero, recursing too deep or running out
+     *                   of budget
+     */
+    public void run(Reader in, Writer out) throws Exception {
+        ProgramIO io = new ProgramIO(in, out);
+        try {
+            execute(io);
+        } catch (ArithmeticException e) {
+            throw new Exception("Division by zero");
+        } finally {
+            io.flush();
+        }
+    }
+
+    private void execute(ProgramIO io) throws Exception {
+        final int[] code = program.code;
+        final int[] functions = program.functions;
+        int[] r = registers;
+        if (r.length < program.mainRegisters)
+            r = registers = new int[Math.max(program.mainRegisters, r.length * 2)];
+        Arrays.fill(r, 0, program.mainRegisters, 0);
+        int depth = 0;
+        int fp = 0;
+        int pc = program.mainEntry;
+        long remaining = budget;
+        try {
+            while (true) {
+                if (--remaining < 0)
+                    throw new Exception("Instruction budget of " + budget + " exceeded");
+                switch (code[pc]) {
+                    case Bytecode.HALT:
+                        return;
+
+                    case Bytecode.MOVE:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]];
+                        pc += 3;
+                        break;
+
+                    case Bytecode.LOADI:
+                        r[fp + code[pc + 1]] = code[pc + 2];
+                        pc += 3;
+                        break;
+
+                    case Bytecode.GETG:
+                        r[fp + code[pc + 1]] = r[code[pc + 2]];
+                        pc += 3;
+                        break;
+
+                    case Bytecode.SETG:
+                        r[code[pc + 1]] = r[fp + code[pc + 2]];
+                        pc += 3;
+                        break;
+
+                    case Bytecode.ADD:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] + r[fp + code[pc + 3]];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.SUB:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] - r[fp + code[pc + 3]];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.MUL:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] * r[fp + code[pc + 3]];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.DIV:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] / r[fp + code[pc + 3]];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.MOD:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] % r[fp + code[pc + 3]];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.AND:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] & r[fp + code[pc + 3]];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.OR:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] | r[fp + code[pc + 3]];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.ADDI:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] + code[pc + 3];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.RSUBI:
+                        r[fp + code[pc + 1]] = code[pc + 3] - r[fp + code[pc + 2]];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.MULI:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] * code[pc + 3];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.DIVI:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] / code[pc + 3];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.MODI:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] % code[pc + 3];
+                        pc += 4;
+                        break;
+
+                    case Bytecode.NEG:
+                        r[fp + code[pc + 1]] = -r[fp + code[pc + 2]];
+                        pc += 3;
+                        break;
+
+                    case Bytecode.NOT:
+                        r[fp + code[pc + 1]] = r[fp + code[pc + 2]] ^ 1;
+                        pc += 3;
+                        break;
+
+                    case Bytecode.JMP:
+                        pc += code[pc + 1];
+                        break;
+
+                    case Bytecode.JZ:
+                        pc += r[fp + code[pc + 1]] == 0 ? code[pc + 2] : 3;
+                        break;
+
+                    case Bytecode.JNZ:
+                        pc += r[fp + code[pc + 1]] != 0 ? code[pc + 2] : 3;
+                        break;
+
+                    case Bytecode.JEQ:
+                        pc += r[fp + code[pc + 1]] == r[fp + code[pc + 2]] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JNE:
+                        pc += r[fp + code[pc + 1]] != r[fp + code[pc + 2]] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JLT:
+                        pc += r[fp + code[pc + 1]] < r[fp + code[pc + 2]] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JLE:
+                        pc += r[fp + code[pc + 1]] <= r[fp + code[pc + 2]] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JGT:
+                        pc += r[fp + code[pc + 1]] > r[fp + code[pc + 2]] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JGE:
+                        pc += r[fp + code[pc + 1]] >= r[fp + code[pc + 2]] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JEQI:
+                        pc += r[fp + code[pc + 1]] == code[pc + 2] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JNEI:
+                        pc += r[fp + code[pc + 1]] != code[pc + 2] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JLTI:
+                        pc += r[fp + code[pc + 1]] < code[pc + 2] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JLEI:
+                        pc += r[fp + code[pc + 1]] <= code[pc + 2] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JGTI:
+                        pc += r[fp + code[pc + 1]] > code[pc + 2] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.JGEI:
+                        pc += r[fp + code[pc + 1]] >= code[pc + 2] ? code[pc + 3] : 4;
+                        break;
+
+                    case Bytecode.TABLE: {
+                        //r, low, count, default, then a jump for each value from low
+                        long index = (long) r[fp + code[pc + 1]] - code[pc + 2];
+                        pc += index >= 0 && index < code[pc + 3] ? code[pc + 5 + (int) index] : code[pc + 4];
+                        break;
+                    }
+
+                    case Bytecode.LOOKUP: {
+                        //r, count, default, then the keys, sorted, each with its jump
+                        int value = r[fp + code[pc + 1]];
+                        int low = 0;
+                        int high = code[pc + 2] - 1;
+                        int offset = code[pc + 3];
+                        while (low <= high) {
+                            int middle = (low + high) >>> 1;
+                            int key = code[pc + 4 + 2 * middle];
+                            if (key < value) {
+                                low = middle + 1;
+                            } else if (key > value) {
+                                high = middle - 1;
+                            } else {
+                                offset = code[pc + 5 + 2 * middle];
+                                break;
+                            }
+                        }
+                        pc += offset;
+                        break;
+                    }
+
+                    case Bytecode.CALL: {
+                        //The callee's frame starts at the arguments; its variables start at 0
+                        int f = code[pc + 2] * Bytecode.FUNCTION_SIZE;
+                        int callee = fp + code[pc + 3];
+                        int top = callee + functions[f + Bytecode.REGISTERS];
+                        if (depth == MAX_DEPTH || top > MAX_REGISTERS)
+                            throw new Exception("Recursion too deep");
+                        if (top > r.length)
+                            r = registers = Arrays.copyOf(r, Math.min(Math.max(top, r.length * 2), MAX_REGISTERS));
+                        Arrays.fill(r, callee + functions[f + Bytecode.PARAMETERS], callee + functions[f + Bytecode.LOCALS], 0);
+                        if (3 * depth + 3 > calls.length)
+                            calls = Arrays.copyOf(calls, calls.length * 2);
+                        calls[3 * depth] = pc + 4;
+                        calls[3 * depth + 1] = fp;
+                        calls[3 * depth + 2] = fp + code[pc + 1];
+                        depth++;
+                        fp = callee;
+                        pc = functions[f + Bytecode.ENTRY];
+                        break;
+                    }
+
+                    case Bytecode.RET:
+                    case Bytecode.RETI: {
+                        int value = code[pc] == Bytecode.RET ? r[fp + code[pc + 1]] : code[pc + 1];
+                        depth--;
+                        pc = calls[3 * depth];
+                        fp = calls[3 * depth + 1];
+                        r[calls[3 * depth + 2]] = value;
+                        break;
+                    }
+
+                    case Bytecode.READI:
+                        r[fp + code[pc + 1]] = io.readInteger();
+                        pc += 2;
+                        break;
+
+                    case Bytecode.READC:
+                        r[fp + code[pc + 1]] = io.readChar();
+                        pc += 2;
+                        break;
+
+                    case Bytecode.EOF:
+                        r[fp + code[pc + 1]] = io.eof() ? 1 : 0;
+                        pc += 2;
+                        break;
+
+                    case Bytecode.WRITE:
+                        io.write(r[fp + code[pc + 1]]);
+                        pc += 2;
+                        break;
+
+                    case Bytecode.WRITEI:
+                        io.write(code[pc + 1]);
+                        pc += 2;
+                        break;
+
+                    case Bytecode.WRITES:
+                        io.write(program.strings[code[pc + 1]]);
+                        pc += 2;
+                        break;
+
+                    default:
+                        throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc);
+                }
+            }
+        } finally {
+            executed = budget - Math.max(remaining, 0);
+        }
+    }
+}
@@ -0,0 +1,628 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of JVM class files for the JvmCompiler: a constant pool, static fields and static methods, version 52
+ * (Java 8). The methods are built with Method, whose locals are all ints from the start, and whose operand stack
+ * holds only ints at branch targets, so the frames of its StackMapTable are ints only and follow from the stack
+ * depth, which Method tracks
+ */
+public class ClassFile {
+    public static final int NOP = 0x00;
+    public static final int ICONST_0 = 0x03;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC = 0x12;
+    public static final int LDC_W = 0x13;
+    public static final int ILOAD = 0x15;
+    public static final int ILOAD_0 = 0x1a;
+    public static final int ALOAD_0 = 0x2a;
+    public static final int ISTORE = 0x36;
+    public static final int ISTORE_0 = 0x3b;
+    public static final int POP = 0x57;
+    public static final int DUP = 0x59;
+    public static final int IADD = 0x60;
+    public static final int ISUB = 0x64;
+    public static final int IMUL = 0x68;
+    public static final int IDIV = 0x6c;
+    public static final int IREM = 0x70;
+    public static final int INEG = 0x74;
+    public static final int IAND = 0x7e;
+    public static final int IOR = 0x80;
+    public static final int IXOR = 0x82;
+    public static final int IINC = 0x84;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IF_ICMPEQ = 0x9f;
+    public static final int IF_ICMPNE = 0xa0;
+    public static final int IF_ICMPLT = 0xa1;
+    public static final int IF_ICMPGE = 0xa2;
+    public static final int IF_ICMPGT = 0xa3;
+    public static final int IF_ICMPLE = 0xa4;
+    public static final int GOTO = 0xa7;
+    public static final int TABLESWITCH = 0xaa;
+    public static final int LOOKUPSWITCH = 0xab;
+    public static final int IRETURN = 0xac;
+    public static final int RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2;
+    public static final int PUTSTATIC = 0xb3;
+    public static final int INVOKEVIRTUAL = 0xb6;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int WIDE = 0xc4;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    //Largest code of a method, and of a constant pool
+    private static final int MAX_CODE = 65535;
+    private static final int MAX_CONSTANTS = 65535;
+
+    private final String name;
+    //Constant pool entries, written as they are added, and their indexes by kind and value
+    private final Bytes pool = new Bytes();
+    private final Map<String, Integer> constants = new HashMap<String, Integer>();
+    private int poolCount = 1;
+    private final int thisClass;
+    private final Bytes fields = new Bytes();
+    private int fieldCount = 0;
+    private final Bytes methods = new Bytes();
+    private int methodCount = 0;
+
+    /**
+     * @param name internal name of the class, eg. factors
+     */
+    public ClassFile(String name) {
+        this.name = name;
+        thisClass = classRef(name);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void addField(int access, String fieldName, String descriptor) {
+        fields.u2(access);
+        fields.u2(utf8(fieldName));
+        fields.u2(utf8(descriptor));
+        fields.u2(0);
+        fieldCount++;
+    }
+
+    /**
+     * The class file, once its fields and methods are added
+     *
+     * @throws IOException if the class has more constants than a class file can hold
+     */
+    public byte[] toByteArray() throws IOException {
+        int superClass = classRef("java/lang/Object");
+        if (poolCount > MAX_CONSTANTS)
+            throw new IOException(name + " has too many constants for a class file");
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(52);
+        out.u2(poolCount);
+        out.append(pool);
+        out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(0);
+        out.u2(fieldCount);
+        out.append(fields);
+        out.u2(methodCount);
+        out.append(methods);
+        out.u2(0);
+        return Arrays.copyOf(out.bytes, out.length);
+    }
+
+    private int utf8(String value) {
+        Integer index = constants.get("U" + value);
+        if (index != null)
+            return index;
+        pool.u1(CONSTANT_UTF8);
+        pool.utf(value);
+        return add("U" + value);
+    }
+
+    private int classRef(String className) {
+        Integer index = constants.get("C" + className);
+        if (index != null)
+            return index;
+        int nameIndex = utf8(className);
+        pool.u1(CONSTANT_CLASS);
+        pool.u2(nameIndex);
+        return add("C" + className);
+    }
+
+    private int string(String value) {
+        Integer index = constants.get("S" + value);
+        if (index != null)
+            return index;
+        int valueIndex = utf8(value);
+        pool.u1(CONSTANT_STRING);
+        pool.u2(valueIndex);
+        return add("S" + value);
+    }
+
+    private int integer(int value) {
+        Integer index = constants.get("I" + value);
+        if (index != null)
+            return index;
+        pool.u1(CONSTANT_INTEGER);
+        pool.u4(value);
+        return add("I" + value);
+    }
+
+    /**
+     * Fieldref or Methodref
+     */
+    private int memberRef(int tag, String owner, String memberName, String descriptor) {
+        String key = tag + owner + "." + memberName + ":" + descriptor;
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+        int ownerIndex = classRef(owner);
+        String nameAndTypeKey = "N" + memberName + ":" + descriptor;
+        Integer nameAndType = constants.get(nameAndTypeKey);
+        if (nameAndType == null) {
+            int nameIndex = utf8(memberName);
+            int descriptorIndex = utf8(descriptor);
+            pool.u1(CONSTANT_NAME_AND_TYPE);
+            pool.u2(nameIndex);
+            pool.u2(descriptorIndex);
+            nameAndType = add(nameAndTypeKey);
+        }
+        pool.u1(tag);
+        pool.u2(ownerIndex);
+        pool.u2(nameAndType);
+        return add(key);
+    }
+
+    private int add(String key) {
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+
+    /**
+     * Code of a static method, added to the class by end. Instructions after a goto, return or switch are left out
+     * until a label is bound, as nothing could reach them
+     */
+    public final class Method {
+        private final int access;
+        private final String methodName;
+        private final String descriptor;
+        private final int locals;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int depth = 0;
+        private int maxDepth = 0;
+        private boolean reachable = true;
+        //Offset of each label, -1 until bound, and the stack depth there, -1 until known
+        private int[] labelOffsets = new int[16];
+        private int[] labelDepths = new int[16];
+        private int labelCount = 0;
+        //Branches to patch once their labels are bound: where the offset goes, the instruction it is relative
+        //to, the label, and whether it is 4 bytes
+        private final List<int[]> fixups = new ArrayList<int[]>();
+        //Frames, by offset, with their stack depths
+        private int[] frameOffsets = new int[16];
+        private int[] frameDepths = new int[16];
+        private int frameCount = 0;
+
+        /**
+         * @param locals how many int locals the method has, the parameters first; all are ints from the start, so
+         *               the others must be stored before the first label
+         */
+        public Method(int access, String methodName, String descriptor, int locals) {
+            this.access = access;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+            this.locals = locals;
+        }
+
+        public int newLabel() {
+            if (labelCount == labelOffsets.length) {
+                labelOffsets = Arrays.copyOf(labelOffsets, labelCount * 2);
+                labelDepths = Arrays.copyOf(labelDepths, labelCount * 2);
+            }
+            labelOffsets[labelCount] = -1;
+            labelDepths[labelCount] = -1;
+            return labelCount++;
+        }
+
+        /**
+         * Bind a label to the next instruction, with a frame there
+         */
+        public void bind(int label) {
+            if (length == 0)
+                emit(NOP);
+            if (labelDepths[label] < 0 || reachable)
+                labelDepths[label] = depth;
+            depth = labelDepths[label];
+            labelOffsets[label] = length;
+            reachable = true;
+            if (frameCount > 0 && frameOffsets[frameCount - 1] == length)
+                frameCount--;
+            if (frameCount == frameOffsets.length) {
+                frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+                frameDepths = Arrays.copyOf(frameDepths, frameCount * 2);
+            }
+            frameOffsets[frameCount] = length;
+            frameDepths[frameCount++] = depth;
+        }
+
+        /**
+         * An instruction without operands
+         *
+         * @param effect how it changes the stack depth
+         */
+        public void op(int opcode, int effect) {
+            if (!reachable)
+                return;
+            emit(opcode);
+            stack(effect);
+            if (opcode == IRETURN || opcode == RETURN)
+                reachable = false;
+        }
+
+        public void push(int value) {
+            if (!reachable)
+                return;
+            if (value >= -1 && value <= 5) {
+                emit(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emit(BIPUSH);
+                emit(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                emit(SIPUSH);
+                emit2(value);
+            } else {
+                ldc(integer(value));
+            }
+            stack(1);
+        }
+
+        /**
+         * Push a String constant
+         */
+        public void pushString(String value) {
+            if (!reachable)
+                return;
+            ldc(string(value));
+            stack(1);
+        }
+
+        public void load(int slot) {
+            local(ILOAD, slot);
+            stack(1);
+        }
+
+        public void store(int slot) {
+            local(ISTORE, slot);
+            stack(-1);
+        }
+
+        /**
+         * Add a constant to a local, which must fit in 16 bits
+         */
+        public void increment(int slot, int delta) {
+            if (!reachable)
+                return;
+            if (slot > 255 || delta < Byte.MIN_VALUE || delta > Byte.MAX_VALUE) {
+                emit(WIDE);
+                emit(IINC);
+                emit2(slot);
+                emit2(delta);
+            } else {
+                emit(IINC);
+                emit(slot);
+                emit(delta);
+            }
+        }
+
+        public void getStatic(String owner, String fieldName, String fieldDescriptor) {
+            member(GETSTATIC, CONSTANT_FIELDREF, owner, fieldName, fieldDescriptor, 1);
+        }
+
+        public void putStatic(String owner, String fieldName, String fieldDescriptor) {
+            member(PUTSTATIC, CONSTANT_FIELDREF, owner, fieldName, fieldDescriptor, -1);
+        }
+
+        public void invokeStatic(String owner, String invokedName, String invokedDescriptor) {
+            member(INVOKESTATIC, CONSTANT_METHODREF, owner, invokedName, invokedDescriptor, effect(invokedDescriptor));
+        }
+
+        public void invokeVirtual(String owner, String invokedName, String invokedDescriptor) {
+            member(INVOKEVIRTUAL, CONSTANT_METHODREF, owner, invokedName, invokedDescriptor,
+                    effect(invokedDescriptor) - 1);
+        }
+
+        /**
+         * A branch, conditional on ints it pops, or a goto
+         */
+        public void jump(int opcode, int label) {
+            if (!reachable)
+                return;
+            stack(opcode == GOTO ? 0 : opcode >= IF_ICMPEQ ? -2 : -1);
+            fixups.add(new int[]{length + 1, length, label, 0});
+            emit(opcode);
+            emit2(0);
+            target(label);
+            if (opcode == GOTO)
+                reachable = false;
+        }
+
+        /**
+         * tableswitch on the int on the stack, from low to low + labels.length - 1
+         */
+        public void tableSwitch(int low, int defaultLabel, int[] labels) {
+            if (!reachable)
+                return;
+            stack(-1);
+            int at = switchStart(TABLESWITCH, defaultLabel);
+            emit4(low);
+            emit4(low + labels.length - 1);
+            for (int label: labels)
+                switchTarget(at, label);
+            reachable = false;
+        }
+
+        /**
+         * lookupswitch on the int on the stack
+         *
+         * @param keys in increasing order
+         */
+        public void lookupSwitch(int defaultLabel, int[] keys, int[] labels) {
+            if (!reachable)
+                return;
+            stack(-1);
+            int at = switchStart(LOOKUPSWITCH, defaultLabel);
+            emit4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                emit4(keys[i]);
+                switchTarget(at, labels[i]);
+            }
+            reachable = false;
+        }
+
+        public boolean reachable() {
+            return reachable;
+        }
+
+        /**
+         * Patch the branches and add the method to the class
+         *
+         * @throws IOException if the method is too large for the JVM
+         */
+        public void end() throws IOException {
+            if (length > MAX_CODE)
+                throw new IOException(methodName + " is too large for a JVM method");
+            for (int[] fixup: fixups) {
+                int offset = labelOffsets[fixup[2]] - fixup[1];
+                if (fixup[3] != 0) {
+                    code[fixup[0]] = (byte) (offset >>> 24);
+                    code[fixup[0] + 1] = (byte) (offset >>> 16);
+                    code[fixup[0] + 2] = (byte) (offset >>> 8);
+                    code[fixup[0] + 3] = (byte) offset;
+                } else {
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                        throw new IOException(methodName + " is too large for a JVM method");
+                    code[fixup[0]] = (byte) (offset >>> 8);
+                    code[fixup[0] + 1] = (byte) offset;
+                }
+            }
+
+            Bytes frames = new Bytes();
+            int previous = -1;
+            for (int i = 0; i < frameCount; i++) {
+                //full_frame, every local and stack entry an int
+                frames.u1(255);
+                frames.u2(frameOffsets[i] - previous - 1);
+                previous = frameOffsets[i];
+                frames.u2(locals);
+                for (int l = 0; l < locals; l++)
+                    frames.u1(1);
+                frames.u2(frameDepths[i]);
+                for (int d = 0; d < frameDepths[i]; d++)
+                    frames.u1(1);
+            }
+
+            methods.u2(access);
+            methods.u2(utf8(methodName));
+            methods.u2(utf8(descriptor));
+            methods.u2(1);
+            methods.u2(utf8("Code"));
+            int stackMapLength = frameCount == 0 ? 0 : 8 + frames.length;
+            methods.u4(12 + length + stackMapLength);
+            methods.u2(maxDepth);
+            methods.u2(locals);
+            methods.u4(length);
+            methods.append(code, length);
+            methods.u2(0);
+            if (frameCount == 0) {
+                methods.u2(0);
+            } else {
+                methods.u2(1);
+                methods.u2(utf8("StackMapTable"));
+                methods.u4(2 + frames.length);
+                methods.u2(frameCount);
+                methods.append(frames);
+            }
+            methodCount++;
+        }
+
+        private void local(int opcode, int slot) {
+            if (!reachable)
+                return;
+            if (slot <= 3) {
+                //iload_0 to istore_3
+                emit((opcode == ILOAD ? ILOAD_0 : ISTORE_0) + slot);
+            } else if (slot > 255) {
+                emit(WIDE);
+                emit(opcode);
+                emit2(slot);
+            } else {
+                emit(opcode);
+                emit(slot);
+            }
+        }
+
+        private void member(int opcode, int tag, String owner, String memberName, String memberDescriptor,
+                            int effect) {
+            if (!reachable)
+                return;
+            emit(opcode);
+            emit2(memberRef(tag, owner, memberName, memberDescriptor));
+            stack(effect);
+        }
+
+        private void ldc(int index) {
+            if (index > 255) {
+                emit(LDC_W);
+                emit2(index);
+            } else {
+                emit(LDC);
+                emit(index);
+            }
+        }
+
+        /**
+         * Opcode, padding to a multiple of 4 and default of a switch
+         *
+         * @return offset of the opcode, which the targets are relative to
+         */
+        private int switchStart(int opcode, int defaultLabel) {
+            int at = length;
+            emit(opcode);
+            while (length % 4 != 0)
+                emit(0);
+            switchTarget(at, defaultLabel);
+            return at;
+        }
+
+        private void switchTarget(int at, int label) {
+            fixups.add(new int[]{length, at, label, 1});
+            emit4(0);
+            target(label);
+        }
+
+        /**
+         * Record the stack depth at a label jumped to
+         */
+        private void target(int label) {
+            if (labelDepths[label] < 0)
+                labelDepths[label] = depth;
+        }
+
+        private void stack(int effect) {
+            depth += effect;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void emit(int value) {
+            if (length == code.length)
+                code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) value;
+        }
+
+        private void emit2(int value) {
+            emit(value >>> 8);
+            emit(value);
+        }
+
+        private void emit4(int value) {
+            emit2(value >>> 16);
+            emit2(value);
+        }
+    }
+
+    /**
+     * Stack effect of calling a method: its result less its arguments, which are all ints or references
+     */
+    private static int effect(String descriptor) {
+        int arguments = 0;
+        int i = 1;
+        for (; descriptor.charAt(i) != ')'; i++) {
+            while (descriptor.charAt(i) == '[')
+                i++;
+            if (descriptor.charAt(i) == 'L')
+                i = descriptor.indexOf(';', i);
+            arguments++;
+        }
+        return (descriptor.charAt(i + 1) == 'V' ? 0 : 1) - arguments;
+    }
+
+    /**
+     * Growable big endian bytes
+     */
+    private static final class Bytes {
+        byte[] bytes = new byte[256];
+        int length = 0;
+
+        void u1(int value) {
+            if (length == bytes.length)
+                bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >>> 8);
+            u1(value);
+        }
+
+        void u4(int value) {
+            u2(value >>> 16);
+            u2(value);
+        }
+
+        void append(Bytes other) {
+            append(other.bytes, other.length);
+        }
+
+        void append(byte[] other, int otherLength) {
+            if (length + otherLength > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + otherLength));
+            System.arraycopy(other, 0, bytes, length, otherLength);
+            length += otherLength;
+        }
+
+        /**
+         * Length and modified UTF-8 of a String, as in a CONSTANT_Utf8
+         */
+        void utf(String value) {
+            int at = length;
+            u2(0);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= 1 && c <= 0x7f) {
+                    u1(c);
+                } else if (c <= 0x7ff) {
+                    u1(0xc0 | c >> 6);
+                    u1(0x80 | c & 0x3f);
+                } else {
+                    u1(0xe0 | c >> 12);
+                    u1(0x80 | c >> 6 & 0x3f);
+                    u1(0x80 | c & 0x3f);
+                }
+            }
+            int size = length - at - 2;
+            bytes[at] = (byte) (size >>> 8);
+            bytes[at + 1] = (byte) size;
+        }
+    }
+}
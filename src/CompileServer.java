@@ -0,0 +1,128 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long running compile service on the JDK HTTP server, bound to the loopback interface.
+ * POST /compile with the program text as body answers 200 with the AST, or 400 with the error message.
+ * GET /stats reports request counters and latency percentiles over the most recent requests.
+ * The pipeline stays loaded and JIT compiled between requests; each request gets its own Lexer/Parser
+ */
+public class CompileServer {
+    private static final int LATENCY_WINDOW = 4096;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long recorded = 0;
+
+    public CompileServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = newPerRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/compile", this::compile);
+        server.createContext("/stats", this::stats);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * One virtual thread per request where the runtime has them (Java 21+), otherwise a cached platform thread pool
+     */
+    private static ExecutorService newPerRequestExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void compile(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "POST the program text\n");
+            return;
+        }
+
+        long start = System.nanoTime();
+        String program = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        requests.incrementAndGet();
+
+        int status;
+        String body;
+        try {
+            StringWriter out = new StringWriter();
+            new Parser(new Lexer().tokenize(program).stream()).writeAST(out);
+            status = 200;
+            body = out.toString();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            status = 400;
+            body = e.getMessage() + "\n";
+        }
+        record(System.nanoTime() - start);
+        respond(exchange, status, body);
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        long[] window;
+        synchronized (latencies) {
+            window = Arrays.copyOf(latencies, (int) Math.min(recorded, LATENCY_WINDOW));
+        }
+        Arrays.sort(window);
+
+        StringBuilder body = new StringBuilder();
+        body.append("requests ").append(requests.get()).append('\n');
+        body.append("failures ").append(failures.get()).append('\n');
+        body.append("p50_us ").append(percentile(window, 0.50) / 1000).append('\n');
+        body.append("p90_us ").append(percentile(window, 0.90) / 1000).append('\n');
+        body.append("p99_us ").append(percentile(window, 0.99) / 1000).append('\n');
+        body.append("max_us ").append(window.length == 0 ? 0 : window[window.length - 1] / 1000).append('\n');
+        respond(exchange, 200, body.toString());
+    }
+
+    private void record(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (recorded++ % LATENCY_WINDOW)] = nanos;
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * A problem found compiling a program: a syntax error, what the Parser expected and the token it found instead,
+ * a lexical error, a BAD_TOKEN from the scanner with a description of what is wrong with it, or another problem
+ * at a token, eg. nesting deeper than the Parser allows or a semantic error found by the SemanticAnalyzer.
+ * The location is that of the offending token; offset is a char index into the program text, line and column
+ * count from 1, and all three stay -1 when the token source does not know where its tokens are
+ */
+public class Diagnostic {
+    //What the grammar allowed, null unless this is a syntax error
+    public final String expected;
+    //Type of the offending token, null for problems found in the AST
+    public final LexerTokenType found;
+    //Index of the offending token among the screened tokens
+    public final int token;
+    //Description of a lexical or other error
+    private final String problem;
+    public int offset = -1;
+    public int line = -1;
+    public int column = -1;
+
+    /**
+     * Syntax error
+     */
+    public Diagnostic(String expected, LexerTokenType found, int token) {
+        this(expected, found, token, null);
+    }
+
+    /**
+     * Lexical error at a BAD_TOKEN
+     *
+     * @param problem what is wrong with the token, see Lexer.describe
+     */
+    public Diagnostic(String problem, int token) {
+        this(null, LexerTokenType.BAD_TOKEN, token, problem);
+    }
+
+    private Diagnostic(String expected, LexerTokenType found, int token, String problem) {
+        this.expected = expected;
+        this.found = found;
+        this.token = token;
+        this.problem = problem;
+    }
+
+    /**
+     * Any other problem at a token
+     *
+     * @param problem what is wrong
+     */
+    public static Diagnostic problem(String problem, LexerTokenType found, int token) {
+        return new Diagnostic(null, found, token, problem);
+    }
+
+    public boolean isLexical() {
+        return expected == null && found == LexerTokenType.BAD_TOKEN;
+    }
+
+    public String message() {
+        return expected == null ? problem : "Unexpected token " + found + " Expected: " + expected;
+    }
+
+    /**
+     * Set the location by counting lines from a previous location in the same text, (0, 1, 1) at the start.
+     * Only '\n' ends a line
+     */
+    void locate(CharSequence text, int offset, Diagnostic previous) {
+        int from = 0;
+        line = 1;
+        column = 1;
+        if (previous != null && previous.offset >= 0 && previous.offset <= offset) {
+            from = previous.offset;
+            line = previous.line;
+            column = previous.column;
+        }
+        for (int i = from; i < offset; i++) {
+            if (text.charAt(i) == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+        this.offset = offset;
+    }
+
+    public String toString() {
+        return line > 0 ? line + ":" + column + ": " + message() : message();
+    }
+}
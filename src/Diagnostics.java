@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Collects the problems found compiling a program, lexical and syntax errors alike, in the order they are found.
+ * Nothing is thrown on the way: the Parser records each problem here and carries on, recovering, or it stops
+ * once the limit is reached. A limit of 1 is the cheapest way to tell valid programs from invalid ones
+ */
+public class Diagnostics implements Iterable<Diagnostic> {
+    private final int limit;
+    private final List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+
+    /**
+     * Collect every problem
+     */
+    public Diagnostics() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param limit most problems to collect, the compiler stops at the last one
+     */
+    public Diagnostics(int limit) {
+        this.limit = Math.max(limit, 1);
+    }
+
+    /**
+     * Record a problem, ignored once the limit is reached
+     */
+    public void add(Diagnostic diagnostic) {
+        if (!full())
+            diagnostics.add(diagnostic);
+    }
+
+    /**
+     * True once the limit is reached, then the compiler stops
+     */
+    public boolean full() {
+        return diagnostics.size() >= limit;
+    }
+
+    public boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+
+    public int size() {
+        return diagnostics.size();
+    }
+
+    public Diagnostic get(int i) {
+        return diagnostics.get(i);
+    }
+
+    public List<Diagnostic> list() {
+        return diagnostics;
+    }
+
+    public Iterator<Diagnostic> iterator() {
+        return diagnostics.iterator();
+    }
+
+    /**
+     * One problem per line, line:column: message
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (Diagnostic diagnostic: diagnostics)
+            s.append(diagnostic).append('\n');
+        return s.toString();
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Re-lexing after a text edit.
+ * Works on raw scanner buffers (Lexer.scanTokens, trivia included) where every token boundary is a point the
+ * scanner can restart from, since it never looks behind a token and looks at most one char past it.
+ * Scanning restarts at the token holding the char before the edit and stops as soon as a new token ends where
+ * an old token behind the edit ended; the rest of the old tokens are reused with their offsets moved.
+ * The text and the token buffer are both edited in place, so an edit costs the rescanned tokens plus moving the
+ * arrays behind it rather than a pass of the scanner over the whole text.
+ * Edits that open or close '{' comments or strings simply keep the rescan going until the streams line up again;
+ * text that does not scan is a BAD_TOKEN like any other token.
+ * A screened buffer (what the Parser reads) can be kept in step, and the tokens it had replaced are then handed
+ * on to the IncrementalParser
+ */
+public class IncrementalLexer {
+    private final Lexer lexer;
+
+    //Tokens [changeStart, changeOldEnd) before the last edit are [changeStart, changeNewEnd) after it
+    private int changeStart;
+    private int changeOldEnd;
+    private int changeNewEnd;
+
+    //Rescan of the last edit: new tokens, and the old tokens and chars they replace
+    private TokenBuffer rescanned;
+    private int first;
+    private int last;
+    private int restart;
+    private int oldEnd;
+
+    /**
+     * @param lexer lexer whose names the previous buffers were interned with
+     */
+    public IncrementalLexer(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * Tokens of the text after replacing removed chars at offset with inserted.
+     * previous and its SourceText are updated in place; other texts are copied into a SourceText first
+     *
+     * @param previous raw scanner tokens of the text before the edit
+     * @return previous, now holding the raw scanner tokens of the edited text
+     */
+    public TokenBuffer relex(TokenBuffer previous, int offset, int removed, CharSequence inserted) {
+        SourceText text = rescan(previous, offset, removed, inserted);
+        int delta = inserted.length() - removed;
+        previous.replace(first, last, rescanned, delta, text);
+        changed(first, last, first + rescanned.size());
+        return previous;
+    }
+
+    /**
+     * Same edit as relex(previous, ...), also applied to screened, the screener output over previous.
+     * The change range then counts tokens of screened
+     *
+     * @param screened screened tokens of the text before the edit, updated in place
+     * @return previous, now holding the raw scanner tokens of the edited text
+     */
+    public TokenBuffer relex(TokenBuffer previous, TokenBuffer screened, int offset, int removed,
+                             CharSequence inserted) {
+        SourceText text = rescan(previous, offset, removed, inserted);
+        int delta = inserted.length() - removed;
+        previous.replace(first, last, rescanned, delta, text);
+
+        //Screened tokens are in text order, so the ones replaced are those starting in the rescanned chars
+        int from = screened.indexAt(restart - 1) + 1;
+        int to = screened.indexAt(oldEnd - 1) + 1;
+        TokenBuffer middle = rescanned.screened();
+        screened.replace(from, to, middle, delta, text);
+        changed(from, to, from + middle.size());
+        return previous;
+    }
+
+    /**
+     * First token changed by the last edit
+     */
+    public int changeStart() {
+        return changeStart;
+    }
+
+    /**
+     * End of the tokens the last edit replaced, before the edit
+     */
+    public int changeOldEnd() {
+        return changeOldEnd;
+    }
+
+    /**
+     * End of the tokens the last edit replaced them with
+     */
+    public int changeNewEnd() {
+        return changeNewEnd;
+    }
+
+    private void changed(int start, int oldEnd, int newEnd) {
+        changeStart = start;
+        changeOldEnd = oldEnd;
+        changeNewEnd = newEnd;
+    }
+
+    /**
+     * Edit the text and scan the changed part of it, leaving the tokens in rescanned to replace
+     * previous tokens [first, last), which spanned chars [restart, oldEnd) of the old text
+     */
+    private SourceText rescan(TokenBuffer previous, int offset, int removed, CharSequence inserted) {
+        SourceText text = edit(previous.source(), offset, removed, inserted);
+        rescan(previous, text, offset, removed, inserted.length());
+        return text;
+    }
+
+    private void rescan(TokenBuffer previous, SourceText text, int offset, int removed, int inserted) {
+        int delta = inserted - removed;
+        int editEnd = offset + inserted;
+        int oldEditEnd = offset + removed;
+
+        //Restart at the token holding the char just before the edit, it may grow into the edit
+        first = Math.max(0, previous.indexAt(offset - 1));
+        restart = first < previous.size() ? previous.tokenStart(first) : 0;
+
+        rescanned = new TokenBuffer(text, lexer.names(), 16);
+        int pos = restart;
+        int old = first;
+        while (pos < text.length()) {
+            pos = lexer.scanToken(text, pos);
+            if (lexer.tokenType == LexerTokenType.IDENTIFIER)
+                rescanned.add(lexer.tokenType, lexer.valueStart, lexer.valueEnd,
+                        lexer.names().intern(text, lexer.valueStart, lexer.valueEnd));
+            else
+                rescanned.add(lexer.tokenType, lexer.valueStart, lexer.valueEnd);
+
+            if (pos < editEnd)
+                continue;
+
+            //Resynchronized once an old token behind the edit ends at the same place
+            int oldPos = pos - delta;
+            while (old < previous.size() && previous.tokenEnd(old) < oldPos)
+                old++;
+            if (oldPos >= oldEditEnd && old < previous.size() && previous.tokenEnd(old) == oldPos) {
+                last = old + 1;
+                oldEnd = oldPos;
+                return;
+            }
+        }
+        last = previous.size();
+        oldEnd = text.length() - delta;
+    }
+
+    private static SourceText edit(CharSequence source, int offset, int removed, CharSequence inserted) {
+        SourceText text;
+        if (source instanceof SourceText) {
+            text = (SourceText) source;
+        } else {
+            String copy = source.toString();
+            text = new SourceText(copy.toCharArray(), copy.length());
+        }
+        text.replace(offset, removed, inserted);
+        return text;
+    }
+}
@@ -0,0 +1,312 @@
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reparsing after an edit to the screened tokens of a program.
+ * The Parser runs from Winzig() down as usual, but where it is about to parse a statement, a Body or a Fcn it
+ * first asks for a node of the previous tree that starts at the same token and whose tokens, and the one token
+ * of lookahead after them, are all outside the edit. Such a subtree is exactly what parsing would build again,
+ * so it is hung under the new parent as it is and its tokens are skipped. Only the nodes enclosing the edit are
+ * built again.
+ * New nodes go to the same arena as the previous tree, which is searched with a cursor that only moves forward
+ * in token order. The arena is compacted once it holds more dead nodes than live ones.
+ * Several edits can be recorded before one reparse, and a reparse running on another thread can be cancelled
+ */
+public class IncrementalParser {
+    //Granularity of the subtrees the Parser asks for
+    static final int STATEMENT = 0;
+    static final int BODY = 1;
+    static final int FCN = 2;
+
+    private final TokenBuffer tokens;
+    private final AstArena tree = new AstArena();
+    private int root = AstArena.NONE;
+    //Nodes in the arena after the last compaction
+    private int live = 0;
+
+    //Tokens the tree was built from, and how much of them is known to be unchanged at either end
+    private int treeTokens = 0;
+    private int unchangedHead = 0;
+    private int unchangedTail = 0;
+
+    //Edit being reparsed: tree tokens [from, oldTo) are now tokens [from, newTo)
+    private int from;
+    private int oldTo;
+    private int newTo;
+
+    private final boolean[][] reusable = new boolean[3][];
+    private volatile boolean cancelled = false;
+    //Token the last failed reparse stopped at, and all the problems it found
+    private int errorPosition = -1;
+    private Diagnostics diagnostics = new Diagnostics();
+
+    //Cursor into the previous tree: path of nodes to the current one, with their first tokens and their parents'
+    private int[] cursor = new int[64];
+    private int[] cursorStart = new int[64];
+    private int[] cursorParentStart = new int[64];
+    private int depth = 0;
+
+    //Old nodes relinked by the Parser, with their previous next sibling and offset, to undo a failed reparse
+    private int[] relinked = new int[48];
+    private int relinkedCount = 0;
+    private int shared = 0;
+
+    /**
+     * @param tokens screened tokens of the program, edited in place afterwards (eg. by IncrementalLexer)
+     */
+    public IncrementalParser(TokenBuffer tokens) {
+        this.tokens = tokens;
+        kinds();
+    }
+
+    /**
+     * Tables of the node kinds reusable at each granularity, by the arena's kind ids, which compaction changes
+     */
+    private void kinds() {
+        String[] statements = {"assign", "swap", "output", "if", "while", "repeat", "for", "loop", "case", "read",
+                "exit", "return", "block"};
+        int[] statementKinds = new int[statements.length];
+        for (int i = 0; i < statements.length; i++)
+            statementKinds[i] = tree.kindOf(statements[i]);
+        int body = tree.kindOf("block");
+        int fcn = tree.kindOf("fcn");
+
+        int kinds = Math.max(fcn, Arrays.stream(statementKinds).max().getAsInt()) + 1;
+        reusable[STATEMENT] = new boolean[kinds];
+        for (int kind: statementKinds)
+            reusable[STATEMENT][kind] = true;
+        reusable[BODY] = new boolean[kinds];
+        reusable[BODY][body] = true;
+        reusable[FCN] = new boolean[kinds];
+        reusable[FCN][fcn] = true;
+    }
+
+    /**
+     * Parse the whole program
+     *
+     * @return root node of the AST in tree()
+     * @throws Exception on a syntax error
+     */
+    public int parse() throws Exception {
+        edited(0, treeTokens, tokens.size());
+        return reparse();
+    }
+
+    /**
+     * Bring the tree up to date with an edit of the tokens.
+     * If the edited program does not parse the previous tree is kept, and the edit is carried over to the next
+     * reparse
+     *
+     * @param from first token changed
+     * @param oldTo end of the changed tokens before the edit
+     * @param newTo end of the changed tokens after the edit
+     * @return root node of the AST in tree()
+     * @throws Exception on a syntax error
+     */
+    public int reparse(int from, int oldTo, int newTo) throws Exception {
+        edited(from, oldTo, newTo);
+        return reparse();
+    }
+
+    /**
+     * Record an edit of the tokens without parsing yet. Ranges are those of each edit at the time it was made
+     */
+    public void edited(int from, int oldTo, int newTo) {
+        int sizeBefore = tokens.size() - (newTo - oldTo);
+        unchangedHead = Math.min(unchangedHead, from);
+        unchangedTail = Math.min(unchangedTail, sizeBefore - oldTo);
+    }
+
+    /**
+     * True if edits were recorded since the tree was last built
+     */
+    public boolean pending() {
+        return root == AstArena.NONE || unchangedHead < treeTokens || unchangedTail < treeTokens ||
+                treeTokens != tokens.size();
+    }
+
+    /**
+     * Bring the tree up to date with the edits recorded so far
+     *
+     * @return root node of the AST in tree()
+     * @throws Exception on a lexical or syntax error, the first one, or CancellationException if cancel() was
+     *                   called meanwhile
+     */
+    public int reparse() throws Exception {
+        cancelled = false;
+        from = unchangedHead;
+        oldTo = treeTokens - unchangedTail;
+        newTo = tokens.size() - unchangedTail;
+
+        depth = 0;
+        if (root != AstArena.NONE)
+            enter(root, tree.offset(root), 0);
+        relinkedCount = 0;
+        shared = tree.size();
+
+        //Recovering past errors, still reusing what is outside the edits, so diagnostics() has them all
+        Parser parser = new Parser(tokens.stream(), tree, this);
+        ParseResult result;
+        diagnostics = new Diagnostics();
+        try {
+            result = parser.parse(diagnostics);
+        } catch (RuntimeException e) {
+            undo();
+            throw e;
+        }
+        if (!result.ok()) {
+            undo();
+            Diagnostic error = result.diagnostics().get(0);
+            errorPosition = error.token;
+            throw new Exception(error.toString());
+        }
+
+        root = result.root();
+        treeTokens = tokens.size();
+        unchangedHead = treeTokens;
+        unchangedTail = treeTokens;
+        errorPosition = -1;
+        if (shared == 0) {
+            live = tree.size();
+        } else if (tree.size() > 2 * live + 1024) {
+            root = tree.compact(root);
+            live = tree.size();
+            kinds();
+        }
+        return root;
+    }
+
+    /**
+     * Put the relinked nodes of the previous tree back and drop the new ones
+     */
+    private void undo() {
+        for (int i = 0; i < relinkedCount; i += 3) {
+            tree.setNextSibling(relinked[i], relinked[i + 1]);
+            tree.setOffset(relinked[i], relinked[i + 2]);
+        }
+        tree.truncate(shared);
+    }
+
+    /**
+     * Make a reparse running on another thread stop with a CancellationException at its next statement.
+     * The tree and the recorded edits are left as if it had never started
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Token the last reparse failed at, -1 if it succeeded
+     */
+    public int errorPosition() {
+        return errorPosition;
+    }
+
+    /**
+     * Lexical and syntax errors found by the last reparse, in token order; empty if it succeeded
+     */
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+
+    public AstArena tree() {
+        return tree;
+    }
+
+    public int root() {
+        return root;
+    }
+
+    public TokenBuffer tokens() {
+        return tokens;
+    }
+
+    /**
+     * Node of the previous tree the Parser can take instead of parsing from token position
+     *
+     * @param granularity STATEMENT, BODY or FCN
+     * @return reusable node, or NONE
+     */
+    int find(int granularity, int position) {
+        if (cancelled)
+            throw new CancellationException();
+
+        int old;
+        if (position < from)
+            old = position;
+        else if (position >= newTo)
+            old = position - newTo + oldTo;
+        else
+            return AstArena.NONE;
+
+        while (depth > 0) {
+            int node = cursor[depth - 1];
+            int start = cursorStart[depth - 1];
+            int width = tree.width(node);
+            if (start + width <= old) {
+                advance();
+                continue;
+            }
+            if (start > old)
+                return AstArena.NONE;
+
+            //Lookahead token after the node must be unchanged too
+            if (start == old && reusable(granularity, node) && (start + width < from || start >= oldTo)) {
+                advance();
+                return node;
+            }
+
+            int child = tree.firstChild(node);
+            if (child == AstArena.NONE)
+                advance();
+            else
+                enter(child, start + tree.offset(child), start);
+        }
+        return AstArena.NONE;
+    }
+
+    /**
+     * Called before the Parser links node under a new parent, so the link can be undone
+     */
+    void relinking(int node) {
+        if (node >= shared)
+            return;
+        if (relinkedCount + 3 > relinked.length)
+            relinked = Arrays.copyOf(relinked, relinked.length * 2);
+        relinked[relinkedCount++] = node;
+        relinked[relinkedCount++] = tree.nextSibling(node);
+        relinked[relinkedCount++] = tree.offset(node);
+    }
+
+    private boolean reusable(int granularity, int node) {
+        int kind = tree.kind(node);
+        return tree.width(node) > 0 && kind < reusable[granularity].length && reusable[granularity][kind];
+    }
+
+    private void enter(int node, int start, int parentStart) {
+        if (depth == cursor.length) {
+            cursor = Arrays.copyOf(cursor, depth * 2);
+            cursorStart = Arrays.copyOf(cursorStart, depth * 2);
+            cursorParentStart = Arrays.copyOf(cursorParentStart, depth * 2);
+        }
+        cursor[depth] = node;
+        cursorStart[depth] = start;
+        cursorParentStart[depth] = parentStart;
+        depth++;
+    }
+
+    /**
+     * Move the cursor past its current node, to the next sibling or else up to the next sibling of an ancestor
+     */
+    private void advance() {
+        while (depth > 0) {
+            int sibling = tree.nextSibling(cursor[depth - 1]);
+            if (sibling != AstArena.NONE) {
+                cursor[depth - 1] = sibling;
+                cursorStart[depth - 1] = cursorParentStart[depth - 1] + tree.offset(sibling);
+                return;
+            }
+            depth--;
+        }
+    }
+}
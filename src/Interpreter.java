@@ -0,0 +1,981 @@
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a program by compiling its AST once into a tree of closures, then calling the closure of its body.
+ * Names are resolved while compiling, from the declarations the SemanticAnalyzer found: variables become slots
+ * of an int[] frame, constants and enumerated literals their values, and calls refer straight to their function.
+ * The program's frame holds its variables, slot 0 being the dummy d. A call gets a new frame with the result in
+ * slot 0, the parameters from slot 1 and then the function's own variables. Each operator node gets a closure of
+ * its own, with constant operands folded in, so the JIT can inline the hot ones into each other.
+ * integer, char, boolean and enumerated values are all ints: chars their code, booleans 0 and 1, and enumerated
+ * literals their position in the type. 'and' and 'or' evaluate both operands, exit leaves the innermost loop, and
+ * a function that ends without a return gives 0.
+ * The program must have analyzed without errors
+ */
+public class Interpreter {
+    /**
+     * An expression, evaluated in the frame of its function or of the program
+     */
+    public interface Expression {
+        int eval(int[] frame) throws Exception;
+    }
+
+    /**
+     * A statement, run in the frame of its function or of the program
+     *
+     * @see #NORMAL
+     */
+    public interface Statement {
+        int run(int[] frame) throws Exception;
+    }
+
+    //How a statement ended: went on to the next one, ran exit, or ran return
+    public static final int NORMAL = 0;
+    public static final int EXIT = 1;
+    public static final int RETURN = 2;
+
+    //What a name is bound to
+    private static final int UNBOUND = 0;
+    private static final int LOCAL = 1;
+    private static final int GLOBAL = 2;
+    private static final int CONSTANT = 3;
+    private static final int FUNCTION = 4;
+
+    //Roles of the node kinds compiled
+    private static final int OTHER = 0;
+    private static final int PROGRAM = 1;
+    private static final int FCN = 2;
+    private static final int PARAMS = 3;
+    private static final int CONST = 4;
+    private static final int TYPE = 5;
+    private static final int VAR = 6;
+    private static final int IDENTIFIER = 7;
+    private static final int INTEGER_LITERAL = 8;
+    private static final int CHAR_LITERAL = 9;
+    private static final int STRING_LITERAL = 10;
+    private static final int PLUS = 11;
+    private static final int MINUS = 12;
+    private static final int TIMES = 13;
+    private static final int DIVIDE = 14;
+    private static final int MOD = 15;
+    private static final int AND = 16;
+    private static final int OR = 17;
+    private static final int NOT = 18;
+    private static final int LE = 19;
+    private static final int LT = 20;
+    private static final int GE = 21;
+    private static final int GT = 22;
+    private static final int EQ = 23;
+    private static final int NE = 24;
+    private static final int SUCC = 25;
+    private static final int PRED = 26;
+    //chr, ord, the 'integer' of an OutExp and otherwise: the child's closure as it is
+    private static final int PASS = 27;
+    private static final int EOF = 28;
+    private static final int TRUE = 29;
+    private static final int CALL = 30;
+    private static final int ASSIGN = 31;
+    private static final int SWAP = 32;
+    private static final int OUTPUT = 33;
+    private static final int READ = 34;
+    private static final int IF = 35;
+    private static final int WHILE = 36;
+    private static final int FOR = 37;
+    private static final int REPEAT = 38;
+    private static final int LOOP = 39;
+    private static final int BLOCK = 40;
+    private static final int CASE = 41;
+    private static final int CLAUSE = 42;
+    private static final int EXIT_STATEMENT = 43;
+    private static final int RETURN_STATEMENT = 44;
+    private static final int NULL = 45;
+
+    //Widest range of case labels dispatched through a table rather than tried in turn
+    private static final int MAX_TABLE = 256;
+
+    private static final Statement NOTHING = frame -> NORMAL;
+    private static final Statement EXIT_LOOP = frame -> EXIT;
+
+    private final AstArena tree;
+    private final SemanticAnalyzer analyzer;
+    //Role of each node kind, by the kind id in the tree; kinds past the end are OTHER
+    private int[] roles = new int[64];
+    //Binding of each declared name, by the identifier node declaring it, and its slot, value or function
+    private final int[] bindings;
+    private final int[] values;
+    private final List<Function> functions = new ArrayList<Function>();
+    //Frame of the program, which the functions reach its variables through
+    private int[] globals = new int[1];
+    private int globalCount = 1;
+    //The function being compiled and the slots it has used, null for the program's body
+    private Function function = null;
+    private int localCount = 0;
+    //Closures compiled for the nodes exited whose parent is not done yet, one for each node, null for nodes that
+    //compile to nothing
+    private Object[] items = new Object[64];
+    private int count = 0;
+    private final Statement main;
+    //Levels of the AST, which the closures nest as deep on the Java stack
+    private final int height;
+    private ProgramIO io;
+
+    /**
+     * A function's body and how large a frame it needs, filled in once the Fcn is compiled so calls to it can be
+     * compiled before, in its own body
+     */
+    private static final class Function {
+        Statement body = NOTHING;
+        int frameSize = 1;
+    }
+
+    private static final class Constant implements Expression {
+        final int value;
+
+        Constant(int value) {
+            this.value = value;
+        }
+
+        public int eval(int[] frame) {
+            return value;
+        }
+    }
+
+    private static final class Load implements Expression {
+        final int slot;
+
+        Load(int slot) {
+            this.slot = slot;
+        }
+
+        public int eval(int[] frame) {
+            return frame[slot];
+        }
+    }
+
+    /**
+     * Compile a program
+     *
+     * @param tree AST of the program
+     * @param root its program node
+     * @param analyzer the SemanticAnalyzer that analyzed it
+     */
+    public Interpreter(AstArena tree, int root, SemanticAnalyzer analyzer) {
+        this.tree = tree;
+        this.analyzer = analyzer;
+        bindings = new int[tree.size()];
+        values = new int[tree.size()];
+
+        role("program", PROGRAM);
+        role("fcn", FCN);
+        role("params", PARAMS);
+        role("const", CONST);
+        role("type", TYPE);
+        role("var", VAR);
+        role(LexerTokenType.IDENTIFIER.val, IDENTIFIER);
+        role(LexerTokenType.INTEGER.val, INTEGER_LITERAL);
+        role(LexerTokenType.CHAR.val, CHAR_LITERAL);
+        role(LexerTokenType.STRING.val, STRING_LITERAL);
+        role("+", PLUS);
+        role("-", MINUS);
+        role("*", TIMES);
+        role("/", DIVIDE);
+        role("mod", MOD);
+        role("and", AND);
+        role("or", OR);
+        role("not", NOT);
+        role("<=", LE);
+        role("<", LT);
+        role(">=", GE);
+        role(">", GT);
+        role("=", EQ);
+        role("<>", NE);
+        role("succ", SUCC);
+        role("pred", PRED);
+        role("chr", PASS);
+        role("ord", PASS);
+        role("integer", PASS);
+        role("otherwise", PASS);
+        role("eof", EOF);
+        role("true", TRUE);
+        role("call", CALL);
+        role("assign", ASSIGN);
+        role("swap", SWAP);
+        role("output", OUTPUT);
+        role("read", READ);
+        role("if", IF);
+        role("while", WHILE);
+        role("for", FOR);
+        role("repeat", REPEAT);
+        role("loop", LOOP);
+        role("block", BLOCK);
+        role("case", CASE);
+        role("case_clause", CLAUSE);
+        role("exit", EXIT_STATEMENT);
+        role("return", RETURN_STATEMENT);
+        role("<null>", NULL);
+
+        tree.walk(root, new AstArena.Visitor() {
+            public boolean enter(int node) {
+                return Interpreter.this.enter(node);
+            }
+
+            public void exit(int node) {
+                Interpreter.this.exit(node);
+            }
+        });
+        main = (Statement) items[--count];
+        height = tree.height(root);
+    }
+
+    private void role(String label, int role) {
+        int kind = tree.kindOf(label);
+        if (kind >= roles.length)
+            roles = Arrays.copyOf(roles, Math.max(roles.length * 2, kind + 1));
+        roles[kind] = role;
+    }
+
+    private int role(int node) {
+        int kind = tree.kind(node);
+        return kind < roles.length ? roles[kind] : OTHER;
+    }
+
+    /**
+     * Run the program, from fresh variables each time
+     *
+     * @param in what read reads
+     * @param out where output writes, flushed at the end
+     * @throws Exception on reading past the end of the input, dividing by zero or recursing too deep
+     */
+    public void run(Reader in, Writer out) throws Exception {
+        io = new ProgramIO(in, out);
+        Arrays.fill(globals, 0);
+        try {
+            ProgramThread.run(height, () -> main.run(globals));
+        } catch (ArithmeticException e) {
+            throw new Exception("Division by zero");
+        } catch (StackOverflowError e) {
+            throw new Exception("Recursion too deep");
+        } finally {
+            io.flush();
+        }
+    }
+
+    /**
+     * Declarations, on the way down
+     *
+     * @return false for the nodes whose children were dealt with here
+     */
+    private boolean enter(int node) {
+        switch (role(node)) {
+            case PROGRAM:
+                //The program's variables, after d
+                int dclns = child(node, 3);
+                int variables = 1;
+                for (int var = tree.firstChild(dclns); var != AstArena.NONE; var = tree.nextSibling(var))
+                    variables += tree.childCount(var) - 1;
+                globals = new int[variables];
+                return true;
+
+            case FCN:
+                function = new Function();
+                bind(tree.firstChild(node), FUNCTION, functions.size());
+                functions.add(function);
+                localCount = 1;
+                return true;
+
+            case PARAMS:
+                for (int var = tree.firstChild(node); var != AstArena.NONE; var = tree.nextSibling(var))
+                    declareVariables(var);
+                return false;
+
+            case CONST:
+                int name = tree.firstChild(node);
+                bind(name, CONSTANT, constant(tree.nextSibling(name)));
+                return false;
+
+            case TYPE:
+                int ordinal = 0;
+                for (int literal = tree.firstChild(child(node, 1)); literal != AstArena.NONE;
+                     literal = tree.nextSibling(literal))
+                    bind(literal, CONSTANT, ordinal++);
+                return false;
+
+            case VAR:
+                declareVariables(node);
+                return false;
+
+            case IDENTIFIER:
+            case INTEGER_LITERAL:
+            case CHAR_LITERAL:
+            case STRING_LITERAL:
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * The closure of a node from those of its children, on the way up
+     */
+    private void exit(int node) {
+        int role = role(node);
+        Object item;
+        switch (role) {
+            case PARAMS:
+            case CONST:
+            case TYPE:
+            case VAR:
+                item = null;
+                break;
+
+            case IDENTIFIER:
+                item = load(node);
+                break;
+
+            case INTEGER_LITERAL:
+            case CHAR_LITERAL:
+                item = new Constant(constant(node));
+                break;
+
+            case STRING_LITERAL:
+                String quoted = tree.label(tree.firstChild(node));
+                item = quoted.substring(1, quoted.length() - 1);
+                break;
+
+            default:
+                int base = count - tree.childCount(node);
+                item = compile(node, role, base);
+                Arrays.fill(items, base, count, null);
+                count = base;
+                break;
+        }
+        if (count == items.length)
+            items = Arrays.copyOf(items, count * 2);
+        items[count++] = item;
+    }
+
+    /**
+     * Closure of an inner node
+     *
+     * @param base where the closures of its children start in items
+     */
+    private Object compile(int node, int role, int base) {
+        int children = count - base;
+        switch (role) {
+            case PROGRAM:
+                return items[base + 5];
+
+            case FCN:
+                function.body = (Statement) items[base + 6];
+                function.frameSize = localCount;
+                function = null;
+                return null;
+
+            case PLUS:
+            case MINUS:
+                if (children == 2)
+                    return binary(role, expression(base), expression(base + 1));
+                if (role == PLUS)
+                    return items[base];
+                Expression operand = expression(base);
+                if (operand instanceof Constant)
+                    return new Constant(-((Constant) operand).value);
+                return (Expression) frame -> -operand.eval(frame);
+
+            case TIMES:
+            case DIVIDE:
+            case MOD:
+            case AND:
+            case OR:
+            case LE:
+            case LT:
+            case GE:
+            case GT:
+            case EQ:
+            case NE:
+                return binary(role, expression(base), expression(base + 1));
+
+            case NOT:
+            case SUCC:
+            case PRED:
+                return unary(role, expression(base));
+
+            case PASS:
+                return items[base];
+
+            case EOF:
+                return (Expression) frame -> io.eof() ? 1 : 0;
+
+            case TRUE:
+                return new Constant(1);
+
+            case CALL:
+                return call(tree.firstChild(node), base);
+
+            case ASSIGN:
+                return assign(tree.firstChild(node), expression(base + 1));
+
+            case SWAP:
+                return swap(tree.firstChild(node), child(node, 1));
+
+            case OUTPUT:
+                return output(base);
+
+            case READ:
+                return read(node);
+
+            case IF:
+                Expression condition = expression(base);
+                Statement then = statement(base + 1);
+                if (children == 2)
+                    return (Statement) frame -> condition.eval(frame) != 0 ? then.run(frame) : NORMAL;
+                Statement otherwise = statement(base + 2);
+                return (Statement) frame -> condition.eval(frame) != 0 ? then.run(frame) : otherwise.run(frame);
+
+            case WHILE:
+                return loop(NOTHING, expression(base), NOTHING, statement(base + 1));
+
+            case FOR:
+                return loop(statement(base), expression(base + 1), statement(base + 2), statement(base + 3));
+
+            case REPEAT:
+                return repeat(block(base, children - 1), expression(count - 1));
+
+            case LOOP:
+                return repeat(block(base, children), new Constant(0));
+
+            case BLOCK:
+                return block(base, children);
+
+            case CASE:
+                return caseStatement(node, base);
+
+            case CLAUSE:
+                //The statement, the labels are read from the tree
+                return items[count - 1];
+
+            case EXIT_STATEMENT:
+                return EXIT_LOOP;
+
+            case RETURN_STATEMENT:
+                Expression result = expression(base);
+                return (Statement) frame -> {
+                    frame[0] = result.eval(frame);
+                    return RETURN;
+                };
+
+            case NULL:
+                return NOTHING;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * An operator on two operands, folded if both are constant and specialized if the right one is
+     */
+    private Expression binary(int role, Expression left, Expression right) {
+        if (right instanceof Constant) {
+            int c = ((Constant) right).value;
+            if (left instanceof Constant && (c != 0 || (role != DIVIDE && role != MOD)))
+                return new Constant(apply(role, ((Constant) left).value, c));
+            if (left instanceof Load) {
+                int slot = ((Load) left).slot;
+                switch (role) {
+                    case PLUS:
+                        return frame -> frame[slot] + c;
+                    case MINUS:
+                        return frame -> frame[slot] - c;
+                    case LE:
+                        return frame -> frame[slot] <= c ? 1 : 0;
+                    case LT:
+                        return frame -> frame[slot] < c ? 1 : 0;
+                    case GE:
+                        return frame -> frame[slot] >= c ? 1 : 0;
+                    case GT:
+                        return frame -> frame[slot] > c ? 1 : 0;
+                    case EQ:
+                        return frame -> frame[slot] == c ? 1 : 0;
+                    case NE:
+                        return frame -> frame[slot] != c ? 1 : 0;
+                    default:
+                        break;
+                }
+            }
+            switch (role) {
+                case PLUS:
+                    return frame -> left.eval(frame) + c;
+                case MINUS:
+                    return frame -> left.eval(frame) - c;
+                case TIMES:
+                    return frame -> left.eval(frame) * c;
+                case DIVIDE:
+                    return frame -> left.eval(frame) / c;
+                case MOD:
+                    return frame -> left.eval(frame) % c;
+                case LE:
+                    return frame -> left.eval(frame) <= c ? 1 : 0;
+                case LT:
+                    return frame -> left.eval(frame) < c ? 1 : 0;
+                case GE:
+                    return frame -> left.eval(frame) >= c ? 1 : 0;
+                case GT:
+                    return frame -> left.eval(frame) > c ? 1 : 0;
+                case EQ:
+                    return frame -> left.eval(frame) == c ? 1 : 0;
+                case NE:
+                    return frame -> left.eval(frame) != c ? 1 : 0;
+                default:
+                    break;
+            }
+        }
+        switch (role) {
+            case PLUS:
+                return frame -> left.eval(frame) + right.eval(frame);
+            case MINUS:
+                return frame -> left.eval(frame) - right.eval(frame);
+            case TIMES:
+                return frame -> left.eval(frame) * right.eval(frame);
+            case DIVIDE:
+                return frame -> left.eval(frame) / right.eval(frame);
+            case MOD:
+                return frame -> left.eval(frame) % right.eval(frame);
+            case AND:
+                return frame -> left.eval(frame) & right.eval(frame);
+            case OR:
+                return frame -> left.eval(frame) | right.eval(frame);
+            case LE:
+                return frame -> left.eval(frame) <= right.eval(frame) ? 1 : 0;
+            case LT:
+                return frame -> left.eval(frame) < right.eval(frame) ? 1 : 0;
+            case GE:
+                return frame -> left.eval(frame) >= right.eval(frame) ? 1 : 0;
+            case GT:
+                return frame -> left.eval(frame) > right.eval(frame) ? 1 : 0;
+            case EQ:
+                return frame -> left.eval(frame) == right.eval(frame) ? 1 : 0;
+            default:
+                return frame -> left.eval(frame) != right.eval(frame) ? 1 : 0;
+        }
+    }
+
+    /**
+     * not, succ and pred
+     */
+    private static Expression unary(int role, Expression operand) {
+        if (operand instanceof Constant) {
+            int value = ((Constant) operand).value;
+            return new Constant(role == NOT ? value ^ 1 : role == SUCC ? value + 1 : value - 1);
+        }
+        switch (role) {
+            case NOT:
+                return frame -> operand.eval(frame) ^ 1;
+            case SUCC:
+                return frame -> operand.eval(frame) + 1;
+            default:
+                return frame -> operand.eval(frame) - 1;
+        }
+    }
+
+    private static int apply(int role, int left, int right) {
+        switch (role) {
+            case PLUS:
+                return left + right;
+            case MINUS:
+                return left - right;
+            case TIMES:
+                return left * right;
+            case DIVIDE:
+                return left / right;
+            case MOD:
+                return left % right;
+            case AND:
+                return left & right;
+            case OR:
+                return left | right;
+            case LE:
+                return left <= right ? 1 : 0;
+            case LT:
+                return left < right ? 1 : 0;
+            case GE:
+                return left >= right ? 1 : 0;
+            case GT:
+                return left > right ? 1 : 0;
+            case EQ:
+                return left == right ? 1 : 0;
+            default:
+                return left != right ? 1 : 0;
+        }
+    }
+
+    /**
+     * Call -> Name '(' Expression list ',' ')', the arguments into the callee's frame from slot 1
+     */
+    private Expression call(int name, int base) {
+        Function callee = functions.get(values[declaration(name)]);
+        Expression[] arguments = new Expression[count - base - 1];
+        for (int i = 0; i < arguments.length; i++)
+            arguments[i] = expression(base + 1 + i);
+        switch (arguments.length) {
+            case 0:
+                return frame -> {
+                    int[] inner = new int[callee.frameSize];
+                    callee.body.run(inner);
+                    return inner[0];
+                };
+            case 1:
+                Expression first = arguments[0];
+                return frame -> {
+                    int[] inner = new int[callee.frameSize];
+                    inner[1] = first.eval(frame);
+                    callee.body.run(inner);
+                    return inner[0];
+                };
+            default:
+                return frame -> {
+                    int[] inner = new int[callee.frameSize];
+                    for (int i = 0; i < arguments.length; i++)
+                        inner[i + 1] = arguments[i].eval(frame);
+                    callee.body.run(inner);
+                    return inner[0];
+                };
+        }
+    }
+
+    /**
+     * Assignment, with x := x + c and x := x - c of a variable in the frame as one closure
+     */
+    private Statement assign(int target, Expression value) {
+        int slot = values[declaration(target)];
+        int[] g = globals;
+        if (kind(target) == GLOBAL)
+            return frame -> {
+                g[slot] = value.eval(frame);
+                return NORMAL;
+            };
+
+        int expression = tree.nextSibling(target);
+        int role = role(expression);
+        if ((role == PLUS || role == MINUS) && tree.childCount(expression) == 2) {
+            int left = tree.firstChild(expression);
+            int right = tree.nextSibling(left);
+            if (role(left) == IDENTIFIER && kind(left) == LOCAL && values[declaration(left)] == slot
+                    && role(right) == INTEGER_LITERAL) {
+                int step = role == PLUS ? constant(right) : -constant(right);
+                return frame -> {
+                    frame[slot] += step;
+                    return NORMAL;
+                };
+            }
+        }
+        return frame -> {
+            frame[slot] = value.eval(frame);
+            return NORMAL;
+        };
+    }
+
+    /**
+     * Variables in the frame have no array of their own, frame is passed in its place
+     */
+    private Statement swap(int left, int right) {
+        int leftSlot = values[declaration(left)];
+        int rightSlot = values[declaration(right)];
+        int[] leftArray = kind(left) == GLOBAL ? globals : null;
+        int[] rightArray = kind(right) == GLOBAL ? globals : null;
+        return frame -> {
+            int[] l = leftArray == null ? frame : leftArray;
+            int[] r = rightArray == null ? frame : rightArray;
+            int value = l[leftSlot];
+            l[leftSlot] = r[rightSlot];
+            r[rightSlot] = value;
+            return NORMAL;
+        };
+    }
+
+    /**
+     * Read each variable in turn, a char for char variables and an integer for the others
+     */
+    private Statement read(int node) {
+        int variables = tree.childCount(node);
+        int[] slots = new int[variables];
+        int[][] arrays = new int[variables][];
+        boolean[] chars = new boolean[variables];
+        int i = 0;
+        for (int child = tree.firstChild(node); child != AstArena.NONE; child = tree.nextSibling(child), i++) {
+            slots[i] = values[declaration(child)];
+            arrays[i] = kind(child) == GLOBAL ? globals : null;
+            chars[i] = analyzer.type(child) == SemanticAnalyzer.CHAR;
+        }
+        return frame -> {
+            for (int v = 0; v < slots.length; v++) {
+                int[] array = arrays[v] == null ? frame : arrays[v];
+                array[slots[v]] = chars[v] ? io.readChar() : io.readInteger();
+            }
+            return NORMAL;
+        };
+    }
+
+    /**
+     * Output the items in turn, the integers compiled and the strings as they are
+     */
+    private Statement output(int base) {
+        Object[] outputs = Arrays.copyOfRange(items, base, count);
+        if (outputs.length == 1 && outputs[0] instanceof Expression) {
+            Expression value = (Expression) outputs[0];
+            return frame -> {
+                io.write(value.eval(frame));
+                return NORMAL;
+            };
+        }
+        return frame -> {
+            for (Object output: outputs) {
+                if (output instanceof Expression)
+                    io.write(((Expression) output).eval(frame));
+                else
+                    io.write((String) output);
+            }
+            return NORMAL;
+        };
+    }
+
+    /**
+     * while and for loops: the condition before each run of the body and the step after it
+     */
+    private static Statement loop(Statement start, Expression condition, Statement step, Statement body) {
+        return frame -> {
+            start.run(frame);
+            while (condition.eval(frame) != 0) {
+                int status = body.run(frame);
+                if (status != NORMAL)
+                    return status == EXIT ? NORMAL : status;
+                step.run(frame);
+            }
+            return NORMAL;
+        };
+    }
+
+    /**
+     * repeat and loop: the condition after each run of the body, false for a loop
+     */
+    private static Statement repeat(Statement body, Expression until) {
+        return frame -> {
+            do {
+                int status = body.run(frame);
+                if (status != NORMAL)
+                    return status == EXIT ? NORMAL : status;
+            } while (until.eval(frame) == 0);
+            return NORMAL;
+        };
+    }
+
+    /**
+     * Statements run in order, leaving out the null ones
+     */
+    private Statement block(int base, int length) {
+        List<Statement> list = new ArrayList<Statement>(length);
+        for (int i = base; i < base + length; i++) {
+            if (items[i] != NOTHING)
+                list.add((Statement) items[i]);
+        }
+        if (list.isEmpty())
+            return NOTHING;
+        if (list.size() == 1)
+            return list.get(0);
+        Statement[] statements = list.toArray(new Statement[0]);
+        return frame -> {
+            for (Statement statement: statements) {
+                int status = statement.run(frame);
+                if (status != NORMAL)
+                    return status;
+            }
+            return NORMAL;
+        };
+    }
+
+    /**
+     * Case -> 'case' Expression 'of' Caseclauses OtherwiseClause 'end'. The first clause with a label that matches
+     * runs, through a table indexed by the value if the labels span at most MAX_TABLE values, otherwise trying the
+     * ranges of labels in order
+     */
+    private Statement caseStatement(int node, int base) {
+        Expression selector = expression(base);
+        List<int[]> ranges = new ArrayList<int[]>();
+        List<Statement> targets = new ArrayList<Statement>();
+        Statement otherwise = NOTHING;
+        int i = base + 1;
+        for (int clause = tree.nextSibling(tree.firstChild(node)); clause != AstArena.NONE;
+             clause = tree.nextSibling(clause), i++) {
+            Statement statement = statement(i);
+            if (role(clause) != CLAUSE) {
+                otherwise = statement;
+                continue;
+            }
+            for (int label = tree.firstChild(clause); tree.nextSibling(label) != AstArena.NONE;
+                 label = tree.nextSibling(label)) {
+                boolean range = role(label) == OTHER;
+                int low = constant(range ? tree.firstChild(label) : label);
+                int high = range ? constant(child(label, 1)) : low;
+                if (low <= high) {
+                    ranges.add(new int[]{low, high});
+                    targets.add(statement);
+                }
+            }
+        }
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int[] range: ranges) {
+            min = Math.min(min, range[0]);
+            max = Math.max(max, range[1]);
+        }
+        Statement fallback = otherwise;
+        if (ranges.isEmpty())
+            return frame -> {
+                selector.eval(frame);
+                return fallback.run(frame);
+            };
+
+        if ((long) max - min < MAX_TABLE) {
+            Statement[] table = new Statement[max - min + 1];
+            Arrays.fill(table, otherwise);
+            //Last to first, so the first clause to match wins
+            for (int r = ranges.size() - 1; r >= 0; r--)
+                Arrays.fill(table, ranges.get(r)[0] - min, ranges.get(r)[1] - min + 1, targets.get(r));
+            int offset = min;
+            return frame -> {
+                int value = selector.eval(frame) - offset;
+                return value >= 0 && value < table.length ? table[value].run(frame) : fallback.run(frame);
+            };
+        }
+
+        int[] lows = new int[ranges.size()];
+        int[] highs = new int[ranges.size()];
+        for (int r = 0; r < lows.length; r++) {
+            lows[r] = ranges.get(r)[0];
+            highs[r] = ranges.get(r)[1];
+        }
+        Statement[] statements = targets.toArray(new Statement[0]);
+        return frame -> {
+            int value = selector.eval(frame);
+            for (int r = 0; r < lows.length; r++) {
+                if (value >= lows[r] && value <= highs[r])
+                    return statements[r].run(frame);
+            }
+            return fallback.run(frame);
+        };
+    }
+
+    /**
+     * Closure reading a name: a slot of the frame or of the program's frame, or a constant. null for names that
+     * are not values
+     */
+    private Expression load(int node) {
+        switch (kind(node)) {
+            case LOCAL:
+                return new Load(values[declaration(node)]);
+
+            case GLOBAL:
+                int[] g = globals;
+                int slot = values[declaration(node)];
+                return frame -> g[slot];
+
+            case CONSTANT:
+                return new Constant(constantOf(node));
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Slots in the frame for the names of a Dcln or of Params, in order
+     */
+    private void declareVariables(int var) {
+        for (int name = tree.firstChild(var); tree.nextSibling(name) != AstArena.NONE; name = tree.nextSibling(name)) {
+            if (function != null)
+                bind(name, LOCAL, localCount++);
+            else
+                bind(name, GLOBAL, globalCount++);
+        }
+    }
+
+    private void bind(int name, int binding, int value) {
+        bindings[name] = binding;
+        values[name] = value;
+    }
+
+    /**
+     * How the name of an identifier node is bound where it is used. The program's own variables are in the
+     * frame of its body, and d, unless declared, is its slot 0
+     */
+    private int kind(int node) {
+        int declaration = analyzer.declaration(node);
+        int binding = UNBOUND;
+        if (declaration != AstArena.NONE)
+            binding = bindings[declaration];
+        else if (text(node).equals("d"))
+            binding = GLOBAL;
+        else if (text(node).equals("true") || text(node).equals("false"))
+            binding = CONSTANT;
+        return binding == GLOBAL && function == null ? LOCAL : binding;
+    }
+
+    /**
+     * Node that declares the name of an identifier node, where its binding is kept; for d, a node bound to slot 0
+     * of the program
+     */
+    private int declaration(int node) {
+        int declaration = analyzer.declaration(node);
+        return declaration != AstArena.NONE ? declaration : node;
+    }
+
+    /**
+     * Value of a constant name, true and false included
+     */
+    private int constantOf(int node) {
+        int declaration = analyzer.declaration(node);
+        if (declaration != AstArena.NONE)
+            return values[declaration];
+        return text(node).equals("true") ? 1 : 0;
+    }
+
+    /**
+     * Value of a ConstValue or case label: an integer, a char or a constant name
+     */
+    private int constant(int node) {
+        String text = tree.label(tree.firstChild(node));
+        switch (role(node)) {
+            case INTEGER_LITERAL:
+                return Integer.parseInt(text);
+            case CHAR_LITERAL:
+                return text.charAt(1);
+            default:
+                return constantOf(node);
+        }
+    }
+
+    private Expression expression(int item) {
+        return (Expression) items[item];
+    }
+
+    private Statement statement(int item) {
+        return (Statement) items[item];
+    }
+
+    private int child(int node, int index) {
+        int child = tree.firstChild(node);
+        for (int i = 0; i < index; i++)
+            child = tree.nextSibling(child);
+        return child;
+    }
+
+    private String text(int node) {
+        return tree.label(tree.firstChild(node));
+    }
+}
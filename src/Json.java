@@ -0,0 +1,254 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON for the language server messages.
+ * Objects read as LinkedHashMap, arrays as ArrayList, numbers as Long (Double if they have a fraction or
+ * exponent), and true/false/null as Boolean and null. write takes the same types back, plus any other Number
+ */
+public class Json {
+    private final String text;
+    private int pos = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param text a single JSON value
+     * @throws Exception if the text is not valid JSON
+     */
+    public static Object parse(String text) throws Exception {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipSpace();
+        if (json.pos != text.length())
+            throw new Exception("Unexpected '" + text.charAt(json.pos) + "' at " + json.pos + " after JSON value");
+        return value;
+    }
+
+    public static String write(Object value) {
+        StringBuilder out = new StringBuilder();
+        write(value, out);
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void write(Object value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString((String) value, out);
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> entry: ((Map<String, Object>) value).entrySet()) {
+                if (!first)
+                    out.append(',');
+                first = false;
+                writeString(entry.getKey(), out);
+                out.append(':');
+                write(entry.getValue(), out);
+            }
+            out.append('}');
+        } else if (value instanceof List) {
+            out.append('[');
+            boolean first = true;
+            for (Object element: (List<Object>) value) {
+                if (!first)
+                    out.append(',');
+                first = false;
+                write(element, out);
+            }
+            out.append(']');
+        } else {
+            out.append(value);
+        }
+    }
+
+    private static void writeString(String s, StringBuilder out) {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private Object value() throws Exception {
+        skipSpace();
+        if (pos == text.length())
+            throw new Exception("Unexpected end of JSON");
+
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    return number();
+                throw new Exception("Unexpected '" + c + "' at " + pos + " in JSON");
+        }
+    }
+
+    private Map<String, Object> object() throws Exception {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        pos++;
+        skipSpace();
+        if (peek() == '}') {
+            pos++;
+            return object;
+        }
+        while (true) {
+            skipSpace();
+            if (peek() != '"')
+                throw new Exception("Expected a member name at " + pos + " in JSON");
+            String name = string();
+            skipSpace();
+            expect(':');
+            object.put(name, value());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> array() throws Exception {
+        List<Object> array = new ArrayList<Object>();
+        pos++;
+        skipSpace();
+        if (peek() == ']') {
+            pos++;
+            return array;
+        }
+        while (true) {
+            array.add(value());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String string() throws Exception {
+        StringBuilder s = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= text.length())
+                throw new Exception("Unterminated string in JSON");
+            char c = text.charAt(pos++);
+            if (c == '"')
+                return s.toString();
+            if (c != '\\') {
+                s.append(c);
+                continue;
+            }
+
+            if (pos >= text.length())
+                throw new Exception("Unterminated string in JSON");
+            char escaped = text.charAt(pos++);
+            switch (escaped) {
+                case 'b':
+                    s.append('\b');
+                    break;
+                case 'f':
+                    s.append('\f');
+                    break;
+                case 'n':
+                    s.append('\n');
+                    break;
+                case 'r':
+                    s.append('\r');
+                    break;
+                case 't':
+                    s.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length())
+                        throw new Exception("Bad unicode escape in JSON");
+                    s.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    s.append(escaped);
+            }
+        }
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean fraction = false;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E')
+                fraction = true;
+            else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9')))
+                break;
+            pos++;
+        }
+        String number = text.substring(start, pos);
+        return fraction ? (Object) Double.valueOf(number) : (Object) Long.valueOf(number);
+    }
+
+    private Object literal(String word, Object value) throws Exception {
+        if (!text.startsWith(word, pos))
+            throw new Exception("Unexpected '" + text.charAt(pos) + "' at " + pos + " in JSON");
+        pos += word.length();
+        return value;
+    }
+
+    private void expect(char c) throws Exception {
+        if (peek() != c)
+            throw new Exception("Expected '" + c + "' at " + pos + " in JSON");
+        pos++;
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+    }
+}
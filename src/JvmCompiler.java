@@ -0,0 +1,988 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles a program to a JVM class named after it, so the JIT compiles it like Java code. In one walk over the
+ * AST, each Fcn becomes a static method taking and returning ints, its parameters and variables in JVM locals, the
+ * program's variables (and d) become static int fields, and its body the method $main. Values are ints as in the
+ * Interpreter, and the semantics are the same: constants are folded into the code, relational operators in
+ * conditions branch directly, x := x +- c of a local is an iinc, and case dispatches through a tableswitch when its
+ * labels span few values, a lookupswitch when they are single values, and tries each range in turn otherwise.
+ * $run(ProgramIO) clears the fields and runs $main with read and output going through the ProgramIO, and main
+ * runs it on stdin and stdout, so a class file written to disk runs with java, with the compiler on the class
+ * path for ProgramIO. load defines the class in this JVM as a hidden class instead.
+ * The program must have analyzed without errors
+ */
+public class JvmCompiler {
+    private static final String IO = "ProgramIO";
+    private static final String IO_DESCRIPTOR = "LProgramIO;";
+
+    //What a name is bound to
+    private static final int UNBOUND = 0;
+    private static final int LOCAL = 1;
+    private static final int GLOBAL = 2;
+    private static final int CONSTANT = 3;
+    private static final int FUNCTION = 4;
+
+    //Roles of the node kinds compiled
+    private static final int OTHER = 0;
+    private static final int PROGRAM = 1;
+    private static final int FCN = 2;
+    private static final int PARAMS = 3;
+    private static final int CONST = 4;
+    private static final int TYPE = 5;
+    private static final int VAR = 6;
+    private static final int IDENTIFIER = 7;
+    private static final int INTEGER_LITERAL = 8;
+    private static final int CHAR_LITERAL = 9;
+    private static final int STRING_LITERAL = 10;
+    private static final int PLUS = 11;
+    private static final int MINUS = 12;
+    private static final int TIMES = 13;
+    private static final int DIVIDE = 14;
+    private static final int MOD = 15;
+    private static final int AND = 16;
+    private static final int OR = 17;
+    private static final int NOT = 18;
+    private static final int LE = 19;
+    private static final int LT = 20;
+    private static final int GE = 21;
+    private static final int GT = 22;
+    private static final int EQ = 23;
+    private static final int NE = 24;
+    private static final int SUCC = 25;
+    private static final int PRED = 26;
+    private static final int EOF = 27;
+    private static final int TRUE = 28;
+    private static final int CALL = 29;
+    private static final int ASSIGN = 30;
+    private static final int SWAP = 31;
+    private static final int OUT_INTEGER = 32;
+    private static final int READ = 33;
+    private static final int IF = 34;
+    private static final int WHILE = 35;
+    private static final int FOR = 36;
+    private static final int REPEAT = 37;
+    private static final int LOOP = 38;
+    private static final int CASE = 39;
+    private static final int CLAUSE = 40;
+    private static final int OTHERWISE = 41;
+    private static final int RANGE = 42;
+    private static final int EXIT = 43;
+    private static final int RETURN = 44;
+
+    //Widest range of case labels dispatched through a tableswitch
+    private static final int MAX_TABLE = 256;
+
+    //Flags of the open nodes: children skipped, and a condition child that has branched already
+    private static final int SKIPPED = 1;
+    private static final int BRANCHED = 2;
+
+    private final AstArena tree;
+    private final SemanticAnalyzer analyzer;
+    private final ClassFile file;
+    //Role of each node kind, by the kind id in the tree; kinds past the end are OTHER
+    private int[] roles = new int[64];
+    //Binding of each declared name, by the identifier node declaring it, and its local slot, value or number of
+    //parameters
+    private final int[] bindings;
+    private final int[] values;
+    private final List<String> globals = new ArrayList<String>();
+    //Method being compiled, null between them, and the locals of the function being compiled
+    private ClassFile.Method code = null;
+    private boolean inFunction = false;
+    private int localCount = 0;
+    private int parameterCount = 0;
+    //Nodes entered and not exited yet, with their roles, the index of their next child, their first label and
+    //their flags
+    private int[] openNodes = new int[64];
+    private int[] openRoles = new int[64];
+    private int[] openChildren = new int[64];
+    private int[] openLabels = new int[64];
+    private int[] openFlags = new int[64];
+    private int open = 0;
+    private final byte[] classFile;
+    private MethodHandle program = null;
+
+    /**
+     * Compile a program
+     *
+     * @param tree AST of the program
+     * @param root its program node
+     * @param analyzer the SemanticAnalyzer that analyzed it
+     * @throws IOException if a function or the program is too large for the JVM
+     */
+    public JvmCompiler(AstArena tree, int root, SemanticAnalyzer analyzer) throws IOException {
+        this.tree = tree;
+        this.analyzer = analyzer;
+        bindings = new int[tree.size()];
+        values = new int[tree.size()];
+        file = new ClassFile(text(tree.firstChild(root)));
+
+        role("program", PROGRAM);
+        role("fcn", FCN);
+        role("params", PARAMS);
+        role("const", CONST);
+        role("type", TYPE);
+        role("var", VAR);
+        role(LexerTokenType.IDENTIFIER.val, IDENTIFIER);
+        role(LexerTokenType.INTEGER.val, INTEGER_LITERAL);
+        role(LexerTokenType.CHAR.val, CHAR_LITERAL);
+        role(LexerTokenType.STRING.val, STRING_LITERAL);
+        role("+", PLUS);
+        role("-", MINUS);
+        role("*", TIMES);
+        role("/", DIVIDE);
+        role("mod", MOD);
+        role("and", AND);
+        role("or", OR);
+        role("not", NOT);
+        role("<=", LE);
+        role("<", LT);
+        role(">=", GE);
+        role(">", GT);
+        role("=", EQ);
+        role("<>", NE);
+        role("succ", SUCC);
+        role("pred", PRED);
+        role("eof", EOF);
+        role("true", TRUE);
+        role("call", CALL);
+        role("assign", ASSIGN);
+        role("swap", SWAP);
+        role("integer", OUT_INTEGER);
+        role("read", READ);
+        role("if", IF);
+        role("while", WHILE);
+        role("for", FOR);
+        role("repeat", REPEAT);
+        role("loop", LOOP);
+        role("case", CASE);
+        role("case_clause", CLAUSE);
+        role("otherwise", OTHERWISE);
+        role("..", RANGE);
+        role("exit", EXIT);
+        role("return", RETURN);
+
+        globals.add("d");
+        IOException[] failure = new IOException[1];
+        tree.walk(root, new AstArena.Visitor() {
+            public boolean enter(int node) {
+                return failure[0] == null && JvmCompiler.this.enter(node);
+            }
+
+            public void exit(int node) {
+                try {
+                    if (failure[0] == null)
+                        JvmCompiler.this.exit(node);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null)
+            throw failure[0];
+        runtime();
+        classFile = file.toByteArray();
+    }
+
+    private void role(String label, int role) {
+        int kind = tree.kindOf(label);
+        if (kind >= roles.length)
+            roles = Arrays.copyOf(roles, Math.max(roles.length * 2, kind + 1));
+        roles[kind] = role;
+    }
+
+    private int role(int node) {
+        int kind = tree.kind(node);
+        return kind < roles.length ? roles[kind] : OTHER;
+    }
+
+    /**
+     * Name of the class, the program's
+     */
+    public String className() {
+        return file.name();
+    }
+
+    public byte[] classFile() {
+        return classFile.clone();
+    }
+
+    /**
+     * Write the class file into a directory
+     *
+     * @return its path, the class name with .class
+     */
+    public Path write(Path directory) throws IOException {
+        Path path = directory.resolve(className() + ".class");
+        Files.write(path, classFile);
+        return path;
+    }
+
+    /**
+     * Define the class in this JVM, as a hidden class that goes away once it is no longer used
+     *
+     * @return its $run(ProgramIO)
+     * @throws Exception if the JVM rejects the class
+     */
+    public MethodHandle load() throws Exception {
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+        return lookup.findStatic(lookup.lookupClass(), "$run", MethodType.methodType(void.class, ProgramIO.class));
+    }
+
+    /**
+     * Run the program in this JVM, loading its class the first time
+     *
+     * @param in what read reads
+     * @param out where output writes, flushed at the end
+     * @throws Exception on reading past the end of the input, dividing by zero or recursing too deep
+     */
+    public void run(Reader in, Writer out) throws Exception {
+        if (program == null)
+            program = load();
+        ProgramIO io = new ProgramIO(in, out);
+        try {
+            program.invokeExact(io);
+        } catch (ArithmeticException e) {
+            throw new Exception("Division by zero");
+        } catch (StackOverflowError e) {
+            throw new Exception("Recursion too deep");
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new Exception(e);
+        } finally {
+            io.flush();
+        }
+    }
+
+    /**
+     * Declarations, code before each child and the leaves of expressions, on the way down
+     *
+     * @return false for the nodes whose children were dealt with here
+     */
+    private boolean enter(int node) {
+        int parentRole = OTHER;
+        int index = 0;
+        if (open > 0) {
+            parentRole = openRoles[open - 1];
+            index = openChildren[open - 1]++;
+            before(open - 1, index);
+        }
+        int role = role(node);
+        if (open == openNodes.length) {
+            openNodes = Arrays.copyOf(openNodes, open * 2);
+            openRoles = Arrays.copyOf(openRoles, open * 2);
+            openChildren = Arrays.copyOf(openChildren, open * 2);
+            openLabels = Arrays.copyOf(openLabels, open * 2);
+            openFlags = Arrays.copyOf(openFlags, open * 2);
+        }
+        openNodes[open] = node;
+        openRoles[open] = role;
+        openChildren[open] = 0;
+        openLabels[open] = -1;
+        openFlags[open++] = 0;
+
+        boolean children = enter(node, role, parentRole, index);
+        if (!children)
+            openFlags[open - 1] |= SKIPPED;
+        return children;
+    }
+
+    private boolean enter(int node, int role, int parentRole, int index) {
+        switch (role) {
+            case PROGRAM:
+                //Every function first, with its number of parameters, so calls can come before the function
+                for (int fcn = tree.firstChild(child(node, 4)); fcn != AstArena.NONE; fcn = tree.nextSibling(fcn)) {
+                    int parameters = 0;
+                    for (int var = tree.firstChild(child(fcn, 1)); var != AstArena.NONE; var = tree.nextSibling(var))
+                        parameters += tree.childCount(var) - 1;
+                    bind(tree.firstChild(fcn), FUNCTION, parameters);
+                }
+                return true;
+
+            case FCN:
+                inFunction = true;
+                localCount = 0;
+                return true;
+
+            case PARAMS:
+                for (int var = tree.firstChild(node); var != AstArena.NONE; var = tree.nextSibling(var))
+                    declareVariables(var);
+                parameterCount = localCount;
+                return false;
+
+            case CONST:
+                int name = tree.firstChild(node);
+                bind(name, CONSTANT, constant(tree.nextSibling(name)));
+                return false;
+
+            case TYPE:
+                int ordinal = 0;
+                for (int literal = tree.firstChild(child(node, 1)); literal != AstArena.NONE;
+                     literal = tree.nextSibling(literal))
+                    bind(literal, CONSTANT, ordinal++);
+                return false;
+
+            case VAR:
+                declareVariables(node);
+                return false;
+
+            case IDENTIFIER:
+                //Not the names of the program, functions and types, assignment targets or case labels
+                if (parentRole != PROGRAM && parentRole != FCN && !(parentRole == CALL && index == 0)
+                        && !(parentRole == ASSIGN && index == 0) && parentRole != CLAUSE)
+                    load(node);
+                return false;
+
+            case INTEGER_LITERAL:
+            case CHAR_LITERAL:
+                if (parentRole != CLAUSE)
+                    code.push(constant(node));
+                return false;
+
+            case STRING_LITERAL:
+                String quoted = text(node);
+                code.getStatic(file.name(), "$io", IO_DESCRIPTOR);
+                code.pushString(quoted.substring(1, quoted.length() - 1));
+                code.invokeVirtual(IO, "write", "(Ljava/lang/String;)V");
+                return false;
+
+            case TRUE:
+                //The missing condition of a for, which then does not branch
+                openFlags[open - 2] |= BRANCHED;
+                return false;
+
+            case ASSIGN:
+                return !increment(node);
+
+            case SWAP:
+                int left = tree.firstChild(node);
+                int right = tree.nextSibling(left);
+                load(left);
+                load(right);
+                store(left);
+                store(right);
+                return false;
+
+            case READ:
+                for (int variable = tree.firstChild(node); variable != AstArena.NONE;
+                     variable = tree.nextSibling(variable)) {
+                    if (analyzer.type(variable) == SemanticAnalyzer.CHAR)
+                        code.invokeStatic(file.name(), "$readChar", "()I");
+                    else
+                        code.invokeStatic(file.name(), "$readInteger", "()I");
+                    store(variable);
+                }
+                return false;
+
+            case IF:
+                labels(2);
+                return true;
+
+            case WHILE:
+            case REPEAT:
+            case LOOP:
+                //End, then the top
+                labels(2);
+                code.bind(openLabels[open - 1] + 1);
+                return true;
+
+            case FOR:
+                //End, condition, step, body
+                labels(4);
+                return true;
+
+            case CASE:
+                //End, then one for each clause by its index, then no match
+                labels(tree.childCount(node) + 1);
+                return true;
+
+            case CLAUSE:
+            case OTHERWISE:
+                code.bind(openLabels[open - 2] + index);
+                return true;
+
+            case RANGE:
+                return false;
+
+            case EXIT:
+                for (int o = open - 2; o >= 0; o--) {
+                    int loop = openRoles[o];
+                    if (loop == WHILE || loop == REPEAT || loop == LOOP || loop == FOR) {
+                        code.jump(ClassFile.GOTO, openLabels[o]);
+                        return false;
+                    }
+                }
+                leave();
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Code between the children of an open node, before the child at index
+     */
+    private void before(int at, int index) {
+        int node = openNodes[at];
+        int labels = openLabels[at];
+        switch (openRoles[at]) {
+            case PROGRAM:
+                if (index == 5)
+                    code = file.new Method(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, "$main", "()V", 0);
+                break;
+
+            case FCN:
+                if (index == 6) {
+                    code = file.new Method(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, text(tree.firstChild(node)),
+                            descriptor(parameterCount), localCount);
+                    //Every local is an int from the start
+                    for (int slot = parameterCount; slot < localCount; slot++) {
+                        code.push(0);
+                        code.store(slot);
+                    }
+                }
+                break;
+
+            case IF:
+                if (index == 1) {
+                    branch(at, labels);
+                } else if (index == 2) {
+                    code.jump(ClassFile.GOTO, labels + 1);
+                    code.bind(labels);
+                }
+                break;
+
+            case WHILE:
+                if (index == 1)
+                    branch(at, labels);
+                break;
+
+            case FOR:
+                if (index == 1) {
+                    code.bind(labels + 1);
+                } else if (index == 2) {
+                    branch(at, labels);
+                    code.jump(ClassFile.GOTO, labels + 3);
+                    code.bind(labels + 2);
+                } else if (index == 3) {
+                    code.jump(ClassFile.GOTO, labels + 1);
+                    code.bind(labels + 3);
+                }
+                break;
+
+            case CASE:
+                if (index == 1)
+                    dispatch(node, labels);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Operators, stores and the ends of statements, on the way up once the children are done
+     */
+    private void exit(int node) throws IOException {
+        int at = --open;
+        if ((openFlags[at] & SKIPPED) != 0)
+            return;
+        int labels = openLabels[at];
+        switch (openRoles[at]) {
+            case PROGRAM:
+                code.op(ClassFile.RETURN, 0);
+                code.end();
+                code = null;
+                break;
+
+            case FCN:
+                leave();
+                code.end();
+                code = null;
+                inFunction = false;
+                break;
+
+            case PLUS:
+                if (tree.childCount(node) == 2)
+                    code.op(ClassFile.IADD, -1);
+                break;
+
+            case MINUS:
+                if (tree.childCount(node) == 2)
+                    code.op(ClassFile.ISUB, -1);
+                else
+                    code.op(ClassFile.INEG, 0);
+                break;
+
+            case TIMES:
+                code.op(ClassFile.IMUL, -1);
+                break;
+
+            case DIVIDE:
+                code.op(ClassFile.IDIV, -1);
+                break;
+
+            case MOD:
+                code.op(ClassFile.IREM, -1);
+                break;
+
+            case AND:
+                code.op(ClassFile.IAND, -1);
+                break;
+
+            case OR:
+                code.op(ClassFile.IOR, -1);
+                break;
+
+            case NOT:
+                code.push(1);
+                code.op(ClassFile.IXOR, -1);
+                break;
+
+            case SUCC:
+                code.push(1);
+                code.op(ClassFile.IADD, -1);
+                break;
+
+            case PRED:
+                code.push(1);
+                code.op(ClassFile.ISUB, -1);
+                break;
+
+            case LE:
+            case LT:
+            case GE:
+            case GT:
+            case EQ:
+            case NE:
+                compare(node, openRoles[at], at);
+                break;
+
+            case EOF:
+                code.invokeStatic(file.name(), "$eof", "()I");
+                break;
+
+            case CALL:
+                int name = tree.firstChild(node);
+                code.invokeStatic(file.name(), text(name), descriptor(values[analyzer.declaration(name)]));
+                break;
+
+            case ASSIGN:
+                store(tree.firstChild(node));
+                break;
+
+            case OUT_INTEGER:
+                code.invokeStatic(file.name(), "$write", "(I)V");
+                break;
+
+            case IF:
+                code.bind(tree.childCount(node) == 3 ? labels + 1 : labels);
+                break;
+
+            case WHILE:
+            case LOOP:
+                code.jump(ClassFile.GOTO, labels + 1);
+                code.bind(labels);
+                break;
+
+            case REPEAT:
+                branch(at, labels + 1);
+                code.bind(labels);
+                break;
+
+            case FOR:
+                code.jump(ClassFile.GOTO, labels + 2);
+                code.bind(labels);
+                break;
+
+            case CLAUSE:
+            case OTHERWISE:
+                code.jump(ClassFile.GOTO, openLabels[at - 1]);
+                break;
+
+            case CASE:
+                code.bind(labels + tree.childCount(node));
+                code.bind(labels);
+                break;
+
+            case RETURN:
+                code.op(ClassFile.IRETURN, -1);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * A relational operator: a branch to the false label of the statement if it is its condition, otherwise 0 or 1
+     * on the stack
+     */
+    private void compare(int node, int role, int at) {
+        int parentAt = at - 1;
+        int parentRole = openRoles[parentAt];
+        int index = openChildren[parentAt] - 1;
+        boolean condition = (parentRole == IF || parentRole == WHILE) && index == 0
+                || parentRole == FOR && index == 1
+                || parentRole == REPEAT && index == tree.childCount(openNodes[parentAt]) - 1;
+        if (condition) {
+            //Branch when false: to the else or end of an if, the end of a while or for, the top of a repeat
+            int target = openLabels[parentAt] + (parentRole == REPEAT ? 1 : 0);
+            code.jump(negate(role), target);
+            openFlags[parentAt] |= BRANCHED;
+            return;
+        }
+        int yes = code.newLabel();
+        int done = code.newLabel();
+        code.jump(negate(negate(role)), yes);
+        code.push(0);
+        code.jump(ClassFile.GOTO, done);
+        code.bind(yes);
+        code.push(1);
+        code.bind(done);
+    }
+
+    /**
+     * if_icmp opcode that branches when a relational operator is false, or with it negated again, when it is true
+     */
+    private static int negate(int role) {
+        switch (role) {
+            case LE:
+                return ClassFile.IF_ICMPGT;
+            case LT:
+                return ClassFile.IF_ICMPGE;
+            case GE:
+                return ClassFile.IF_ICMPLT;
+            case GT:
+                return ClassFile.IF_ICMPLE;
+            case EQ:
+                return ClassFile.IF_ICMPNE;
+            case NE:
+                return ClassFile.IF_ICMPEQ;
+            case ClassFile.IF_ICMPGT:
+                return ClassFile.IF_ICMPLE;
+            case ClassFile.IF_ICMPGE:
+                return ClassFile.IF_ICMPLT;
+            case ClassFile.IF_ICMPLT:
+                return ClassFile.IF_ICMPGE;
+            case ClassFile.IF_ICMPLE:
+                return ClassFile.IF_ICMPGT;
+            case ClassFile.IF_ICMPNE:
+                return ClassFile.IF_ICMPEQ;
+            default:
+                return ClassFile.IF_ICMPNE;
+        }
+    }
+
+    /**
+     * Branch to a label when the condition on the stack is false, unless the condition branched already
+     */
+    private void branch(int at, int label) {
+        if ((openFlags[at] & BRANCHED) == 0)
+            code.jump(ClassFile.IFEQ, label);
+    }
+
+    /**
+     * Jump from the selector on the stack to the label of the first clause with a matching label, or the
+     * otherwise clause, or the end
+     */
+    private void dispatch(int node, int labels) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        int noMatch = labels + tree.childCount(node);
+        int index = 1;
+        for (int clause = tree.nextSibling(tree.firstChild(node)); clause != AstArena.NONE;
+             clause = tree.nextSibling(clause), index++) {
+            if (role(clause) == OTHERWISE) {
+                noMatch = labels + index;
+                continue;
+            }
+            for (int label = tree.firstChild(clause); tree.nextSibling(label) != AstArena.NONE;
+                 label = tree.nextSibling(label)) {
+                boolean range = role(label) == RANGE;
+                int low = constant(range ? tree.firstChild(label) : label);
+                int high = range ? constant(child(label, 1)) : low;
+                if (low <= high)
+                    ranges.add(new int[]{low, high, labels + index});
+            }
+        }
+        if (ranges.isEmpty()) {
+            code.op(ClassFile.POP, -1);
+            code.jump(ClassFile.GOTO, noMatch);
+            return;
+        }
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        boolean single = true;
+        for (int[] range: ranges) {
+            min = Math.min(min, range[0]);
+            max = Math.max(max, range[1]);
+            single &= range[0] == range[1];
+        }
+        if (max - min < MAX_TABLE) {
+            int[] targets = new int[(int) (max - min + 1)];
+            Arrays.fill(targets, noMatch);
+            //Last to first, so the first clause to match wins
+            for (int r = ranges.size() - 1; r >= 0; r--) {
+                int[] range = ranges.get(r);
+                Arrays.fill(targets, (int) (range[0] - min), (int) (range[1] - min + 1), range[2]);
+            }
+            code.tableSwitch((int) min, noMatch, targets);
+        } else if (single) {
+            ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+            int[] keys = new int[ranges.size()];
+            int[] targets = new int[ranges.size()];
+            int count = 0;
+            for (int[] range: ranges) {
+                //Sorted stably, the first clause of a value comes first
+                if (count > 0 && keys[count - 1] == range[0])
+                    continue;
+                keys[count] = range[0];
+                targets[count++] = range[2];
+            }
+            code.lookupSwitch(noMatch, Arrays.copyOf(keys, count), Arrays.copyOf(targets, count));
+        } else {
+            for (int[] range: ranges) {
+                int next = code.newLabel();
+                code.op(ClassFile.DUP, 1);
+                code.push(range[0]);
+                code.jump(ClassFile.IF_ICMPLT, next);
+                code.op(ClassFile.DUP, 1);
+                code.push(range[1]);
+                code.jump(ClassFile.IF_ICMPGT, next);
+                code.op(ClassFile.POP, -1);
+                code.jump(ClassFile.GOTO, range[2]);
+                code.bind(next);
+            }
+            code.op(ClassFile.POP, -1);
+            code.jump(ClassFile.GOTO, noMatch);
+        }
+    }
+
+    /**
+     * x := x + c and x := x - c of a local as an iinc
+     *
+     * @return true if the assignment was one
+     */
+    private boolean increment(int node) {
+        int target = tree.firstChild(node);
+        int expression = tree.nextSibling(target);
+        int role = role(expression);
+        if ((role != PLUS && role != MINUS) || tree.childCount(expression) != 2 || kind(target) != LOCAL)
+            return false;
+        int left = tree.firstChild(expression);
+        int right = tree.nextSibling(left);
+        if (role(left) != IDENTIFIER || kind(left) != LOCAL || slot(left) != slot(target)
+                || role(right) != INTEGER_LITERAL)
+            return false;
+        int delta = role == PLUS ? constant(right) : -constant(right);
+        if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE)
+            return false;
+        code.increment(slot(target), delta);
+        return true;
+    }
+
+    /**
+     * Leave the function with 0, or the program, as at its end
+     */
+    private void leave() {
+        if (inFunction) {
+            code.push(0);
+            code.op(ClassFile.IRETURN, -1);
+        } else {
+            code.op(ClassFile.RETURN, 0);
+        }
+    }
+
+    /**
+     * The static field with the ProgramIO, $run, main, and the methods the compiled code reads and writes through
+     */
+    private void runtime() throws IOException {
+        String name = file.name();
+        file.addField(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, "$io", IO_DESCRIPTOR);
+        for (String global: globals)
+            file.addField(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, global, "I");
+
+        ClassFile.Method run = file.new Method(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "$run",
+                "(" + IO_DESCRIPTOR + ")V", 1);
+        run.op(ClassFile.ALOAD_0, 1);
+        run.putStatic(name, "$io", IO_DESCRIPTOR);
+        for (String global: globals) {
+            run.push(0);
+            run.putStatic(name, global, "I");
+        }
+        run.invokeStatic(name, "$main", "()V");
+        run.getStatic(name, "$io", IO_DESCRIPTOR);
+        run.invokeVirtual(IO, "flush", "()V");
+        run.op(ClassFile.RETURN, 0);
+        run.end();
+
+        ClassFile.Method main = file.new Method(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "main",
+                "([Ljava/lang/String;)V", 1);
+        main.invokeStatic(IO, "standard", "()" + IO_DESCRIPTOR);
+        main.invokeStatic(name, "$run", "(" + IO_DESCRIPTOR + ")V");
+        main.op(ClassFile.RETURN, 0);
+        main.end();
+
+        helper("$readInteger", "()I", "readInteger", "()I", ClassFile.IRETURN);
+        helper("$readChar", "()I", "readChar", "()I", ClassFile.IRETURN);
+        helper("$eof", "()I", "eof", "()Z", ClassFile.IRETURN);
+        helper("$write", "(I)V", "write", "(I)V", ClassFile.RETURN);
+    }
+
+    /**
+     * A static method calling the ProgramIO method of the same descriptor, with an int argument if it takes one
+     */
+    private void helper(String name, String descriptor, String ioMethod, String ioDescriptor, int returnOpcode)
+            throws IOException {
+        boolean argument = descriptor.startsWith("(I");
+        ClassFile.Method method = file.new Method(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, name, descriptor,
+                argument ? 1 : 0);
+        method.getStatic(file.name(), "$io", IO_DESCRIPTOR);
+        if (argument)
+            method.load(0);
+        method.invokeVirtual(IO, ioMethod, ioDescriptor);
+        method.op(returnOpcode, returnOpcode == ClassFile.IRETURN ? -1 : 0);
+        method.end();
+    }
+
+    /**
+     * Push the value of a name: a local, a static field or a constant. Nothing for names that are not values
+     */
+    private void load(int node) {
+        switch (kind(node)) {
+            case LOCAL:
+                code.load(slot(node));
+                break;
+
+            case GLOBAL:
+                code.getStatic(file.name(), field(node), "I");
+                break;
+
+            case CONSTANT:
+                code.push(constantOf(node));
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private void store(int node) {
+        if (kind(node) == LOCAL)
+            code.store(slot(node));
+        else
+            code.putStatic(file.name(), field(node), "I");
+    }
+
+    /**
+     * Locals for the names of a Dcln or of Params, in order, or static fields for the program's
+     */
+    private void declareVariables(int var) {
+        for (int name = tree.firstChild(var); tree.nextSibling(name) != AstArena.NONE; name = tree.nextSibling(name)) {
+            if (inFunction) {
+                bind(name, LOCAL, localCount++);
+            } else {
+                bind(name, GLOBAL, 0);
+                if (!globals.contains(text(name)))
+                    globals.add(text(name));
+            }
+        }
+    }
+
+    /**
+     * Allocate labels for the open node, consecutive from openLabels
+     */
+    private void labels(int count) {
+        openLabels[open - 1] = code.newLabel();
+        for (int i = 1; i < count; i++)
+            code.newLabel();
+    }
+
+    private void bind(int name, int binding, int value) {
+        bindings[name] = binding;
+        values[name] = value;
+    }
+
+    /**
+     * How the name of an identifier node is bound where it is used; d, unless declared, is a static field
+     */
+    private int kind(int node) {
+        int declaration = analyzer.declaration(node);
+        if (declaration != AstArena.NONE)
+            return bindings[declaration];
+        if (text(node).equals("d"))
+            return GLOBAL;
+        if (text(node).equals("true") || text(node).equals("false"))
+            return CONSTANT;
+        return UNBOUND;
+    }
+
+    private int slot(int node) {
+        return values[analyzer.declaration(node)];
+    }
+
+    /**
+     * Static field of a variable of the program, named after it
+     */
+    private String field(int node) {
+        int declaration = analyzer.declaration(node);
+        return declaration == AstArena.NONE ? "d" : text(declaration);
+    }
+
+    /**
+     * Value of a constant name, true and false included
+     */
+    private int constantOf(int node) {
+        int declaration = analyzer.declaration(node);
+        if (declaration != AstArena.NONE)
+            return values[declaration];
+        return text(node).equals("true") ? 1 : 0;
+    }
+
+    /**
+     * Value of a ConstValue or case label: an integer, a char or a constant name
+     */
+    private int constant(int node) {
+        String text = text(node);
+        switch (role(node)) {
+            case INTEGER_LITERAL:
+                return Integer.parseInt(text);
+            case CHAR_LITERAL:
+                return text.charAt(1);
+            default:
+                return constantOf(node);
+        }
+    }
+
+    private static String descriptor(int parameters) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (int i = 0; i < parameters; i++)
+            descriptor.append('I');
+        return descriptor.append(")I").toString();
+    }
+
+    private int child(int node, int index) {
+        int child = tree.firstChild(node);
+        for (int i = 0; i < index; i++)
+            child = tree.nextSibling(child);
+        return child;
+    }
+
+    private String text(int node) {
+        return tree.label(tree.firstChild(node));
+    }
+}
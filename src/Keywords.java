@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * Collision free keyword recognizer.
+ * Keywords are placed in a small table by a hash of their length, first, middle and last characters. The multiplier
+ * is chosen at loadtime so that no two keywords share a slot, so a lookup is one hash and one character comparison
+ * and never hashes a String
+ */
+public class Keywords {
+    private static final int SIZE = 128;
+    private static final LexerTokenType[] table = new LexerTokenType[SIZE];
+    private static int multiplier;
+
+    //Find a collision free multiplier at loadtime
+    static {
+        for (multiplier = 1; !fill(); multiplier++) {
+            if (multiplier == 1 << 16)
+                throw new IllegalStateException("No perfect hash for keywords");
+        }
+    }
+
+    private static boolean fill() {
+        Arrays.fill(table, null);
+        for (LexerTokenType token: LexerTokenType.values()) {
+            if (!isKeyword(token))
+                continue;
+
+            int slot = hash(token.val, 0, token.val.length());
+            if (table[slot] != null)
+                return false;
+            table[slot] = token;
+        }
+        return true;
+    }
+
+    /**
+     * Keywords are the token types spelled with letters, eg. 'program', 'pool' or 'succ'
+     */
+    static boolean isKeyword(LexerTokenType token) {
+        return token.val != null && token != LexerTokenType.INTEGER && Character.isLetter(token.val.charAt(0));
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int length = end - start;
+        int h = length * 31 + s.charAt(start) * multiplier + s.charAt(start + length / 2) * 7 + s.charAt(end - 1);
+        return (h ^ (h >>> 7)) & (SIZE - 1);
+    }
+
+    /**
+     * Keyword spelled by s[start, end)
+     *
+     * @return keyword token type, or IDENTIFIER
+     */
+    public static LexerTokenType lookup(CharSequence s, int start, int end) {
+        LexerTokenType keyword = table[hash(s, start, end)];
+        if (keyword == null || keyword.val.length() != end - start)
+            return LexerTokenType.IDENTIFIER;
+
+        for (int i = 0; i < end - start; i++) {
+            if (keyword.val.charAt(i) != s.charAt(start + i))
+                return LexerTokenType.IDENTIFIER;
+        }
+        return keyword;
+    }
+}
@@ -0,0 +1,379 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Language Server Protocol endpoint over stdio (JSON-RPC with Content-Length framing).
+ * Supports incremental text sync, syntax diagnostics, document symbols and go-to-definition.
+ * Messages are read on the calling thread; all document state lives on a single worker thread. Each change is
+ * applied to the document's tokens as it arrives, and a reparse is scheduled a few milliseconds later; another
+ * change within that time replaces the scheduled reparse, and one arriving while it runs cancels it.
+ * Requests are answered on the worker after any pending reparse, so they always see the latest text
+ */
+public class LanguageServer {
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 3;
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    //JSON-RPC error codes
+    private static final int METHOD_NOT_FOUND = -32601;
+    private static final int INTERNAL_ERROR = -32603;
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final long debounceMillis;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "winzig-lsp-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //Worker thread only
+    private final Map<String, LspDocument> documents = new HashMap<String, LspDocument>();
+    //Shared with the reader thread, to cancel running parses
+    private final Map<String, LspDocument> open = new ConcurrentHashMap<String, LspDocument>();
+    //Reader thread only
+    private final Map<String, ScheduledFuture<?>> scheduled = new HashMap<String, ScheduledFuture<?>>();
+    private boolean shutdown = false;
+
+    public LanguageServer(InputStream in, OutputStream out, long debounceMillis) {
+        this.in = in;
+        this.out = out;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Serve until the client sends exit or closes the input
+     *
+     * @return process exit code, 0 if shutdown was requested before exit
+     * @throws IOException if the streams fail
+     */
+    public int run() throws IOException {
+        try {
+            while (true) {
+                String message = readMessage();
+                if (message == null)
+                    return 1;
+
+                Map<String, Object> request;
+                try {
+                    request = asObject(Json.parse(message));
+                } catch (Exception e) {
+                    System.err.println("Bad message: " + e.getMessage());
+                    continue;
+                }
+                if ("exit".equals(request.get("method")))
+                    return shutdown ? 0 : 1;
+                dispatch(request);
+            }
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    private void dispatch(Map<String, Object> message) {
+        String method = (String) message.get("method");
+        Object id = message.get("id");
+        Map<String, Object> params = asObject(message.get("params"));
+        if (method == null)
+            return;
+
+        switch (method) {
+            case "initialize":
+                respond(id, capabilities());
+                break;
+
+            case "shutdown":
+                shutdown = true;
+                respond(id, null);
+                break;
+
+            case "textDocument/didOpen":
+                didOpen(asObject(params.get("textDocument")));
+                break;
+
+            case "textDocument/didChange":
+                didChange(asObject(params.get("textDocument")), params.get("contentChanges"));
+                break;
+
+            case "textDocument/didClose":
+                didClose((String) asObject(params.get("textDocument")).get("uri"));
+                break;
+
+            case "textDocument/documentSymbol":
+                answer(id, (String) asObject(params.get("textDocument")).get("uri"), document -> document.symbols());
+                break;
+
+            case "textDocument/definition":
+                Map<String, Object> position = asObject(params.get("position"));
+                int line = asInt(position.get("line"));
+                int character = asInt(position.get("character"));
+                answer(id, (String) asObject(params.get("textDocument")).get("uri"),
+                        document -> document.definition(line, character));
+                break;
+
+            default:
+                //Notifications we do not handle are dropped, requests get an error
+                if (id != null)
+                    respondError(id, METHOD_NOT_FOUND, "Unsupported method " + method);
+        }
+    }
+
+    private static Map<String, Object> capabilities() {
+        Map<String, Object> sync = new LinkedHashMap<String, Object>();
+        sync.put("openClose", true);
+        //Incremental
+        sync.put("change", 2);
+
+        Map<String, Object> capabilities = new LinkedHashMap<String, Object>();
+        capabilities.put("textDocumentSync", sync);
+        capabilities.put("documentSymbolProvider", true);
+        capabilities.put("definitionProvider", true);
+
+        Map<String, Object> serverInfo = new LinkedHashMap<String, Object>();
+        serverInfo.put("name", "winzig");
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("capabilities", capabilities);
+        result.put("serverInfo", serverInfo);
+        return result;
+    }
+
+    private void didOpen(Map<String, Object> item) {
+        String uri = (String) item.get("uri");
+        int version = asInt(item.get("version"));
+        String content = (String) item.get("text");
+        worker.execute(() -> {
+            LspDocument document = new LspDocument(uri, version, content);
+            documents.put(uri, document);
+            open.put(uri, document);
+            document.update();
+            publishDiagnostics(document);
+        });
+    }
+
+    private void didChange(Map<String, Object> item, Object contentChanges) {
+        String uri = (String) item.get("uri");
+        int version = asInt(item.get("version"));
+        List<Object> changes = asList(contentChanges);
+        worker.execute(() -> {
+            LspDocument document = documents.get(uri);
+            if (document == null)
+                return;
+            document.setVersion(version);
+            for (Object c: changes) {
+                Map<String, Object> change = asObject(c);
+                String text = (String) change.get("text");
+                Map<String, Object> range = asObject(change.get("range"));
+                if (range.isEmpty()) {
+                    document.replace(text);
+                } else {
+                    Map<String, Object> start = asObject(range.get("start"));
+                    Map<String, Object> end = asObject(range.get("end"));
+                    document.edit(asInt(start.get("line")), asInt(start.get("character")),
+                            asInt(end.get("line")), asInt(end.get("character")), text);
+                }
+            }
+        });
+
+        //Debounce: a later change replaces the scheduled reparse, and stops one already running
+        LspDocument running = open.get(uri);
+        if (running != null)
+            running.cancel();
+        ScheduledFuture<?> previous = scheduled.put(uri, worker.schedule(() -> {
+            LspDocument document = documents.get(uri);
+            if (document != null && document.update())
+                publishDiagnostics(document);
+        }, debounceMillis, TimeUnit.MILLISECONDS));
+        if (previous != null)
+            previous.cancel(false);
+    }
+
+    private void didClose(String uri) {
+        ScheduledFuture<?> previous = scheduled.remove(uri);
+        if (previous != null)
+            previous.cancel(false);
+        worker.execute(() -> {
+            documents.remove(uri);
+            open.remove(uri);
+            Map<String, Object> params = new LinkedHashMap<String, Object>();
+            params.put("uri", uri);
+            params.put("diagnostics", List.of());
+            notify("textDocument/publishDiagnostics", params);
+        });
+    }
+
+    private interface Query {
+        Object answer(LspDocument document);
+    }
+
+    /**
+     * Answer a request about a document on the worker, once its pending changes are parsed
+     */
+    private void answer(Object id, String uri, Query query) {
+        worker.execute(() -> {
+            try {
+                LspDocument document = documents.get(uri);
+                if (document == null) {
+                    respond(id, null);
+                    return;
+                }
+                if (document.update())
+                    publishDiagnostics(document);
+                respond(id, query.answer(document));
+            } catch (RuntimeException e) {
+                respondError(id, INTERNAL_ERROR, String.valueOf(e));
+            }
+        });
+    }
+
+    private void publishDiagnostics(LspDocument document) {
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        params.put("uri", document.uri());
+        params.put("version", document.version());
+        params.put("diagnostics", document.diagnostics());
+        notify("textDocument/publishDiagnostics", params);
+    }
+
+    private void respond(Object id, Object result) {
+        Map<String, Object> message = new LinkedHashMap<String, Object>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("result", result);
+        send(message);
+    }
+
+    private void respondError(Object id, int code, String text) {
+        Map<String, Object> error = new LinkedHashMap<String, Object>();
+        error.put("code", code);
+        error.put("message", text);
+        Map<String, Object> message = new LinkedHashMap<String, Object>();
+        message.put("jsonrpc", "2.0");
+        message.put("id", id);
+        message.put("error", error);
+        send(message);
+    }
+
+    private void notify(String method, Object params) {
+        Map<String, Object> message = new LinkedHashMap<String, Object>();
+        message.put("jsonrpc", "2.0");
+        message.put("method", method);
+        message.put("params", params);
+        send(message);
+    }
+
+    private void send(Map<String, Object> message) {
+        byte[] body = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        byte[] header = ("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        synchronized (out) {
+            try {
+                out.write(header);
+                out.write(body);
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Cannot write to the client: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Next message body, null at the end of the input. A frame without a valid Content-Length is reported and
+     * skipped up to the next Content-Length header
+     */
+    private String readMessage() throws IOException {
+        String header = null;
+        while (true) {
+            int length = -1;
+            while (true) {
+                String line = readLine();
+                if (line == null)
+                    return null;
+                if (header != null) {
+                    line = header + line;
+                    header = null;
+                }
+                if (line.isEmpty())
+                    break;
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(CONTENT_LENGTH)) {
+                    try {
+                        length = Integer.parseInt(line.substring(colon + 1).trim());
+                    } catch (NumberFormatException e) {
+                        length = -1;
+                    }
+                }
+            }
+            if (length >= 0) {
+                byte[] body = in.readNBytes(length);
+                if (body.length < length)
+                    throw new EOFException("Message cut short");
+                return new String(body, StandardCharsets.UTF_8);
+            }
+
+            System.err.println("Bad message: no valid Content-Length");
+            if (!skipToHeader())
+                return null;
+            header = CONTENT_LENGTH;
+        }
+    }
+
+    /**
+     * Skip the input up to and including the next "Content-Length"
+     *
+     * @return false if the input ended first
+     */
+    private boolean skipToHeader() throws IOException {
+        byte[] marker = CONTENT_LENGTH.getBytes(StandardCharsets.US_ASCII);
+        int matched = 0;
+        while (matched < marker.length) {
+            int b = in.read();
+            if (b < 0)
+                return false;
+            if (b == marker[matched])
+                matched++;
+            else
+                matched = b == marker[0] ? 1 : 0;
+        }
+        return true;
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b < 0)
+                return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+            if (b == '\n')
+                break;
+            if (b != '\r')
+                line.write(b);
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : new HashMap<String, Object>();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object value) {
+        return value instanceof List ? (List<Object>) value : List.of();
+    }
+
+    private static int asInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+}
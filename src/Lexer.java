@@ -1,214 +1,356 @@
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Vector;
 
 public class Lexer {
-    private String program;
+    private CharSequence program;
     Vector<LexerTokenType> tokenSequence;
-    //Lookup table
-    private static Map<String, LexerTokenType> tokenLookupTable = new HashMap<String, LexerTokenType>();
-    //Populate lookup table at loadtime
+    //Identifiers seen in this compilation
+    private NameTable names = new NameTable();
+
+    //Character classes driving the scanners
+    static final byte OTHER = 0;
+    static final byte ALPHA = 1;
+    static final byte DIGIT = 2;
+    static final byte SPACE = 3;
+    static final byte NEWLINE = 4;
+    static final byte SINGLE = 5;
+    static final byte COLON = 6;
+    static final byte DOT = 7;
+    static final byte LT = 8;
+    static final byte GT = 9;
+    static final byte QUOTE = 10;
+    static final byte DOUBLE_QUOTE = 11;
+    static final byte BLOCK_BEGIN = 12;
+    static final byte HASH = 13;
+
+    private static final byte[] charClass = new byte[128];
+    static final LexerTokenType[] singleCharTokens = new LexerTokenType[128];
+
+    //Populate lookup tables at loadtime
     static {
         for (LexerTokenType token: LexerTokenType.values()) {
-            if (
-                    token == LexerTokenType.IDENTIFIER ||
-                    token == LexerTokenType.INTEGER ||
-                    token == LexerTokenType.CHAR ||
-                    token == LexerTokenType.STRING ||
-                    token == LexerTokenType.BLOCK_COMMENT ||
-                    token == LexerTokenType.INLINE_COMMENT ||
-                    token == LexerTokenType.END_OF_PROGRAM ||
-                    token == LexerTokenType.BAD_TOKEN
-            )
+            if (token.val == null || Keywords.isKeyword(token))
                 continue;
-            tokenLookupTable.put(token.val, token);
-        }
 
-        String alpha = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_";
-        for(int i = 0; i < alpha.length(); i++) {
-            String s = alpha.substring(i, i+1);
-            tokenLookupTable.put(s, LexerTokenType.IDENTIFIER);
+            char first = token.val.charAt(0);
+            if (token.val.length() == 1 && first < 128) {
+                charClass[first] = SINGLE;
+                singleCharTokens[first] = token;
+            }
         }
 
-        String num = "0123456789";
-        for(int i = 0; i < num.length(); i++) {
-            String s = num.substring(i, i+1);
-            tokenLookupTable.put(s, LexerTokenType.INTEGER);
-        }
+        for (char c = 'a'; c <= 'z'; c++)
+            charClass[c] = ALPHA;
+        for (char c = 'A'; c <= 'Z'; c++)
+            charClass[c] = ALPHA;
+        charClass['_'] = ALPHA;
+        for (char c = '0'; c <= '9'; c++)
+            charClass[c] = DIGIT;
+
+        charClass[' '] = SPACE;
+        charClass['\t'] = SPACE;
+        charClass['\r'] = SPACE;
+        charClass['\f'] = SPACE;
+        charClass['\n'] = NEWLINE;
+        charClass[':'] = COLON;
+        charClass['.'] = DOT;
+        charClass['<'] = LT;
+        charClass['>'] = GT;
+        charClass['\''] = QUOTE;
+        charClass['"'] = DOUBLE_QUOTE;
+        charClass['{'] = BLOCK_BEGIN;
+        charClass['#'] = HASH;
+    }
 
-        tokenLookupTable.put("\"", LexerTokenType.STRING);
-        tokenLookupTable.put("'", LexerTokenType.CHAR);
-        tokenLookupTable.put("{", LexerTokenType.BLOCK_COMMENT);
-        tokenLookupTable.put("#", LexerTokenType.INLINE_COMMENT);
-        tokenLookupTable.put("\t", LexerTokenType.WHITE_SPACE);
-        tokenLookupTable.put("\r", LexerTokenType.WHITE_SPACE);
+    //Result of the last scanToken call
+    LexerTokenType tokenType;
+    int valueStart;
+    int valueEnd;
 
-    }
     public Lexer() {
     }
 
-    public Lexer(String p) {
+    public Lexer(CharSequence p) {
         this.program = p;
     }
 
-    public ArrayList<LexerToken> scan() throws Exception {
-        return scan(this.program);
+    public NameTable names() {
+        return names;
     }
 
-    public ArrayList<LexerToken> scan(String program) throws Exception {
-        int pos = 0;
-        ArrayList<LexerToken> scannerTokens = new ArrayList<LexerToken>();
-        for (; pos < program.length();) {
-            String s = program.substring(pos, pos+1);
-            LexerTokenType tokenType = tokenLookupTable.get(s);
-
-            switch (tokenType) {
-                case IDENTIFIER:
-                    int newPos = getSequenceEnd(program.substring(pos), pos);
-
-                    LexerToken token = new LexerToken(tokenType);
-                    token.value = program.substring(pos, newPos);
-                    scannerTokens.add(token);
-                    pos = newPos;
-                    break;
+    public ArrayList<LexerToken> scan() {
+        return scan(this.program);
+    }
 
-                case INTEGER:
-                    newPos = getSequenceEnd(program.substring(pos), pos);
-                    int alphaPos = getAlphaPos(program.substring(pos), pos);
-                    newPos = Math.min(newPos, alphaPos);
+    public ArrayList<LexerToken> scan(CharSequence program) {
+        return scanTokens(program).toList();
+    }
 
-                    token = new LexerToken(tokenType);
-                    token.value = program.substring(pos, newPos);
-                    scannerTokens.add(token);
-                    pos = newPos;
-                    break;
+    /**
+     * Scanner output, trivia included, as a packed buffer. Lexical errors are left in it as BAD_TOKENs
+     *
+     * @param program source text
+     */
+    public TokenBuffer scanTokens(CharSequence program) {
+        TokenBuffer tokens = new TokenBuffer(program, names);
+        int length = program.length();
+        for (int pos = 0; pos < length;) {
+            pos = scanToken(program, pos);
+            if (tokenType == LexerTokenType.IDENTIFIER)
+                tokens.add(tokenType, valueStart, valueEnd, names.intern(program, valueStart, valueEnd));
+            else
+                tokens.add(tokenType, valueStart, valueEnd);
+        }
+        return tokens;
+    }
 
+    /**
+     * Scanner and screener output as a packed buffer ready for the Parser. Lexical errors are left in it as
+     * BAD_TOKENs
+     *
+     * @param program source text
+     */
+    public TokenBuffer tokenize(CharSequence program) {
+        TokenBuffer tokens = new TokenBuffer(program, names);
+        int length = program.length();
+        for (int pos = 0; pos < length;) {
+            pos = scanToken(program, pos);
+            switch (tokenType) {
+                case WHITE_SPACE:
                 case BLOCK_COMMENT:
-                    newPos = program.indexOf(LexerTokenType.BLOCK_END.val, pos) + 1;
-
-                    token = new LexerToken(tokenType);
-                    token.value = program.substring(pos, newPos);
-                    scannerTokens.add(token);
-                    pos = newPos;
-                    break;
-                case CHAR:
-                    newPos = program.indexOf("'", pos+1) + 1;
-                    if (newPos - pos > 3)
-                        throw new Exception("Wrong char length");
-
-                    token = new LexerToken(tokenType);
-                    token.value = program.substring(pos+1, newPos-1);
-                    scannerTokens.add(token);
-                    pos = newPos;
-                    break;
-
-                case STRING:
-                    newPos = program.indexOf("\"", pos+1) + 1;
-
-                    token = new LexerToken(tokenType);
-                    token.value = program.substring(pos+1, newPos-1);
-                    scannerTokens.add(token);
-                    pos = newPos;
+                case NEWLINE:
+                case INLINE_COMMENT:
                     break;
 
-                case COLON: //Check if actually colon or swap or assignment
-                    if (program.substring(pos, pos+3).equals(":=:")) {
-                        tokenType = LexerTokenType.SWAP;
-                        newPos = pos + 3;
-                    } else if (program.substring(pos, pos+2).equals(":=")) {
-                        tokenType = LexerTokenType.ASSIGN;
-                        newPos = pos + 2;
-                    } else {
-                        newPos = pos + 1;
-                    }
-
-                    scannerTokens.add(new LexerToken(tokenType));
-                    pos = newPos;
+                case IDENTIFIER:
+                    LexerTokenType t = Keywords.lookup(program, valueStart, valueEnd);
+                    if (t == LexerTokenType.IDENTIFIER)
+                        tokens.add(t, valueStart, valueEnd, names.intern(program, valueStart, valueEnd));
+                    else
+                        tokens.add(t, valueStart, valueEnd);
                     break;
 
-                case DOT:
-                    if (pos + 1 != program.length() && program.substring(pos, pos+2).equals("..")) {
-                        tokenType = LexerTokenType.CASE_EXP;
-                        newPos = pos + 2;
-                    } else {
-                        newPos = pos + 1;
-                    }
+                default:
+                    tokens.add(tokenType, valueStart, valueEnd);
+            }
+        }
+        return tokens;
+    }
 
-                    scannerTokens.add(new LexerToken(tokenType));
-                    pos = newPos;
-                    break;
+    /**
+     * Materialize the token found by the last scanToken call
+     *
+     * @param program source text the token was scanned from
+     * @return token carrying its source text as value where it has one
+     */
+    LexerToken makeToken(CharSequence program) {
+        LexerToken token = new LexerToken(tokenType);
+        if (tokenType == LexerTokenType.IDENTIFIER) {
+            token.symbol = names.intern(program, valueStart, valueEnd);
+            token.value = names.name(token.symbol);
+        } else if (tokenType.val == null || hasSourceValue(tokenType))
+            token.value = program.subSequence(valueStart, valueEnd).toString();
+        return token;
+    }
 
-                case GT:
-                    if (program.substring(pos, pos+2).equals(">=")) {
-                        tokenType = LexerTokenType.GTE;
-                        newPos = pos + 2;
+    /**
+     * Scan a single token beginning at pos in one left to right pass.
+     * The token type is left in tokenType and the bounds of its value in valueStart/valueEnd
+     * (quotes of strings and chars are excluded).
+     * Nothing is thrown: an unknown character is a BAD_TOKEN of its own, and an unterminated char, string or
+     * comment a BAD_TOKEN up to the end of the text, so the tokens still cover the text exactly. A char literal of
+     * more than one char is a BAD_TOKEN with its quotes. describe tells what is wrong with a BAD_TOKEN
+     *
+     * @param program source text
+     * @param pos start of the token
+     * @return position just after the token
+     */
+    int scanToken(CharSequence program, int pos) {
+        int length = program.length();
+        char c = program.charAt(pos);
+        int end = pos + 1;
+        valueStart = pos;
+
+        switch (charClass(c)) {
+            case ALPHA:
+                while (end < length && isIdentifierPart(program.charAt(end)))
+                    end++;
+                tokenType = LexerTokenType.IDENTIFIER;
+                break;
+
+            case DIGIT:
+                while (end < length && isDigit(program.charAt(end)))
+                    end++;
+                tokenType = LexerTokenType.INTEGER;
+                break;
+
+            case SPACE:
+                while (end < length && isSpace(program.charAt(end)))
+                    end++;
+                tokenType = LexerTokenType.WHITE_SPACE;
+                break;
+
+            case NEWLINE:
+                tokenType = LexerTokenType.NEWLINE;
+                break;
+
+            case SINGLE:
+                tokenType = singleCharTokens[c];
+                break;
+
+            case COLON: //Check if actually colon or swap or assignment
+                if (end < length && program.charAt(end) == '=') {
+                    end++;
+                    if (end < length && program.charAt(end) == ':') {
+                        end++;
+                        tokenType = LexerTokenType.SWAP;
                     } else {
-                        newPos = pos + 1;
+                        tokenType = LexerTokenType.ASSIGN;
                     }
-
-                    scannerTokens.add(new LexerToken(tokenType));
-                    pos = newPos;
-                    break;
-
-                case LT:
-                    String lookAhead = program.substring(pos, pos+2);
-                    if (lookAhead.equals("<=")) {
+                } else {
+                    tokenType = LexerTokenType.COLON;
+                }
+                break;
+
+            case DOT:
+                if (end < length && program.charAt(end) == '.') {
+                    end++;
+                    tokenType = LexerTokenType.CASE_EXP;
+                } else {
+                    tokenType = LexerTokenType.DOT;
+                }
+                break;
+
+            case LT:
+                tokenType = LexerTokenType.LT;
+                if (end < length) {
+                    if (program.charAt(end) == '=') {
+                        end++;
                         tokenType = LexerTokenType.LTE;
-                        newPos = pos + 2;
-                    } else if (lookAhead.equals("<>")) {
+                    } else if (program.charAt(end) == '>') {
+                        end++;
                         tokenType = LexerTokenType.NE;
-                        newPos = pos + 2;
-                    } else {
-                        newPos = pos + 1;
                     }
+                }
+                break;
+
+            case GT:
+                tokenType = LexerTokenType.GT;
+                if (end < length && program.charAt(end) == '=') {
+                    end++;
+                    tokenType = LexerTokenType.GTE;
+                }
+                break;
+
+            case QUOTE:
+                end = indexOf(program, '\'', end) + 1;
+                if (end == 0 || end - pos > 3)
+                    return badToken(pos, end == 0 ? length : end);
+                tokenType = LexerTokenType.CHAR;
+                valueStart = pos + 1;
+                valueEnd = end - 1;
+                return end;
+
+            case DOUBLE_QUOTE:
+                end = indexOf(program, '"', end) + 1;
+                if (end == 0)
+                    return badToken(pos, length);
+                tokenType = LexerTokenType.STRING;
+                valueStart = pos + 1;
+                valueEnd = end - 1;
+                return end;
+
+            case BLOCK_BEGIN:
+                end = indexOf(program, '}', end) + 1;
+                if (end == 0)
+                    return badToken(pos, length);
+                tokenType = LexerTokenType.BLOCK_COMMENT;
+                break;
+
+            case HASH:
+                end = indexOf(program, '\n', end);
+                if (end < 0)
+                    end = length;
+                tokenType = LexerTokenType.INLINE_COMMENT;
+                break;
+
+            default:
+                return badToken(pos, end);
+        }
 
-                    scannerTokens.add(new LexerToken(tokenType));
-                    pos = newPos;
-                    break;
+        valueEnd = end;
+        return end;
+    }
 
-                default:
-                    scannerTokens.add(new LexerToken(tokenType));
-                    pos++;
-                    break;
-            }
-        }
-        return scannerTokens;
+    private int badToken(int start, int end) {
+        tokenType = LexerTokenType.BAD_TOKEN;
+        valueStart = start;
+        valueEnd = end;
+        return end;
     }
 
-    private int getSpecialCharPos(String source, int pos) {
-        for (int i = 0; i < program.length(); i++) {
-            String s = source.substring(i, i+1);
-            if (s.matches("[!@#$%&*()_+=|<>?{}\\[\\]~-]")) {
-                pos += i;
-                return pos;
-            }
+    /**
+     * What is wrong with a BAD_TOKEN, from its text. Only the first char is needed for all but char literals
+     *
+     * @param text the token, or a prefix of it
+     */
+    static String describe(CharSequence text) {
+        char c = text.charAt(0);
+        switch (c) {
+            case '{':
+                return "Unterminated comment";
+            case '"':
+                return "Unterminated string";
+            case '\'':
+                if (text.length() > 1 && text.charAt(text.length() - 1) == '\'')
+                    return "Wrong char length";
+                return "Unterminated char";
+            default:
+                return "Unexpected character '" + c + "'";
         }
+    }
 
-        return -1;
+    /**
+     * Token types whose value is taken from the source text rather than the token type
+     */
+    static boolean hasSourceValue(LexerTokenType type) {
+        return type == LexerTokenType.IDENTIFIER ||
+                type == LexerTokenType.INTEGER ||
+                type == LexerTokenType.CHAR ||
+                type == LexerTokenType.STRING;
     }
 
-    private int getAlphaPos(String source, int pos) {
-        for (int i = 0; i < program.length(); i++) {
-            String s = source.substring(i, i+1);
-            if (s.matches("[a-zA-z]")) {
-                pos += i;
-                return pos;
-            }
-        }
+    static byte charClass(int c) {
+        return c >= 0 && c < 128 ? charClass[c] : OTHER;
+    }
 
-        return -1;
+    static boolean isIdentifierPart(int c) {
+        return c >= 0 && c < 128 && (charClass[c] == ALPHA || charClass[c] == DIGIT);
     }
 
-    private int getSequenceEnd(String source, int pos) {
-        for (int i = 0; i < program.length(); i++) {
-            String s = source.substring(i, i+1);
-            if (s.matches("[\\s!:.,;@#$%&*()_+=|<>?{}\\[\\]~-]")) {
-                pos += i;
-                return pos;
-            }
-        }
+    static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSpace(char c) {
+        return c < 128 && charClass[c] == SPACE;
+    }
 
+    /**
+     * Reclassify an identifier as a keyword if its text is one
+     *
+     * @param value identifier text
+     * @return keyword token type, or IDENTIFIER
+     */
+    static LexerTokenType screenIdentifier(String value) {
+        return Keywords.lookup(value, 0, value.length());
+    }
+
+    private static int indexOf(CharSequence program, char c, int from) {
+        for (int i = from; i < program.length(); i++) {
+            if (program.charAt(i) == c)
+                return i;
+        }
         return -1;
     }
 
@@ -218,8 +360,8 @@ public class Lexer {
         for (LexerToken token: tokens) {
             switch (token.type) {
                 case IDENTIFIER:
-                    LexerTokenType t = tokenLookupTable.get(token.value);
-                    if (t != null && t != LexerTokenType.IDENTIFIER)
+                    LexerTokenType t = screenIdentifier(token.value);
+                    if (t != LexerTokenType.IDENTIFIER)
                         screenedTokens.add(new LexerToken(t));
                     else
                         screenedTokens.add(token);
@@ -236,10 +378,10 @@ public class Lexer {
 
             }
         }
-        for (LexerToken t: screenedTokens) {
-            System.out.println(t.value + "<" + t.type + ">");
+        if (Trace.TOKEN) {
+            for (LexerToken t: screenedTokens)
+                Trace.log(t.value + "<" + t.type + ">");
         }
         return screenedTokens;
     }
 }
-
@@ -1,6 +1,8 @@
 public class LexerToken {
     public final LexerTokenType type;
     public String value;
+    //Interned name id for identifiers, -1 otherwise
+    public int symbol = -1;
 
     LexerToken(LexerTokenType t) {
         type = t;
@@ -0,0 +1,68 @@
+/**
+ * Lazy scanner and screener in one pass.
+ * Tokens are scanned only when the Parser asks for them, trivia (white space, newlines and comments)
+ * is skipped and keywords are reclassified on the fly, so at most one lookahead token is alive at a time
+ */
+public class LexerTokenStream implements TokenStream {
+    private final Lexer lexer = new Lexer();
+    private final CharSequence program;
+    private final LexerToken endOfProgram = new LexerToken(LexerTokenType.END_OF_PROGRAM);
+    private int pos = 0;
+    private LexerToken lookahead;
+    //Where the lookahead token starts, and the last diagnostic located
+    private int lookaheadStart;
+    private Diagnostic located;
+
+    public LexerTokenStream(CharSequence program) {
+        this.program = program;
+    }
+
+    public LexerToken peek() {
+        if (lookahead == null)
+            lookahead = scanNext();
+        return lookahead;
+    }
+
+    /**
+     * Interned names of the identifiers read so far
+     */
+    public NameTable names() {
+        return lexer.names();
+    }
+
+    public LexerToken next() {
+        LexerToken token = peek();
+        lookahead = null;
+        return token;
+    }
+
+    public void locate(Diagnostic diagnostic) {
+        peek();
+        diagnostic.locate(program, lookaheadStart, located);
+        located = diagnostic;
+    }
+
+    private LexerToken scanNext() {
+        while (pos < program.length()) {
+            lookaheadStart = pos;
+            pos = lexer.scanToken(program, pos);
+
+            switch (lexer.tokenType) {
+                case WHITE_SPACE:
+                case BLOCK_COMMENT:
+                case NEWLINE:
+                case INLINE_COMMENT:
+                    continue;
+
+                case IDENTIFIER:
+                    LexerTokenType t = Keywords.lookup(program, lexer.valueStart, lexer.valueEnd);
+                    return t == LexerTokenType.IDENTIFIER ? lexer.makeToken(program) : new LexerToken(t);
+
+                default:
+                    return lexer.makeToken(program);
+            }
+        }
+        lookaheadStart = program.length();
+        return endOfProgram;
+    }
+}
@@ -4,7 +4,7 @@ public enum LexerTokenType {
      * Used as a sequence for parser input
      */
     IDENTIFIER("<identifier>"),
-    INTEGER("integer"),
+    INTEGER("<integer>"),
     WHITE_SPACE(" "),
     CHAR("<char>"),
     STRING("<string>"),
@@ -0,0 +1,483 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Language server state of one open document: its text, raw and screened tokens and AST, kept up to date edit
+ * by edit through IncrementalLexer and IncrementalParser, plus the line starts to convert LSP positions.
+ * Only ever used from the server's worker thread, except cancel()
+ */
+public class LspDocument {
+    //LSP SymbolKind values
+    private static final int MODULE = 2;
+    private static final int ENUM = 10;
+    private static final int FUNCTION = 12;
+    private static final int VARIABLE = 13;
+    private static final int CONSTANT = 14;
+    private static final int ENUM_MEMBER = 22;
+
+    private final String uri;
+    private int version;
+    private SourceText text;
+    private final Lexer lexer = new Lexer();
+    private final IncrementalLexer incrementalLexer = new IncrementalLexer(lexer);
+    //Tokens of the text, null while it does not scan
+    private TokenBuffer raw;
+    private TokenBuffer screened;
+    private volatile IncrementalParser parser;
+    //Edited since the last update
+    private boolean changed = true;
+
+    //First char of each line, only '\n' ends a line
+    private int[] lineStarts = new int[64];
+    private int lines = 0;
+
+    //LSP diagnostics for the problems found by the last update
+    private final List<Object> problems = new ArrayList<Object>();
+
+    //Recovering parse of the current tokens while they do not parse, and the DocumentSymbols of the current
+    //tree, computed on request
+    private ParseResult partial;
+    private List<Object> symbols;
+
+    public LspDocument(String uri, int version, String content) {
+        this.uri = uri;
+        this.version = version;
+        replace(content);
+    }
+
+    public String uri() {
+        return uri;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Replace the whole text
+     */
+    public void replace(String content) {
+        char[] chars = Arrays.copyOf(content.toCharArray(), content.length() + content.length() / 8 + 16);
+        text = new SourceText(chars, content.length());
+        raw = null;
+        changed = true;
+        lines = 0;
+        addLine(0);
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '\n')
+                addLine(i + 1);
+        }
+    }
+
+    /**
+     * Replace the text between two LSP positions. The tokens follow at once, parsing waits for update()
+     */
+    public void edit(int startLine, int startCharacter, int endLine, int endCharacter, String inserted) {
+        int offset = offset(startLine, startCharacter);
+        int removed = offset(endLine, endCharacter) - offset;
+        editLines(offset, removed, inserted);
+        changed = true;
+
+        if (raw != null) {
+            incrementalLexer.relex(raw, screened, offset, removed, inserted);
+            parser.edited(incrementalLexer.changeStart(), incrementalLexer.changeOldEnd(),
+                    incrementalLexer.changeNewEnd());
+        } else {
+            text.replace(offset, removed, inserted);
+        }
+    }
+
+    /**
+     * Bring the tokens and the AST up to date with the text and find the problems in it
+     *
+     * @return true if there were changes and they are now all scanned and parsed, false if there were none or the
+     * parse was cancelled
+     */
+    public boolean update() {
+        if (!changed)
+            return false;
+        if (raw == null) {
+            raw = lexer.scanTokens(text);
+            screened = raw.screened();
+            parser = new IncrementalParser(screened);
+        }
+        try {
+            parser.reparse();
+            problems.clear();
+        } catch (CancellationException e) {
+            return false;
+        } catch (Exception e) {
+            //The reparse recovers past each problem, so it found them all
+            problems.clear();
+            Diagnostics found = parser.diagnostics();
+            for (Diagnostic diagnostic: found)
+                addProblem(diagnostic.message(), diagnostic.token);
+            if (!found.hasErrors())
+                addProblem(e.getMessage(), parser.errorPosition());
+        }
+        partial = null;
+        symbols = null;
+        changed = false;
+        return true;
+    }
+
+    /**
+     * Stop a parse running on the worker thread, called when another edit comes in
+     */
+    public void cancel() {
+        IncrementalParser p = parser;
+        if (p != null)
+            p.cancel();
+    }
+
+    /**
+     * LSP diagnostics for the problems found by the last update
+     */
+    public List<Object> diagnostics() {
+        return new ArrayList<Object>(problems);
+    }
+
+    /**
+     * LSP DocumentSymbols: the program, its consts, types, variables and functions with their own declarations.
+     * While the text does not parse they come from the partial tree, where names that did not parse are left out
+     */
+    public List<Object> symbols() {
+        if (symbols != null)
+            return symbols;
+        ParseResult current = current();
+        if (current == null)
+            return new ArrayList<Object>();
+
+        AstArena tree = current.tree();
+        int program = current.root();
+        int start = tree.offset(program);
+        int name = tree.firstChild(program);
+        List<Object> children = new ArrayList<Object>();
+        int subprogs = AstArena.NONE;
+        for (int child = tree.nextSibling(name); child != AstArena.NONE; child = tree.nextSibling(child)) {
+            if (tree.label(child).equals("subprogs"))
+                subprogs = child;
+            else
+                declarationSymbols(tree, child, start + tree.offset(child), children);
+        }
+        if (subprogs != AstArena.NONE) {
+            int subprogsStart = start + tree.offset(subprogs);
+            for (int fcn = tree.firstChild(subprogs); fcn != AstArena.NONE; fcn = tree.nextSibling(fcn)) {
+                if (isName(tree, tree.firstChild(fcn)))
+                    children.add(functionSymbol(tree, fcn, subprogsStart + tree.offset(fcn)));
+            }
+        }
+
+        //Without a program name its declarations stand on their own
+        if (isName(tree, name)) {
+            Map<String, Object> symbol = symbol(tree, name, start + tree.offset(name), MODULE, program, start);
+            symbol.put("children", children);
+            symbols = new ArrayList<Object>();
+            symbols.add(symbol);
+        } else {
+            symbols = children;
+        }
+        return symbols;
+    }
+
+    /**
+     * LSP Location of the declaration of the name at a position, or null.
+     * Names are looked up in the function the position is in, then in the program; while the text does not parse,
+     * in its partial tree
+     */
+    public Map<String, Object> definition(int line, int character) {
+        ParseResult current = current();
+        if (current == null)
+            return null;
+
+        int offset = offset(line, character);
+        int token = screened.indexAt(offset);
+        //A position just after a name still refers to it
+        if (token > 0 && screened.type(token) != LexerTokenType.IDENTIFIER && screened.tokenStart(token) == offset)
+            token--;
+        if (token < 0 || screened.type(token) != LexerTokenType.IDENTIFIER || offset > screened.tokenEnd(token))
+            return null;
+        int symbol = screened.symbol(token);
+
+        AstArena tree = current.tree();
+        int program = current.root();
+        int start = tree.offset(program);
+        int[] declaration = {AstArena.NONE, 0};
+        for (int child = tree.firstChild(program); child != AstArena.NONE; child = tree.nextSibling(child)) {
+            int childStart = start + tree.offset(child);
+            if (!tree.label(child).equals("subprogs"))
+                continue;
+            for (int fcn = tree.firstChild(child); fcn != AstArena.NONE; fcn = tree.nextSibling(fcn)) {
+                int fcnStart = childStart + tree.offset(fcn);
+                if (token >= fcnStart && token < fcnStart + tree.width(fcn))
+                    findDeclaration(tree, fcn, fcnStart, symbol, declaration);
+            }
+        }
+        if (declaration[0] == AstArena.NONE)
+            findDeclaration(tree, program, start, symbol, declaration);
+        if (declaration[0] == AstArena.NONE)
+            return null;
+
+        Map<String, Object> location = new LinkedHashMap<String, Object>();
+        location.put("uri", uri);
+        location.put("range", range(screened.tokenStart(declaration[1]), screened.tokenEnd(declaration[1])));
+        return location;
+    }
+
+    /**
+     * AST of the current tokens: the incremental parser's, or while they do not parse the recovering parse's,
+     * with "<error>" nodes where parts of it did not parse. Null until the last edits are parsed
+     */
+    private ParseResult current() {
+        if (raw == null || changed)
+            return null;
+        if (!parser.pending())
+            return new ParseResult(parser.tree(), parser.root(), parser.diagnostics());
+        if (partial == null) {
+            try {
+                partial = new Parser(screened.stream()).parse(new Diagnostics());
+            } catch (Exception e) {
+                //Only a failing token source throws, and the tokens are in memory
+                throw new IllegalStateException(e);
+            }
+        }
+        return partial;
+    }
+
+    /**
+     * True for an identifier node, false for an "<error>" node standing in for a name that did not parse
+     */
+    private static boolean isName(AstArena tree, int node) {
+        return node != AstArena.NONE && tree.label(node).equals("<identifier>");
+    }
+
+    /**
+     * Search the declarations directly in a program or fcn node, the names of its functions included
+     *
+     * @param found set to the identifier node and its token
+     */
+    private void findDeclaration(AstArena tree, int scope, int scopeStart, int symbol, int[] found) {
+        for (int child = tree.firstChild(scope); child != AstArena.NONE; child = tree.nextSibling(child)) {
+            int childStart = scopeStart + tree.offset(child);
+            String label = tree.label(child);
+            if (label.equals("<identifier>")) {
+                //Name of the program or function itself; the trailing name repeats it
+                if (child == tree.firstChild(scope))
+                    match(tree, child, childStart, symbol, found);
+            } else if (label.equals("subprogs")) {
+                for (int fcn = tree.firstChild(child); fcn != AstArena.NONE; fcn = tree.nextSibling(fcn)) {
+                    int name = tree.firstChild(fcn);
+                    match(tree, name, childStart + tree.offset(fcn) + tree.offset(name), symbol, found);
+                }
+            } else if (!label.equals("block")) {
+                List<int[]> names = new ArrayList<int[]>();
+                declaredNames(tree, child, childStart, names, null);
+                for (int[] name: names)
+                    match(tree, name[0], name[1], symbol, found);
+            }
+            if (found[0] != AstArena.NONE)
+                return;
+        }
+    }
+
+    private static void match(AstArena tree, int identifier, int token, int symbol, int[] found) {
+        if (found[0] == AstArena.NONE && isName(tree, identifier)
+                && tree.symbol(tree.firstChild(identifier)) == symbol) {
+            found[0] = identifier;
+            found[1] = token;
+        }
+    }
+
+    /**
+     * Identifier nodes declared by a consts, types, dclns or params node, with their tokens.
+     * kinds, if given, gets the SymbolKind of each (enum literals follow their type)
+     */
+    private static void declaredNames(AstArena tree, int node, int start, List<int[]> names, List<Integer> kinds) {
+        String label = tree.label(node);
+        for (int item = tree.firstChild(node); item != AstArena.NONE; item = tree.nextSibling(item)) {
+            int itemStart = start + tree.offset(item);
+            int first = tree.firstChild(item);
+            if (first == AstArena.NONE)
+                continue;
+            if (label.equals("consts")) {
+                names.add(new int[]{first, itemStart + tree.offset(first)});
+                if (kinds != null)
+                    kinds.add(CONSTANT);
+            } else if (label.equals("types")) {
+                names.add(new int[]{first, itemStart + tree.offset(first)});
+                if (kinds != null)
+                    kinds.add(ENUM);
+                int lit = tree.nextSibling(first);
+                if (lit == AstArena.NONE)
+                    continue;
+                int litStart = itemStart + tree.offset(lit);
+                for (int literal = tree.firstChild(lit); literal != AstArena.NONE; literal = tree.nextSibling(literal)) {
+                    names.add(new int[]{literal, litStart + tree.offset(literal)});
+                    if (kinds != null)
+                        kinds.add(ENUM_MEMBER);
+                }
+            } else if (label.equals("dclns") || label.equals("params")) {
+                //The last child of a var is its type
+                for (int name = first; tree.nextSibling(name) != AstArena.NONE; name = tree.nextSibling(name)) {
+                    names.add(new int[]{name, itemStart + tree.offset(name)});
+                    if (kinds != null)
+                        kinds.add(VARIABLE);
+                }
+            }
+        }
+    }
+
+    private void declarationSymbols(AstArena tree, int node, int start, List<Object> symbols) {
+        List<int[]> names = new ArrayList<int[]>();
+        List<Integer> kinds = new ArrayList<Integer>();
+        declaredNames(tree, node, start, names, kinds);
+
+        List<Object> members = null;
+        for (int i = 0; i < names.size(); i++) {
+            int[] name = names.get(i);
+            //Members of a type without a name go with it
+            if (!isName(tree, name[0]) || kinds.get(i) == ENUM_MEMBER && members == null) {
+                if (kinds.get(i) == ENUM)
+                    members = null;
+                continue;
+            }
+            Map<String, Object> symbol = symbol(tree, name[0], name[1], kinds.get(i), name[0], name[1]);
+            if (kinds.get(i) == ENUM_MEMBER) {
+                members.add(symbol);
+            } else {
+                symbols.add(symbol);
+                if (kinds.get(i) == ENUM) {
+                    members = new ArrayList<Object>();
+                    symbol.put("children", members);
+                }
+            }
+        }
+    }
+
+    private Map<String, Object> functionSymbol(AstArena tree, int fcn, int start) {
+        int name = tree.firstChild(fcn);
+        Map<String, Object> symbol = symbol(tree, name, start + tree.offset(name), FUNCTION, fcn, start);
+        List<Object> children = new ArrayList<Object>();
+        for (int child = tree.nextSibling(name); child != AstArena.NONE; child = tree.nextSibling(child))
+            declarationSymbols(tree, child, start + tree.offset(child), children);
+        symbol.put("children", children);
+        return symbol;
+    }
+
+    /**
+     * DocumentSymbol named by an identifier node, covering the tokens of node
+     */
+    private Map<String, Object> symbol(AstArena tree, int identifier, int identifierToken, int kind,
+                                       int node, int nodeToken) {
+        Map<String, Object> symbol = new LinkedHashMap<String, Object>();
+        symbol.put("name", tree.label(tree.firstChild(identifier)));
+        symbol.put("kind", kind);
+        symbol.put("range", range(screened.tokenStart(nodeToken),
+                screened.tokenEnd(nodeToken + Math.max(tree.width(node), 1) - 1)));
+        symbol.put("selectionRange", range(screened.tokenStart(identifierToken), screened.tokenEnd(identifierToken)));
+        return symbol;
+    }
+
+    /**
+     * Char offset of an LSP position, clamped to the text
+     */
+    public int offset(int line, int character) {
+        if (line >= lines)
+            return text.length();
+        int end = line + 1 < lines ? lineStarts[line + 1] - 1 : text.length();
+        return Math.min(lineStarts[Math.max(line, 0)] + Math.max(character, 0), end);
+    }
+
+    private Map<String, Object> position(int offset) {
+        int line = lineAt(offset);
+        Map<String, Object> position = new LinkedHashMap<String, Object>();
+        position.put("line", line);
+        position.put("character", offset - lineStarts[line]);
+        return position;
+    }
+
+    private Map<String, Object> range(int start, int end) {
+        Map<String, Object> range = new LinkedHashMap<String, Object>();
+        range.put("start", position(start));
+        range.put("end", position(end));
+        return range;
+    }
+
+    private void addProblem(String message, int start, int end) {
+        Map<String, Object> diagnostic = new LinkedHashMap<String, Object>();
+        diagnostic.put("range", range(start, end));
+        diagnostic.put("severity", 1);
+        diagnostic.put("source", "winzig");
+        diagnostic.put("message", message);
+        problems.add(diagnostic);
+    }
+
+    /**
+     * Problem at a screened token, or at the end of the text past the last one
+     */
+    private void addProblem(String message, int token) {
+        if (token < screened.size())
+            addProblem(message, screened.tokenStart(token), screened.tokenEnd(token));
+        else
+            addProblem(message, text.length(), text.length());
+    }
+
+    private void addLine(int start) {
+        if (lines == lineStarts.length)
+            lineStarts = Arrays.copyOf(lineStarts, lines * 2);
+        lineStarts[lines++] = start;
+    }
+
+    /**
+     * Keep the line starts in step with an edit: lines starting inside the removed chars go, a line is added
+     * after each inserted newline and the lines behind move by the size difference
+     */
+    private void editLines(int offset, int removed, String inserted) {
+        int first = lineAt(offset) + 1;
+        int last = lineAt(offset + removed);
+        int added = 0;
+        for (int i = 0; i < inserted.length(); i++) {
+            if (inserted.charAt(i) == '\n')
+                added++;
+        }
+
+        int tail = lines - last - 1;
+        int newLines = lines - (last - first + 1) + added;
+        if (newLines > lineStarts.length)
+            lineStarts = Arrays.copyOf(lineStarts, newLines + newLines / 8 + 16);
+        System.arraycopy(lineStarts, last + 1, lineStarts, first + added, tail);
+        int line = first;
+        for (int i = 0; i < inserted.length(); i++) {
+            if (inserted.charAt(i) == '\n')
+                lineStarts[line++] = offset + i + 1;
+        }
+        int delta = inserted.length() - removed;
+        for (int i = first + added; i < newLines; i++)
+            lineStarts[i] += delta;
+        lines = newLines;
+    }
+
+    /**
+     * Last line starting at or before offset
+     */
+    private int lineAt(int offset) {
+        int low = 0;
+        int high = lines - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (lineStarts[mid] <= offset)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high;
+    }
+}
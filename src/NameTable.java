@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * Identifier interner. Each distinct name gets a dense int id the first time it is seen and every later occurrence
+ * maps to the same id and the same String instance, so later phases can compare names by id.
+ * Names are hashed straight from the source text, so repeated identifiers cost no allocation
+ */
+public class NameTable {
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    //Open addressing table of id + 1, 0 marks a free slot
+    private int[] slots = new int[128];
+    private int size = 0;
+
+    /**
+     * Id of the name spelled by s[start, end), interning it if new
+     */
+    public int intern(CharSequence s, int start, int end) {
+        int h = hash(s, start, end);
+        int mask = slots.length - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0) {
+                slots[slot] = add(s.subSequence(start, end).toString(), h) + 1;
+                if (size * 2 > slots.length)
+                    rehash();
+                return size - 1;
+            }
+            if (hashes[id] == h && matches(names[id], s, start, end))
+                return id;
+        }
+    }
+
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Id of the name if it was interned, otherwise -1
+     */
+    public int find(CharSequence s, int start, int end) {
+        int h = hash(s, start, end);
+        int mask = slots.length - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0)
+                return -1;
+            if (hashes[id] == h && matches(names[id], s, start, end))
+                return id;
+        }
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(String name, int h) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        names[size] = name;
+        hashes[size] = h;
+        return size++;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + s.charAt(i);
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence s, int start, int end) {
+        if (name.length() != end - start)
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != s.charAt(start + i))
+                return false;
+        }
+        return true;
+    }
+}
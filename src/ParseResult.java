@@ -0,0 +1,37 @@
+/**
+ * Outcome of parsing a program: the AST, with "<error>" nodes where parts of it did not parse, and the problems
+ * found. Returned instead of throwing, so a failed parse costs no more than a successful one
+ */
+public class ParseResult {
+    private final AstArena tree;
+    private final int root;
+    private final Diagnostics diagnostics;
+
+    public ParseResult(AstArena tree, int root, Diagnostics diagnostics) {
+        this.tree = tree;
+        this.root = root;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * True if the program has no lexical or syntax errors
+     */
+    public boolean ok() {
+        return !diagnostics.hasErrors();
+    }
+
+    public AstArena tree() {
+        return tree;
+    }
+
+    /**
+     * Root node in tree(), NONE if only the syntax was checked
+     */
+    public int root() {
+        return root;
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
+    }
+}
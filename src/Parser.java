@@ -1,21 +1,220 @@
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
 
 public class Parser {
-    private ArrayList<LexerToken> tokenSequence;
-    Stack<ASTNode> stack = new Stack<ASTNode>();
-    int pos = 0;
+    public static final String MAX_DEPTH_PROPERTY = "winzig.maxDepth";
+    //Nesting levels of statements and parenthesized expressions allowed by default, from the winzig.maxDepth
+    //system property
+    public static final int DEFAULT_MAX_DEPTH = Integer.getInteger(MAX_DEPTH_PROPERTY, 10000);
+
+    //Frames of the statement and expression parsers, each waiting for a nested statement or operand.
+    //The ones before CLAUSE are a nesting level each
+    private static final int IF_THEN = 0;
+    private static final int IF_ELSE = 1;
+    private static final int WHILE_DO = 2;
+    private static final int FOR_DO = 3;
+    private static final int REPEAT_LIST = 4;
+    private static final int LOOP_LIST = 5;
+    private static final int BODY_LIST = 6;
+    private static final int CASE_CLAUSES = 7;
+    private static final int CASE_OTHERWISE = 8;
+    private static final int PARENS = 9;
+    private static final int BUILTIN = 10;
+    private static final int CALL = 11;
+    private static final int CLAUSE = 12;
+    private static final int OTHERWISE = 13;
+    private static final int BINARY = 14;
+    private static final int PREFIX = 15;
+    //Layout of a frame
+    private static final int FRAME = 4;
+    private static final int STATE = 0;
+    private static final int START = 1;
+    private static final int COUNT = 2;
+    private static final int OPERATOR = 3;
+
+    private static final LexerTokenType[] TYPES = LexerTokenType.values();
+    //Binary operator precedence by LexerTokenType ordinal, 0 for tokens that are not binary operators
+    static final int RELATIONAL = 1;
+    static final int ADDITIVE = 2;
+    static final int MULTIPLICATIVE = 3;
+    private static final int[] PRECEDENCE = new int[TYPES.length];
+
+    static {
+        for (LexerTokenType t: new LexerTokenType[] {LexerTokenType.LTE, LexerTokenType.LT, LexerTokenType.GTE,
+                LexerTokenType.GT, LexerTokenType.EQ, LexerTokenType.NE})
+            PRECEDENCE[t.ordinal()] = RELATIONAL;
+        for (LexerTokenType t: new LexerTokenType[] {LexerTokenType.PLUS, LexerTokenType.MINUS, LexerTokenType.OR})
+            PRECEDENCE[t.ordinal()] = ADDITIVE;
+        for (LexerTokenType t: new LexerTokenType[] {LexerTokenType.MUL, LexerTokenType.DIV, LexerTokenType.AND,
+                LexerTokenType.MOD})
+            PRECEDENCE[t.ordinal()] = MULTIPLICATIVE;
+    }
+
+    private TokenStream tokens;
+    AstArena tree = new AstArena();
+    //Node stack for bottom up tree building, with the first token of each node alongside
+    private int[] stack = new int[256];
+    private int[] starts = new int[256];
+    private int top = 0;
+    //Tokens consumed so far
+    private int position = 0;
+    //Tokens consumed up to the last one that was not a lexical error, where a node built now ends. Errors are
+    //skipped by looking ahead, which can happen before the node that ends here is built
+    private int end = 0;
+    //Source of reusable subtrees when reparsing after an edit
+    private IncrementalParser reuse;
+    int rootNode;
     ASTNode root;
+    //False when only checking syntax, then no nodes are kept at all
+    private boolean buildTree = true;
+    //Problems found so far. Nothing is thrown while parsing, problems are recorded here
+    private Diagnostics diagnostics = new Diagnostics(1);
+    //From a syntax error until recover(): nothing is consumed and no production matches, so each one returns
+    //at once with what it has built, missing parts as error nodes
+    private boolean panic = false;
+    //Once diagnostics is full the panic lasts to the end
+    private boolean stopped = false;
+    //From recover() until a token is consumed: a token missing there is taken as inserted, without an error
+    private boolean quiet = false;
+    //Enclosing lists waiting for their 'end', 'until' and 'pool', to tell a list's closing token from a stray one
+    private int openEnd = 0;
+    private int openUntil = 0;
+    private int openPool = 0;
+    //Frame stack, FRAME ints each: state, first token, and child count so far (the minimum precedence for BINARY,
+    //the prefixes below the frame's for PREFIX), plus the operator of BINARY and BUILTIN frames
+    private int[] frame = new int[64 * FRAME];
+    //Index of the next frame in frame
+    private int frameTop = 0;
+    //Nesting frames on the stack, and the most allowed
+    private int depth = 0;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    //Prefix operators read by startOperand whose nodes are not built yet, with their first tokens
+    private LexerTokenType[] prefixTypes = new LexerTokenType[16];
+    private int[] prefixStarts = new int[16];
+    private int prefixes = 0;
 
     public Parser(ArrayList<LexerToken> seq) {
-        tokenSequence = seq;
+        this(new TokenListStream(seq));
     }
 
-    public String buildAST() throws Exception {
+    /**
+     * Parse straight from a lazy token source, eg. a LexerTokenStream over the program text
+     *
+     * @param tokens screened tokens
+     */
+    public Parser(TokenStream tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Parser appending to an existing arena that takes unchanged subtrees from reuse where it can
+     */
+    Parser(TokenStream tokens, AstArena tree, IncrementalParser reuse) {
+        this.tokens = tokens;
+        this.tree = tree;
+        this.reuse = reuse;
+    }
+
+    /**
+     * Parse the whole program into the arena
+     *
+     * @return root node of the AST in the arena
+     * @throws Exception with the first lexical or syntax error
+     */
+    public int parse() throws Exception {
+        ParseResult result = parse(new Diagnostics(1));
+        if (!result.ok())
+            throw new Exception(result.diagnostics().get(0).toString());
+        return result.root();
+    }
+
+    /**
+     * Parse the whole program, recording problems instead of throwing.
+     * BAD_TOKENs from the scanner are recorded as lexical errors and dropped. After a syntax error the enclosing
+     * statement or declaration is given up and parsing resumes at the next ';', 'end', 'pool', 'until' or
+     * 'begin'. Recovery only ever skips forward, so the parse stays linear in the number of tokens however many
+     * errors there are. Once diagnostics is full the parser stops recovering and winds up at once
+     *
+     * @param diagnostics receives the problems in token order
+     * @return the AST, with "<error>" nodes where parts of it did not parse
+     * @throws Exception only if the token source fails, eg. on a read error
+     */
+    public ParseResult parse(Diagnostics diagnostics) throws Exception {
+        this.diagnostics = diagnostics;
+        Winzig();
+
+        rootNode = pop();
+        return new ParseResult(tree, rootNode, diagnostics);
+    }
+
+    /**
+     * Check the syntax of the whole program without building the AST.
+     * Memory use is then bounded by the nesting depth of the program, not its size
+     *
+     * @throws Exception with the first lexical or syntax error
+     */
+    public void checkSyntax() throws Exception {
+        Diagnostics diagnostics = new Diagnostics(1);
+        if (!checkSyntax(diagnostics))
+            throw new Exception(diagnostics.get(0).toString());
+    }
+
+    /**
+     * Check the syntax of the whole program without building the AST, recording problems as
+     * parse(diagnostics) does
+     *
+     * @param diagnostics receives the problems in token order
+     * @return true if there were none
+     * @throws Exception only if the token source fails, eg. on a read error
+     */
+    public boolean checkSyntax(Diagnostics diagnostics) throws Exception {
+        this.diagnostics = diagnostics;
+        buildTree = false;
         Winzig();
+        return !diagnostics.hasErrors();
+    }
+
+    /**
+     * Parse the whole program and write its AST in the '. . name(n)' format
+     *
+     * @param out destination of the tree
+     * @throws Exception
+     */
+    public void writeAST(Writer out) throws Exception {
+        new AstWriter(out).write(tree, parse());
+    }
+
+    /**
+     * Nesting levels of statements and parenthesized expressions allowed. A program nested deeper gets a
+     * diagnostic at the first token past the limit, and the parse stops there
+     *
+     * @param maxDepth DEFAULT_MAX_DEPTH unless set
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Tokens consumed so far, the index of the unexpected token after a syntax error
+     */
+    int position() {
+        return position;
+    }
 
-        root = stack.pop();
-        return root.traverse(0);
+    /**
+     * Arena holding the nodes built so far
+     */
+    public AstArena tree() {
+        return tree;
+    }
+
+    public String buildAST() throws Exception {
+        StringWriter out = new StringWriter();
+        writeAST(out);
+        root = tree.toASTNode(rootNode);
+        return out.toString();
     }
 
     /**
@@ -25,6 +224,7 @@ public class Parser {
      * @throws Exception
      */
     private void Winzig() throws Exception {
+        int start = position;
         read(LexerTokenType.PROGRAM);
         Name();
         read(LexerTokenType.COLON);
@@ -36,7 +236,77 @@ public class Parser {
         Name();
         read(LexerTokenType.DOT);
 
-        buildSubtreeFromStack("program", 7);
+        buildSubtreeFromStack("program", 7, start);
+        endOfProgram();
+    }
+
+    /**
+     * Nothing may follow the program's '.'. Anything that does is an error, as are the tokens left over when a
+     * stray 'end' closes the program's Body early. The statements in them are parsed and dropped so that their
+     * errors are reported too, and whatever else is skipped like after a statement, up to the end of the program.
+     * An 'end' Name '.' among them is taken as the program's own end
+     *
+     * @throws Exception
+     */
+    private void endOfProgram() throws Exception {
+        recover();
+        if (nextType() != LexerTokenType.END_OF_PROGRAM)
+            error("end of program");
+        int program = top;
+        while (!stopped) {
+            recover();
+            switch (nextType()) {
+                case END_OF_PROGRAM:
+                    return;
+
+                case IDENTIFIER:
+                case OUTPUT:
+                case IF:
+                case WHILE:
+                case REPEAT:
+                case FOR:
+                case LOOP:
+                case CASE:
+                case READ:
+                case EXIT:
+                case RETURN:
+                case BEGIN:
+                    int base = frameTop;
+                    if (startStatement())
+                        statements(base);
+                    top = program;
+                    LexerTokenType next = nextType();
+                    if (next != LexerTokenType.SEMICOLON && next != LexerTokenType.END
+                            && next != LexerTokenType.END_OF_PROGRAM)
+                        error(LexerTokenType.SEMICOLON.toString());
+                    break;
+
+                case SEMICOLON:
+                    read(LexerTokenType.SEMICOLON);
+                    break;
+
+                case END:
+                    read(LexerTokenType.END);
+                    if (nextType() == LexerTokenType.IDENTIFIER) {
+                        Name();
+                        top = program;
+                        if (nextType() == LexerTokenType.DOT)
+                            read(LexerTokenType.DOT);
+                    }
+                    break;
+
+                default:
+                    //Panicking skips up to the next statement
+                    error("end of program");
+                    if (!panic) {
+                        tokens.skip();
+                        position++;
+                        end = position;
+                        quiet = false;
+                    }
+                    break;
+            }
+        }
     }
 
     /**
@@ -45,18 +315,28 @@ public class Parser {
      * @throws Exception
      */
     private void Body() throws Exception {
-        read(LexerTokenType.BEGIN);
-        Statement();
+        int base = frameTop;
+        if (startBody())
+            statements(base);
+    }
 
-        int count = 1;
-        while (nextToken().type == LexerTokenType.SEMICOLON) {
-            read(LexerTokenType.SEMICOLON);
-            Statement();
-            count++;
+    /**
+     * Parse statements on the frame stack until the frames above base are done, starting with a statement the
+     * top frame is waiting for. Each compound statement is a frame waiting for its next nested statement, so
+     * nesting takes heap, not Java stack
+     *
+     * @throws Exception
+     */
+    private void statements(int base) throws Exception {
+        boolean statement = true;
+        while (true) {
+            if (statement)
+                statement = startStatement();
+            else if (frameTop == base)
+                return;
+            else
+                statement = resumeStatement();
         }
-        read(LexerTokenType.END);
-
-        buildSubtreeFromStack("block", count);
     }
 
     /**
@@ -74,14 +354,20 @@ public class Parser {
      *              -> Body
      *              ->
      *
+     * Parses a statement up to its first nested statement, if it has any
+     *
+     * @return true if a frame was pushed that waits for a nested statement, false if the statement is done
      * @throws Exception
      */
-    private void Statement() throws Exception {
-        LexerToken next = nextToken();
-        switch (nextToken().type) {
+    private boolean startStatement() throws Exception {
+        int start = position;
+        if (reuse(IncrementalParser.STATEMENT))
+            return false;
+
+        switch (nextType()) {
             case IDENTIFIER:
                 Assignment();
-                break;
+                return false;
 
             case OUTPUT:
                 read(LexerTokenType.OUTPUT);
@@ -89,95 +375,75 @@ public class Parser {
                 OutExp();
 
                 int count = 1;
-                while (nextToken().type == LexerTokenType.COMMA) {
+                while (nextType() == LexerTokenType.COMMA) {
                     read(LexerTokenType.COMMA);
                     OutExp();
                     count++;
                 }
                 read(LexerTokenType.RIGHT_PARA);
 
-                buildSubtreeFromStack("output", count);
-                break;
+                buildSubtreeFromStack("output", count, start);
+                return false;
 
             case IF:
+                if (tooDeep(start, 0))
+                    return false;
                 read(LexerTokenType.IF);
                 Expression();
                 read(LexerTokenType.THEN);
-                Statement();
-
-                count = 2;
-                if (nextToken().type == LexerTokenType.ELSE) {
-                    read(LexerTokenType.ELSE);
-                    Statement();
-                    count++;
-                }
-
-                buildSubtreeFromStack("if", count);
-                break;
+                pushFrame(IF_THEN, start, 2);
+                return true;
 
             case WHILE:
+                if (tooDeep(start, 0))
+                    return false;
                 read(LexerTokenType.WHILE);
                 Expression();
                 read(LexerTokenType.DO);
-                Statement();
-
-                buildSubtreeFromStack("while", 2);
-                break;
+                pushFrame(WHILE_DO, start, 2);
+                return true;
 
             case REPEAT:
+                if (tooDeep(start, 0))
+                    return false;
                 read(LexerTokenType.REPEAT);
-                Statement();
-
-                count = 1;
-                while (nextToken().type == LexerTokenType.SEMICOLON) {
-                    read(LexerTokenType.SEMICOLON);
-                    Statement();
-                    count++;
-                }
-                read(LexerTokenType.UNTIL);
-                Expression();
-
-                buildSubtreeFromStack("repeat", ++count);
-                break;
+                openUntil++;
+                pushFrame(REPEAT_LIST, start, 1);
+                return true;
 
             case FOR:
+                if (tooDeep(start, 0))
+                    return false;
                 read(LexerTokenType.FOR);
                 read(LexerTokenType.LEFT_PARA);
                 ForStat();
+                recover();
                 read(LexerTokenType.SEMICOLON);
                 ForExp();
+                recover();
                 read(LexerTokenType.SEMICOLON);
                 ForStat();
                 read(LexerTokenType.RIGHT_PARA);
-                Statement();
-
-                buildSubtreeFromStack("for", 4);
-                break;
+                pushFrame(FOR_DO, start, 4);
+                return true;
 
             case LOOP:
+                if (tooDeep(start, 0))
+                    return false;
                 read(LexerTokenType.LOOP);
-                Statement();
-
-                count = 1;
-                while (nextToken().type == LexerTokenType.SEMICOLON) {
-                    read(LexerTokenType.SEMICOLON);
-                    Statement();
-                    count++;
-                }
-                read(LexerTokenType.POOL);
-
-                buildSubtreeFromStack("loop", count);
-                break;
+                openPool++;
+                pushFrame(LOOP_LIST, start, 1);
+                return true;
 
             case CASE:
+                if (tooDeep(start, 0))
+                    return false;
+                read(LexerTokenType.CASE);
                 Expression();
                 read(LexerTokenType.OF);
-                count = 1 + Caseclauses();
-                OtherwiseClause();
-                read(LexerTokenType.END);
-
-                buildSubtreeFromStack("case", 3);
-                break;
+                openEnd++;
+                pushFrame(CASE_CLAUSES, start, 1);
+                return startCaseclause();
 
             case READ:
                 read(LexerTokenType.READ);
@@ -185,110 +451,258 @@ public class Parser {
                 Name();
 
                 count = 1;
-                while (nextToken().type == LexerTokenType.COMMA) {
+                while (nextType() == LexerTokenType.COMMA) {
                     read(LexerTokenType.COMMA);
                     Name();
                     count++;
                 }
                 read(LexerTokenType.RIGHT_PARA);
 
-                buildSubtreeFromStack("read", count);
-                break;
+                buildSubtreeFromStack("read", count, start);
+                return false;
 
             case EXIT:
                 read(LexerTokenType.EXIT);
 
-                buildSubtreeFromStack("exit", 0);
-                break;
+                buildSubtreeFromStack("exit", 0, start);
+                return false;
 
             case RETURN:
                 read(LexerTokenType.RETURN);
                 Expression();
 
-                buildSubtreeFromStack("return", 1);
-                break;
+                buildSubtreeFromStack("return", 1, start);
+                return false;
 
             case BEGIN:
-                Body();
+                return startBody();
 
             default:
-                buildSubtreeFromStack("<null>", 0);
-                break;
-
+                buildSubtreeFromStack("<null>", 0, start);
+                return false;
         }
     }
 
     /**
-     * ForStat  -> Assignment
-     *          ->
+     * Body up to its first statement
      *
+     * @return true if a frame was pushed that waits for the statement
      * @throws Exception
      */
-    private void ForExp() throws Exception {
-        if(nextToken().type == LexerTokenType.SEMICOLON){
-            buildSubtreeFromStack("true",0);
-        } else {
-            Expression();
-        }
+    private boolean startBody() throws Exception {
+        int start = position;
+        if (reuse(IncrementalParser.BODY))
+            return false;
+
+        recover();
+        if (tooDeep(start, 0))
+            return false;
+        read(LexerTokenType.BEGIN);
+        openEnd++;
+        pushFrame(BODY_LIST, start, 1);
+        return true;
     }
 
     /**
+     * Caseclauses      -> (Caseclause ';')+
+     * Caseclause       -> CaseExpression list ',' ':' Statement
      * OtherwiseClause  -> 'otherwise' Statement
-     * -> ;
+     *                  ->
+     *
+     * Caseclause up to its statement
+     *
+     * @return true, a frame was pushed that waits for the statement
+     * @throws Exception
+     */
+    private boolean startCaseclause() throws Exception {
+        int start = position;
+        CaseExpression();
+
+        int count = 1;
+        while (nextType() == LexerTokenType.COMMA) {
+            read(LexerTokenType.COMMA);
+            CaseExpression();
+            count++;
+        }
+        read(LexerTokenType.COLON);
+        pushFrame(CLAUSE, start, count + 1);
+        return true;
+    }
+
+    /**
+     * Go on with the top frame once the statement it was waiting for is done
      *
+     * @return true if it waits for another statement, false if it is done too and was popped
      * @throws Exception
      */
-    private void OtherwiseClause() throws Exception {
-        LexerToken next = nextToken();
-        switch (nextToken().type) {
+    private boolean resumeStatement() throws Exception {
+        int at = frameTop - FRAME;
+        int start = frame[at + START];
+        int count = frame[at + COUNT];
+        switch (frame[at + STATE]) {
+            case IF_THEN:
+                if (nextType() == LexerTokenType.ELSE) {
+                    read(LexerTokenType.ELSE);
+                    frame[at + STATE] = IF_ELSE;
+                    frame[at + COUNT] = 3;
+                    return true;
+                }
+                buildSubtreeFromStack("if", count, start);
+                break;
+
+            case IF_ELSE:
+                buildSubtreeFromStack("if", count, start);
+                break;
+
+            case WHILE_DO:
+                buildSubtreeFromStack("while", count, start);
+                break;
+
+            case FOR_DO:
+                buildSubtreeFromStack("for", count, start);
+                break;
+
+            case REPEAT_LIST:
+                if (nextInList(LexerTokenType.UNTIL)) {
+                    frame[at + COUNT]++;
+                    return true;
+                }
+                openUntil--;
+                read(LexerTokenType.UNTIL);
+                Expression();
+
+                buildSubtreeFromStack("repeat", count + 1, start);
+                break;
+
+            case LOOP_LIST:
+                if (nextInList(LexerTokenType.POOL)) {
+                    frame[at + COUNT]++;
+                    return true;
+                }
+                openPool--;
+                read(LexerTokenType.POOL);
+
+                buildSubtreeFromStack("loop", count, start);
+                break;
+
+            case BODY_LIST:
+                if (nextInList(LexerTokenType.END)) {
+                    frame[at + COUNT]++;
+                    return true;
+                }
+                openEnd--;
+                read(LexerTokenType.END);
+
+                buildSubtreeFromStack("block", count, start);
+                break;
+
+            case CLAUSE:
+                buildSubtreeFromStack("case_clause", count, start);
+                break;
+
+            case CASE_CLAUSES:
+                //A Caseclause is done
+                recover();
+                read(LexerTokenType.SEMICOLON);
+                count = ++frame[at + COUNT];
+                LexerTokenType next = nextType();
+                if (next == LexerTokenType.INTEGER || next == LexerTokenType.CHAR || next == LexerTokenType.IDENTIFIER)
+                    return startCaseclause();
+                if (next == LexerTokenType.OTHERWISE) {
+                    frame[at + STATE] = CASE_OTHERWISE;
+                    pushFrame(OTHERWISE, position, 1);
+                    read(LexerTokenType.OTHERWISE);
+                    return true;
+                }
+                openEnd--;
+                read(LexerTokenType.END);
+
+                buildSubtreeFromStack("case", count, start);
+                break;
+
             case OTHERWISE:
-                read(LexerTokenType.OTHERWISE);
-                Statement();
+                buildSubtreeFromStack("otherwise", count, start);
+                break;
 
-                buildSubtreeFromStack("otherwise", 1);
+            case CASE_OTHERWISE:
+                openEnd--;
+                read(LexerTokenType.END);
+
+                buildSubtreeFromStack("case", count + 1, start);
                 break;
 
             default:
-                break;
+                throw new IllegalStateException("Frame " + frame[at + STATE] + " is not a statement");
         }
+        popFrame();
+        return false;
     }
 
     /**
-     * Caseclauses-> (Caseclause ';')+;
+     * After a statement in a Statement list ';' of Body, 'repeat' and 'loop': read the ';' if another statement
+     * follows. When recovering, anything but a ';' or a closing token after a statement is skipped up to the
+     * next ';', or to a 'begin' that then starts the next statement
+     *
+     * @param closer token closing the list
+     * @return true if another statement follows
      * @throws Exception
      */
-    private int Caseclauses() throws Exception {
-        LexerToken next = nextToken();
-
-        int count = 0;
-        do {
-            Caseclause();
-            read(LexerTokenType.SEMICOLON);
-            next = nextToken();
-            count++;
-        } while (next.type == LexerTokenType.INTEGER || next.type == LexerTokenType.CHAR || next.type == LexerTokenType.IDENTIFIER);
+    private boolean nextInList(LexerTokenType closer) throws Exception {
+        while (true) {
+            recover();
+            LexerTokenType next = nextType();
+            if (next == LexerTokenType.SEMICOLON) {
+                read(LexerTokenType.SEMICOLON);
+                return true;
+            }
+            if (next == closer || next == LexerTokenType.END_OF_PROGRAM || stopped || closesEnclosing(next))
+                return false;
+
+            error(LexerTokenType.SEMICOLON.toString());
+            if (stopped)
+                return false;
+            //Resume at the next statement even right after recovering, or this loop would not move on
+            panic = true;
+            if (next == LexerTokenType.END || next == LexerTokenType.UNTIL || next == LexerTokenType.POOL) {
+                tokens.skip();
+                position++;
+                end = position;
+            }
+            recover();
+            if (nextType() == LexerTokenType.BEGIN)
+                return true;
+        }
+    }
 
-        return count;
+    /**
+     * True if token closes a list enclosing the one being parsed
+     */
+    private boolean closesEnclosing(LexerTokenType token) {
+        switch (token) {
+            case END:
+                return openEnd > 0;
+            case UNTIL:
+                return openUntil > 0;
+            case POOL:
+                return openPool > 0;
+            default:
+                return false;
+        }
     }
 
     /**
-     * Caseclause -> CaseExpression list ',' ':' Statement
+     * ForStat  -> Assignment
+     *          ->
      *
      * @throws Exception
      */
-    private void Caseclause() throws Exception {
-        CaseExpression();
-
-        int count = 1;
-        while (nextToken().type == LexerTokenType.COMMA) {
-            read(LexerTokenType.COMMA);
-            CaseExpression();
-            count++;
+    private void ForExp() throws Exception {
+        int start = position;
+        if(nextType() == LexerTokenType.SEMICOLON){
+            buildSubtreeFromStack("true", 0, start);
+        } else {
+            Expression();
         }
-        read(LexerTokenType.COLON);
-        Statement();
-
-        buildSubtreeFromStack("case_clause", ++count);
     }
 
     /**
@@ -298,12 +712,13 @@ public class Parser {
      * @throws Exception
      */
     private void CaseExpression() throws Exception {
+        int start = position;
         ConstValue();
-        if (nextToken().type == LexerTokenType.CASE_EXP) {
+        if (nextType() == LexerTokenType.CASE_EXP) {
             read(LexerTokenType.CASE_EXP);
             ConstValue();
 
-            buildSubtreeFromStack("..", 2);
+            buildSubtreeFromStack("..", 2, start);
         }
     }
 
@@ -314,10 +729,11 @@ public class Parser {
      * @throws Exception
      */
     private void ForStat() throws Exception {
-        if (nextToken().type == LexerTokenType.IDENTIFIER) {
+        int start = position;
+        if (nextType() == LexerTokenType.IDENTIFIER) {
             Assignment();
         } else {
-            buildSubtreeFromStack("<null>", 0);
+            buildSubtreeFromStack("<null>", 0, start);
         }
     }
 
@@ -329,132 +745,198 @@ public class Parser {
      *              -> Term '>' Term
      *              -> Term '=' Term
      *              -> Term '<>' Term
-     *             
+     * Term         -> Factor
+     *              -> Term ('+' | '-' | 'or') Factor
+     * Factor       -> Primary
+     *              -> Factor ('*' | '/' | 'and' | 'mod') Primary
+     *
+     * Parsed by precedence climbing over the PRECEDENCE table on the frame stack instead of the Java stack. Each
+     * operand is started by startOperand and its frames resumed until they are done; the Java stack does not grow
+     * with the nesting depth, the length of operator chains, runs of prefix operators or parentheses
+     *
      * @throws Exception
      */
     private void Expression() throws Exception {
-        Term();
-
-        LexerToken next = nextToken();
-        switch (nextToken().type) {
-            case LTE:
-                read(LexerTokenType.LTE);
-                Term();
-                buildSubtreeFromStack("<=", 2);
-                break;
-
-            case LT:
-                read(LexerTokenType.LT);
-                Term();
-                buildSubtreeFromStack("<", 2);
-                break;
-
-            case GTE:
-                read(LexerTokenType.GTE);
-                Term();
-                buildSubtreeFromStack(">=", 2);
-                break;
-
-            case GT:
-                read(LexerTokenType.GT);
-                Term();
-                buildSubtreeFromStack("<", 2);
-                break;
+        int base = frameTop;
+        //Minimum precedence of the operand to start next, 0 once it is done
+        int operand = RELATIONAL;
+        while (true) {
+            if (operand != 0)
+                operand = startOperand(operand);
+            else if (frameTop == base)
+                return;
+            else if (frame[frameTop - FRAME + STATE] == BINARY)
+                operand = resumeBinary();
+            else
+                operand = resumeExpression();
+        }
+    }
 
-            case EQ:
-                read(LexerTokenType.EQ);
-                Term();
-                buildSubtreeFromStack("=", 2);
-                break;
+    /**
+     * Start an operand followed by any operators binding at least as tightly as minimum, left associative.
+     * A BINARY frame reads the chain at that level, each operator starting its right operand with a higher
+     * minimum; prefix operators and the Primary follow at once. When the Primary is a plain name or literal, no
+     * frame waits for it: its prefix operators are built at once, and the BINARY frame is only pushed if an
+     * operator follows, so most operands take no frame at all
+     *
+     * @param minimum lowest precedence taken here, RELATIONAL for a whole expression
+     * @return minimum precedence of an operand to start next: the right operand of an operator, or RELATIONAL if
+     *         a frame was pushed that waits for a nested expression; 0 if the operand is done up to the frames
+     *         waiting for their operators
+     * @throws Exception
+     */
+    private int startOperand(int minimum) throws Exception {
+        int start = position;
+        int base = prefixes;
+        LexerTokenType next = nextType();
+        if (next == LexerTokenType.MINUS || next == LexerTokenType.PLUS || next == LexerTokenType.NOT)
+            next = prefixOperators(next);
+
+        int primary = position;
+        if (next == LexerTokenType.IDENTIFIER || next == LexerTokenType.INTEGER || next == LexerTokenType.CHAR) {
+            readValue(next);
+            if (next != LexerTokenType.IDENTIFIER || nextType() != LexerTokenType.LEFT_PARA) {
+                buildPrefixes(base);
+                return firstOperator(start, minimum);
+            }
+            waitForPrimary(start, minimum, base);
+            return startCall(primary);
+        }
+        waitForPrimary(start, minimum, base);
+        return startPrimary(next);
+    }
 
-            case NE:
-                read(LexerTokenType.NE);
-                Term();
-                buildSubtreeFromStack("<>", 2);
-                break;
+    /**
+     * Push the frames that wait for a Primary to be done: BINARY for the operators after the operand, and PREFIX
+     * for the prefix operators before the Primary, if there are any
+     */
+    private void waitForPrimary(int start, int minimum, int base) {
+        if (minimum <= MULTIPLICATIVE)
+            pushFrame(BINARY, start, minimum);
+        if (prefixes > base)
+            pushFrame(PREFIX, 0, base);
+    }
 
-            default:
-                break;
+    /**
+     * Build the nodes of the prefix operators read since there were base, innermost first
+     */
+    private void buildPrefixes(int base) {
+        while (prefixes > base) {
+            prefixes--;
+            buildSubtreeFromStack(prefixTypes[prefixes].val, 1, prefixStarts[prefixes]);
         }
     }
 
     /**
-     * Term -> Factor
-     *      -> Term '+' Factor
-     *      -> Term '-' Factor
-     *      -> Term 'or' Factor
+     * After a plain operand, push its BINARY frame if an operator of at least minimum follows, and read it
      *
+     * @return minimum precedence of the right operand, 0 if no such operator follows
      * @throws Exception
      */
-    private void Term() throws Exception {
-        Factor();
-
-        LexerToken next = nextToken();
-        while (next.type == LexerTokenType.PLUS || next.type == LexerTokenType.MINUS || next.type == LexerTokenType.OR) {
-            switch(next.type){
-                case PLUS:
-                    read(LexerTokenType.PLUS);
-                    Factor();
-                    buildSubtreeFromStack("+", 2);
-                    break;
+    private int firstOperator(int start, int minimum) throws Exception {
+        LexerTokenType next = nextType();
+        int precedence = PRECEDENCE[next.ordinal()];
+        if (precedence < minimum)
+            return 0;
+        pushFrame(BINARY, start, minimum);
+        frame[frameTop - FRAME + OPERATOR] = next.ordinal();
+        read(next);
+        return precedence + 1;
+    }
 
-                case MINUS:
-                    read(LexerTokenType.MINUS);
-                    Factor();
-                    buildSubtreeFromStack("-", 2);
-                    break;
+    /**
+     * Read a run of prefix operators, their nodes are built once the Primary is done
+     *
+     * @param next the first of them
+     * @return the token after them
+     * @throws Exception
+     */
+    private LexerTokenType prefixOperators(LexerTokenType next) throws Exception {
+        do {
+            if (prefixes == prefixTypes.length) {
+                prefixTypes = Arrays.copyOf(prefixTypes, prefixes * 2);
+                prefixStarts = Arrays.copyOf(prefixStarts, prefixes * 2);
+            }
+            prefixTypes[prefixes] = next;
+            prefixStarts[prefixes++] = position;
+            read(next);
+            next = nextType();
+        } while (next == LexerTokenType.MINUS || next == LexerTokenType.PLUS || next == LexerTokenType.NOT);
+        return next;
+    }
 
-                case OR:
-                    read(LexerTokenType.OR);
-                    Factor();
-                    buildSubtreeFromStack("or", 2);
-                    break;
+    /**
+     * Go on with the BINARY frame on top once its operand is done: build the node of the operator before it, if
+     * any, and read the next operator of the chain
+     *
+     * @return minimum precedence of the right operand of that operator, 0 if the chain ended and the frame was
+     *         popped
+     * @throws Exception
+     */
+    private int resumeBinary() throws Exception {
+        int at = frameTop - FRAME;
+        int operator = frame[at + OPERATOR];
+        if (operator >= 0) {
+            buildSubtreeFromStack(TYPES[operator].val, 2, frame[at + START]);
+            //Relational operators do not associate
+            if (PRECEDENCE[operator] == RELATIONAL) {
+                frameTop -= FRAME;
+                return 0;
             }
-            next = nextToken();
         }
+        LexerTokenType next = nextType();
+        int precedence = PRECEDENCE[next.ordinal()];
+        if (precedence < frame[at + COUNT]) {
+            frameTop -= FRAME;
+            return 0;
+        }
+        read(next);
+        frame[at + OPERATOR] = next.ordinal();
+        return precedence + 1;
     }
 
     /**
-     * Factor   -> Factor '*' Primary
-     *          -> Factor '/' Primary
-     *          -> Factor 'and' Primary
-     *          -> Factor 'mod' Primary
-     *          -> Primary;
+     * Go on with the PREFIX, PARENS, BUILTIN or CALL frame on top once the operand or nested expression it was
+     * waiting for is done
      *
+     * @return minimum precedence of another operand it waits for, 0 if it is done too and was popped
      * @throws Exception
      */
-    private void Factor() throws Exception {
-        Primary();
+    private int resumeExpression() throws Exception {
+        int at = frameTop - FRAME;
+        int start = frame[at + START];
+        int count = frame[at + COUNT];
+        switch (frame[at + STATE]) {
+            case PREFIX:
+                buildPrefixes(count);
+                break;
 
-        LexerToken next = nextToken();
-        while (next.type == LexerTokenType.MUL || next.type == LexerTokenType.DIV || next.type == LexerTokenType.AND || next.type == LexerTokenType.MOD) {
-            switch(next.type){
-                case MUL:
-                    read(LexerTokenType.MUL);
-                    Factor();
-                    buildSubtreeFromStack("*", 2);
-                    break;
+            case PARENS:
+                read(LexerTokenType.RIGHT_PARA);
+                break;
 
-                case DIV:
-                    read(LexerTokenType.DIV);
-                    Factor();
-                    buildSubtreeFromStack("/", 2);
-                    break;
+            case BUILTIN:
+                read(LexerTokenType.RIGHT_PARA);
 
-                case AND:
-                    read(LexerTokenType.AND);
-                    Factor();
-                    buildSubtreeFromStack("and", 2);
-                    break;
+                buildSubtreeFromStack(TYPES[frame[at + OPERATOR]].val, 1, start);
+                break;
 
-                case MOD:
-                    read(LexerTokenType.MOD);
-                    Factor();
-                    buildSubtreeFromStack("mod", 2);
-                    break;
-            }
-            next = nextToken();
+            case CALL:
+                if (nextType() == LexerTokenType.COMMA) {
+                    read(LexerTokenType.COMMA);
+                    frame[at + COUNT]++;
+                    return RELATIONAL;
+                }
+                read(LexerTokenType.RIGHT_PARA);
+
+                buildSubtreeFromStack("call", count, start);
+                break;
+
+            default:
+                throw new IllegalStateException("Frame " + frame[at + STATE] + " is not an expression");
         }
+        popFrame();
+        return 0;
     }
 
     /**
@@ -470,105 +952,76 @@ public class Parser {
      *          -> 'succ' '(' Expression ')'
      *          -> 'pred' '(' Expression ')'
      *          -> 'chr' '(' Expression ')'
+     *          -> 'ord' '(' Expression ')'
      *
+     * Primary after its prefix operators, which startOperand has read, up to its first nested expression
+     *
+     * @param next its first token
+     * @return RELATIONAL if a frame was pushed that waits for a nested expression, 0 if the Primary is done
      * @throws Exception
      */
-    private void Primary() throws Exception {
-        LexerToken next = nextToken();
-        switch(nextToken().type) {
-            case MINUS:
-                read(LexerTokenType.MINUS);
-                Primary();
-                buildSubtreeFromStack("-", 1);
-                break;
-
-            case PLUS:
-                read(LexerTokenType.PLUS);
-                Primary();
-                buildSubtreeFromStack("+", 1);
-                break;
-
-            case NOT:
-                read(LexerTokenType.NOT);
-                Primary();
-                buildSubtreeFromStack("not", 1);
-                break;
-
+    private int startPrimary(LexerTokenType next) throws Exception {
+        int start = position;
+        switch (next) {
             case EOF:
                 read(LexerTokenType.EOF);
-                buildSubtreeFromStack("eof", 0);
-                break;
+                buildSubtreeFromStack("eof", 0, start);
+                return 0;
 
             case INTEGER:
-                read(next);
-                break;
+                readValue(LexerTokenType.INTEGER);
+                return 0;
 
             case CHAR:
-                read(next);
-                break;
+                readValue(LexerTokenType.CHAR);
+                return 0;
 
             case LEFT_PARA:
+                if (tooDeep(start, 0))
+                    return 0;
                 read(LexerTokenType.LEFT_PARA);
-                Expression();
-                read(LexerTokenType.RIGHT_PARA);
-                break;
+                pushFrame(PARENS, start, 0);
+                return RELATIONAL;
 
             case SUCC:
-                read(LexerTokenType.SUCC);
-                read(LexerTokenType.LEFT_PARA);
-                Expression();
-                read(LexerTokenType.RIGHT_PARA);
-
-                buildSubtreeFromStack("succ", 1);
-                break;
-
             case PRED:
-                read(LexerTokenType.PRED);
-                read(LexerTokenType.LEFT_PARA);
-                Expression();
-                read(LexerTokenType.RIGHT_PARA);
-
-                buildSubtreeFromStack("pred", 1);
-                break;
-
             case CHR:
-                read(LexerTokenType.CHR);
-                read(LexerTokenType.LEFT_PARA);
-                Expression();
-                read(LexerTokenType.RIGHT_PARA);
-
-                buildSubtreeFromStack("chr", 1);
-                break;
-
             case ORD:
-                read(LexerTokenType.ORD);
+                if (tooDeep(start, 0))
+                    return 0;
+                read(next);
                 read(LexerTokenType.LEFT_PARA);
-                Expression();
-                read(LexerTokenType.RIGHT_PARA);
-
-                buildSubtreeFromStack("ord", 1);
-                break;
+                pushFrame(BUILTIN, start, 1);
+                frame[frameTop - FRAME + OPERATOR] = next.ordinal();
+                return RELATIONAL;
 
             case IDENTIFIER:
                 Name();
-                if (nextToken().type == LexerTokenType.LEFT_PARA) {
-                    read(LexerTokenType.LEFT_PARA);
-                    Expression();
-
-                    int count = 2;
-                    while (nextToken().type == LexerTokenType.COMMA) {
-                        read(LexerTokenType.COMMA);
-                        Expression();
-                        count++;
-                    }
-                    read(LexerTokenType.RIGHT_PARA);
+                if (nextType() != LexerTokenType.LEFT_PARA)
+                    return 0;
+                return startCall(start);
 
-                    buildSubtreeFromStack("call", count);
-                }
-                break;
+            default:
+                error("expression");
+                buildSubtreeFromStack("<error>", 0, start);
+                return 0;
         }
     }
 
+    /**
+     * Call after its Name, up to the first argument
+     *
+     * @return RELATIONAL if a frame was pushed that waits for the argument, 0 if the call was given up
+     * @throws Exception
+     */
+    private int startCall(int start) throws Exception {
+        if (tooDeep(start, 1))
+            return 0;
+        read(LexerTokenType.LEFT_PARA);
+        pushFrame(CALL, start, 2);
+        return RELATIONAL;
+    }
+
     /**
      * OutExp   -> Expression
      *          -> StringNode
@@ -576,11 +1029,12 @@ public class Parser {
      * @throws Exception
      */
     private void OutExp() throws Exception {
-        if (nextToken().type == LexerTokenType.STRING) {
+        int start = position;
+        if (nextType() == LexerTokenType.STRING) {
             StringNode();
         } else {
             Expression();
-            buildSubtreeFromStack("integer", 1);
+            buildSubtreeFromStack("integer", 1, start);
         }
     }
 
@@ -589,7 +1043,7 @@ public class Parser {
      * @throws Exception
      */
     private void StringNode() throws Exception {
-        read(nextToken());
+        readValue(LexerTokenType.STRING);
     }
 
     /**
@@ -599,22 +1053,23 @@ public class Parser {
      * @throws Exception
      */
     private void Assignment() throws Exception {
+        int start = position;
         Name();
-        LexerToken next = nextToken();
-        switch (nextToken().type) {
+        switch (nextType()) {
             case ASSIGN:
                 read(LexerTokenType.ASSIGN);
                 Expression();
-                buildSubtreeFromStack("assign", 2);
+                buildSubtreeFromStack("assign", 2, start);
                 break;
 
             case SWAP:
                 read(LexerTokenType.SWAP);
                 Name();
-                buildSubtreeFromStack("swap", 2);
+                buildSubtreeFromStack("swap", 2, start);
                 break;
             default:
-                throw new Exception("Invalid token");
+                error(LexerTokenType.ASSIGN + " or " + LexerTokenType.SWAP);
+                buildSubtreeFromStack("<error>", 1, start);
         }
     }
 
@@ -624,13 +1079,16 @@ public class Parser {
      * @throws Exception
      */
     private void SubProgs() throws Exception {
+        int start = position;
+        skipDeclaration();
         int count = 0;
-        while (nextToken().type == LexerTokenType.FUNCTION) {
+        while (nextType() == LexerTokenType.FUNCTION) {
             Fcn();
             count++;
+            skipDeclaration();
         }
 
-        buildSubtreeFromStack("subprogs", count);
+        buildSubtreeFromStack("subprogs", count, start);
     }
 
     /**
@@ -639,6 +1097,10 @@ public class Parser {
      * @throws Exception
      */
     private void Fcn() throws Exception {
+        int start = position;
+        if (reuse(IncrementalParser.FCN))
+            return;
+
         read(LexerTokenType.FUNCTION);
         Name();
         read(LexerTokenType.LEFT_PARA);
@@ -646,6 +1108,7 @@ public class Parser {
         read(LexerTokenType.RIGHT_PARA);
         read(LexerTokenType.COLON);
         Name();
+        recover();
         read(LexerTokenType.SEMICOLON);
         Consts();
         Types();
@@ -654,7 +1117,7 @@ public class Parser {
         Name();
         read(LexerTokenType.SEMICOLON);
 
-        buildSubtreeFromStack("fcn", 8);
+        buildSubtreeFromStack("fcn", 8, start);
     }
 
     /**
@@ -663,16 +1126,19 @@ public class Parser {
      * @throws Exception
      */
     private void Params() throws Exception {
+        int start = position;
         Dcln();
+        recover();
 
         int count = 1;
-        while (nextToken().type == LexerTokenType.SEMICOLON) {
+        while (nextType() == LexerTokenType.SEMICOLON) {
             read(LexerTokenType.SEMICOLON);
             Dcln();
+            recover();
             count++;
         }
 
-        buildSubtreeFromStack("params", count);
+        buildSubtreeFromStack("params", count, start);
     }
 
     /**
@@ -682,19 +1148,22 @@ public class Parser {
      * @throws Exception
      */
     private void Dclns() throws Exception {
-        if (nextToken().type == LexerTokenType.VAR) {
+        int start = position;
+        skipDeclaration();
+        if (nextType() == LexerTokenType.VAR) {
             read(LexerTokenType.VAR);
 
             int count = 0;
             do {
                 Dcln();
+                recover();
                 read(LexerTokenType.SEMICOLON);
                 count++;
-            } while (nextToken().type == LexerTokenType.IDENTIFIER);
+            } while (nextType() == LexerTokenType.IDENTIFIER);
 
-            buildSubtreeFromStack("dclns", count);
+            buildSubtreeFromStack("dclns", count, start);
         } else {
-            buildSubtreeFromStack("dclns", 0);
+            buildSubtreeFromStack("dclns", 0, start);
         }
     }
 
@@ -704,10 +1173,11 @@ public class Parser {
      * @throws Exception
      */
     private void Dcln() throws Exception {
+        int start = position;
         Name();
 
         int count = 1;
-        while (nextToken().type == LexerTokenType.COMMA) {
+        while (nextType() == LexerTokenType.COMMA) {
             read(LexerTokenType.COMMA);
             Name();
             count++;
@@ -715,7 +1185,7 @@ public class Parser {
         read(LexerTokenType.COLON);
         Name();
 
-        buildSubtreeFromStack("dcln", count);
+        buildSubtreeFromStack("var", ++count, start);
     }
 
     /**
@@ -725,19 +1195,22 @@ public class Parser {
      * @throws Exception
      */
     private void Types() throws Exception {
-        if (nextToken().type == LexerTokenType.TYPE) {
+        int start = position;
+        skipDeclaration();
+        if (nextType() == LexerTokenType.TYPE) {
             read(LexerTokenType.TYPE);
 
             int count = 0;
             do {
                 Type();
+                recover();
                 read(LexerTokenType.SEMICOLON);
                 count++;
-            } while (nextToken().type == LexerTokenType.IDENTIFIER);
+            } while (nextType() == LexerTokenType.IDENTIFIER);
 
-            buildSubtreeFromStack("types", count);
+            buildSubtreeFromStack("types", count, start);
         } else {
-            buildSubtreeFromStack("types", 0);
+            buildSubtreeFromStack("types", 0, start);
         }
     }
 
@@ -747,11 +1220,12 @@ public class Parser {
      * @throws Exception
      */
     private void Type() throws Exception {
+        int start = position;
         Name();
         read(LexerTokenType.EQ);
         LitList();
 
-        buildSubtreeFromStack("type", 2);
+        buildSubtreeFromStack("type", 2, start);
     }
 
     /**
@@ -759,18 +1233,19 @@ public class Parser {
      * @throws Exception
      */
     private void LitList() throws Exception {
+        int start = position;
         read(LexerTokenType.LEFT_PARA);
         Name();
 
         int count = 1;
-        while (nextToken().type == LexerTokenType.COMMA) {
+        while (nextType() == LexerTokenType.COMMA) {
             read(LexerTokenType.COMMA);
             Name();
             count++;
         }
         read(LexerTokenType.RIGHT_PARA);
 
-        buildSubtreeFromStack("lit", count);
+        buildSubtreeFromStack("lit", count, start);
     }
 
     /**
@@ -779,22 +1254,24 @@ public class Parser {
      * @throws Exception
      */
     private void Consts() throws Exception {
-        LexerToken nextToken = nextToken();
-        if (nextToken.type == LexerTokenType.CONST) {
+        int start = position;
+        skipDeclaration();
+        if (nextType() == LexerTokenType.CONST) {
             read(LexerTokenType.CONST);
             Const();
 
             int count = 1;
-            while (nextToken().type == LexerTokenType.COMMA) {
+            while (nextType() == LexerTokenType.COMMA) {
                 read(LexerTokenType.COMMA);
                 Const();
                 count++;
             }
+            recover();
             read(LexerTokenType.SEMICOLON);
 
-            buildSubtreeFromStack("consts", count);
+            buildSubtreeFromStack("consts", count, start);
         } else {
-            buildSubtreeFromStack("consts", 0);
+            buildSubtreeFromStack("consts", 0, start);
         }
     }
 
@@ -804,11 +1281,12 @@ public class Parser {
      * @throws Exception
      */
     private void Const() throws Exception {
+        int start = position;
         Name();
         read(LexerTokenType.EQ);
         ConstValue();
 
-        buildSubtreeFromStack("const", 2);
+        buildSubtreeFromStack("const", 2, start);
     }
 
     /**
@@ -819,15 +1297,20 @@ public class Parser {
      * @throws Exception
      */
     private void ConstValue() throws Exception {
-        LexerToken next = nextToken();
-        switch (nextToken().type) {
+        int start = position;
+        switch (nextType()) {
             case INTEGER:
             case CHAR:
-                read(next);
+                readValue(nextType());
                 break;
 
             case IDENTIFIER:
                 Name();
+                break;
+
+            default:
+                error("constant");
+                buildSubtreeFromStack("<error>", 0, start);
         }
     }
 
@@ -837,7 +1320,7 @@ public class Parser {
      * @throws Exception
      */
     private void Name() throws Exception {
-        read(nextToken());
+        readValue(LexerTokenType.IDENTIFIER);
     }
 
     /**
@@ -845,14 +1328,113 @@ public class Parser {
      *
      * @param name AST node name
      * @param childrenCount no of children for AST node. In other words how many subtrees to pop from the stack
+     * @param start first token of the node
      */
-    private void buildSubtreeFromStack(String name, int childrenCount) {
-        ASTNode parent = new ASTNode(name);
+    private void buildSubtreeFromStack(String name, int childrenCount, int start) {
+        if (Trace.PRODUCTION)
+            Trace.log(name + "(" + childrenCount + ")");
+        if (!buildTree)
+            return;
+
+        int parent = tree.add(name, AstArena.NONE);
+        //Popped in reverse, so each child becomes the first child in front of the previous one
+        int next = AstArena.NONE;
         for (int i = 0; i < childrenCount; i++) {
-            parent.addChild(stack.pop());
+            int childStart = starts[top - 1];
+            int child = pop();
+            if (reuse != null)
+                reuse.relinking(child);
+            tree.setNextSibling(child, next);
+            tree.setOffset(child, childStart - start);
+            next = child;
         }
+        tree.setFirstChild(parent, next);
+        tree.setChildCount(parent, childrenCount);
+        tree.setSpan(parent, start, Math.max(end, start) - start);
 
-        stack.push(parent);
+        push(parent, start);
+    }
+
+    /**
+     * Take an unchanged subtree of the previous tree instead of parsing it again
+     *
+     * @param granularity IncrementalParser.STATEMENT, BODY or FCN
+     * @return true if a subtree was pushed and its tokens skipped
+     * @throws Exception
+     */
+    private boolean reuse(int granularity) throws Exception {
+        if (reuse == null || panic)
+            return false;
+
+        int node = reuse.find(granularity, position);
+        if (node == AstArena.NONE)
+            return false;
+
+        push(node, position);
+        tokens.skip(tree.width(node));
+        position += tree.width(node);
+        end = position;
+        //Its tokens are consumed like read()'s
+        quiet = false;
+        return true;
+    }
+
+    private void pushFrame(int state, int start, int count) {
+        int at = frameTop;
+        if (at == frame.length)
+            frame = Arrays.copyOf(frame, at * 2);
+        frameTop += FRAME;
+        if (state < CLAUSE)
+            depth++;
+        frame[at + STATE] = state;
+        frame[at + START] = start;
+        frame[at + COUNT] = count;
+        frame[at + OPERATOR] = -1;
+    }
+
+    private void popFrame() {
+        frameTop -= FRAME;
+        if (frame[frameTop + STATE] < CLAUSE)
+            depth--;
+    }
+
+    /**
+     * Check the nesting depth before a nested statement or expression is started. Past the limit the problem is
+     * recorded at the next token, the parser stops as if diagnostics were full, and the statement or Primary
+     * becomes an error node
+     *
+     * @param start first token of the node
+     * @param children nodes of it already on the stack
+     * @return true if the node was given up
+     * @throws Exception
+     */
+    private boolean tooDeep(int start, int children) throws Exception {
+        if (depth < maxDepth)
+            return false;
+
+        if (!stopped) {
+            Diagnostic diagnostic = Diagnostic.problem("Nesting deeper than " + maxDepth + " levels",
+                    tokens.peekType(), position);
+            tokens.locate(diagnostic);
+            diagnostics.add(diagnostic);
+        }
+        stopped = true;
+        panic = true;
+        buildSubtreeFromStack("<error>", children, start);
+        return true;
+    }
+
+    private void push(int node, int start) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+            starts = Arrays.copyOf(starts, top * 2);
+        }
+        starts[top] = start;
+        stack[top++] = node;
+    }
+
+    private int pop() {
+        return stack[--top];
     }
 
     /**
@@ -868,19 +1450,41 @@ public class Parser {
     /**
      * Used to verify and move forward from the variable and literal related tokens
      * Token type -> token value
-     * Inserts node into stack
+     * Inserts node into stack, an error node if the token is not the one expected. The token value is only
+     * materialized here
      *
-     * @param token variable or literal token
+     * @param expected IDENTIFIER, INTEGER, CHAR or STRING
      * @throws Exception
      */
-    private void read(LexerToken token) throws Exception {
-        verifyToken(token.type);
+    private void readValue(LexerTokenType expected) throws Exception {
+        int start = position;
+        if (nextType() != expected) {
+            error(expected.toString());
+            buildSubtreeFromStack("<error>", 0, start);
+            return;
+        }
+        if (!buildTree) {
+            verifyToken(expected);
+            return;
+        }
 
-        ASTNode typeNode = new ASTNode(token.type.val);
-        ASTNode valueNode = new ASTNode(token);
-        typeNode.addChild(valueNode);
+        LexerToken token = tokens.peek();
+        verifyToken(expected);
 
-        stack.push(typeNode);
+        String value = token.value;
+        if (token.type == LexerTokenType.CHAR)
+            value = "'" + value + "'";
+        else if (token.type == LexerTokenType.STRING)
+            value = "\"" + value + "\"";
+
+        int typeNode = tree.add(token.type.val, AstArena.NONE);
+        int valueNode = tree.add(value, token.symbol);
+        tree.setFirstChild(typeNode, valueNode);
+        tree.setChildCount(typeNode, 1);
+        tree.setSpan(typeNode, start, 1);
+        tree.setSpan(valueNode, 0, 1);
+
+        push(typeNode, start);
     }
 
     /**
@@ -890,21 +1494,118 @@ public class Parser {
      * @throws Exception
      */
     private void verifyToken(LexerTokenType expected) throws Exception {
-        LexerTokenType nextToken = nextToken().type;
-        System.out.println(nextToken);
+        LexerTokenType nextToken = nextType();
+        if (Trace.TOKEN)
+            Trace.log(nextToken.toString());
         if (nextToken == expected) {
-            pos++;
+            tokens.skip();
+            position++;
+            end = position;
+            quiet = false;
         } else {
-            throw new Exception("Unexpected token " + nextToken + " Expected: " + expected);
+            error(expected.toString());
         }
     }
 
-    private LexerToken nextToken() {
-        if (pos < tokenSequence.size()) {
-            return tokenSequence.get(pos);
-        } else {
-            System.out.println("End of tokens");
-            return null;
+    /**
+     * Syntax error at the next token. It is recorded and the parser panics until the enclosing list can
+     * recover(), except right after recovering, where the missing token is taken as inserted and parsing goes on
+     *
+     * @param expected what the grammar allows here
+     * @throws Exception
+     */
+    private void error(String expected) throws Exception {
+        if (quiet)
+            return;
+
+        if (!panic) {
+            Diagnostic diagnostic = new Diagnostic(expected, tokens.peekType(), position);
+            tokens.locate(diagnostic);
+            diagnostics.add(diagnostic);
+            stopped = diagnostics.full();
+        }
+        panic = true;
+    }
+
+    /**
+     * Record the BAD_TOKEN at the next token as a lexical error and drop it
+     *
+     * @throws Exception
+     */
+    private void badToken() throws Exception {
+        if (!stopped) {
+            Diagnostic diagnostic = new Diagnostic(Lexer.describe(tokens.peek().value), position);
+            tokens.locate(diagnostic);
+            diagnostics.add(diagnostic);
+            if (diagnostics.full()) {
+                stopped = true;
+                panic = true;
+            }
+        }
+        tokens.skip();
+        position++;
+    }
+
+    /**
+     * Resume after a syntax error: skip to the next ';', 'end', 'pool', 'until' or 'begin', or to the end of the
+     * program, where the enclosing list can go on. The skipped tokens belong to the node being built
+     *
+     * @return true if there was an error to recover from
+     * @throws Exception
+     */
+    private boolean recover() throws Exception {
+        if (!panic || stopped)
+            return false;
+
+        while (true) {
+            switch (tokens.peekType()) {
+                case BAD_TOKEN:
+                    badToken();
+                    if (stopped)
+                        return false;
+                    break;
+
+                case SEMICOLON:
+                case END:
+                case POOL:
+                case UNTIL:
+                case BEGIN:
+                case END_OF_PROGRAM:
+                    panic = false;
+                    quiet = true;
+                    return true;
+
+                default:
+                    tokens.skip();
+                    position++;
+                    end = position;
+            }
+        }
+    }
+
+    /**
+     * Between declarations, resume past the next ';' after a syntax error
+     *
+     * @throws Exception
+     */
+    private void skipDeclaration() throws Exception {
+        if (recover() && nextType() == LexerTokenType.SEMICOLON)
+            read(LexerTokenType.SEMICOLON);
+    }
+
+    private LexerTokenType nextType() throws Exception {
+        //No production matches while panicking
+        if (panic)
+            return LexerTokenType.BAD_TOKEN;
+        LexerTokenType next = tokens.peekType();
+        while (next == LexerTokenType.BAD_TOKEN) {
+            badToken();
+            if (panic)
+                return LexerTokenType.BAD_TOKEN;
+            next = tokens.peekType();
         }
+        if (Trace.TOKEN && next == LexerTokenType.END_OF_PROGRAM)
+            Trace.log("End of tokens");
+        return next;
     }
 }
@@ -0,0 +1,95 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Input and output of a running Winzig program, the same for every way of running it.
+ * read takes integers, an optional '-' then digits, and chars, the next char that is not blank; both skip blanks
+ * first. eof is true once only blanks are left. output writes each integer or string on a line of its own
+ */
+public class ProgramIO {
+    private final Reader in;
+    private final Writer out;
+    //Next char of the input, read ahead, -2 if none is
+    private int next = -2;
+
+    public ProgramIO(Reader in, Writer out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Buffered stdin and stdout, for a program compiled to run on its own
+     */
+    public static ProgramIO standard() {
+        return new ProgramIO(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+    }
+
+    public int readInteger() throws IOException {
+        int c = skipBlanks();
+        boolean negative = c == '-';
+        if (negative) {
+            next = -2;
+            c = peek();
+        }
+        if (c < '0' || c > '9')
+            throw new IOException(c < 0 ? "Read past the end of the input" : "Expected an integer, found '" + (char) c + "'");
+        int value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            next = -2;
+            c = peek();
+        }
+        return negative ? -value : value;
+    }
+
+    public int readChar() throws IOException {
+        int c = skipBlanks();
+        if (c < 0)
+            throw new IOException("Read past the end of the input");
+        next = -2;
+        return c;
+    }
+
+    public boolean eof() throws IOException {
+        return skipBlanks() < 0;
+    }
+
+    public void write(int value) throws IOException {
+        out.write(Integer.toString(value));
+        out.write('\n');
+    }
+
+    public void write(String text) throws IOException {
+        out.write(text);
+        out.write('\n');
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Next char that is not blank, left unread
+     */
+    private int skipBlanks() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+            next = -2;
+            c = peek();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (next == -2)
+            next = in.read();
+        return next;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Runs a program on an engine that follows the nesting of its AST on the Java stack, the Interpreter's closures
+ * and the AstInterpreter. A program nested deeper than the default stack holds runs on a thread of its own with
+ * a stack sized for its height, so a StackOverflowError only ever means runaway recursion
+ */
+public class ProgramThread {
+    //Nesting that fits the default stack, run on the calling thread
+    static final int SHALLOW = 256;
+    //Stack of the calling thread the recursion of a program may use, and what each level of its AST takes
+    private static final long BASE_STACK = 1 << 20;
+    private static final long LEVEL_STACK = 1 << 10;
+
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    private ProgramThread() {
+    }
+
+    /**
+     * Run body, on a thread of its own if height is above SHALLOW, and wait for it
+     *
+     * @param height levels of the program's AST
+     * @throws Exception whatever body throws, errors included
+     */
+    public static void run(int height, Body body) throws Exception {
+        if (height <= SHALLOW) {
+            body.run();
+            return;
+        }
+
+        Throwable[] thrown = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                body.run();
+            } catch (Throwable t) {
+                thrown[0] = t;
+            }
+        }, "winzig-program", BASE_STACK + height * LEVEL_STACK);
+        thread.start();
+        thread.join();
+        if (thrown[0] instanceof Exception)
+            throw (Exception) thrown[0];
+        if (thrown[0] instanceof Error)
+            throw (Error) thrown[0];
+    }
+}
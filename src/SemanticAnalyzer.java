@@ -0,0 +1,637 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Declaration and type checks of a parsed program, in one walk over its AST.
+ * Names resolve through a SymbolTable: the standard names outermost, then the program's Consts, Types, Dclns and
+ * functions, then inside a Fcn its Params and its own declarations. The standard names are the types integer,
+ * char and boolean, the constants true and false, and d, the dummy variable of any type the sample programs
+ * assign to when they call a function as a statement. A name is visible from its declaration on, so a function
+ * can call itself and the functions before it.
+ * Every expression has a type: integer, char, boolean or an enumerated type from Types, whose literals are its
+ * constants. The rules:
+ *  '+' '-' '*' '/' 'mod' take integers, and an enumerated value plus or minus an integer steps through its type
+ *  'and' 'or' 'not' take booleans, and relational operators compare two values of the same type
+ *  succ and pred keep the type of their argument, ord takes any value to an integer and chr an integer to a char
+ *  conditions of if, while, repeat and for are boolean, case labels are constants of the case expression's type
+ *  assignments, swaps and arguments match the declared types, and return the type of its function
+ *  read takes integer and char variables, and output integers, each wrapped in an 'integer' node, and strings
+ * Problems are recorded at the first token of their node and the walk carries on. Once an error makes the type of
+ * a node unknown, the checks of the nodes above it let it pass, so each mistake is reported once
+ */
+public class SemanticAnalyzer {
+    public static final int UNKNOWN = 0;
+    public static final int INTEGER = 1;
+    public static final int CHAR = 2;
+    public static final int BOOLEAN = 3;
+    public static final int STRING = 4;
+
+    //A variable or a constant, the other kinds are SymbolTable's
+    private static final int VALUE = 4;
+    private static final String[] KINDS = {"a variable", "a constant", "a type", "a function", "a value"};
+
+    //Roles of the node kinds checked
+    private static final int OTHER = 0;
+    private static final int PROGRAM = 1;
+    private static final int FCN = 2;
+    private static final int PARAMS = 3;
+    private static final int CONST = 4;
+    private static final int TYPE = 5;
+    private static final int VAR = 6;
+    private static final int IDENTIFIER = 7;
+    private static final int INTEGER_LITERAL = 8;
+    private static final int CHAR_LITERAL = 9;
+    private static final int STRING_LITERAL = 10;
+    private static final int ADDITIVE = 11;
+    private static final int MULTIPLICATIVE = 12;
+    private static final int LOGICAL = 13;
+    private static final int NOT = 14;
+    private static final int RELATIONAL = 15;
+    private static final int SUCCESSOR = 16;
+    private static final int CHR = 17;
+    private static final int ORD = 18;
+    private static final int BOOLEAN_VALUE = 19;
+    private static final int CALL = 20;
+    private static final int ASSIGN = 21;
+    private static final int SWAP = 22;
+    private static final int OUT_INTEGER = 23;
+    private static final int READ = 24;
+    private static final int CONDITION_FIRST = 25;
+    private static final int REPEAT = 26;
+    private static final int FOR = 27;
+    private static final int CLAUSE = 28;
+    private static final int RANGE = 29;
+    private static final int RETURN = 30;
+
+    private final AstArena tree;
+    private final Diagnostics diagnostics;
+    private final SymbolTable symbols = new SymbolTable();
+    //Role of each node kind, by the kind id in the tree; kinds past the end are OTHER
+    private int[] roles = new int[64];
+    //Names of the types by id, the enumerated ones after STRING
+    private final List<String> typeNames = new ArrayList<String>(Arrays.asList("unknown", "integer", "char",
+            "boolean", "string"));
+    //Type of each expression node, UNKNOWN for the other nodes and after errors
+    private int[] types;
+    //Declaration of each name resolved, by node: the identifier node where it was declared, plus one, so 0 for
+    //the standard names and the names not resolved
+    private int[] declarations;
+    //For each function, the number of its parameters followed by their types. SymbolTable.data of the function
+    //is where they start
+    private int[] parameters = new int[64];
+    private int parameterCount = 0;
+    //Walking a Fcn, and the type it returns
+    private boolean inFunction = false;
+    private int result = UNKNOWN;
+    //Nodes entered and not exited yet, with their roles and first tokens
+    private int[] openNodes = new int[64];
+    private int[] openRoles = new int[64];
+    private int[] openStarts = new int[64];
+    private int open = 0;
+
+    /**
+     * @param tree AST of the program
+     * @param diagnostics where problems are recorded
+     */
+    public SemanticAnalyzer(AstArena tree, Diagnostics diagnostics) {
+        this.tree = tree;
+        this.diagnostics = diagnostics;
+
+        role("program", PROGRAM);
+        role("fcn", FCN);
+        role("params", PARAMS);
+        role("const", CONST);
+        role("type", TYPE);
+        role("var", VAR);
+        role(LexerTokenType.IDENTIFIER.val, IDENTIFIER);
+        role(LexerTokenType.INTEGER.val, INTEGER_LITERAL);
+        role(LexerTokenType.CHAR.val, CHAR_LITERAL);
+        role(LexerTokenType.STRING.val, STRING_LITERAL);
+        role("+", ADDITIVE);
+        role("-", ADDITIVE);
+        role("*", MULTIPLICATIVE);
+        role("/", MULTIPLICATIVE);
+        role("mod", MULTIPLICATIVE);
+        role("and", LOGICAL);
+        role("or", LOGICAL);
+        role("not", NOT);
+        for (String relation: new String[]{"<=", "<", ">=", ">", "=", "<>"})
+            role(relation, RELATIONAL);
+        role("succ", SUCCESSOR);
+        role("pred", SUCCESSOR);
+        role("chr", CHR);
+        role("ord", ORD);
+        role("eof", BOOLEAN_VALUE);
+        //Missing condition of a for
+        role("true", BOOLEAN_VALUE);
+        role("call", CALL);
+        role("assign", ASSIGN);
+        role("swap", SWAP);
+        //Expression of an OutExp
+        role("integer", OUT_INTEGER);
+        role("read", READ);
+        role("if", CONDITION_FIRST);
+        role("while", CONDITION_FIRST);
+        role("repeat", REPEAT);
+        role("for", FOR);
+        role("case_clause", CLAUSE);
+        role("..", RANGE);
+        role("return", RETURN);
+    }
+
+    private void role(String label, int role) {
+        int kind = tree.kindOf(label);
+        if (kind >= roles.length)
+            roles = Arrays.copyOf(roles, Math.max(roles.length * 2, kind + 1));
+        roles[kind] = role;
+    }
+
+    private int role(int node) {
+        int kind = tree.kind(node);
+        return kind < roles.length ? roles[kind] : OTHER;
+    }
+
+    /**
+     * Check the program rooted at root
+     *
+     * @return true if no problems were found
+     */
+    public boolean analyze(int root) {
+        int before = diagnostics.size();
+        types = new int[tree.size()];
+        declarations = new int[tree.size()];
+
+        symbols.openScope();
+        symbols.declare(tree.kindOf("integer"), SymbolTable.TYPE, INTEGER, AstArena.NONE, 0);
+        symbols.declare(tree.kindOf("char"), SymbolTable.TYPE, CHAR, AstArena.NONE, 0);
+        symbols.declare(tree.kindOf("boolean"), SymbolTable.TYPE, BOOLEAN, AstArena.NONE, 0);
+        symbols.declare(tree.kindOf("true"), SymbolTable.CONSTANT, BOOLEAN, AstArena.NONE, 0);
+        symbols.declare(tree.kindOf("false"), SymbolTable.CONSTANT, BOOLEAN, AstArena.NONE, 0);
+        symbols.declare(tree.kindOf("d"), SymbolTable.VARIABLE, UNKNOWN, AstArena.NONE, 0);
+
+        tree.walk(root, new AstArena.Visitor() {
+            public boolean enter(int node) {
+                return SemanticAnalyzer.this.enter(node);
+            }
+
+            public void exit(int node) {
+                SemanticAnalyzer.this.exit(node);
+            }
+        });
+        symbols.closeScope();
+        return diagnostics.size() == before;
+    }
+
+    /**
+     * Type of an expression node after analyze, UNKNOWN for other nodes and where there were errors
+     */
+    public int type(int node) {
+        return node < types.length ? types[node] : UNKNOWN;
+    }
+
+    /**
+     * Where a name used in the program was declared after analyze: the identifier node in its Const, Type, Dcln,
+     * Params or Fcn. NONE for the standard names, and for names that are not used or did not resolve
+     */
+    public int declaration(int node) {
+        return node < declarations.length ? declarations[node] - 1 : AstArena.NONE;
+    }
+
+    public String typeName(int type) {
+        return typeNames.get(type);
+    }
+
+    /**
+     * Declarations and the leaves of expressions, on the way down
+     *
+     * @return false for the nodes whose children were dealt with here
+     */
+    private boolean enter(int node) {
+        int parent = open > 0 ? openNodes[open - 1] : AstArena.NONE;
+        int parentRole = open > 0 ? openRoles[open - 1] : OTHER;
+        int start = open > 0 ? openStarts[open - 1] + tree.offset(node) : tree.offset(node);
+        int role = role(node);
+        if (open == openNodes.length) {
+            openNodes = Arrays.copyOf(openNodes, open * 2);
+            openRoles = Arrays.copyOf(openRoles, open * 2);
+            openStarts = Arrays.copyOf(openStarts, open * 2);
+        }
+        openNodes[open] = node;
+        openRoles[open] = role;
+        openStarts[open++] = start;
+
+        switch (role) {
+            case PROGRAM:
+                symbols.openScope();
+                return true;
+
+            case FCN:
+                declareFunction(node, start);
+                return true;
+
+            case PARAMS:
+                //Declared with the function
+                return false;
+
+            case CONST:
+                declareConstant(node, start);
+                return false;
+
+            case TYPE:
+                declareType(node, start);
+                return false;
+
+            case VAR:
+                declareVariables(node, start, false);
+                return false;
+
+            case IDENTIFIER:
+                types[node] = use(node, start, parent, parentRole);
+                return false;
+
+            case INTEGER_LITERAL:
+                types[node] = INTEGER;
+                return false;
+
+            case CHAR_LITERAL:
+                types[node] = CHAR;
+                return false;
+
+            case STRING_LITERAL:
+                types[node] = STRING;
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Types of the inner nodes of expressions and checks of the statements, on the way up once the children are
+     * done
+     */
+    private void exit(int node) {
+        int start = openStarts[--open];
+        int first = tree.firstChild(node);
+        switch (openRoles[open]) {
+            case PROGRAM:
+                symbols.closeScope();
+                break;
+
+            case FCN:
+                symbols.closeScope();
+                inFunction = false;
+                break;
+
+            case ADDITIVE:
+                if (tree.childCount(node) == 1)
+                    types[node] = operands(first, start, INTEGER);
+                else if (types[first] > STRING && types[tree.nextSibling(first)] == INTEGER)
+                    types[node] = types[first];
+                else
+                    types[node] = operands(first, start, INTEGER);
+                break;
+
+            case MULTIPLICATIVE:
+                types[node] = operands(first, start, INTEGER);
+                break;
+
+            case LOGICAL:
+            case NOT:
+                types[node] = operands(first, start, BOOLEAN);
+                break;
+
+            case RELATIONAL:
+                int left = types[first];
+                int right = types[tree.nextSibling(first)];
+                if (left != UNKNOWN && right != UNKNOWN && left != right)
+                    problem("Cannot compare " + typeName(left) + " with " + typeName(right), start);
+                types[node] = BOOLEAN;
+                break;
+
+            case SUCCESSOR:
+                types[node] = types[first];
+                break;
+
+            case CHR:
+                expect(first, start, INTEGER);
+                types[node] = CHAR;
+                break;
+
+            case ORD:
+                types[node] = INTEGER;
+                break;
+
+            case BOOLEAN_VALUE:
+                types[node] = BOOLEAN;
+                break;
+
+            case CALL:
+                types[node] = call(node, start);
+                break;
+
+            case ASSIGN:
+                expect(tree.nextSibling(first), start, types[first]);
+                break;
+
+            case SWAP:
+                left = types[first];
+                right = types[tree.nextSibling(first)];
+                if (left != UNKNOWN && right != UNKNOWN && left != right)
+                    problem("Cannot swap " + typeName(left) + " with " + typeName(right), start);
+                break;
+
+            case OUT_INTEGER:
+                expect(first, start, INTEGER);
+                break;
+
+            case READ:
+                for (int child = first; child != AstArena.NONE; child = tree.nextSibling(child)) {
+                    int type = types[child];
+                    if (type == BOOLEAN || type > STRING)
+                        problem("Cannot read " + typeName(type), start + tree.offset(child));
+                }
+                break;
+
+            case CONDITION_FIRST:
+                expect(first, start, BOOLEAN);
+                break;
+
+            case REPEAT:
+                int last = first;
+                while (tree.nextSibling(last) != AstArena.NONE)
+                    last = tree.nextSibling(last);
+                expect(last, start, BOOLEAN);
+                break;
+
+            case FOR:
+                expect(tree.nextSibling(first), start, BOOLEAN);
+                break;
+
+            case CLAUSE:
+                //Labels of the case expression's type, then the statement
+                int selector = types[tree.firstChild(openNodes[open - 1])];
+                for (int label = first; tree.nextSibling(label) != AstArena.NONE; label = tree.nextSibling(label))
+                    expect(label, start, selector);
+                break;
+
+            case RANGE:
+                expect(tree.nextSibling(first), start, types[first]);
+                types[node] = types[first];
+                break;
+
+            case RETURN:
+                if (inFunction)
+                    expect(first, start, result);
+                else
+                    problem("return outside a function", start);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Function name with its parameter types and result type, declared in the enclosing scope, then the scope of
+     * the function with its parameters in it
+     */
+    private void declareFunction(int node, int start) {
+        int name = tree.firstChild(node);
+        int params = tree.nextSibling(name);
+        int type = tree.nextSibling(params);
+        result = typeOf(type, start + tree.offset(type));
+        inFunction = true;
+
+        int at = parameterCount;
+        addParameter(0);
+        declare(name, start + tree.offset(name), SymbolTable.FUNCTION, result, at);
+        symbols.openScope();
+        int paramsStart = start + tree.offset(params);
+        for (int var = tree.firstChild(params); var != AstArena.NONE; var = tree.nextSibling(var))
+            declareVariables(var, paramsStart + tree.offset(var), true);
+        parameters[at] = parameterCount - at - 1;
+    }
+
+    /**
+     * Const -> Name '=' ConstValue
+     */
+    private void declareConstant(int node, int start) {
+        int name = tree.firstChild(node);
+        int value = tree.nextSibling(name);
+        int type = UNKNOWN;
+        switch (role(value)) {
+            case INTEGER_LITERAL:
+                type = INTEGER;
+                break;
+
+            case CHAR_LITERAL:
+                type = CHAR;
+                break;
+
+            case IDENTIFIER:
+                int declaration = resolve(value, start + tree.offset(value), SymbolTable.CONSTANT);
+                if (declaration != SymbolTable.NONE)
+                    type = symbols.type(declaration);
+                break;
+
+            default:
+                break;
+        }
+        types[value] = type;
+        declare(name, start + tree.offset(name), SymbolTable.CONSTANT, type, 0);
+    }
+
+    /**
+     * Type -> Name '=' LitList, a new enumerated type with the names in LitList as its constants
+     */
+    private void declareType(int node, int start) {
+        int name = tree.firstChild(node);
+        int type = typeNames.size();
+        typeNames.add(role(name) == IDENTIFIER ? text(name) : "<error>");
+        declare(name, start + tree.offset(name), SymbolTable.TYPE, type, 0);
+
+        int literals = tree.nextSibling(name);
+        int literalsStart = start + tree.offset(literals);
+        for (int literal = tree.firstChild(literals); literal != AstArena.NONE; literal = tree.nextSibling(literal))
+            declare(literal, literalsStart + tree.offset(literal), SymbolTable.CONSTANT, type, 0);
+    }
+
+    /**
+     * Dcln -> Name list ',' ':' Name, the type last
+     *
+     * @param parameter true for Params, whose types are added to the function's
+     */
+    private void declareVariables(int node, int start, boolean parameter) {
+        int last = tree.firstChild(node);
+        while (tree.nextSibling(last) != AstArena.NONE)
+            last = tree.nextSibling(last);
+        int type = typeOf(last, start + tree.offset(last));
+
+        for (int name = tree.firstChild(node); name != last; name = tree.nextSibling(name)) {
+            declare(name, start + tree.offset(name), SymbolTable.VARIABLE, type, 0);
+            if (parameter)
+                addParameter(type);
+        }
+    }
+
+    private void addParameter(int type) {
+        if (parameterCount == parameters.length)
+            parameters = Arrays.copyOf(parameters, parameterCount * 2);
+        parameters[parameterCount++] = type;
+    }
+
+    /**
+     * Type named by an identifier node, UNKNOWN if it is not one
+     */
+    private int typeOf(int node, int token) {
+        if (role(node) != IDENTIFIER)
+            return UNKNOWN;
+        int declaration = resolve(node, token, SymbolTable.TYPE);
+        return declaration == SymbolTable.NONE ? UNKNOWN : symbols.type(declaration);
+    }
+
+    /**
+     * Declare the name of an identifier node in the innermost scope, nothing for error nodes
+     */
+    private void declare(int node, int token, int kind, int type, int value) {
+        if (role(node) != IDENTIFIER)
+            return;
+        if (symbols.declare(name(node), kind, type, node, value) == SymbolTable.NONE)
+            problem("Duplicate declaration of " + text(node), token);
+    }
+
+    /**
+     * Type of a name where it is used. Its parent tells what it has to be: the variable of an assignment, swap or
+     * read, a constant as a case label, otherwise a value. The names of the program, functions and types were
+     * dealt with where they are declared, except that the name at the end must repeat the one at the start
+     */
+    private int use(int node, int start, int parent, int parentRole) {
+        int wanted = VALUE;
+        switch (parentRole) {
+            case PROGRAM:
+            case FCN:
+                int declared = tree.firstChild(parent);
+                if (tree.nextSibling(node) == AstArena.NONE && role(declared) == IDENTIFIER
+                        && name(node) != name(declared))
+                    problem("End name " + text(node) + " does not match " + text(declared), start);
+                return UNKNOWN;
+
+            case CALL:
+                if (tree.firstChild(parent) == node)
+                    return UNKNOWN;
+                break;
+
+            case ASSIGN:
+                if (tree.firstChild(parent) == node)
+                    wanted = SymbolTable.VARIABLE;
+                break;
+
+            case SWAP:
+            case READ:
+                wanted = SymbolTable.VARIABLE;
+                break;
+
+            case CLAUSE:
+            case RANGE:
+                wanted = SymbolTable.CONSTANT;
+                break;
+
+            default:
+                break;
+        }
+        int declaration = resolve(node, start, wanted);
+        return declaration == SymbolTable.NONE ? UNKNOWN : symbols.type(declaration);
+    }
+
+    /**
+     * Arguments of a call against the parameters of its function
+     *
+     * @return the result type of the function
+     */
+    private int call(int node, int start) {
+        int name = tree.firstChild(node);
+        if (role(name) != IDENTIFIER)
+            return UNKNOWN;
+        int function = resolve(name, start + tree.offset(name), SymbolTable.FUNCTION);
+        if (function == SymbolTable.NONE)
+            return UNKNOWN;
+
+        int at = symbols.data(function);
+        int count = parameters[at];
+        if (tree.childCount(node) - 1 != count) {
+            problem(text(name) + " takes " + count + (count == 1 ? " argument, not " : " arguments, not ")
+                    + (tree.childCount(node) - 1), start);
+        } else {
+            int i = at + 1;
+            for (int argument = tree.nextSibling(name); argument != AstArena.NONE; argument = tree.nextSibling(argument))
+                expect(argument, start, parameters[i++]);
+        }
+        return symbols.type(function);
+    }
+
+    /**
+     * Innermost declaration of the name of an identifier node, if it is of the kind wanted
+     *
+     * @param wanted a SymbolTable kind, or VALUE for a variable or a constant
+     * @return the declaration, NONE after recording a problem
+     */
+    private int resolve(int node, int token, int wanted) {
+        int declaration = symbols.lookup(name(node));
+        if (declaration == SymbolTable.NONE) {
+            problem("Undeclared name " + text(node), token);
+            return SymbolTable.NONE;
+        }
+        int kind = symbols.kind(declaration);
+        if (kind == wanted || (wanted == VALUE && (kind == SymbolTable.VARIABLE || kind == SymbolTable.CONSTANT))) {
+            declarations[node] = symbols.node(declaration) + 1;
+            return declaration;
+        }
+        problem(text(node) + " is not " + KINDS[wanted], token);
+        return SymbolTable.NONE;
+    }
+
+    /**
+     * Check the operands of an operator taking and giving one type
+     *
+     * @param first the first operand
+     * @param start first token of the operator's node
+     * @return the type, UNKNOWN if an operand was of another type
+     */
+    private int operands(int first, int start, int type) {
+        boolean ok = true;
+        for (int operand = first; operand != AstArena.NONE; operand = tree.nextSibling(operand))
+            ok &= expect(operand, start, type);
+        return ok ? type : UNKNOWN;
+    }
+
+    /**
+     * Check the type of a child node, unless either type is unknown
+     *
+     * @param parentStart first token of the parent
+     * @return false if a problem was recorded
+     */
+    private boolean expect(int node, int parentStart, int wanted) {
+        int type = types[node];
+        if (type == wanted || type == UNKNOWN || wanted == UNKNOWN)
+            return true;
+        problem("Expected " + typeName(wanted) + ", found " + typeName(type), parentStart + tree.offset(node));
+        return false;
+    }
+
+    /**
+     * Interned id of the name held by an identifier node
+     */
+    private int name(int node) {
+        return tree.kind(tree.firstChild(node));
+    }
+
+    private String text(int node) {
+        return tree.label(tree.firstChild(node));
+    }
+
+    private void problem(String problem, int token) {
+        diagnostics.add(Diagnostic.problem(problem, null, token));
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Program text decoded once into a single char array.
+ * Files are memory mapped and decoded straight into the array, so there are no per line Strings and offsets are
+ * exactly those of the file (line endings are kept as they are)
+ */
+public class SourceText implements CharSequence {
+    private char[] chars;
+    private int length;
+
+    public SourceText(char[] chars, int length) {
+        this.chars = chars;
+        this.length = length;
+    }
+
+    /**
+     * Map and decode a UTF-8 source file
+     *
+     * @param path source file
+     * @throws IOException if the file cannot be read or is not valid UTF-8
+     */
+    public static SourceText read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large");
+
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return decode(bytes, (int) size);
+        }
+    }
+
+    private static SourceText decode(ByteBuffer bytes, int size) throws CharacterCodingException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        //UTF-8 never decodes to more chars than bytes
+        CharBuffer chars = CharBuffer.allocate(size);
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isError())
+            result.throwException();
+        result = decoder.flush(chars);
+        if (result.isError())
+            result.throwException();
+        return new SourceText(chars.array(), chars.position());
+    }
+
+    /**
+     * Replace removed chars at offset with inserted, in place.
+     * Only the text behind the edit is moved; the array grows with some slack when it is full
+     */
+    public void replace(int offset, int removed, CharSequence inserted) {
+        int newLength = length - removed + inserted.length();
+        if (newLength > chars.length)
+            chars = Arrays.copyOf(chars, newLength + newLength / 8 + 16);
+        System.arraycopy(chars, offset + removed, chars, offset + inserted.length(), length - offset - removed);
+        for (int i = 0; i < inserted.length(); i++)
+            chars[offset + i] = inserted.charAt(i);
+        length = newLength;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        return chars[index];
+    }
+
+    /**
+     * Copy of the text in [start, end). Returned as a String, so toString on the result does not copy again
+     */
+    public String subSequence(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,341 @@
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Incremental scanner and screener reading from a Reader through a fixed size ring buffer.
+ * Only the token being scanned is kept in the buffer; white space and comments are skipped as they are read, so
+ * '{...}' comments of any length and tokens crossing refill boundaries are handled without growing the buffer.
+ * A single token (identifier, integer, string) must fit in the buffer.
+ * Lexical errors are BAD_TOKENs as in Lexer.scanToken; only the start of an unterminated comment is kept
+ */
+public class StreamingLexer implements TokenStream {
+    private final Reader in;
+    private final char[] ring;
+    private final int mask;
+    private final NameTable names = new NameTable();
+    //Absolute offsets: start of the retained text, next char to scan, end of the text read so far
+    private long tokenStart = 0;
+    private long head = 0;
+    private long tail = 0;
+    private int peak = 0;
+    private boolean endOfInput = false;
+    //Line and column at offset counted, for locating diagnostics; counted never falls behind the retained text
+    private long counted = 0;
+    private int line = 1;
+    private int column = 1;
+
+    //Lookahead token
+    private boolean scanned = false;
+    private LexerTokenType tokenType;
+    private long valueStart;
+    private long valueEnd;
+    private LexerToken token;
+    //Text of a BAD_TOKEN lookahead, enough of it for Lexer.describe
+    private String badText;
+    //Location of an unterminated comment, whose text is gone by the time it is found to be unterminated
+    private long commentStart = -1;
+    private int commentLine;
+    private int commentColumn;
+
+    //The ring seen as a CharSequence indexed by absolute offset, for keyword and name lookups
+    private final CharSequence view = new CharSequence() {
+        public int length() {
+            return (int) tail;
+        }
+
+        public char charAt(int index) {
+            return ring[index & mask];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder s = new StringBuilder(end - start);
+            for (int i = start; i < end; i++)
+                s.append(ring[i & mask]);
+            return s.toString();
+        }
+    };
+
+    /**
+     * @param in program text
+     * @param capacity ring buffer size in chars, rounded up to a power of two
+     */
+    public StreamingLexer(Reader in, int capacity) {
+        this.in = in;
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        ring = new char[size];
+        mask = size - 1;
+    }
+
+    public StreamingLexer(Reader in) {
+        this(in, 64 * 1024);
+    }
+
+    /**
+     * Most chars the scanner had to keep in the ring buffer at once, ie. the longest token plus its lookahead
+     */
+    public int peakBufferUsage() {
+        return peak;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public NameTable names() {
+        return names;
+    }
+
+    public LexerTokenType peekType() throws Exception {
+        if (!scanned)
+            scanNext();
+        return tokenType;
+    }
+
+    public LexerToken peek() throws Exception {
+        if (token == null) {
+            peekType();
+            token = new LexerToken(tokenType);
+            if (tokenType == LexerTokenType.BAD_TOKEN) {
+                token.value = badText;
+            } else if (tokenType == LexerTokenType.IDENTIFIER) {
+                token.symbol = names.intern(view, (int) valueStart, (int) valueEnd);
+                token.value = names.name(token.symbol);
+            } else if (Lexer.hasSourceValue(tokenType)) {
+                token.value = view.subSequence((int) valueStart, (int) valueEnd).toString();
+            }
+        }
+        return token;
+    }
+
+    public LexerToken next() throws Exception {
+        LexerToken t = peek();
+        skip();
+        return t;
+    }
+
+    public void skip() throws Exception {
+        peekType();
+        scanned = false;
+        token = null;
+    }
+
+    public void locate(Diagnostic diagnostic) throws Exception {
+        peekType();
+        if (tokenType == LexerTokenType.BAD_TOKEN && commentStart >= 0) {
+            diagnostic.offset = (int) commentStart;
+            diagnostic.line = commentLine;
+            diagnostic.column = commentColumn;
+            return;
+        }
+        countLines(tokenStart);
+        diagnostic.offset = (int) tokenStart;
+        diagnostic.line = line;
+        diagnostic.column = column;
+    }
+
+    private void scanNext() throws Exception {
+        scanned = true;
+        commentStart = -1;
+        while (true) {
+            tokenStart = head;
+            int c = peekChar(0);
+            if (c < 0) {
+                tokenType = LexerTokenType.END_OF_PROGRAM;
+                valueStart = valueEnd = head;
+                return;
+            }
+            head++;
+            valueStart = tokenStart;
+
+            switch (Lexer.charClass(c)) {
+                case Lexer.SPACE:
+                case Lexer.NEWLINE:
+                    continue;
+
+                case Lexer.BLOCK_BEGIN:
+                    //Located before skipping, in case it turns out to be unterminated
+                    long start = tokenStart;
+                    countLines(start);
+                    int startLine = line;
+                    int startColumn = column;
+                    if (skipUntil('}')) {
+                        commentStart = start;
+                        commentLine = startLine;
+                        commentColumn = startColumn;
+                        badToken("{");
+                        return;
+                    }
+                    continue;
+
+                case Lexer.HASH:
+                    skipUntil('\n');
+                    continue;
+
+                case Lexer.ALPHA:
+                    while (Lexer.isIdentifierPart(peekChar(0)))
+                        head++;
+                    tokenType = Keywords.lookup(view, (int) tokenStart, (int) head);
+                    break;
+
+                case Lexer.DIGIT:
+                    while (Lexer.isDigit(peekChar(0)))
+                        head++;
+                    tokenType = LexerTokenType.INTEGER;
+                    break;
+
+                case Lexer.SINGLE:
+                    tokenType = Lexer.singleCharTokens[c];
+                    break;
+
+                case Lexer.COLON:
+                    tokenType = LexerTokenType.COLON;
+                    if (peekChar(0) == '=') {
+                        head++;
+                        tokenType = LexerTokenType.ASSIGN;
+                        if (peekChar(0) == ':') {
+                            head++;
+                            tokenType = LexerTokenType.SWAP;
+                        }
+                    }
+                    break;
+
+                case Lexer.DOT:
+                    tokenType = LexerTokenType.DOT;
+                    if (peekChar(0) == '.') {
+                        head++;
+                        tokenType = LexerTokenType.CASE_EXP;
+                    }
+                    break;
+
+                case Lexer.LT:
+                    tokenType = LexerTokenType.LT;
+                    if (peekChar(0) == '=') {
+                        head++;
+                        tokenType = LexerTokenType.LTE;
+                    } else if (peekChar(0) == '>') {
+                        head++;
+                        tokenType = LexerTokenType.NE;
+                    }
+                    break;
+
+                case Lexer.GT:
+                    tokenType = LexerTokenType.GT;
+                    if (peekChar(0) == '=') {
+                        head++;
+                        tokenType = LexerTokenType.GTE;
+                    }
+                    break;
+
+                case Lexer.QUOTE:
+                    if (!scanQuoted('\'')) {
+                        badToken("'");
+                    } else if (valueEnd - valueStart > 1) {
+                        badToken(view.subSequence((int) tokenStart, (int) head).toString());
+                    } else {
+                        tokenType = LexerTokenType.CHAR;
+                    }
+                    return;
+
+                case Lexer.DOUBLE_QUOTE:
+                    if (scanQuoted('"'))
+                        tokenType = LexerTokenType.STRING;
+                    else
+                        badToken("\"");
+                    return;
+
+                default:
+                    badToken(String.valueOf((char) c));
+                    return;
+            }
+
+            valueEnd = head;
+            return;
+        }
+    }
+
+    /**
+     * Skip past the terminator without retaining the skipped text
+     *
+     * @return true if the input ended before the terminator
+     */
+    private boolean skipUntil(char terminator) throws IOException {
+        while (true) {
+            tokenStart = head;
+            int c = peekChar(0);
+            if (c < 0)
+                return true;
+            head++;
+            if (c == terminator)
+                return false;
+        }
+    }
+
+    /**
+     * @return false if the input ended before the closing quote
+     */
+    private boolean scanQuoted(char quote) throws IOException {
+        while (true) {
+            int c = peekChar(0);
+            if (c < 0)
+                return false;
+            head++;
+            if (c == quote)
+                break;
+        }
+        valueStart = tokenStart + 1;
+        valueEnd = head - 1;
+        return true;
+    }
+
+    private void badToken(String text) {
+        tokenType = LexerTokenType.BAD_TOKEN;
+        badText = text;
+        valueStart = tokenStart;
+        valueEnd = head;
+    }
+
+    /**
+     * Char at head + ahead, reading more input if needed; -1 at the end of input
+     */
+    private int peekChar(int ahead) throws IOException {
+        long index = head + ahead;
+        while (index >= tail) {
+            if (!refill())
+                return -1;
+        }
+        peak = Math.max(peak, (int) (index - tokenStart + 1));
+        return ring[(int) index & mask];
+    }
+
+    private void countLines(long offset) {
+        for (; counted < offset; counted++) {
+            if (ring[(int) counted & mask] == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+    }
+
+    private boolean refill() throws IOException {
+        if (endOfInput)
+            return false;
+        //The chars before tokenStart may be overwritten now
+        countLines(tokenStart);
+
+        int used = (int) (tail - tokenStart);
+        int free = ring.length - used;
+        if (free == 0)
+            throw new IOException("Token at " + tokenStart + " is longer than the " + ring.length + " char buffer");
+
+        int offset = (int) tail & mask;
+        int n = in.read(ring, offset, Math.min(free, ring.length - offset));
+        if (n < 0) {
+            endOfInput = true;
+            return false;
+        }
+        tail += n;
+        return true;
+    }
+}
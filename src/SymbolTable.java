@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+/**
+ * Declarations in nested scopes, for the SemanticAnalyzer. Names are interned ids, so a lookup hashes an int
+ * instead of a String: an open addressing table maps each name to its innermost declaration, and each declaration
+ * keeps the one it hides, which is visible again once its scope is closed.
+ * Declarations are numbered in order from 0; closing a scope drops its declarations, and their numbers are
+ * reused by the next ones
+ */
+public class SymbolTable {
+    public static final int VARIABLE = 0;
+    public static final int CONSTANT = 1;
+    public static final int TYPE = 2;
+    public static final int FUNCTION = 3;
+
+    public static final int NONE = -1;
+
+    //Declarations: name, kind, type, declaration of the same name it hides (NONE if none), AST node, and a value
+    //for the owner, eg. where the parameter types of a FUNCTION are kept
+    private int[] names = new int[64];
+    private int[] kinds = new int[64];
+    private int[] types = new int[64];
+    private int[] hidden = new int[64];
+    private int[] nodes = new int[64];
+    private int[] data = new int[64];
+    private int size = 0;
+    //First declaration of each open scope
+    private int[] scopes = new int[8];
+    private int depth = 0;
+    //Open addressing table of name + 1, 0 marks a free slot, and the innermost declaration of the name, NONE once
+    //its scope is closed
+    private int[] keys = new int[64];
+    private int[] innermost = new int[64];
+    private int used = 0;
+
+    public void openScope() {
+        if (depth == scopes.length)
+            scopes = Arrays.copyOf(scopes, depth * 2);
+        scopes[depth++] = size;
+    }
+
+    /**
+     * Drop the declarations of the innermost scope, the ones they hid are visible again
+     */
+    public void closeScope() {
+        int first = scopes[--depth];
+        for (int d = size - 1; d >= first; d--)
+            innermost[slot(names[d])] = hidden[d];
+        size = first;
+    }
+
+    /**
+     * Declare a name in the innermost scope
+     *
+     * @return the declaration, NONE if the name is already declared in that scope
+     */
+    public int declare(int name, int kind, int type, int node, int value) {
+        int slot = slot(name);
+        int previous = NONE;
+        if (keys[slot] == 0) {
+            keys[slot] = name + 1;
+            innermost[slot] = NONE;
+            if (++used * 2 > keys.length)
+                rehash();
+        } else {
+            previous = innermost[slot];
+            if (previous != NONE && depth > 0 && previous >= scopes[depth - 1])
+                return NONE;
+        }
+
+        if (size == names.length)
+            grow(size * 2);
+        names[size] = name;
+        kinds[size] = kind;
+        types[size] = type;
+        hidden[size] = previous;
+        nodes[size] = node;
+        data[size] = value;
+        //The table may have been rehashed
+        innermost[slot(name)] = size;
+        return size++;
+    }
+
+    /**
+     * Innermost declaration of a name, NONE if it is not declared
+     */
+    public int lookup(int name) {
+        int mask = keys.length - 1;
+        for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+            int key = keys[slot];
+            if (key == 0)
+                return NONE;
+            if (key == name + 1)
+                return innermost[slot];
+        }
+    }
+
+    public int name(int declaration) {
+        return names[declaration];
+    }
+
+    public int kind(int declaration) {
+        return kinds[declaration];
+    }
+
+    public int type(int declaration) {
+        return types[declaration];
+    }
+
+    public int node(int declaration) {
+        return nodes[declaration];
+    }
+
+    public int data(int declaration) {
+        return data[declaration];
+    }
+
+    /**
+     * Number of open scopes
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Slot of a name in the table, free if the name was never declared
+     */
+    private int slot(int name) {
+        int mask = keys.length - 1;
+        int slot = hash(name) & mask;
+        while (keys[slot] != 0 && keys[slot] != name + 1)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldInnermost = innermost;
+        keys = new int[oldKeys.length * 2];
+        innermost = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i] - 1);
+                keys[slot] = oldKeys[i];
+                innermost[slot] = oldInnermost[i];
+            }
+        }
+    }
+
+    private void grow(int capacity) {
+        names = Arrays.copyOf(names, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        types = Arrays.copyOf(types, capacity);
+        hidden = Arrays.copyOf(hidden, capacity);
+        nodes = Arrays.copyOf(nodes, capacity);
+        data = Arrays.copyOf(data, capacity);
+    }
+
+    //Name ids are dense, so they are spread over the table
+    private static int hash(int name) {
+        int h = name * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
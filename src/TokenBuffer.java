@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Packed token sequence. Token i is stored as its type ordinal plus the offset and length of its value in the
+ * source text, so no per token objects are kept. Values are materialized only on request
+ */
+public class TokenBuffer {
+    private static final LexerTokenType[] types = LexerTokenType.values();
+
+    private CharSequence source;
+    private final NameTable names;
+    private int[] type;
+    private int[] start;
+    private int[] length;
+    private int[] symbol;
+    private int size = 0;
+
+    public TokenBuffer(CharSequence source) {
+        this(source, null);
+    }
+
+    /**
+     * @param source text the token offsets refer to
+     * @param names interner the identifier symbols refer to, may be null
+     */
+    public TokenBuffer(CharSequence source, NameTable names) {
+        this(source, names, 16 + source.length() / 4);
+    }
+
+    public TokenBuffer(CharSequence source, NameTable names, int capacity) {
+        this.source = source;
+        this.names = names;
+        type = new int[capacity];
+        start = new int[capacity];
+        length = new int[capacity];
+        symbol = new int[capacity];
+    }
+
+    public void add(LexerTokenType t, int valueStart, int valueEnd) {
+        add(t, valueStart, valueEnd, -1);
+    }
+
+    public void add(LexerTokenType t, int valueStart, int valueEnd, int sym) {
+        if (size == type.length)
+            grow(size * 2 + 16);
+        type[size] = t.ordinal();
+        start[size] = valueStart;
+        length[size] = valueEnd - valueStart;
+        symbol[size] = sym;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public CharSequence source() {
+        return source;
+    }
+
+    public LexerTokenType type(int i) {
+        return types[type[i]];
+    }
+
+    public int start(int i) {
+        return start[i];
+    }
+
+    public int length(int i) {
+        return length[i];
+    }
+
+    /**
+     * Offset of the first char of token i, including the quotes of chars and strings
+     */
+    public int tokenStart(int i) {
+        return isQuoted(i) ? start[i] - 1 : start[i];
+    }
+
+    /**
+     * Offset just after token i, including the quotes of chars and strings
+     */
+    public int tokenEnd(int i) {
+        return isQuoted(i) ? start[i] + length[i] + 1 : start[i] + length[i];
+    }
+
+    private boolean isQuoted(int i) {
+        LexerTokenType t = type(i);
+        return t == LexerTokenType.CHAR || t == LexerTokenType.STRING;
+    }
+
+    /**
+     * Index of the last token starting at or before offset, -1 if there is none
+     */
+    public int indexAt(int offset) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (tokenStart(mid) <= offset)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return high;
+    }
+
+    /**
+     * Replace tokens [from, to) with all tokens of middle, in place.
+     * Tokens behind the replaced range are moved by delta chars and the buffer then refers to source
+     */
+    void replace(int from, int to, TokenBuffer middle, int delta, CharSequence source) {
+        int count = middle.size;
+        int newSize = size - (to - from) + count;
+        if (newSize > type.length)
+            grow(newSize + newSize / 8 + 16);
+        if (count != to - from) {
+            int tail = size - to;
+            System.arraycopy(type, to, type, from + count, tail);
+            System.arraycopy(start, to, start, from + count, tail);
+            System.arraycopy(length, to, length, from + count, tail);
+            System.arraycopy(symbol, to, symbol, from + count, tail);
+        }
+        System.arraycopy(middle.type, 0, type, from, count);
+        System.arraycopy(middle.start, 0, start, from, count);
+        System.arraycopy(middle.length, 0, length, from, count);
+        System.arraycopy(middle.symbol, 0, symbol, from, count);
+        if (delta != 0) {
+            for (int i = from + count; i < newSize; i++)
+                start[i] += delta;
+        }
+        size = newSize;
+        this.source = source;
+    }
+
+    private void grow(int capacity) {
+        type = Arrays.copyOf(type, capacity);
+        start = Arrays.copyOf(start, capacity);
+        length = Arrays.copyOf(length, capacity);
+        symbol = Arrays.copyOf(symbol, capacity);
+    }
+
+    /**
+     * Screener over a raw scanner buffer: trivia dropped and keywords reclassified
+     */
+    public TokenBuffer screened() {
+        TokenBuffer result = new TokenBuffer(source, names, size + 16);
+        for (int i = 0; i < size; i++) {
+            LexerTokenType t = type(i);
+            switch (t) {
+                case WHITE_SPACE:
+                case BLOCK_COMMENT:
+                case NEWLINE:
+                case INLINE_COMMENT:
+                    break;
+
+                case IDENTIFIER:
+                    LexerTokenType keyword = Keywords.lookup(source, start[i], start[i] + length[i]);
+                    result.add(keyword, start[i], start[i] + length[i],
+                            keyword == LexerTokenType.IDENTIFIER ? symbol[i] : -1);
+                    break;
+
+                default:
+                    result.add(t, start[i], start[i] + length[i], symbol[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Interned name id of an identifier token, -1 for other tokens
+     */
+    public int symbol(int i) {
+        return symbol[i];
+    }
+
+    public NameTable names() {
+        return names;
+    }
+
+    /**
+     * Token value as the old LexerToken would carry it
+     */
+    public String value(int i) {
+        LexerTokenType t = type(i);
+        if (symbol[i] >= 0 && names != null)
+            return names.name(symbol[i]);
+        if (t.val == null || Lexer.hasSourceValue(t))
+            return source.subSequence(start[i], start[i] + length[i]).toString();
+        return t.val;
+    }
+
+    public LexerToken token(int i) {
+        LexerToken token = new LexerToken(type(i));
+        token.value = value(i);
+        token.symbol = symbol[i];
+        return token;
+    }
+
+    /**
+     * Compatibility adapter for the ArrayList based Lexer/Parser API
+     */
+    public ArrayList<LexerToken> toList() {
+        ArrayList<LexerToken> tokens = new ArrayList<LexerToken>(size);
+        for (int i = 0; i < size; i++)
+            tokens.add(token(i));
+        return tokens;
+    }
+
+    /**
+     * Read the buffer as a TokenStream. Only peek/next create token objects
+     */
+    public TokenStream stream() {
+        return new TokenStream() {
+            private final LexerToken endOfProgram = new LexerToken(LexerTokenType.END_OF_PROGRAM);
+            private int pos = 0;
+            //Last diagnostic located, the next one counts lines from there
+            private Diagnostic located;
+
+            public LexerToken peek() {
+                return pos < size ? token(pos) : endOfProgram;
+            }
+
+            public LexerToken next() {
+                LexerToken token = peek();
+                skip();
+                return token;
+            }
+
+            public LexerTokenType peekType() {
+                return pos < size ? type(pos) : LexerTokenType.END_OF_PROGRAM;
+            }
+
+            public void skip() {
+                if (pos < size)
+                    pos++;
+            }
+
+            public void skip(int count) {
+                pos = Math.min(size, pos + count);
+            }
+
+            public void locate(Diagnostic diagnostic) {
+                diagnostic.locate(source, pos < size ? tokenStart(pos) : source.length(), located);
+                located = diagnostic;
+            }
+        };
+    }
+}
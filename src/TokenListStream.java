@@ -0,0 +1,27 @@
+import java.util.List;
+
+/**
+ * TokenStream over an already screened token list
+ */
+public class TokenListStream implements TokenStream {
+    private final List<LexerToken> tokenSequence;
+    private final LexerToken endOfProgram = new LexerToken(LexerTokenType.END_OF_PROGRAM);
+    private int pos = 0;
+
+    public TokenListStream(List<LexerToken> seq) {
+        tokenSequence = seq;
+    }
+
+    public LexerToken peek() {
+        if (pos < tokenSequence.size())
+            return tokenSequence.get(pos);
+        return endOfProgram;
+    }
+
+    public LexerToken next() {
+        LexerToken token = peek();
+        if (pos < tokenSequence.size())
+            pos++;
+        return token;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Screened token source consumed by the Parser.
+ * Once the tokens run out an END_OF_PROGRAM token is returned
+ */
+public interface TokenStream {
+    /**
+     * Look at the next token without consuming it
+     */
+    LexerToken peek() throws Exception;
+
+    /**
+     * Consume and return the next token
+     */
+    LexerToken next() throws Exception;
+
+    /**
+     * Type of the next token. Sources that do not keep token objects override this to avoid materializing one
+     */
+    default LexerTokenType peekType() throws Exception {
+        return peek().type;
+    }
+
+    /**
+     * Consume the next token without returning it
+     */
+    default void skip() throws Exception {
+        next();
+    }
+
+    /**
+     * Consume the next count tokens. Sources with random access override this to jump straight past them
+     */
+    default void skip(int count) throws Exception {
+        for (int i = 0; i < count; i++)
+            skip();
+    }
+
+    /**
+     * Fill in where the next token starts. Sources that do not know their offsets leave the location unset
+     */
+    default void locate(Diagnostic diagnostic) throws Exception {
+    }
+}
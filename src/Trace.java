@@ -0,0 +1,52 @@
+import java.io.PrintStream;
+
+/**
+ * Diagnostic trace sink.
+ * The level is read once from the winzig.trace system property (off, phases, tokens, productions; default off)
+ * into static final flags, so call sites guarded with eg. if (Trace.TOKEN) are folded away by the JIT when tracing
+ * is disabled and never build their messages
+ */
+public class Trace {
+    public static final String PROPERTY = "winzig.trace";
+    //The levels, a constant so that checking one does not load this class before the property is set
+    public static final String LEVELS = "off|phases|tokens|productions";
+
+    public static final int OFF = 0;
+    public static final int PHASES = 1;
+    public static final int TOKENS = 2;
+    public static final int PRODUCTIONS = 3;
+
+    public static final int LEVEL = parseLevel(System.getProperty(PROPERTY, "off"));
+
+    public static final boolean PHASE = LEVEL >= PHASES;
+    public static final boolean TOKEN = LEVEL >= TOKENS;
+    public static final boolean PRODUCTION = LEVEL >= PRODUCTIONS;
+
+    private static PrintStream sink = System.err;
+
+    /**
+     * Redirect trace output, System.err by default
+     */
+    public static void setSink(PrintStream out) {
+        sink = out;
+    }
+
+    public static void log(String message) {
+        sink.println(message);
+    }
+
+    static int parseLevel(String level) {
+        switch (level) {
+            case "off":
+                return OFF;
+            case "phases":
+                return PHASES;
+            case "tokens":
+                return TOKENS;
+            case "productions":
+                return PRODUCTIONS;
+            default:
+                throw new IllegalArgumentException("Unknown trace level " + level);
+        }
+    }
+}
@@ -0,0 +1,1434 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles a program to x86-64 assembly for the GNU assembler, and with as and ld to a native Linux executable that
+ * needs no JVM and no C library. In one walk over the AST, each Fcn becomes a function following the System V
+ * calling convention: its first six parameters come in registers and are stored in its frame with its variables,
+ * the others stay on the stack where the caller put them, and it returns its value in eax. The program's
+ * variables, and d, are 32 bit ints in .bss, and its body is the function wz_main. Values are ints as in the
+ * Interpreter, with the same semantics: expressions are computed in eax, with a variable or constant right operand
+ * used straight from memory or as an immediate, relational operators in conditions compare and jump, the
+ * condition of a while and the step and condition of a for go after the body, and case jumps through a table when
+ * its labels span few values, searches its labels when they are single values and tries each range otherwise.
+ * A small runtime, making system calls itself, reads stdin and writes stdout through buffers, and ends the program
+ * with the Interpreter's messages on reading past the end of the input, dividing by zero and recursing deeper
+ * than the stack allows.
+ * The program must have analyzed without errors
+ */
+public class X86Compiler {
+    //What a name is bound to
+    private static final int UNBOUND = 0;
+    private static final int LOCAL = 1;
+    private static final int GLOBAL = 2;
+    private static final int CONSTANT = 3;
+
+    //Roles of the node kinds compiled; the relational operators are in the order of JUMPS
+    private static final int OTHER = 0;
+    private static final int PROGRAM = 1;
+    private static final int FCN = 2;
+    private static final int PARAMS = 3;
+    private static final int CONST = 4;
+    private static final int TYPE = 5;
+    private static final int VAR = 6;
+    private static final int IDENTIFIER = 7;
+    private static final int INTEGER_LITERAL = 8;
+    private static final int CHAR_LITERAL = 9;
+    private static final int STRING_LITERAL = 10;
+    private static final int PLUS = 11;
+    private static final int MINUS = 12;
+    private static final int TIMES = 13;
+    private static final int DIVIDE = 14;
+    private static final int MOD = 15;
+    private static final int AND = 16;
+    private static final int OR = 17;
+    private static final int NOT = 18;
+    private static final int EQ = 19;
+    private static final int NE = 20;
+    private static final int LT = 21;
+    private static final int LE = 22;
+    private static final int GT = 23;
+    private static final int GE = 24;
+    private static final int SUCC = 25;
+    private static final int PRED = 26;
+    private static final int EOF = 27;
+    private static final int TRUE = 28;
+    private static final int CALL = 29;
+    private static final int ASSIGN = 30;
+    private static final int SWAP = 31;
+    private static final int OUT_INTEGER = 32;
+    private static final int READ = 33;
+    private static final int IF = 34;
+    private static final int WHILE = 35;
+    private static final int FOR = 36;
+    private static final int REPEAT = 37;
+    private static final int LOOP = 38;
+    private static final int CASE = 39;
+    private static final int CLAUSE = 40;
+    private static final int OTHERWISE = 41;
+    private static final int RANGE = 42;
+    private static final int EXIT = 43;
+    private static final int RETURN = 44;
+
+    //Conditional jumps and sets for =, <>, <, <=, >, >=
+    private static final String[] JUMPS = {"je", "jne", "jl", "jle", "jg", "jge"};
+    private static final String[] SETS = {"sete", "setne", "setl", "setle", "setg", "setge"};
+    //Registers of the first six arguments
+    private static final String[] ARGUMENTS = {"%edi", "%esi", "%edx", "%ecx", "%r8d", "%r9d"};
+
+    //Widest range of case labels dispatched through a table, and fewest labels searched by halves
+    private static final int MAX_TABLE = 256;
+    private static final int MIN_SEARCH = 4;
+
+    //Flags of the open nodes: children skipped, a condition child that has jumped already, a right operand used
+    //straight from where it is, the comparison of a relational operator done already, and a call padded to align
+    //the stack
+    private static final int SKIPPED = 1;
+    private static final int BRANCHED = 2;
+    private static final int DIRECT = 4;
+    private static final int COMPARED = 8;
+    private static final int PADDED = 16;
+
+    private final AstArena tree;
+    private final SemanticAnalyzer analyzer;
+    private final String name;
+    //Role of each node kind, by the kind id in the tree; kinds past the end are OTHER
+    private int[] roles = new int[64];
+    //Binding of each declared name, by the identifier node declaring it, and its frame offset or value
+    private final int[] bindings;
+    private final int[] values;
+    private final List<String> globals = new ArrayList<String>();
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder data = new StringBuilder();
+    private int labelCount = 0;
+    private int stringCount = 0;
+    //Length in bytes of the last string added
+    private int stringLength = 0;
+    //Function being compiled: whether it is a Fcn, its 4 byte slots, where it returns, and the 8 byte values it
+    //has pushed
+    private boolean inFunction = false;
+    private int slots = 0;
+    private int parameterCount = 0;
+    private int returnLabel = 0;
+    private int depth = 0;
+    //Nodes entered and not exited yet, with their roles, the index of their next child, their first label and
+    //their flags
+    private int[] openNodes = new int[64];
+    private int[] openRoles = new int[64];
+    private int[] openChildren = new int[64];
+    private int[] openLabels = new int[64];
+    private int[] openFlags = new int[64];
+    private int open = 0;
+    //Code of the conditions and steps of the loops open, cut out to go after their bodies, and where the code to
+    //cut next starts for each open node
+    private final List<String> chunks = new ArrayList<String>();
+    private int[] openStarts = new int[64];
+    private final String assembly;
+
+    /**
+     * Compile a program
+     *
+     * @param tree AST of the program
+     * @param root its program node
+     * @param analyzer the SemanticAnalyzer that analyzed it
+     */
+    public X86Compiler(AstArena tree, int root, SemanticAnalyzer analyzer) {
+        this.tree = tree;
+        this.analyzer = analyzer;
+        bindings = new int[tree.size()];
+        values = new int[tree.size()];
+        name = text(tree.firstChild(root));
+
+        role("program", PROGRAM);
+        role("fcn", FCN);
+        role("params", PARAMS);
+        role("const", CONST);
+        role("type", TYPE);
+        role("var", VAR);
+        role(LexerTokenType.IDENTIFIER.val, IDENTIFIER);
+        role(LexerTokenType.INTEGER.val, INTEGER_LITERAL);
+        role(LexerTokenType.CHAR.val, CHAR_LITERAL);
+        role(LexerTokenType.STRING.val, STRING_LITERAL);
+        role("+", PLUS);
+        role("-", MINUS);
+        role("*", TIMES);
+        role("/", DIVIDE);
+        role("mod", MOD);
+        role("and", AND);
+        role("or", OR);
+        role("not", NOT);
+        role("=", EQ);
+        role("<>", NE);
+        role("<", LT);
+        role("<=", LE);
+        role(">", GT);
+        role(">=", GE);
+        role("succ", SUCC);
+        role("pred", PRED);
+        role("eof", EOF);
+        role("true", TRUE);
+        role("call", CALL);
+        role("assign", ASSIGN);
+        role("swap", SWAP);
+        role("integer", OUT_INTEGER);
+        role("read", READ);
+        role("if", IF);
+        role("while", WHILE);
+        role("for", FOR);
+        role("repeat", REPEAT);
+        role("loop", LOOP);
+        role("case", CASE);
+        role("case_clause", CLAUSE);
+        role("otherwise", OTHERWISE);
+        role("..", RANGE);
+        role("exit", EXIT);
+        role("return", RETURN);
+
+        globals.add("d");
+        text.append("# ").append(name).append(", compiled by winzigc\n\t.text\n");
+        tree.walk(root, new AstArena.Visitor() {
+            public boolean enter(int node) {
+                return X86Compiler.this.enter(node);
+            }
+
+            public void exit(int node) {
+                X86Compiler.this.exit(node);
+            }
+        });
+
+        StringBuilder assembly = new StringBuilder(text);
+        assembly.append("\n\t.section .rodata\n").append(data);
+        assembly.append("\n\t.bss\n\t.p2align 2\n");
+        for (String global: globals)
+            assembly.append("wz_g_").append(global).append(":\n\t.zero 4\n");
+        assembly.append(RUNTIME);
+        this.assembly = assembly.toString();
+    }
+
+    private void role(String label, int role) {
+        int kind = tree.kindOf(label);
+        if (kind >= roles.length)
+            roles = Arrays.copyOf(roles, Math.max(roles.length * 2, kind + 1));
+        roles[kind] = role;
+    }
+
+    private int role(int node) {
+        int kind = tree.kind(node);
+        return kind < roles.length ? roles[kind] : OTHER;
+    }
+
+    /**
+     * Name of the program, and of its executable
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * The program in the assembly language of the GNU assembler, runtime included
+     */
+    public String assembly() {
+        return assembly;
+    }
+
+    /**
+     * Write the assembly into a directory, then assemble and link it with as and ld
+     *
+     * @param directory where the .s, .o and executable go, named after the program
+     * @param link false to stop after writing the assembly
+     * @return the executable, or the assembly without link
+     * @throws IOException if a file cannot be written, or as or ld fails
+     */
+    public Path build(Path directory, boolean link) throws IOException {
+        Path source = directory.resolve(name + ".s");
+        Files.write(source, assembly.getBytes(StandardCharsets.UTF_8));
+        if (!link)
+            return source;
+        Path object = directory.resolve(name + ".o");
+        Path executable = directory.resolve(name);
+        tool("as", "--64", "-o", object.toString(), source.toString());
+        tool("ld", "-o", executable.toString(), object.toString());
+        Files.delete(object);
+        return executable;
+    }
+
+    private static void tool(String... command) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            in.transferTo(output);
+        }
+        try {
+            if (process.waitFor() != 0)
+                throw new IOException(command[0] + " failed:\n" + output.toString(StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(command[0] + " was interrupted");
+        }
+    }
+
+    /**
+     * Declarations, code before each child and the leaves of expressions, on the way down
+     *
+     * @return false for the nodes whose children were dealt with here
+     */
+    private boolean enter(int node) {
+        int parentRole = OTHER;
+        int index = 0;
+        if (open > 0) {
+            parentRole = openRoles[open - 1];
+            index = openChildren[open - 1]++;
+            before(open - 1, index);
+        }
+        int role = role(node);
+        if (open == openNodes.length) {
+            openNodes = Arrays.copyOf(openNodes, open * 2);
+            openRoles = Arrays.copyOf(openRoles, open * 2);
+            openChildren = Arrays.copyOf(openChildren, open * 2);
+            openLabels = Arrays.copyOf(openLabels, open * 2);
+            openFlags = Arrays.copyOf(openFlags, open * 2);
+            openStarts = Arrays.copyOf(openStarts, open * 2);
+        }
+        openNodes[open] = node;
+        openRoles[open] = role;
+        openChildren[open] = 0;
+        openLabels[open] = -1;
+        openFlags[open++] = 0;
+
+        boolean children = enter(node, role, parentRole, index);
+        if (!children)
+            openFlags[open - 1] |= SKIPPED;
+        return children;
+    }
+
+    private boolean enter(int node, int role, int parentRole, int index) {
+        switch (role) {
+            case FCN:
+                inFunction = true;
+                slots = 0;
+                return true;
+
+            case PARAMS:
+                //The first six in the frame, the others where the caller pushed them, above the return address
+                int count = 0;
+                for (int var = tree.firstChild(node); var != AstArena.NONE; var = tree.nextSibling(var)) {
+                    for (int param = tree.firstChild(var); tree.nextSibling(param) != AstArena.NONE;
+                         param = tree.nextSibling(param), count++)
+                        bind(param, LOCAL, count < ARGUMENTS.length ? -4 * ++slots : 16 + 8 * (count - ARGUMENTS.length));
+                }
+                parameterCount = count;
+                return false;
+
+            case CONST:
+                int constant = tree.firstChild(node);
+                bind(constant, CONSTANT, constant(tree.nextSibling(constant)));
+                return false;
+
+            case TYPE:
+                int ordinal = 0;
+                for (int literal = tree.firstChild(child(node, 1)); literal != AstArena.NONE;
+                     literal = tree.nextSibling(literal))
+                    bind(literal, CONSTANT, ordinal++);
+                return false;
+
+            case VAR:
+                for (int variable = tree.firstChild(node); tree.nextSibling(variable) != AstArena.NONE;
+                     variable = tree.nextSibling(variable)) {
+                    if (inFunction) {
+                        bind(variable, LOCAL, -4 * ++slots);
+                    } else {
+                        bind(variable, GLOBAL, 0);
+                        if (!globals.contains(text(variable)))
+                            globals.add(text(variable));
+                    }
+                }
+                return false;
+
+            case IDENTIFIER:
+            case INTEGER_LITERAL:
+            case CHAR_LITERAL:
+                //Not the names of the program, functions and types, assignment targets, case labels, or right
+                //operands used where they are
+                if (parentRole != PROGRAM && parentRole != FCN && !(parentRole == CALL && index == 0)
+                        && !(parentRole == ASSIGN && index == 0) && parentRole != CLAUSE
+                        && !(index == 1 && (openFlags[open - 2] & (DIRECT | COMPARED)) != 0))
+                    emit("movl " + operand(node) + ", %eax");
+                return false;
+
+            case STRING_LITERAL:
+                int string = string(text(node));
+                emit("leaq .Ls" + string + "(%rip), %rsi");
+                emit("movl $" + stringLength + ", %edx");
+                emit("call wz_write_string");
+                return false;
+
+            case PLUS:
+            case MINUS:
+            case TIMES:
+            case DIVIDE:
+            case MOD:
+            case AND:
+            case OR:
+                return true;
+
+            case EQ:
+            case NE:
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+                //A variable against a constant, compared where it is
+                int left = tree.firstChild(node);
+                int right = tree.nextSibling(left);
+                if (simple(left) && !operand(left).startsWith("$") && simple(right) && operand(right).startsWith("$")) {
+                    emit("cmpl " + operand(right) + ", " + operand(left));
+                    openFlags[open - 1] |= COMPARED;
+                    return false;
+                }
+                return true;
+
+            case TRUE:
+                //The missing condition of a for: always on to the body
+                emit("jmp " + label(openLabels[open - 2] + 1));
+                openFlags[open - 2] |= BRANCHED;
+                return false;
+
+            case ASSIGN:
+                int target = tree.firstChild(node);
+                int expression = tree.nextSibling(target);
+                if (simple(expression) && operand(expression).startsWith("$")) {
+                    emit("movl " + operand(expression) + ", " + operand(target));
+                    return false;
+                }
+                int expressionRole = role(expression);
+                if ((expressionRole == PLUS || expressionRole == MINUS) && tree.childCount(expression) == 2) {
+                    //x := x + c and x := x - c, in place
+                    int operand = tree.firstChild(expression);
+                    int step = tree.nextSibling(operand);
+                    if (role(operand) == IDENTIFIER && operand(operand).equals(operand(target)) && simple(step)
+                            && operand(step).startsWith("$")) {
+                        emit((expressionRole == PLUS ? "addl " : "subl ") + operand(step) + ", " + operand(target));
+                        return false;
+                    }
+                }
+                return true;
+
+            case SWAP:
+                int first = tree.firstChild(node);
+                int second = tree.nextSibling(first);
+                emit("movl " + operand(first) + ", %eax");
+                emit("movl " + operand(second) + ", %ecx");
+                emit("movl %ecx, " + operand(first));
+                emit("movl %eax, " + operand(second));
+                return false;
+
+            case READ:
+                for (int variable = tree.firstChild(node); variable != AstArena.NONE;
+                     variable = tree.nextSibling(variable)) {
+                    emit(analyzer.type(variable) == SemanticAnalyzer.CHAR ? "call wz_read_char" : "call wz_read_integer");
+                    emit("movl %eax, " + operand(variable));
+                }
+                return false;
+
+            case IF:
+                newLabels(2);
+                return true;
+
+            case WHILE:
+                //End, body, condition
+                newLabels(3);
+                emit("jmp " + label(openLabels[open - 1] + 2));
+                openStarts[open - 1] = text.length();
+                return true;
+
+            case REPEAT:
+            case LOOP:
+                //End, then the top
+                newLabels(2);
+                bind(openLabels[open - 1] + 1);
+                return true;
+
+            case FOR:
+                //End, body, step, condition
+                newLabels(4);
+                return true;
+
+            case CASE:
+                //End, then one for each clause by its index, then no match
+                newLabels(tree.childCount(node) + 1);
+                return true;
+
+            case CLAUSE:
+            case OTHERWISE:
+                bind(openLabels[open - 2] + index);
+                return true;
+
+            case RANGE:
+                return false;
+
+            case EXIT:
+                for (int o = open - 2; o >= 0; o--) {
+                    int loop = openRoles[o];
+                    if (loop == WHILE || loop == REPEAT || loop == LOOP || loop == FOR) {
+                        emit("jmp " + label(openLabels[o]));
+                        return false;
+                    }
+                }
+                leave();
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Code between the children of an open node, before the child at index
+     */
+    private void before(int at, int index) {
+        int node = openNodes[at];
+        int base = openLabels[at];
+        switch (openRoles[at]) {
+            case PROGRAM:
+                if (index == 5) {
+                    inFunction = false;
+                    slots = 0;
+                    parameterCount = 0;
+                    prologue("wz_main");
+                }
+                break;
+
+            case FCN:
+                if (index == 6)
+                    prologue("wz_f_" + text(tree.firstChild(node)));
+                break;
+
+            case PLUS:
+            case MINUS:
+            case TIMES:
+            case DIVIDE:
+            case MOD:
+            case AND:
+            case OR:
+            case EQ:
+            case NE:
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+                if (index == 1) {
+                    if (simple(tree.nextSibling(tree.firstChild(node)))) {
+                        openFlags[at] |= DIRECT;
+                    } else {
+                        emit("pushq %rax");
+                        depth++;
+                    }
+                }
+                break;
+
+            case CALL:
+                if (index == 1) {
+                    //Keep the stack 16 byte aligned at the call
+                    if ((depth + tree.childCount(node) - 1) % 2 != 0) {
+                        emit("subq $8, %rsp");
+                        depth++;
+                        openFlags[at] |= PADDED;
+                    }
+                } else if (index > 1) {
+                    emit("pushq %rax");
+                    depth++;
+                }
+                break;
+
+            case IF:
+                if (index == 1) {
+                    branch(at, false, base);
+                } else if (index == 2) {
+                    emit("jmp " + label(base + 1));
+                    bind(base);
+                }
+                break;
+
+            case WHILE:
+                if (index == 1) {
+                    branch(at, true, base + 1);
+                    cut(at);
+                    bind(base + 1);
+                }
+                break;
+
+            case FOR:
+                if (index == 1) {
+                    emit("jmp " + label(base + 3));
+                    openStarts[at] = text.length();
+                } else if (index == 2) {
+                    branch(at, true, base + 1);
+                    cut(at);
+                    openStarts[at] = text.length();
+                } else if (index == 3) {
+                    cut(at);
+                    bind(base + 1);
+                }
+                break;
+
+            case CASE:
+                if (index == 1)
+                    dispatch(node, base);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Operators, stores and the ends of statements, on the way up once the children are done
+     */
+    private void exit(int node) {
+        int at = --open;
+        int flags = openFlags[at];
+        int role = openRoles[at];
+        if ((flags & SKIPPED) != 0 && (flags & COMPARED) == 0)
+            return;
+        int base = openLabels[at];
+        switch (role) {
+            case PROGRAM:
+                bind(returnLabel);
+                emit("leave");
+                emit("ret");
+                break;
+
+            case FCN:
+                emit("xorl %eax, %eax");
+                bind(returnLabel);
+                emit("leave");
+                emit("ret");
+                inFunction = false;
+                break;
+
+            case PLUS:
+            case MINUS:
+                if (tree.childCount(node) == 1) {
+                    if (role == MINUS)
+                        emit("negl %eax");
+                    break;
+                }
+                emit((role == PLUS ? "addl " : "subl ") + right(node, flags) + ", %eax");
+                break;
+
+            case TIMES:
+                emit("imull " + right(node, flags) + ", %eax");
+                break;
+
+            case AND:
+                emit("andl " + right(node, flags) + ", %eax");
+                break;
+
+            case OR:
+                emit("orl " + right(node, flags) + ", %eax");
+                break;
+
+            case DIVIDE:
+            case MOD:
+                divide(right(node, flags), role == MOD);
+                break;
+
+            case NOT:
+                emit("xorl $1, %eax");
+                break;
+
+            case SUCC:
+                emit("addl $1, %eax");
+                break;
+
+            case PRED:
+                emit("subl $1, %eax");
+                break;
+
+            case EQ:
+            case NE:
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+                if ((flags & COMPARED) == 0)
+                    emit("cmpl " + right(node, flags) + ", %eax");
+                compare(role, at);
+                break;
+
+            case EOF:
+                emit("call wz_eof");
+                break;
+
+            case CALL:
+                call(node, (flags & PADDED) != 0);
+                break;
+
+            case ASSIGN:
+                emit("movl %eax, " + operand(tree.firstChild(node)));
+                break;
+
+            case OUT_INTEGER:
+                emit("movl %eax, %edi");
+                emit("call wz_write_integer");
+                break;
+
+            case IF:
+                bind(tree.childCount(node) == 3 ? base + 1 : base);
+                break;
+
+            case WHILE:
+                bind(base + 2);
+                paste();
+                bind(base);
+                break;
+
+            case LOOP:
+                emit("jmp " + label(base + 1));
+                bind(base);
+                break;
+
+            case REPEAT:
+                //Back to the top while the condition is false
+                branch(at, false, base + 1);
+                bind(base);
+                break;
+
+            case FOR:
+                String step = chunks.remove(chunks.size() - 1);
+                bind(base + 2);
+                text.append(step);
+                bind(base + 3);
+                paste();
+                bind(base);
+                break;
+
+            case CLAUSE:
+            case OTHERWISE:
+                emit("jmp " + label(openLabels[at - 1]));
+                break;
+
+            case CASE:
+                bind(base + tree.childCount(node));
+                bind(base);
+                break;
+
+            case RETURN:
+                emit("jmp " + label(returnLabel));
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The right operand of a binary operator: where it is, or in ecx with the left one back in eax
+     */
+    private String right(int node, int flags) {
+        if ((flags & DIRECT) != 0)
+            return operand(tree.nextSibling(tree.firstChild(node)));
+        emit("movl %eax, %ecx");
+        emit("popq %rax");
+        depth--;
+        return "%ecx";
+    }
+
+    /**
+     * eax / divisor or eax mod divisor, truncating like Java: 0 stops the program, and -1, which idiv cannot
+     * divide the smallest int by, negates or gives 0
+     */
+    private void divide(String divisor, boolean mod) {
+        boolean known = divisor.startsWith("$") && !divisor.equals("$0") && !divisor.equals("$-1");
+        if (!divisor.equals("%ecx"))
+            emit("movl " + divisor + ", %ecx");
+        int minusOne = labelCount;
+        labelCount += 2;
+        if (!known) {
+            emit("testl %ecx, %ecx");
+            emit("jz wz_division_by_zero");
+            emit("cmpl $-1, %ecx");
+            emit("je " + label(minusOne));
+        }
+        emit("cltd");
+        emit("idivl %ecx");
+        if (mod)
+            emit("movl %edx, %eax");
+        if (!known) {
+            emit("jmp " + label(minusOne + 1));
+            bind(minusOne);
+            emit(mod ? "xorl %eax, %eax" : "negl %eax");
+            bind(minusOne + 1);
+        }
+    }
+
+    /**
+     * After cmpl: a jump to the body of a while or for when true, to the else or end of an if or the top of a
+     * repeat when false, if the operator is its condition, otherwise 0 or 1 in eax
+     */
+    private void compare(int role, int at) {
+        int parentAt = at - 1;
+        int parentRole = openRoles[parentAt];
+        int index = openChildren[parentAt] - 1;
+        boolean condition = (parentRole == IF || parentRole == WHILE) && index == 0
+                || parentRole == FOR && index == 1
+                || parentRole == REPEAT && index == tree.childCount(openNodes[parentAt]) - 1;
+        if (condition) {
+            if (parentRole == WHILE || parentRole == FOR)
+                emit(JUMPS[role - EQ] + " " + label(openLabels[parentAt] + 1));
+            else
+                emit(JUMPS[negate(role) - EQ] + " " + label(openLabels[parentAt] + (parentRole == REPEAT ? 1 : 0)));
+            openFlags[parentAt] |= BRANCHED;
+            return;
+        }
+        emit(SETS[role - EQ] + " %al");
+        emit("movzbl %al, %eax");
+    }
+
+    /**
+     * The relation that holds when this one does not
+     */
+    private static int negate(int role) {
+        switch (role) {
+            case EQ:
+                return NE;
+            case NE:
+                return EQ;
+            case LT:
+                return GE;
+            case LE:
+                return GT;
+            case GT:
+                return LE;
+            default:
+                return LT;
+        }
+    }
+
+    /**
+     * Jump to a label when the condition in eax is true, or false, unless the condition jumped already
+     */
+    private void branch(int at, boolean when, int label) {
+        if ((openFlags[at] & BRANCHED) != 0)
+            return;
+        emit("testl %eax, %eax");
+        emit((when ? "jnz " : "jz ") + label(label));
+    }
+
+    /**
+     * A call with the arguments pushed in order: the first six go to their registers and the others, reversed,
+     * are the stack arguments, the seventh at the bottom
+     */
+    private void call(int node, boolean padded) {
+        int count = tree.childCount(node) - 1;
+        if (count == 0 && depth % 2 != 0) {
+            emit("subq $8, %rsp");
+            depth++;
+            padded = true;
+        }
+        if (count > 0) {
+            emit("pushq %rax");
+            depth++;
+        }
+        for (int i = 0; i < count && i < ARGUMENTS.length; i++)
+            emit("movl " + 8 * (count - 1 - i) + "(%rsp), " + ARGUMENTS[i]);
+        int stacked = count - ARGUMENTS.length;
+        for (int i = 0; i < stacked / 2; i++) {
+            int low = 8 * i;
+            int high = 8 * (stacked - 1 - i);
+            emit("movq " + low + "(%rsp), %rax");
+            emit("movq " + high + "(%rsp), %r10");
+            emit("movq %r10, " + low + "(%rsp)");
+            emit("movq %rax, " + high + "(%rsp)");
+        }
+        emit("call wz_f_" + text(tree.firstChild(node)));
+        int pushed = count + (padded ? 1 : 0);
+        if (pushed > 0) {
+            emit("addq $" + 8 * pushed + ", %rsp");
+            depth -= pushed;
+        }
+    }
+
+    /**
+     * Jump from the selector in eax to the label of the first clause with a matching label, or the otherwise
+     * clause, or the end
+     */
+    private void dispatch(int node, int base) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        int noMatch = base + tree.childCount(node);
+        int index = 1;
+        for (int clause = tree.nextSibling(tree.firstChild(node)); clause != AstArena.NONE;
+             clause = tree.nextSibling(clause), index++) {
+            if (role(clause) == OTHERWISE) {
+                noMatch = base + index;
+                continue;
+            }
+            for (int label = tree.firstChild(clause); tree.nextSibling(label) != AstArena.NONE;
+                 label = tree.nextSibling(label)) {
+                boolean range = role(label) == RANGE;
+                int low = constant(range ? tree.firstChild(label) : label);
+                int high = range ? constant(child(label, 1)) : low;
+                if (low <= high)
+                    ranges.add(new int[]{low, high, base + index});
+            }
+        }
+        if (ranges.isEmpty()) {
+            emit("jmp " + label(noMatch));
+            return;
+        }
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        boolean single = true;
+        for (int[] range: ranges) {
+            min = Math.min(min, range[0]);
+            max = Math.max(max, range[1]);
+            single &= range[0] == range[1];
+        }
+        if (max - min < MAX_TABLE) {
+            int[] targets = new int[(int) (max - min + 1)];
+            Arrays.fill(targets, noMatch);
+            //Last to first, so the first clause to match wins
+            for (int r = ranges.size() - 1; r >= 0; r--) {
+                int[] range = ranges.get(r);
+                Arrays.fill(targets, (int) (range[0] - min), (int) (range[1] - min + 1), range[2]);
+            }
+            //Below the table wraps around to above it
+            int table = labelCount++;
+            if (min != 0)
+                emit("subl $" + min + ", %eax");
+            emit("cmpl $" + (targets.length - 1) + ", %eax");
+            emit("ja " + label(noMatch));
+            emit("leaq " + label(table) + "(%rip), %rdx");
+            emit("movslq (%rdx,%rax,4), %rax");
+            emit("addq %rdx, %rax");
+            emit("jmp *%rax");
+            emit(".p2align 2");
+            bind(table);
+            for (int target: targets)
+                emit(".long " + label(target) + "-" + label(table));
+        } else if (single) {
+            ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+            int count = 0;
+            for (int r = 0; r < ranges.size(); r++) {
+                //Sorted stably, the first clause of a value comes first
+                if (count == 0 || ranges.get(count - 1)[0] != ranges.get(r)[0])
+                    ranges.set(count++, ranges.get(r));
+            }
+            search(ranges, 0, count, noMatch);
+        } else {
+            for (int[] range: ranges) {
+                if (range[0] == range[1]) {
+                    emit("cmpl $" + range[0] + ", %eax");
+                    emit("je " + label(range[2]));
+                } else {
+                    int next = labelCount++;
+                    emit("cmpl $" + range[0] + ", %eax");
+                    emit("jl " + label(next));
+                    emit("cmpl $" + range[1] + ", %eax");
+                    emit("jle " + label(range[2]));
+                    bind(next);
+                }
+            }
+            emit("jmp " + label(noMatch));
+        }
+    }
+
+    /**
+     * Search sorted single labels from low to high, excluded, by halves, comparing one at a time once few are left
+     */
+    private void search(List<int[]> labels, int low, int high, int noMatch) {
+        if (high - low < MIN_SEARCH) {
+            for (int i = low; i < high; i++) {
+                emit("cmpl $" + labels.get(i)[0] + ", %eax");
+                emit("je " + label(labels.get(i)[2]));
+            }
+            emit("jmp " + label(noMatch));
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        int below = labelCount++;
+        emit("cmpl $" + labels.get(middle)[0] + ", %eax");
+        emit("je " + label(labels.get(middle)[2]));
+        emit("jl " + label(below));
+        search(labels, middle + 1, high, noMatch);
+        bind(below);
+        search(labels, low, middle, noMatch);
+    }
+
+    /**
+     * Start a function: the frame for its slots, checked against the stack limit, then its register parameters
+     * stored and its variables cleared
+     */
+    private void prologue(String symbol) {
+        returnLabel = labelCount++;
+        depth = 0;
+        int frame = (4 * slots + 15) & ~15;
+        text.append("\n\t.p2align 4\n").append(symbol).append(":\n");
+        emit("pushq %rbp");
+        emit("movq %rsp, %rbp");
+        if (frame > 0)
+            emit("subq $" + frame + ", %rsp");
+        emit("cmpq wz_stack_limit(%rip), %rsp");
+        emit("jb wz_too_deep");
+        int registers = Math.min(parameterCount, ARGUMENTS.length);
+        for (int i = 0; i < registers; i++)
+            emit("movl " + ARGUMENTS[i] + ", " + (-4 * (i + 1)) + "(%rbp)");
+        for (int slot = registers + 1; slot <= slots; slot++)
+            emit("movl $0, " + (-4 * slot) + "(%rbp)");
+    }
+
+    /**
+     * Leave the function with 0, or the program, as at its end
+     */
+    private void leave() {
+        if (inFunction)
+            emit("xorl %eax, %eax");
+        emit("jmp " + label(returnLabel));
+    }
+
+    /**
+     * Whether a node is a variable, constant or literal, with a place or value an instruction can take as is
+     */
+    private boolean simple(int node) {
+        int role = role(node);
+        return role == INTEGER_LITERAL || role == CHAR_LITERAL
+                || role == IDENTIFIER && kind(node) != UNBOUND;
+    }
+
+    /**
+     * The place of a variable, in the frame or .bss, or the value of a constant or literal as an immediate
+     */
+    private String operand(int node) {
+        int role = role(node);
+        if (role == INTEGER_LITERAL || role == CHAR_LITERAL)
+            return "$" + constant(node);
+        switch (kind(node)) {
+            case LOCAL:
+                return values[analyzer.declaration(node)] + "(%rbp)";
+            case CONSTANT:
+                return "$" + constantOf(node);
+            default:
+                int declaration = analyzer.declaration(node);
+                return "wz_g_" + (declaration == AstArena.NONE ? "d" : text(declaration)) + "(%rip)";
+        }
+    }
+
+    /**
+     * Add an output string, in UTF-8 without its quotes, to the read only data
+     *
+     * @return its number, for its label .Ls
+     */
+    private int string(String quoted) {
+        byte[] bytes = quoted.substring(1, quoted.length() - 1).getBytes(StandardCharsets.UTF_8);
+        data.append(".Ls").append(stringCount).append(":\n");
+        for (int i = 0; i < bytes.length; i += 16) {
+            data.append("\t.byte ");
+            for (int j = i; j < bytes.length && j < i + 16; j++)
+                data.append(j > i ? "," : "").append(bytes[j] & 0xff);
+            data.append('\n');
+        }
+        stringLength = bytes.length;
+        return stringCount++;
+    }
+
+    /**
+     * Cut the code of an open node since its start out, to paste it back later; labels are names, so it can go
+     * anywhere
+     */
+    private void cut(int at) {
+        chunks.add(text.substring(openStarts[at]));
+        text.setLength(openStarts[at]);
+    }
+
+    /**
+     * Paste the code cut last at the end
+     */
+    private void paste() {
+        text.append(chunks.remove(chunks.size() - 1));
+    }
+
+    private void emit(String instruction) {
+        text.append('\t').append(instruction).append('\n');
+    }
+
+    private void bind(int label) {
+        text.append(label(label)).append(":\n");
+    }
+
+    private static String label(int label) {
+        return ".L" + label;
+    }
+
+    /**
+     * Labels for the open node, consecutive from openLabels
+     */
+    private void newLabels(int count) {
+        openLabels[open - 1] = labelCount;
+        labelCount += count;
+    }
+
+    private void bind(int name, int binding, int value) {
+        bindings[name] = binding;
+        values[name] = value;
+    }
+
+    /**
+     * How the name of an identifier node is bound where it is used; d, unless declared, is a global
+     */
+    private int kind(int node) {
+        int declaration = analyzer.declaration(node);
+        if (declaration != AstArena.NONE)
+            return bindings[declaration];
+        if (text(node).equals("d"))
+            return GLOBAL;
+        if (text(node).equals("true") || text(node).equals("false"))
+            return CONSTANT;
+        return UNBOUND;
+    }
+
+    /**
+     * Value of a constant name, true and false included
+     */
+    private int constantOf(int node) {
+        int declaration = analyzer.declaration(node);
+        if (declaration != AstArena.NONE)
+            return values[declaration];
+        return text(node).equals("true") ? 1 : 0;
+    }
+
+    /**
+     * Value of a ConstValue or case label: an integer, a char or a constant name
+     */
+    private int constant(int node) {
+        String text = text(node);
+        switch (role(node)) {
+            case INTEGER_LITERAL:
+                return Integer.parseInt(text);
+            case CHAR_LITERAL:
+                return text.charAt(1);
+            default:
+                return constantOf(node);
+        }
+    }
+
+    private int child(int node, int index) {
+        int child = tree.firstChild(node);
+        for (int i = 0; i < index; i++)
+            child = tree.nextSibling(child);
+        return child;
+    }
+
+    private String text(int node) {
+        return tree.label(tree.firstChild(node));
+    }
+
+    /**
+     * Entry point, input and output, and the ends of a program. Only system calls, so nothing else to link. Reads
+     * and writes go through 64 KB buffers; read skips blanks like ProgramIO, and errors flush the output, print
+     * the Interpreter's message on stderr and exit with 1
+     */
+    private static final String RUNTIME = """
+
+            \t.p2align 3
+            wz_stack_limit:
+            \t.zero 8
+            wz_in_position:
+            \t.zero 8
+            wz_in_length:
+            \t.zero 8
+            wz_out_length:
+            \t.zero 8
+            wz_in_ended:
+            \t.zero 8
+            wz_in:
+            \t.zero 65536
+            wz_out:
+            \t.zero 65536
+
+            \t.section .rodata
+            wz_newline:
+            \t.ascii "\\n"
+            wz_past_end_message:
+            \t.ascii "Read past the end of the input"
+            wz_past_end_end:
+            wz_division_message:
+            \t.ascii "Division by zero"
+            wz_division_end:
+            wz_too_deep_message:
+            \t.ascii "Recursion too deep"
+            wz_too_deep_end:
+
+            \t.data
+            wz_integer_message:
+            \t.ascii "Expected an integer, found '"
+            wz_found:
+            \t.ascii "?'"
+            wz_integer_end:
+
+            \t.text
+            \t.globl _start
+            #The stack limit leaves 1 MB of the stack rlimit, at most 1 GB, for the runtime and deep expressions
+            _start:
+            \tsubq $16, %rsp
+            \tmovq $0x800000, (%rsp)
+            \tmovl $97, %eax
+            \tmovl $3, %edi
+            \tmovq %rsp, %rsi
+            \tsyscall
+            \tmovq (%rsp), %rax
+            \taddq $16, %rsp
+            \tmovq $0x40000000, %rcx
+            \tcmpq %rcx, %rax
+            \tcmova %rcx, %rax
+            \tmovq %rsp, %rcx
+            \tsubq %rax, %rcx
+            \taddq $0x100000, %rcx
+            \tmovq %rcx, wz_stack_limit(%rip)
+            \tcall wz_main
+            \tcall wz_flush
+            \tmovl $231, %eax
+            \txorl %edi, %edi
+            \tsyscall
+
+            #Next byte of stdin in eax, left unread, -1 at the end
+            wz_peek:
+            \tmovq wz_in_position(%rip), %rax
+            \tcmpq wz_in_length(%rip), %rax
+            \tjb 2f
+            \tcmpq $0, wz_in_ended(%rip)
+            \tjne 1f
+            0:
+            \txorl %eax, %eax
+            \txorl %edi, %edi
+            \tleaq wz_in(%rip), %rsi
+            \tmovl $65536, %edx
+            \tsyscall
+            \tcmpq $-4, %rax
+            \tje 0b
+            \tmovq $0, wz_in_position(%rip)
+            \ttestq %rax, %rax
+            \tjg 3f
+            \tmovq $0, wz_in_length(%rip)
+            \tmovq $1, wz_in_ended(%rip)
+            1:
+            \tmovl $-1, %eax
+            \tret
+            3:
+            \tmovq %rax, wz_in_length(%rip)
+            \txorl %eax, %eax
+            2:
+            \tleaq wz_in(%rip), %rdx
+            \tmovzbl (%rdx,%rax), %eax
+            \tret
+
+            #Next byte that is not blank in eax, left unread, -1 at the end
+            wz_skip_blanks:
+            \tcall wz_peek
+            \tcmpl $32, %eax
+            \tje 1f
+            \tcmpl $9, %eax
+            \tje 1f
+            \tcmpl $10, %eax
+            \tje 1f
+            \tcmpl $13, %eax
+            \tje 1f
+            \tret
+            1:
+            \tincq wz_in_position(%rip)
+            \tjmp wz_skip_blanks
+
+            wz_eof:
+            \tcall wz_skip_blanks
+            \tcmpl $-1, %eax
+            \tsete %al
+            \tmovzbl %al, %eax
+            \tret
+
+            wz_read_char:
+            \tcall wz_skip_blanks
+            \tcmpl $-1, %eax
+            \tje wz_past_end
+            \tincq wz_in_position(%rip)
+            \tret
+
+            #An optional - then digits, wrapping around like ProgramIO
+            wz_read_integer:
+            \tpushq %rbx
+            \tpushq %r12
+            \tsubq $8, %rsp
+            \tcall wz_skip_blanks
+            \txorl %r12d, %r12d
+            \tcmpl $45, %eax
+            \tjne 1f
+            \tmovl $1, %r12d
+            \tincq wz_in_position(%rip)
+            \tcall wz_peek
+            1:
+            \tleal -48(%rax), %ecx
+            \tcmpl $9, %ecx
+            \tjbe 2f
+            \tcmpl $-1, %eax
+            \tje wz_past_end
+            \tmovb %al, wz_found(%rip)
+            \tleaq wz_integer_message(%rip), %rsi
+            \tmovl $wz_integer_end-wz_integer_message, %edx
+            \tjmp wz_fail
+            2:
+            \txorl %ebx, %ebx
+            3:
+            \timull $10, %ebx, %ebx
+            \taddl %ecx, %ebx
+            \tincq wz_in_position(%rip)
+            \tcall wz_peek
+            \tleal -48(%rax), %ecx
+            \tcmpl $9, %ecx
+            \tjbe 3b
+            \tmovl %ebx, %eax
+            \ttestl %r12d, %r12d
+            \tjz 4f
+            \tnegl %eax
+            4:
+            \taddq $8, %rsp
+            \tpopq %r12
+            \tpopq %rbx
+            \tret
+
+            #edi in decimal, then a newline
+            wz_write_integer:
+            \tsubq $40, %rsp
+            \tleaq 32(%rsp), %rsi
+            \tmovb $10, (%rsi)
+            \tmovslq %edi, %rax
+            \tmovq %rax, %r8
+            \ttestq %rax, %rax
+            \tjns 1f
+            \tnegq %rax
+            1:
+            \tmovl $10, %ecx
+            2:
+            \txorl %edx, %edx
+            \tdivq %rcx
+            \taddb $48, %dl
+            \tdecq %rsi
+            \tmovb %dl, (%rsi)
+            \ttestq %rax, %rax
+            \tjnz 2b
+            \ttestq %r8, %r8
+            \tjns 3f
+            \tdecq %rsi
+            \tmovb $45, (%rsi)
+            3:
+            \tleaq 33(%rsp), %rdx
+            \tsubq %rsi, %rdx
+            \tcall wz_write_bytes
+            \taddq $40, %rsp
+            \tret
+
+            #rdx bytes at rsi, then a newline
+            wz_write_string:
+            \tcall wz_write_bytes
+            \tleaq wz_newline(%rip), %rsi
+            \tmovl $1, %edx
+            \tjmp wz_write_bytes
+
+            #rdx bytes at rsi into the output buffer, flushed first if they do not fit, or written straight out if
+            #they are larger
+            wz_write_bytes:
+            \tmovq wz_out_length(%rip), %rax
+            \tleaq (%rax,%rdx), %rcx
+            \tcmpq $65536, %rcx
+            \tjbe 1f
+            \tpushq %rsi
+            \tpushq %rdx
+            \tsubq $8, %rsp
+            \tcall wz_flush
+            \taddq $8, %rsp
+            \tpopq %rdx
+            \tpopq %rsi
+            \tcmpq $65536, %rdx
+            \tja 2f
+            \txorl %eax, %eax
+            1:
+            \tleaq wz_out(%rip), %rdi
+            \taddq %rax, %rdi
+            \tmovq %rdx, %rcx
+            \taddq %rdx, wz_out_length(%rip)
+            \trep movsb
+            \tret
+            2:
+            \tmovl $1, %edi
+            \tjmp wz_write_all
+
+            wz_flush:
+            \tmovq wz_out_length(%rip), %rdx
+            \ttestq %rdx, %rdx
+            \tjz 1f
+            \tmovq $0, wz_out_length(%rip)
+            \tmovl $1, %edi
+            \tleaq wz_out(%rip), %rsi
+            \tjmp wz_write_all
+            1:
+            \tret
+
+            #rdx bytes at rsi to the file descriptor edi, exiting with 1 if they cannot be
+            wz_write_all:
+            \ttestq %rdx, %rdx
+            \tjz 2f
+            \tmovl $1, %eax
+            \tpushq %rdi
+            \tsyscall
+            \tpopq %rdi
+            \tcmpq $-4, %rax
+            \tje wz_write_all
+            \ttestq %rax, %rax
+            \tjle 1f
+            \taddq %rax, %rsi
+            \tsubq %rax, %rdx
+            \tjmp wz_write_all
+            1:
+            \tmovl $231, %eax
+            \tmovl $1, %edi
+            \tsyscall
+            2:
+            \tret
+
+            wz_past_end:
+            \tleaq wz_past_end_message(%rip), %rsi
+            \tmovl $wz_past_end_end-wz_past_end_message, %edx
+            \tjmp wz_fail
+
+            wz_division_by_zero:
+            \tleaq wz_division_message(%rip), %rsi
+            \tmovl $wz_division_end-wz_division_message, %edx
+            \tjmp wz_fail
+
+            wz_too_deep:
+            \tleaq wz_too_deep_message(%rip), %rsi
+            \tmovl $wz_too_deep_end-wz_too_deep_message, %edx
+
+            #Flush the output, print the message of rdx bytes at rsi and a newline on stderr, and exit with 1
+            wz_fail:
+            \tpushq %rsi
+            \tpushq %rdx
+            \tcall wz_flush
+            \tpopq %rdx
+            \tpopq %rsi
+            \tmovl $2, %edi
+            \tcall wz_write_all
+            \tmovl $2, %edi
+            \tleaq wz_newline(%rip), %rsi
+            \tmovl $1, %edx
+            \tcall wz_write_all
+            \tmovl $231, %eax
+            \tmovl $1, %edi
+            \tsyscall
+            """;
+}
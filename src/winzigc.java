@@ -1,55 +1,534 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.List;
 
 public class winzigc {
-    public static void main(String[] args) {
-        System.out.println(args[2]);
-        String programPath = args[1];
-        String outputPath = args[3];
+    private static final String USAGE =
+            "Usage: winzigc -ast <source program path> > <output file path> [-trace " + Trace.LEVELS + "]\n" +
+            "               [-max-depth levels]\n" +
+            "       winzigc -batch <file|directory|@manifest>... -out <output directory> [-threads n] [-max-depth levels]\n" +
+            "       winzigc -check <source program path or - for stdin> [-buffer chars] [-max-depth levels]\n" +
+            "       winzigc -analyze <source program path> [-max-depth levels]\n" +
+            "       winzigc -run <source program path> [-naive|-jvm|-vm [-budget instructions]] [-max-depth levels]\n" +
+            "       winzigc -disassemble <source program path> [-max-depth levels]\n" +
+            "       winzigc -class <source program path> -out <output directory> [-max-depth levels]\n" +
+            "       winzigc -native <source program path> -out <output directory> [-S] [-max-depth levels]\n" +
+            "       winzigc -serve <port>\n" +
+            "       winzigc -lsp [-debounce ms]\n" +
+            "       winzigc -ast <source program path> > <output file path> -server <port>";
 
+    /**
+     * A program that parses and passes the SemanticAnalyzer, ready to run or compile
+     */
+    static class Analyzed {
+        final AstArena tree;
+        final int root;
+        final SemanticAnalyzer analyzer;
 
-        String program;
-        try {
-            program = readProgram(programPath);
-        } catch (IOException e) {
-            e.printStackTrace();
+        Analyzed(AstArena tree, int root, SemanticAnalyzer analyzer) {
+            this.tree = tree;
+            this.root = root;
+            this.analyzer = analyzer;
+        }
+    }
+
+    public static void main(String[] args) {
+        String programPath = null;
+        String outputPath = null;
+        List<String> batchInputs = null;
+        String batchOutput = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String checkPath = null;
+        String analyzePath = null;
+        String runPath = null;
+        String engine = "closures";
+        long budget = BytecodeVM.UNLIMITED;
+        String disassemblePath = null;
+        String classPath = null;
+        String nativePath = null;
+        boolean link = true;
+        int bufferSize = 64 * 1024;
+        int servePort = -1;
+        int serverPort = -1;
+        boolean lsp = false;
+        long debounce = LanguageServer.DEFAULT_DEBOUNCE_MILLIS;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-ast":
+                    programPath = args[++i];
+                    break;
+                case ">":
+                    outputPath = args[++i];
+                    break;
+                case "-batch":
+                    batchInputs = new ArrayList<String>();
+                    while (i + 1 < args.length && !args[i + 1].startsWith("-"))
+                        batchInputs.add(args[++i]);
+                    break;
+                case "-out":
+                    batchOutput = args[++i];
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-check":
+                    checkPath = args[++i];
+                    break;
+                case "-analyze":
+                    analyzePath = args[++i];
+                    break;
+                case "-run":
+                    runPath = args[++i];
+                    break;
+                case "-naive":
+                case "-jvm":
+                case "-vm":
+                    engine = args[i].substring(1);
+                    break;
+                case "-budget":
+                    budget = Long.parseLong(args[++i]);
+                    break;
+                case "-disassemble":
+                    disassemblePath = args[++i];
+                    break;
+                case "-class":
+                    classPath = args[++i];
+                    break;
+                case "-native":
+                    nativePath = args[++i];
+                    break;
+                case "-S":
+                    link = false;
+                    break;
+                case "-buffer":
+                    bufferSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-serve":
+                    servePort = Integer.parseInt(args[++i]);
+                    break;
+                case "-server":
+                    serverPort = Integer.parseInt(args[++i]);
+                    break;
+                case "-lsp":
+                    lsp = true;
+                    break;
+                case "-debounce":
+                    debounce = Long.parseLong(args[++i]);
+                    break;
+                case "-trace":
+                    //Must be set before Trace is loaded, its flags are final
+                    String level = args[++i];
+                    if (!Arrays.asList(Trace.LEVELS.split("\\|")).contains(level)) {
+                        System.err.println("Unknown trace level " + level);
+                        System.err.println(USAGE);
+                        System.exit(1);
+                    }
+                    System.setProperty(Trace.PROPERTY, level);
+                    break;
+                case "-max-depth":
+                    //Likewise before Parser is loaded
+                    System.setProperty(Parser.MAX_DEPTH_PROPERTY, Integer.toString(Integer.parseInt(args[++i])));
+                    break;
+                default:
+                    System.err.println("Unknown argument " + args[i]);
+                    System.err.println(USAGE);
+                    System.exit(1);
+            }
+        }
+
+        if (checkPath != null) {
+            try {
+                if (!check(checkPath, bufferSize))
+                    System.exit(1);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (analyzePath != null) {
+            try {
+                if (!analyze(analyzePath))
+                    System.exit(1);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (runPath != null) {
+            try {
+                if (!run(runPath, engine, budget))
+                    System.exit(1);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (disassemblePath != null) {
+            try {
+                if (!disassemble(disassemblePath))
+                    System.exit(1);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
             return;
         }
+        if (classPath != null && batchOutput != null) {
+            try {
+                if (!compileClass(classPath, batchOutput))
+                    System.exit(1);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (nativePath != null && batchOutput != null) {
+            try {
+                if (!compileNative(nativePath, batchOutput, link))
+                    System.exit(1);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (lsp) {
+            try {
+                LanguageServer server = new LanguageServer(new BufferedInputStream(System.in), System.out, debounce);
+                System.exit(server.run());
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (servePort >= 0) {
+            try {
+                CompileServer server = new CompileServer(servePort);
+                server.start();
+                System.err.println("Listening on http://localhost:" + server.port() + "/compile");
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (batchInputs != null && batchOutput != null) {
+            try {
+                BatchCompiler batch = new BatchCompiler(threads);
+                boolean ok = batch.compileAll(batchInputs, Paths.get(batchOutput));
+                if (!ok)
+                    System.exit(1);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        if (programPath == null || outputPath == null) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
 
-        Lexer lexer = new Lexer(program);
         try {
-            ArrayList<LexerToken> scannedTokens = lexer.scan(program);
-            ArrayList<LexerToken> screenedTokens = lexer.screen(scannedTokens);
+            if (serverPort >= 0) {
+                compileRemote(serverPort, programPath, outputPath);
+                return;
+            }
+            Diagnostics diagnostics = new Diagnostics();
+            boolean ok = compile(programPath, outputPath, diagnostics);
+            for (Diagnostic diagnostic: diagnostics)
+                System.err.println(programPath + ":" + diagnostic);
+            if (!ok)
+                System.exit(1);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
 
-            System.out.println("");
-            Parser parser = new Parser(screenedTokens);
-            String output = parser.buildAST();
+    /**
+     * Check the syntax of a program streamed through a fixed size buffer, so memory does not grow with the input.
+     * Reports every lexical and syntax error as path:line:column: message, or else the peak buffer usage, on stderr
+     *
+     * @param programPath source program, or - for stdin
+     * @param bufferSize ring buffer size in chars
+     * @return true if there were no lexical or syntax errors
+     * @throws Exception on read errors
+     */
+    static boolean check(String programPath, int bufferSize) throws Exception {
+        InputStream in = programPath.equals("-") ? System.in : Files.newInputStream(Paths.get(programPath));
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            StreamingLexer lexer = new StreamingLexer(reader, bufferSize);
+            Diagnostics diagnostics = new Diagnostics();
+            boolean ok = new Parser(lexer).checkSyntax(diagnostics);
+            for (Diagnostic diagnostic: diagnostics)
+                System.err.println(programPath + ":" + diagnostic);
+            if (!ok)
+                return false;
+            System.err.println("Syntax OK, peak buffer usage " + lexer.peakBufferUsage() + " of " + lexer.capacity() + " chars");
+            return true;
+        }
+    }
 
-//            System.out.println(output);
+    /**
+     * Parse a program and check its declarations and types with the SemanticAnalyzer. Reports every lexical,
+     * syntax or semantic error as path:line:column: message on stderr; the semantic checks only run once the
+     * program parses
+     *
+     * @param programPath source program
+     * @return true if there were no errors
+     * @throws Exception on read errors
+     */
+    static boolean analyze(String programPath) throws Exception {
+        if (analyzed(programPath) == null)
+            return false;
+        System.err.println("Semantics OK");
+        return true;
+    }
 
-            writeToFile(outputPath, output);
+    /**
+     * Analyze a program like -analyze, then run it with the Interpreter, walking its AST with the AstInterpreter,
+     * compiled to a JVM class loaded into this JVM, or compiled to Bytecode for the BytecodeVM, reading stdin and
+     * writing stdout
+     *
+     * @param programPath source program
+     * @param engine closures, naive, jvm or vm
+     * @param budget most instructions the BytecodeVM may execute
+     * @return true if the program had no errors; runtime errors are thrown
+     * @throws Exception on read errors, and errors running the program
+     */
+    static boolean run(String programPath, String engine, long budget) throws Exception {
+        Analyzed program = analyzed(programPath);
+        if (program == null)
+            return false;
 
+        Reader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        switch (engine) {
+            case "naive":
+                new AstInterpreter(program.tree, program.root).run(in, out);
+                break;
+            case "jvm":
+                new JvmCompiler(program.tree, program.root, program.analyzer).run(in, out);
+                break;
+            case "vm":
+                Bytecode bytecode = new BytecodeCompiler(program.tree, program.root, program.analyzer).bytecode();
+                BytecodeVM vm = new BytecodeVM(bytecode);
+                vm.setBudget(budget);
+                vm.run(in, out);
+                break;
+            default:
+                new Interpreter(program.tree, program.root, program.analyzer).run(in, out);
+                break;
+        }
+        return true;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Analyze a program like -analyze, then print its Bytecode, disassembled, on stdout
+     *
+     * @param programPath source program
+     * @return true if the program had no errors
+     * @throws Exception on read errors
+     */
+    static boolean disassemble(String programPath) throws Exception {
+        Analyzed program = analyzed(programPath);
+        if (program == null)
+            return false;
+
+        System.out.print(new BytecodeCompiler(program.tree, program.root, program.analyzer).bytecode().disassemble());
+        return true;
+    }
+
+    /**
+     * Analyze a program like -analyze, then compile it to a JVM class file named after the program, which runs
+     * with java given the compiler on its class path
+     *
+     * @param programPath source program
+     * @param outputDirectory where the class file goes
+     * @return true if the program had no errors
+     * @throws Exception on read and write errors, and programs too large for the JVM
+     */
+    static boolean compileClass(String programPath, String outputDirectory) throws Exception {
+        Analyzed program = analyzed(programPath);
+        if (program == null)
+            return false;
+
+        Path directory = Paths.get(outputDirectory);
+        Files.createDirectories(directory);
+        Path path = new JvmCompiler(program.tree, program.root, program.analyzer).write(directory);
+        System.err.println("Wrote " + path);
+        return true;
+    }
+
+    /**
+     * Analyze a program like -analyze, then compile it to x86-64 assembly and, with as and ld, to a Linux
+     * executable, both named after the program
+     *
+     * @param programPath source program
+     * @param outputDirectory where the assembly and executable go
+     * @param link false to write the assembly only
+     * @return true if the program had no errors
+     * @throws Exception on read and write errors, and when as or ld fails
+     */
+    static boolean compileNative(String programPath, String outputDirectory, boolean link) throws Exception {
+        Analyzed program = analyzed(programPath);
+        if (program == null)
+            return false;
+
+        Path directory = Paths.get(outputDirectory);
+        Files.createDirectories(directory);
+        Path path = new X86Compiler(program.tree, program.root, program.analyzer).build(directory, link);
+        System.err.println("Wrote " + path);
+        return true;
+    }
+
+    /**
+     * Read, parse and analyze a program. Reports every lexical, syntax or semantic error as path:line:column: message
+     * on stderr; the semantic checks only run once the program parses
+     *
+     * @param programPath source program
+     * @return the analyzed program, or null if it has errors
+     * @throws Exception on read errors
+     */
+    private static Analyzed analyzed(String programPath) throws Exception {
+        CharSequence program = SourceText.read(Paths.get(programPath));
+        TokenBuffer tokens = new Lexer().tokenize(program);
+        Diagnostics diagnostics = new Diagnostics();
+        ParseResult result = new Parser(tokens.stream()).parse(diagnostics);
+        SemanticAnalyzer analyzer = new SemanticAnalyzer(result.tree(), diagnostics);
+        if (result.ok())
+            analyzer.analyze(result.root());
+        if (!report(programPath, program, tokens, diagnostics))
+            return null;
+        return new Analyzed(result.tree(), result.root(), analyzer);
+    }
+
+    /**
+     * Print diagnostics as path:line:column: message on stderr
+     *
+     * @return true if none of them is an error
+     */
+    private static boolean report(String programPath, CharSequence program, TokenBuffer tokens,
+                                  Diagnostics diagnostics) {
+        //Semantic errors only know their tokens
+        Diagnostic previous = null;
+        for (Diagnostic diagnostic: diagnostics) {
+            if (diagnostic.found == null)
+                diagnostic.locate(program, tokens.tokenStart(diagnostic.token), previous);
+            previous = diagnostic;
         }
+        for (Diagnostic diagnostic: diagnostics)
+            System.err.println(programPath + ":" + diagnostic);
+        return !diagnostics.hasErrors();
+    }
+
+    /**
+     * Forward a compilation to a running CompileServer on this machine
+     *
+     * @param port port of the server
+     * @param programPath source program
+     * @param outputPath destination of the AST
+     * @throws Exception if the server is unreachable or reports an error
+     */
+    static void compileRemote(int port, String programPath, String outputPath) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/compile"))
+                .POST(HttpRequest.BodyPublishers.ofFile(Paths.get(programPath)))
+                .build();
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200)
+            throw new Exception(response.body().trim());
 
+        try (Writer out = new BufferedWriter(new FileWriter(outputPath))) {
+            out.write(response.body());
+        }
+    }
+
+    /**
+     * Compile a single program to its AST file. Uses fresh Lexer/Parser instances, so it is safe to call
+     * from several threads at once
+     *
+     * @param programPath source program
+     * @param outputPath destination of the AST
+     * @throws Exception on read or write errors, and with the first lexical or syntax error
+     */
+    static void compile(String programPath, String outputPath) throws Exception {
+        Diagnostics diagnostics = new Diagnostics(1);
+        if (!compile(programPath, outputPath, diagnostics))
+            throw new Exception(diagnostics.get(0).toString());
     }
 
+    /**
+     * Compile a single program to its AST file, recording its lexical and syntax errors. The program is parsed
+     * before the output is touched, and the tree written to a temporary file next to it that is moved into place
+     * once complete, so a failure leaves no partial or empty output behind
+     *
+     * @param programPath source program
+     * @param outputPath destination of the AST, written only if the program parses
+     * @param diagnostics receives the problems in token order
+     * @return true if there were no errors
+     * @throws Exception on read or write errors
+     */
+    static boolean compile(String programPath, String outputPath, Diagnostics diagnostics) throws Exception {
+        if (Trace.PHASE)
+            Trace.log("read " + programPath);
+        CharSequence program = SourceText.read(Paths.get(programPath));
 
-    private static String readProgram(String filepath) throws IOException {
-        String content = null;
-        content = Files.lines(Paths.get(filepath)).collect(Collectors.joining(System.lineSeparator()));
-        return content;
+        if (Trace.PHASE)
+            Trace.log("parse " + programPath);
+        ParseResult result = new Parser(new Lexer().tokenize(program).stream()).parse(diagnostics);
+        if (!result.ok())
+            return false;
+
+        if (Trace.PHASE)
+            Trace.log("write " + outputPath);
+        writeAST(result.tree(), result.root(), Paths.get(outputPath));
+        return true;
     }
 
-    private static void writeToFile(String outputFile, String output) throws IOException {
-        FileWriter myWriter = new FileWriter(outputFile);
-        myWriter.write(output);
-        myWriter.close();
+    /**
+     * Write an AST through a temporary file in the output's directory, moved over the output only once complete
+     *
+     * @param tree parsed program
+     * @param root root node in tree
+     * @param output destination of the AST
+     * @throws IOException on write errors, after deleting the temporary file
+     */
+    static void writeAST(AstArena tree, int root, Path output) throws IOException {
+        Path directory = output.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, output.getFileName().toString(), ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                new AstWriter(out).write(tree, root);
+            }
+            Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
     }
 }
@@ -0,0 +1,228 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Each way of running a program against the others: the test programs on fixed inputs give the same output
+ * everywhere, and so do the runtime errors, which stop a program after the output it has written. Native
+ * executables are only run where as and ld are found on x86-64 Linux
+ */
+public class EngineTest {
+    private interface Engine {
+        /**
+         * @return what the program wrote, then "error: " and the message if it stopped with an error
+         */
+        String run(winzigc.Analyzed program, String input) throws Exception;
+    }
+
+    private interface Runner {
+        void run(winzigc.Analyzed program, StringReader in, StringWriter out) throws Exception;
+    }
+
+    private static final Map<String, Engine> ENGINES = new LinkedHashMap<String, Engine>();
+
+    static {
+        ENGINES.put("closures", inProcess((program, in, out) ->
+                new Interpreter(program.tree, program.root, program.analyzer).run(in, out)));
+        ENGINES.put("naive", inProcess((program, in, out) ->
+                new AstInterpreter(program.tree, program.root).run(in, out)));
+        ENGINES.put("jvm", inProcess((program, in, out) ->
+                new JvmCompiler(program.tree, program.root, program.analyzer).run(in, out)));
+        ENGINES.put("vm", inProcess((program, in, out) -> new BytecodeVM(bytecode(program)).run(in, out)));
+        //Only where as and ld can build x86-64 Linux executables
+        if (canLink())
+            ENGINES.put("native", EngineTest::runNative);
+    }
+
+    @Test
+    public void testProgramsRunAlike() throws Exception {
+        for (int i = 1; i <= 15; i++) {
+            String file = String.format("winzig_test_programs/winzig_%02d", i);
+            winzigc.Analyzed program = analyze(SourceText.read(Paths.get(file)).toString());
+            String expected = null;
+            for (Map.Entry<String, Engine> engine: ENGINES.entrySet()) {
+                String result = engine.getValue().run(program, input(i));
+                if (expected == null)
+                    expected = result;
+                else
+                    assertEquals(expected, result, file + " on " + engine.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void divisionByZero() throws Exception {
+        String program = "program p:\n"
+                + "var a : integer;\n"
+                + "begin\n"
+                + "    read(a);\n"
+                + "    output(1);\n"
+                + "    output(10 / a)\n"
+                + "end p.\n";
+        assertErrors(program, "0", "1\nerror: Division by zero\n");
+        assertErrors(program.replace("/", "mod"), "0", "1\nerror: Division by zero\n");
+    }
+
+    @Test
+    public void readPastTheEnd() throws Exception {
+        String program = "program p:\n"
+                + "var a : integer;\n"
+                + "    c : char;\n"
+                + "begin\n"
+                + "    read(a);\n"
+                + "    output(a);\n"
+                + "    read(c)\n"
+                + "end p.\n";
+        assertErrors(program, " 5 \n", "5\nerror: Read past the end of the input\n");
+        assertErrors(program, "", "error: Read past the end of the input\n");
+    }
+
+    @Test
+    public void runawayRecursion() throws Exception {
+        assertErrors("program p:\n"
+                + "function f(n : integer) : integer;\n"
+                + "begin\n"
+                + "    return f(n + 1)\n"
+                + "end f;\n"
+                + "begin\n"
+                + "    output(2);\n"
+                + "    d := f(1)\n"
+                + "end p.\n", "", "2\nerror: Recursion too deep\n");
+    }
+
+    @Test
+    public void budgetStopsTheVm() throws Exception {
+        winzigc.Analyzed program = analyze("program p:\n"
+                + "begin\n"
+                + "    output(1);\n"
+                + "    loop\n"
+                + "        d := d + 1\n"
+                + "    pool\n"
+                + "end p.\n");
+        BytecodeVM vm = new BytecodeVM(bytecode(program));
+        vm.setBudget(1000);
+        StringWriter out = new StringWriter();
+        Exception e = assertThrows(Exception.class, () -> vm.run(new StringReader(""), out));
+        assertEquals("Instruction budget of 1000 exceeded", e.getMessage());
+        assertEquals("1\n", out.toString());
+
+        //A budget of exactly the instructions a run takes is enough, one less is not
+        program = analyze(SourceText.read(Paths.get("winzig_test_programs/winzig_01")).toString());
+        String expected = ENGINES.get("closures").run(program, input(1));
+        BytecodeVM counted = new BytecodeVM(bytecode(program));
+        counted.run(new StringReader(input(1)), new StringWriter());
+        long executed = counted.executed();
+        assertTrue(executed > 1000, executed + " instructions");
+        BytecodeVM limited = new BytecodeVM(bytecode(program));
+        Engine withBudget = inProcess((p, in, o) -> limited.run(in, o));
+        limited.setBudget(executed);
+        assertEquals(expected, withBudget.run(program, input(1)));
+        limited.setBudget(executed - 1);
+        String result = withBudget.run(program, input(1));
+        assertTrue(result.endsWith("error: Instruction budget of " + (executed - 1) + " exceeded\n"), result);
+    }
+
+    private static void assertErrors(String text, String input, String expected) throws Exception {
+        winzigc.Analyzed program = analyze(text);
+        for (Map.Entry<String, Engine> engine: ENGINES.entrySet())
+            assertEquals(expected, engine.getValue().run(program, input), engine.getKey());
+    }
+
+    /**
+     * The inputs native_test.sh runs the test programs on
+     */
+    private static String input(int program) {
+        StringBuilder input = new StringBuilder();
+        switch (program) {
+            case 1:
+                return "50000 65536 99991 100000 0\n";
+            case 9:
+                return "2 3 3 5\n";
+            case 13:
+                for (int i = 0; i <= 40; i++)
+                    input.append(i).append('\n');
+                return input.toString();
+            default:
+                for (int i = 1; i <= 30; i++)
+                    input.append(i).append(' ');
+                return input.append('\n').toString();
+        }
+    }
+
+    private static winzigc.Analyzed analyze(String text) throws Exception {
+        Diagnostics diagnostics = new Diagnostics();
+        ParseResult result = new Parser(new Lexer().tokenize(text).stream()).parse(diagnostics);
+        SemanticAnalyzer analyzer = new SemanticAnalyzer(result.tree(), diagnostics);
+        analyzer.analyze(result.root());
+        assertEquals("", diagnostics.toString(), text);
+        return new winzigc.Analyzed(result.tree(), result.root(), analyzer);
+    }
+
+    /**
+     * Build the program with as and ld in a temporary directory and run the executable
+     */
+    private static String runNative(winzigc.Analyzed program, String input) throws Exception {
+        Path directory = Files.createTempDirectory("winzig-native");
+        try {
+            Path executable = new X86Compiler(program.tree, program.root, program.analyzer).build(directory, true);
+            Path in = Files.writeString(directory.resolve("in"), input);
+            Path out = directory.resolve("out");
+            Path err = directory.resolve("err");
+            Process process = new ProcessBuilder(executable.toString())
+                    .redirectInput(in.toFile()).redirectOutput(out.toFile()).redirectError(err.toFile()).start();
+            int exitCode = process.waitFor();
+            String result = Files.readString(out);
+            return exitCode == 0 ? result : result + "error: " + Files.readString(err);
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file: (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static boolean canLink() {
+        if (!System.getProperty("os.name").equals("Linux") || !System.getProperty("os.arch").equals("amd64"))
+            return false;
+        try {
+            for (String tool: new String[]{"as", "ld"}) {
+                Process process = new ProcessBuilder(tool, "--version").redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+                if (process.waitFor() != 0)
+                    return false;
+            }
+            return true;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static Bytecode bytecode(winzigc.Analyzed program) {
+        return new BytecodeCompiler(program.tree, program.root, program.analyzer).bytecode();
+    }
+
+    private static Engine inProcess(Runner runner) {
+        return (program, input) -> {
+            StringWriter out = new StringWriter();
+            try {
+                runner.run(program, new StringReader(input), out);
+            } catch (Exception e) {
+                out.write("error: " + e.getMessage() + "\n");
+            }
+            return out.toString();
+        };
+    }
+}
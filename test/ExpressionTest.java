@@ -0,0 +1,263 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The expression trees of precedence climbing against the textbook recursive chain, Expression, Term, Factor,
+ * Primary, on the test programs with operators replaced, operands given prefixes and operators, and random
+ * tokens deleted, inserted and replaced. Where a mutated program
+ * parses, each of its expressions is parsed again from its tokens by the chain; where it does not, the checking
+ * and the AST building parse must report the same problems
+ */
+public class ExpressionTest {
+    private static final String[] PIECES = {"-", "+", "not", "*", "/", "mod", "and", "or", "<", "<=", "=", "<>", ">",
+            ">=", "(", ")", "x", "1", "'c'", "succ", "ord", "eof", ",", ";", "end", "@", "begin"};
+    private static final List<String> BINARY = Arrays.asList("*", "/", "mod", "and", "+", "-", "or", "<", "<=", "=",
+            "<>", ">", ">=");
+    private static final String[] PREFIXES = {"-", "+", "not"};
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList("program", "var", "const", "type",
+            "function", "return", "begin", "end", "output", "if", "then", "else", "while", "do", "case", "of",
+            "otherwise", "repeat", "until", "for", "loop", "pool", "exit", "read", "succ", "pred", "chr", "ord", "eof",
+            "mod", "and", "or", "not", "integer", "char", "boolean"));
+    //Labels of expression nodes, an expression's root is one whose parent is not
+    private static final Set<String> EXPRESSIONS = new HashSet<>(Arrays.asList("<=", "<", ">=", ">", "=", "<>",
+            "+", "-", "or", "*", "/", "and", "mod", "not", "eof", "call", "succ", "pred", "chr", "ord", "<integer>",
+            "<char>"));
+
+    @Test
+    public void mutatedProgramsMatchRecursiveChain() throws Exception {
+        List<List<String>> programs = testPrograms();
+        Random random = new Random(19);
+        int parsed = 0;
+        int expressions = 0;
+        for (int round = 0; round < 60000; round++) {
+            String text = mutate(programs, random, round);
+            TokenBuffer tokens = new Lexer().tokenize(text);
+            Diagnostics diagnostics = new Diagnostics();
+            ParseResult result = new Parser(tokens.stream()).parse(diagnostics);
+            if (diagnostics.hasErrors()) {
+                Diagnostics checked = new Diagnostics();
+                new Parser(new Lexer().tokenize(text).stream()).checkSyntax(checked);
+                assertEquals(diagnostics.toString(), checked.toString(), text);
+                continue;
+            }
+            parsed++;
+            expressions += checkExpressions(result.tree(), result.root(), tokens, text);
+        }
+        assertTrue(parsed > 10000, parsed + " mutated programs parsed");
+        assertTrue(expressions > 100000, expressions + " expressions compared");
+    }
+
+    /**
+     * The screened tokens of each test program
+     */
+    private static List<List<String>> testPrograms() throws Exception {
+        List<List<String>> programs = new ArrayList<>();
+        for (int i = 1; i <= 15; i++) {
+            TokenBuffer tokens = new Lexer().tokenize(SourceText.read(
+                    Paths.get(String.format("winzig_test_programs/winzig_%02d", i))));
+            List<String> program = new ArrayList<>();
+            for (int k = 0; k < tokens.size(); k++)
+                program.add(tokens.source().subSequence(tokens.tokenStart(k), tokens.tokenEnd(k)).toString());
+            programs.add(program);
+        }
+        return programs;
+    }
+
+    /**
+     * A test program with a few mutations, up to 40 every tenth round
+     */
+    private static String mutate(List<List<String>> programs, Random random, int round) {
+        List<String> program = new ArrayList<>(programs.get(random.nextInt(programs.size())));
+        int mutations = 1 + random.nextInt(round % 10 == 0 ? 40 : 3);
+        for (int m = 0; m < mutations; m++) {
+            //Three rounds in four edit operators and operands only, which keeps most of the programs parsing
+            int at = random.nextInt(program.size());
+            while (round % 4 != 0 && !BINARY.contains(program.get(at)) && !operand(program.get(at)))
+                at = random.nextInt(program.size());
+            String token = program.get(at);
+            if (round % 4 != 0 && BINARY.contains(token)) {
+                program.set(at, BINARY.get(random.nextInt(BINARY.size())));
+            } else if (round % 4 != 0) {
+                if (random.nextBoolean())
+                    program.add(at, PREFIXES[random.nextInt(PREFIXES.length)]);
+                else
+                    program.addAll(at + 1, Arrays.asList(BINARY.get(random.nextInt(BINARY.size())), "(",
+                            random.nextBoolean() ? "eof" : "1", ")"));
+            } else {
+                switch (random.nextInt(3)) {
+                    case 0:
+                        program.remove(at);
+                        break;
+                    case 1:
+                        program.add(at, PIECES[random.nextInt(PIECES.length)]);
+                        break;
+                    default:
+                        program.set(at, PIECES[random.nextInt(PIECES.length)]);
+                }
+            }
+        }
+        return String.join(" ", program);
+    }
+
+    private static boolean operand(String token) {
+        return token.matches("[0-9]+|[a-z]\\w*") && !KEYWORDS.contains(token);
+    }
+
+    /**
+     * Compare each expression in the tree with the recursive chain's parse of its tokens
+     *
+     * @return the number of expressions compared
+     */
+    private static int checkExpressions(AstArena tree, int root, TokenBuffer tokens, String text) {
+        int compared = 0;
+        int[] nodes = new int[64];
+        int[] starts = new int[64];
+        int top = 0;
+        nodes[top] = root;
+        starts[top++] = tree.offset(root);
+        while (top > 0) {
+            int node = nodes[--top];
+            int start = starts[top];
+            if (EXPRESSIONS.contains(tree.label(node))) {
+                RecursiveChain chain = new RecursiveChain(tokens, start);
+                assertEquals(chain.expression(), write(tree, node), text);
+                assertEquals(start + tree.width(node), chain.next, text);
+                compared++;
+                continue;
+            }
+            if (top + tree.childCount(node) > nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * (top + tree.childCount(node)));
+                starts = Arrays.copyOf(starts, nodes.length);
+            }
+            for (int child = tree.firstChild(node); child != AstArena.NONE; child = tree.nextSibling(child)) {
+                nodes[top] = child;
+                starts[top++] = start + tree.offset(child);
+            }
+        }
+        return compared;
+    }
+
+    /**
+     * The subtree as label(child,...)
+     */
+    private static String write(AstArena tree, int node) {
+        if (tree.childCount(node) == 0)
+            return tree.label(node);
+        StringBuilder s = new StringBuilder(tree.label(node)).append('(');
+        for (int child = tree.firstChild(node); child != AstArena.NONE; child = tree.nextSibling(child))
+            s.append(write(tree, child)).append(',');
+        s.setCharAt(s.length() - 1, ')');
+        return s.toString();
+    }
+
+    /**
+     * The original one method per level chain, writing trees as write does
+     */
+    private static class RecursiveChain {
+        private final TokenBuffer tokens;
+        private int next;
+
+        RecursiveChain(TokenBuffer tokens, int next) {
+            this.tokens = tokens;
+            this.next = next;
+        }
+
+        private LexerTokenType type() {
+            return next < tokens.size() ? tokens.type(next) : LexerTokenType.END_OF_PROGRAM;
+        }
+
+        private void read(LexerTokenType expected) {
+            assertEquals(expected, type());
+            next++;
+        }
+
+        /**
+         * Expression -> Term (('<=' | '<' | '>=' | '>' | '=' | '<>') Term)?
+         */
+        String expression() {
+            String term = term();
+            switch (type()) {
+                case LTE: case LT: case GTE: case GT: case EQ: case NE:
+                    String operator = tokens.type(next++).val;
+                    return operator + "(" + term + "," + term() + ")";
+                default:
+                    return term;
+            }
+        }
+
+        /**
+         * Term -> Factor (('+' | '-' | 'or') Factor)*
+         */
+        private String term() {
+            String term = factor();
+            while (type() == LexerTokenType.PLUS || type() == LexerTokenType.MINUS || type() == LexerTokenType.OR) {
+                String operator = tokens.type(next++).val;
+                term = operator + "(" + term + "," + factor() + ")";
+            }
+            return term;
+        }
+
+        /**
+         * Factor -> Primary (('*' | '/' | 'and' | 'mod') Primary)*
+         */
+        private String factor() {
+            String factor = primary();
+            while (type() == LexerTokenType.MUL || type() == LexerTokenType.DIV || type() == LexerTokenType.AND
+                    || type() == LexerTokenType.MOD) {
+                String operator = tokens.type(next++).val;
+                factor = operator + "(" + factor + "," + primary() + ")";
+            }
+            return factor;
+        }
+
+        private String primary() {
+            LexerTokenType type = type();
+            switch (type) {
+                case MINUS: case PLUS: case NOT:
+                    next++;
+                    return type.val + "(" + primary() + ")";
+                case EOF:
+                    next++;
+                    return "eof";
+                case INTEGER:
+                    return type.val + "(" + tokens.value(next++) + ")";
+                case CHAR:
+                    return type.val + "('" + tokens.value(next++) + "')";
+                case IDENTIFIER:
+                    String name = type.val + "(" + tokens.value(next++) + ")";
+                    if (type() != LexerTokenType.LEFT_PARA)
+                        return name;
+                    StringBuilder call = new StringBuilder("call(").append(name);
+                    do {
+                        next++;
+                        call.append(',').append(expression());
+                    } while (type() == LexerTokenType.COMMA);
+                    read(LexerTokenType.RIGHT_PARA);
+                    return call.append(')').toString();
+                case LEFT_PARA:
+                    next++;
+                    String nested = expression();
+                    read(LexerTokenType.RIGHT_PARA);
+                    return nested;
+                case SUCC: case PRED: case CHR: case ORD:
+                    next++;
+                    read(LexerTokenType.LEFT_PARA);
+                    String argument = expression();
+                    read(LexerTokenType.RIGHT_PARA);
+                    return type.val + "(" + argument + ")";
+                default:
+                    throw new AssertionError("Expected an expression at " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Random edits of the test programs, re-lexed by IncrementalLexer, against scanning the edited text again
+ */
+public class IncrementalLexerTest {
+    private static final String[] PIECES = {"{", "}", "\"", "'", "#", "\n", " ", "x", "1", ":", "=", ".", "<", ">",
+            ":=:", "ab cd", "{ c }", "'q'"};
+
+    @Test
+    public void relexMatchesFullScan() throws Exception {
+        Random random = new Random(1);
+        for (int round = 0; round < 2000; round++) {
+            String file = String.format("winzig_test_programs/winzig_%02d", 1 + random.nextInt(15));
+            Lexer lexer = new Lexer();
+            TokenBuffer tokens = lexer.scanTokens(SourceText.read(Paths.get(file)));
+            IncrementalLexer incremental = new IncrementalLexer(lexer);
+            for (int step = 0; step < 10; step++) {
+                String before = tokens.source().toString();
+                int offset = random.nextInt(before.length() + 1);
+                int removed = Math.min(random.nextInt(4), before.length() - offset);
+                String inserted = random.nextInt(3) == 0 ? "" : PIECES[random.nextInt(PIECES.length)];
+                String after = before.substring(0, offset) + inserted + before.substring(offset + removed);
+                String edit = file + " round " + round + " step " + step;
+
+                tokens = incremental.relex(tokens, offset, removed, inserted);
+                assertEquals(after, tokens.source().toString(), edit);
+                assertEquals(dump(new Lexer().scanTokens(after)), dump(tokens), edit);
+            }
+        }
+    }
+
+    @Test
+    public void screenedRelexMatchesFullScan() throws Exception {
+        Random random = new Random(2);
+        for (int round = 0; round < 2000; round++) {
+            String file = String.format("winzig_test_programs/winzig_%02d", 1 + random.nextInt(15));
+            Lexer lexer = new Lexer();
+            TokenBuffer tokens = lexer.scanTokens(SourceText.read(Paths.get(file)));
+            TokenBuffer screened = tokens.screened();
+            IncrementalLexer incremental = new IncrementalLexer(lexer);
+            for (int step = 0; step < 10; step++) {
+                String before = tokens.source().toString();
+                int offset = random.nextInt(before.length() + 1);
+                int removed = Math.min(random.nextInt(4), before.length() - offset);
+                String inserted = random.nextInt(3) == 0 ? "" : PIECES[random.nextInt(PIECES.length)];
+                String after = before.substring(0, offset) + inserted + before.substring(offset + removed);
+
+                incremental.relex(tokens, screened, offset, removed, inserted);
+                assertEquals(dump(new Lexer().scanTokens(after).screened()), dump(screened),
+                        file + " round " + round + " step " + step);
+            }
+        }
+    }
+
+    static String dump(TokenBuffer tokens) {
+        StringBuilder dump = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++)
+            dump.append(tokens.type(i)).append(' ').append(tokens.start(i)).append(' ')
+                    .append(tokens.length(i)).append(' ').append(tokens.value(i)).append('\n');
+        return dump.toString();
+    }
+}
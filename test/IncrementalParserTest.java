@@ -0,0 +1,144 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Random edits of the test programs, re-lexed and reparsed incrementally, against lexing and parsing the edited
+ * text from scratch: the same tree with the same spans, or the same error. Most edits are undone by the next one
+ * to get back to programs that parse, so subtrees get reused
+ */
+public class IncrementalParserTest {
+    private static final String[] PIECES = {"{", "}", "\"", "#", "\n", " ", "x", "1", ":", "=", ";", ":=", "begin",
+            "end", "begin x := 1 end;", "if", "then", "else", "output(1);", "(", ")", "+", "*", "i", "d",
+            "a := a + 1;", "while", "do", "repeat", "until", "function", "loop", "pool", "exit;", "'q'", "case"};
+
+    @Test
+    public void reparseMatchesFullParse() throws Exception {
+        Random random = new Random(7);
+        int parsed = 0;
+        for (int round = 0; round < 300; round++) {
+            String file = String.format("winzig_test_programs/winzig_%02d", 1 + random.nextInt(15));
+            Lexer lexer = new Lexer();
+            TokenBuffer tokens = lexer.scanTokens(SourceText.read(Paths.get(file)));
+            TokenBuffer screened = tokens.screened();
+            IncrementalLexer incrementalLexer = new IncrementalLexer(lexer);
+            IncrementalParser incrementalParser = new IncrementalParser(screened);
+            incrementalParser.parse();
+
+            String undo = null;
+            int undoOffset = 0;
+            int undoRemoved = 0;
+            for (int step = 0; step < 60; step++) {
+                String before = tokens.source().toString();
+                int offset;
+                int removed;
+                String inserted;
+                if (undo != null && random.nextInt(10) < 8) {
+                    offset = undoOffset;
+                    removed = undoRemoved;
+                    inserted = undo;
+                    undo = null;
+                } else {
+                    offset = random.nextInt(before.length() + 1);
+                    removed = Math.min(random.nextInt(3) == 0 ? random.nextInt(12) : random.nextInt(3),
+                            before.length() - offset);
+                    inserted = random.nextInt(4) == 0 ? "" : PIECES[random.nextInt(PIECES.length)];
+                    undo = before.substring(offset, offset + removed);
+                    undoOffset = offset;
+                    undoRemoved = inserted.length();
+                }
+                String after = before.substring(0, offset) + inserted + before.substring(offset + removed);
+                incrementalLexer.relex(tokens, screened, offset, removed, inserted);
+
+                String expected;
+                try {
+                    Parser parser = new Parser(new Lexer().tokenize(after).stream());
+                    expected = dump(parser.tree(), parser.parse());
+                } catch (Exception e) {
+                    expected = "error " + e.getMessage();
+                }
+                String actual;
+                try {
+                    int root = incrementalParser.reparse(incrementalLexer.changeStart(),
+                            incrementalLexer.changeOldEnd(), incrementalLexer.changeNewEnd());
+                    actual = dump(incrementalParser.tree(), root);
+                    undo = null;
+                    parsed++;
+                } catch (Exception e) {
+                    actual = "error " + e.getMessage();
+                    //All the problems, as a recovering pass over the tokens finds them
+                    Diagnostics all = new Diagnostics();
+                    new Parser(new Lexer().tokenize(after).stream()).checkSyntax(all);
+                    assertEquals(all.toString(), incrementalParser.diagnostics().toString(),
+                            file + " round " + round + " step " + step);
+                }
+                assertEquals(expected, actual, file + " round " + round + " step " + step);
+            }
+        }
+        assertTrue(parsed > 1000, "too few edits parsed: " + parsed);
+    }
+
+    @Test
+    public void compactionDropsOldLabels() throws Exception {
+        Lexer lexer = new Lexer();
+        TokenBuffer tokens = lexer.scanTokens(SourceText.read(Paths.get("winzig_test_programs/winzig_01")));
+        TokenBuffer screened = tokens.screened();
+        IncrementalLexer incrementalLexer = new IncrementalLexer(lexer);
+        IncrementalParser incrementalParser = new IncrementalParser(screened);
+        incrementalParser.parse();
+
+        //Rename the program over and over, each name a new label of the tree
+        String source = tokens.source().toString();
+        int offset = source.indexOf("factors");
+        String name = "factors";
+        for (int i = 0; i < 5000; i++) {
+            String renamed = "name" + i;
+            incrementalLexer.relex(tokens, screened, offset, name.length(), renamed);
+            incrementalParser.reparse(incrementalLexer.changeStart(), incrementalLexer.changeOldEnd(),
+                    incrementalLexer.changeNewEnd());
+            name = renamed;
+        }
+        Parser parser = new Parser(new Lexer().tokenize(tokens.source().toString()).stream());
+        assertEquals(dump(parser.tree(), parser.parse()), dump(incrementalParser.tree(), incrementalParser.root()));
+        //A new label gets the next kind id, the number of labels kept
+        assertTrue(incrementalParser.tree().kindOf("never used") < 1000);
+    }
+
+    /**
+     * The tree as written by -ast, then the absolute span of every node in preorder
+     */
+    static String dump(AstArena tree, int root) throws Exception {
+        StringWriter written = new StringWriter();
+        new AstWriter(written).write(tree, root);
+        StringBuilder spans = new StringBuilder(written.toString());
+        int[] nodes = new int[64];
+        int[] starts = new int[64];
+        int top = 0;
+        nodes[top] = root;
+        starts[top++] = tree.offset(root);
+        while (top > 0) {
+            int node = nodes[--top];
+            int start = starts[top];
+            spans.append(start).append('+').append(tree.width(node)).append(' ');
+            int children = tree.childCount(node);
+            if (top + children > nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * (top + children));
+                starts = Arrays.copyOf(starts, nodes.length);
+            }
+            //Pushed last to first, so popped in order
+            int at = top + children;
+            for (int child = tree.firstChild(node); child != AstArena.NONE; child = tree.nextSibling(child)) {
+                nodes[--at] = child;
+                starts[at] = start + tree.offset(child);
+            }
+            top += children;
+        }
+        return spans.toString();
+    }
+}
@@ -0,0 +1,277 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A client driving the LanguageServer over piped streams: open, edit into and out of syntax errors, and ask for
+ * diagnostics, symbols and definitions along the way
+ */
+@Timeout(60)
+public class LanguageServerTest {
+    private static final String URI = "file:///p.wz";
+    private static final String PROGRAM = "program p:\n"
+            + "var\n"
+            + "    count : integer;\n"
+            + "function twice(n : integer) : integer;\n"
+            + "begin\n"
+            + "    return n * 2\n"
+            + "end twice;\n"
+            + "begin\n"
+            + "    count := twice(3);\n"
+            + "    output(count)\n"
+            + "end p.\n";
+
+    private OutputStream client;
+    private InputStream server;
+    private Thread thread;
+    private final int[] exitCode = {-1};
+    private int ids = 0;
+    //publishDiagnostics received while waiting for responses, by uri
+    private final Map<String, Object> published = new LinkedHashMap<String, Object>();
+
+    @BeforeEach
+    public void start() throws Exception {
+        PipedInputStream serverIn = new PipedInputStream(1 << 16);
+        client = new PipedOutputStream(serverIn);
+        PipedInputStream clientIn = new PipedInputStream(1 << 16);
+        OutputStream serverOut = new PipedOutputStream(clientIn);
+        server = clientIn;
+        LanguageServer languageServer = new LanguageServer(serverIn, serverOut, 1);
+        thread = new Thread(() -> {
+            try {
+                exitCode[0] = languageServer.run();
+            } catch (IOException e) {
+                exitCode[0] = 2;
+            }
+        });
+        thread.start();
+        request("initialize", object());
+    }
+
+    @AfterEach
+    public void stop() throws Exception {
+        assertNull(request("shutdown", null));
+        notify("exit", null);
+        thread.join();
+        assertEquals(0, exitCode[0]);
+    }
+
+    @Test
+    public void editsIntoAndOutOfSyntaxErrors() throws Exception {
+        open(URI, PROGRAM);
+        assertEquals("[]", symbolsAndDiagnostics(URI)[1]);
+        assertEquals("[p(count,twice(n))]", symbolsAndDiagnostics(URI)[0]);
+        assertEquals("2:4-2:9", definition(URI, 9, 11));
+        assertEquals("3:15-3:16", definition(URI, 5, 11));
+        assertEquals("3:9-3:14", definition(URI, 8, 14));
+        assertNull(request("textDocument/definition", position(URI, 0, 3)));
+
+        //A syntax error in the body and a new declaration in one change
+        change(URI, 2, edit(9, 16, 9, 16, " +"), edit(2, 20, 2, 20, "\n    extra : integer;"));
+        String[] broken = symbolsAndDiagnostics(URI);
+        assertEquals("[10:18-10:19 Unexpected token RIGHT_PARA Expected: expression]", broken[1]);
+        assertEquals("[p(count,extra,twice(n))]", broken[0]);
+        assertEquals("2:4-2:9", definition(URI, 10, 11));
+        assertEquals("3:4-3:9", definition(URI, 3, 6));
+        assertEquals("4:15-4:16", definition(URI, 6, 11));
+
+        //Fixed again
+        change(URI, 3, edit(10, 16, 10, 18, ""));
+        assertEquals("[]", symbolsAndDiagnostics(URI)[1]);
+        assertEquals("[p(count,extra,twice(n))]", symbolsAndDiagnostics(URI)[0]);
+        assertEquals("2:4-2:9", definition(URI, 10, 11));
+    }
+
+    @Test
+    public void declarationsThatDoNotParse() throws Exception {
+        String uri = "file:///q.wz";
+        open(uri, "program q:\n"
+                + "var a : integer;\n"
+                + "    b : ;\n"
+                + "function (n : integer) : integer;\n"
+                + "begin\n"
+                + "    return n\n"
+                + "end f;\n"
+                + "begin\n"
+                + "    a := 1\n"
+                + "end q.\n");
+        String[] result = symbolsAndDiagnostics(uri);
+        assertEquals("[2:8-2:9 Unexpected token SEMICOLON Expected: IDENTIFIER, "
+                + "3:9-3:10 Unexpected token LEFT_PARA Expected: IDENTIFIER, "
+                + "4:0-4:5 Unexpected token BEGIN Expected: IDENTIFIER]", result[1]);
+        //The function has no name to list it by
+        assertEquals("[q(a,b)]", result[0]);
+        assertEquals("1:4-1:5", definition(uri, 8, 4));
+        assertEquals("2:4-2:5", definition(uri, 2, 4));
+        assertNull(definition(uri, 5, 11));
+
+        //Without a program name the parse resumes at its body
+        change(uri, 2, edit(0, 8, 0, 9, ""));
+        result = symbolsAndDiagnostics(uri);
+        assertEquals("[]", result[0]);
+        assertTrue(result[1].startsWith("[0:8-0:9 Unexpected token COLON Expected: IDENTIFIER, "), result[1]);
+        assertNull(definition(uri, 8, 4));
+    }
+
+    @Test
+    public void malformedFramesAreSkipped() throws Exception {
+        open(URI, PROGRAM);
+        write("Content-Length: many\r\n\r\n{\"jsonrpc\":\"2.0\",\"id\":1000,\"method\":\"shutdown\"}");
+        write("Content-Type: application/json\r\n\r\n{}");
+        write("Content-Length: -4\r\n\r\n{}");
+        assertEquals("[p(count,twice(n))]", symbolsAndDiagnostics(URI)[0]);
+        write("Content-Length: 5\r\n\r\nnull!");
+        assertEquals("2:4-2:9", definition(URI, 9, 11));
+    }
+
+    private void open(String uri, String text) throws IOException {
+        notify("textDocument/didOpen", object("textDocument",
+                object("uri", uri, "languageId", "winzig", "version", 1, "text", text)));
+    }
+
+    private void change(String uri, int version, Object... edits) throws IOException {
+        notify("textDocument/didChange", object("textDocument", object("uri", uri, "version", version),
+                "contentChanges", List.of(edits)));
+    }
+
+    private static Map<String, Object> edit(int startLine, int startCharacter, int endLine, int endCharacter,
+                                            String text) {
+        return object("range", object("start", object("line", startLine, "character", startCharacter),
+                "end", object("line", endLine, "character", endCharacter)), "text", text);
+    }
+
+    private static Map<String, Object> position(String uri, int line, int character) {
+        return object("textDocument", object("uri", uri), "position", object("line", line, "character", character));
+    }
+
+    /**
+     * The document's symbols as name(children,...) and the diagnostics published before them as
+     * range message
+     */
+    @SuppressWarnings("unchecked")
+    private String[] symbolsAndDiagnostics(String uri) throws Exception {
+        Object symbols = request("textDocument/documentSymbol", object("textDocument", object("uri", uri)));
+        List<String> diagnostics = new ArrayList<String>();
+        for (Object d: (List<Object>) ((Map<String, Object>) published.get(uri)).get("diagnostics")) {
+            Map<String, Object> diagnostic = (Map<String, Object>) d;
+            diagnostics.add(range(diagnostic.get("range")) + " " + diagnostic.get("message"));
+        }
+        return new String[]{"[" + names(symbols) + "]", diagnostics.toString()};
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String names(Object symbols) {
+        StringBuilder names = new StringBuilder();
+        for (Object s: (List<Object>) symbols) {
+            Map<String, Object> symbol = (Map<String, Object>) s;
+            List<Object> children = (List<Object>) symbol.get("children");
+            if (names.length() > 0)
+                names.append(',');
+            names.append(symbol.get("name"));
+            if (children != null && !children.isEmpty())
+                names.append('(').append(names(children)).append(')');
+        }
+        return names.toString();
+    }
+
+    /**
+     * Range of the declaration found from a position, or null
+     */
+    @SuppressWarnings("unchecked")
+    private String definition(String uri, int line, int character) throws Exception {
+        Map<String, Object> location = (Map<String, Object>) request("textDocument/definition",
+                position(uri, line, character));
+        if (location == null)
+            return null;
+        assertEquals(uri, location.get("uri"));
+        return range(location.get("range"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String range(Object value) {
+        Map<String, Object> range = (Map<String, Object>) value;
+        Map<String, Object> start = (Map<String, Object>) range.get("start");
+        Map<String, Object> end = (Map<String, Object>) range.get("end");
+        return start.get("line") + ":" + start.get("character") + "-" + end.get("line") + ":" + end.get("character");
+    }
+
+    private static Map<String, Object> object(Object... keyValues) {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keyValues.length; i += 2)
+            object.put((String) keyValues[i], keyValues[i + 1]);
+        return object;
+    }
+
+    /**
+     * Send a request and read up to its response, keeping the diagnostics published meanwhile
+     *
+     * @return the result
+     */
+    @SuppressWarnings("unchecked")
+    private Object request(String method, Object params) throws Exception {
+        long id = ++ids;
+        send(object("jsonrpc", "2.0", "id", id, "method", method, "params", params));
+        while (true) {
+            Map<String, Object> message = (Map<String, Object>) Json.parse(read());
+            if ("textDocument/publishDiagnostics".equals(message.get("method"))) {
+                Map<String, Object> notification = (Map<String, Object>) message.get("params");
+                published.put((String) notification.get("uri"), notification);
+            } else if (Long.valueOf(id).equals(message.get("id"))) {
+                assertNull(message.get("error"), method);
+                return message.get("result");
+            }
+        }
+    }
+
+    private void notify(String method, Object params) throws IOException {
+        send(object("jsonrpc", "2.0", "method", method, "params", params));
+    }
+
+    private void send(Map<String, Object> message) throws IOException {
+        byte[] body = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        client.write(("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        client.write(body);
+        client.flush();
+    }
+
+    private void write(String frame) throws IOException {
+        client.write(frame.getBytes(StandardCharsets.UTF_8));
+        client.flush();
+    }
+
+    private String read() throws IOException {
+        int length = -1;
+        while (true) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            for (int b = server.read(); b != '\n'; b = server.read()) {
+                if (b < 0)
+                    throw new IOException("Server closed its output");
+                if (b != '\r')
+                    line.write(b);
+            }
+            String header = line.toString(StandardCharsets.US_ASCII);
+            if (header.isEmpty())
+                break;
+            if (header.startsWith("Content-Length:"))
+                length = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+        }
+        return new String(server.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
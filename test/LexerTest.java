@@ -0,0 +1,380 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * The table driven scanner and keyword table against the original substring and regex scan and HashMap screen,
+ * kept below as they were but for printing. Both give the same screened tokens for the test programs, inline
+ * comments aside, and for random token sequences. Where the original throws or scans on forever, the tokens before
+ * agree and the new scanner goes on with a BAD_TOKEN, or with the whole token when the text ends in the middle of one
+ */
+public class LexerTest {
+    private static final String[] PIECES = {"program", "var", "const", "type", "function", "return", "begin", "end",
+            "output", "if", "then", "else", "while", "do", "case", "of", "otherwise", "repeat", "until", "for", "loop",
+            "pool", "exit", "read", "succ", "pred", "chr", "ord", "eof", "mod", "and", "or", "not", "integer", "char",
+            "boolean", "x", "Z", "count", "a1", "ends", "0", "42", "007", "'a'", "' '", "''", "\"hi there\"", "\"\"",
+            ":=:", ":=", ":", "..", ".", "<=", "<>", "<", ">=", ">", "=", ";", ",", "(", ")", "+", "-", "*", "/", "}"};
+    private static final String[] SEPARATORS = {" ", "  ", "\t", "\n", "\r\n", " { note } ", "{}"};
+
+    @Test
+    public void testProgramsScanAlike() throws Exception {
+        for (int i = 1; i <= 15; i++) {
+            String file = String.format("winzig_test_programs/winzig_%02d", i);
+            String text = SourceText.read(Paths.get(file)).toString();
+            //The original scanned the words of inline comments as tokens, see whereTheOriginalDiffers
+            OriginalLexer original = new OriginalLexer(text.replaceAll("#[^\n]*", ""));
+            assertNull(original.failure, file);
+            assertEquals(original.screened(), tokens(text), file);
+        }
+    }
+
+    @Test
+    public void randomTokenSequencesScanAlike() {
+        Random random = new Random(3);
+        for (int round = 0; round < 3000; round++) {
+            StringBuilder text = new StringBuilder();
+            for (int k = 1 + random.nextInt(60); k > 0; k--)
+                text.append(PIECES[random.nextInt(PIECES.length)])
+                        .append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            //The original reads past the text after an integer with no letter behind it, or a colon at its end
+            text.append("end\n");
+            OriginalLexer original = new OriginalLexer(text.toString());
+            assertNull(original.failure, text.toString());
+            assertEquals(original.screened(), tokens(text), text.toString());
+        }
+    }
+
+    @Test
+    public void unterminatedCommentsStringsAndChars() {
+        assertGoesOn("x := { note", "[BAD_TOKEN { note]", "Unterminated comment");
+        assertGoesOn("{ note", "[BAD_TOKEN { note]", "Unterminated comment");
+        assertGoesOn("x := \"text\n", "[BAD_TOKEN \"text\n]", "Unterminated string");
+        assertGoesOn("c := 'a", "[BAD_TOKEN 'a]", "Unterminated char");
+        assertGoesOn("c := 'ab' ;\n", "[BAD_TOKEN 'ab', SEMICOLON ;]", "Wrong char length");
+    }
+
+    @Test
+    public void unknownCharacters() {
+        for (char c: new char[]{'@', '$', '!', '?', '[', '~', '%', 'é'})
+            assertGoesOn("x := 1 " + c + " 2 end\n", "[BAD_TOKEN " + c + ", INTEGER 2, END end]",
+                    "Unexpected character '" + c + "'");
+    }
+
+    @Test
+    public void endOfTextInTheMiddleOfAToken() {
+        assertGoesOn("x := a", "[IDENTIFIER a]", null);
+        assertGoesOn("x := begin", "[BEGIN begin]", null);
+        assertGoesOn("x := 12", "[INTEGER 12]", null);
+        assertGoesOn("x := 12 )", "[INTEGER 12, RIGHT_PARA )]", null);
+        assertGoesOn("x :", "[COLON :]", null);
+        assertGoesOn("x :=", "[ASSIGN :=]", null);
+        assertGoesOn("x := y :\n", "[COLON :]", null);
+        assertGoesOn("x <", "[LT <]", null);
+        assertGoesOn("x >", "[GT >]", null);
+    }
+
+    /**
+     * Where the new scanner deliberately reads differently: inline comments, underscores and letters next to
+     * characters that are not separators
+     */
+    @Test
+    public void whereTheOriginalDiffers() {
+        //The original has no inline comments: '#' is a token of its own and the comment's words are scanned
+        OriginalLexer original = new OriginalLexer("x := 1 # the answer\nend\n");
+        assertNull(original.failure);
+        assertEquals("[IDENTIFIER x, ASSIGN :=, INTEGER 1, IDENTIFIER the, IDENTIFIER answer, END end]",
+                original.screened());
+        assertEquals("[IDENTIFIER x, ASSIGN :=, INTEGER 1, END end]", tokens("x := 1 # the answer\nend\n"));
+
+        //'_' ended an identifier and then scanned as an empty one, forever
+        original = new OriginalLexer("a_b := 1 end\n");
+        assertNotNull(original.failure);
+        assertEquals("[IDENTIFIER a, IDENTIFIER ]", original.screened());
+        assertEquals("[IDENTIFIER a_b, ASSIGN :=, INTEGER 1, END end]", tokens("a_b := 1 end\n"));
+
+        //Only white space and some punctuation ended identifiers and integers
+        original = new OriginalLexer("x := a/b end\n");
+        assertNull(original.failure);
+        assertEquals("[IDENTIFIER x, ASSIGN :=, IDENTIFIER a/b, END end]", original.screened());
+        assertEquals("[IDENTIFIER x, ASSIGN :=, IDENTIFIER a, DIV /, IDENTIFIER b, END end]",
+                tokens("x := a/b end\n"));
+    }
+
+    /**
+     * The original fails on the text; the new scanner gives the tokens it had screened by then, and then tail.
+     * A BAD_TOKEN in tail is described by message
+     */
+    private static void assertGoesOn(String text, String tail, String message) {
+        OriginalLexer original = new OriginalLexer(text);
+        assertNotNull(original.failure, text);
+        String prefix = original.screened();
+        String expected = prefix.equals("[]") ? tail
+                : prefix.substring(0, prefix.length() - 1) + ", " + tail.substring(1);
+        assertEquals(expected, tokens(text), text);
+
+        TokenBuffer tokens = new Lexer().tokenize(text);
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.type(i) == LexerTokenType.BAD_TOKEN)
+                assertEquals(message, Lexer.describe(tokens.value(i)), text);
+        }
+    }
+
+    /**
+     * Screened tokens of the text as [TYPE value, ...]
+     */
+    private static String tokens(CharSequence text) {
+        TokenBuffer tokens = new Lexer().tokenize(text);
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < tokens.size(); i++)
+            list.add(tokens.type(i) + " " + tokens.value(i));
+        return list.toString();
+    }
+
+    /**
+     * The first Lexer's scan and screen. The tokens scanned before a failure are kept, and a scan that stops moving
+     * fails where the original went on forever
+     */
+    private static class OriginalLexer {
+        private String program;
+        //Lookup table
+        private static Map<String, LexerTokenType> tokenLookupTable = new HashMap<String, LexerTokenType>();
+        //Populate lookup table at loadtime
+        static {
+            for (LexerTokenType token: LexerTokenType.values()) {
+                if (
+                        token == LexerTokenType.IDENTIFIER ||
+                        token == LexerTokenType.INTEGER ||
+                        token == LexerTokenType.CHAR ||
+                        token == LexerTokenType.STRING ||
+                        token == LexerTokenType.BLOCK_COMMENT ||
+                        token == LexerTokenType.INLINE_COMMENT ||
+                        token == LexerTokenType.END_OF_PROGRAM ||
+                        token == LexerTokenType.BAD_TOKEN
+                )
+                    continue;
+                tokenLookupTable.put(token.val, token);
+            }
+
+            String alpha = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ_";
+            for(int i = 0; i < alpha.length(); i++) {
+                String s = alpha.substring(i, i+1);
+                tokenLookupTable.put(s, LexerTokenType.IDENTIFIER);
+            }
+
+            String num = "0123456789";
+            for(int i = 0; i < num.length(); i++) {
+                String s = num.substring(i, i+1);
+                tokenLookupTable.put(s, LexerTokenType.INTEGER);
+            }
+
+            tokenLookupTable.put("\"", LexerTokenType.STRING);
+            tokenLookupTable.put("'", LexerTokenType.CHAR);
+            tokenLookupTable.put("{", LexerTokenType.BLOCK_COMMENT);
+            tokenLookupTable.put("#", LexerTokenType.INLINE_COMMENT);
+            tokenLookupTable.put("\t", LexerTokenType.WHITE_SPACE);
+            tokenLookupTable.put("\r", LexerTokenType.WHITE_SPACE);
+
+        }
+
+        private final ArrayList<LexerToken> scannerTokens = new ArrayList<LexerToken>();
+        //What stopped the scan, null if it reached the end
+        private RuntimeException failure;
+
+        OriginalLexer(String p) {
+            this.program = p;
+            try {
+                scan(program);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        private void scan(String program) {
+            int pos = 0;
+            for (; pos < program.length();) {
+                int before = pos;
+                String s = program.substring(pos, pos+1);
+                LexerTokenType tokenType = tokenLookupTable.get(s);
+
+                switch (tokenType) {
+                    case IDENTIFIER:
+                        int newPos = getSequenceEnd(program.substring(pos), pos);
+
+                        LexerToken token = new LexerToken(tokenType);
+                        token.value = program.substring(pos, newPos);
+                        scannerTokens.add(token);
+                        pos = newPos;
+                        break;
+
+                    case INTEGER:
+                        newPos = getSequenceEnd(program.substring(pos), pos);
+                        int alphaPos = getAlphaPos(program.substring(pos), pos);
+                        newPos = Math.min(newPos, alphaPos);
+
+                        token = new LexerToken(tokenType);
+                        token.value = program.substring(pos, newPos);
+                        scannerTokens.add(token);
+                        pos = newPos;
+                        break;
+
+                    case BLOCK_COMMENT:
+                        newPos = program.indexOf(LexerTokenType.BLOCK_END.val, pos) + 1;
+
+                        token = new LexerToken(tokenType);
+                        token.value = program.substring(pos, newPos);
+                        scannerTokens.add(token);
+                        pos = newPos;
+                        break;
+                    case CHAR:
+                        newPos = program.indexOf("'", pos+1) + 1;
+                        if (newPos - pos > 3)
+                            throw new IllegalStateException("Wrong char length");
+
+                        token = new LexerToken(tokenType);
+                        token.value = program.substring(pos+1, newPos-1);
+                        scannerTokens.add(token);
+                        pos = newPos;
+                        break;
+
+                    case STRING:
+                        newPos = program.indexOf("\"", pos+1) + 1;
+
+                        token = new LexerToken(tokenType);
+                        token.value = program.substring(pos+1, newPos-1);
+                        scannerTokens.add(token);
+                        pos = newPos;
+                        break;
+
+                    case COLON: //Check if actually colon or swap or assignment
+                        if (program.substring(pos, pos+3).equals(":=:")) {
+                            tokenType = LexerTokenType.SWAP;
+                            newPos = pos + 3;
+                        } else if (program.substring(pos, pos+2).equals(":=")) {
+                            tokenType = LexerTokenType.ASSIGN;
+                            newPos = pos + 2;
+                        } else {
+                            newPos = pos + 1;
+                        }
+
+                        scannerTokens.add(new LexerToken(tokenType));
+                        pos = newPos;
+                        break;
+
+                    case DOT:
+                        if (pos + 1 != program.length() && program.substring(pos, pos+2).equals("..")) {
+                            tokenType = LexerTokenType.CASE_EXP;
+                            newPos = pos + 2;
+                        } else {
+                            newPos = pos + 1;
+                        }
+
+                        scannerTokens.add(new LexerToken(tokenType));
+                        pos = newPos;
+                        break;
+
+                    case GT:
+                        if (program.substring(pos, pos+2).equals(">=")) {
+                            tokenType = LexerTokenType.GTE;
+                            newPos = pos + 2;
+                        } else {
+                            newPos = pos + 1;
+                        }
+
+                        scannerTokens.add(new LexerToken(tokenType));
+                        pos = newPos;
+                        break;
+
+                    case LT:
+                        String lookAhead = program.substring(pos, pos+2);
+                        if (lookAhead.equals("<=")) {
+                            tokenType = LexerTokenType.LTE;
+                            newPos = pos + 2;
+                        } else if (lookAhead.equals("<>")) {
+                            tokenType = LexerTokenType.NE;
+                            newPos = pos + 2;
+                        } else {
+                            newPos = pos + 1;
+                        }
+
+                        scannerTokens.add(new LexerToken(tokenType));
+                        pos = newPos;
+                        break;
+
+                    default:
+                        scannerTokens.add(new LexerToken(tokenType));
+                        pos++;
+                        break;
+                }
+                //The original scanned on from here forever
+                if (pos <= before)
+                    throw new IllegalStateException("Stuck at " + before);
+            }
+        }
+
+        private int getAlphaPos(String source, int pos) {
+            for (int i = 0; i < program.length(); i++) {
+                String s = source.substring(i, i+1);
+                if (s.matches("[a-zA-z]")) {
+                    pos += i;
+                    return pos;
+                }
+            }
+
+            return -1;
+        }
+
+        private int getSequenceEnd(String source, int pos) {
+            for (int i = 0; i < program.length(); i++) {
+                String s = source.substring(i, i+1);
+                if (s.matches("[\\s!:.,;@#$%&*()_+=|<>?{}\\[\\]~-]")) {
+                    pos += i;
+                    return pos;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * The screened tokens as [TYPE value, ...]
+         */
+        String screened() {
+            ArrayList<LexerToken> screenedTokens = new ArrayList<LexerToken>();
+
+            for (LexerToken token: scannerTokens) {
+                switch (token.type) {
+                    case IDENTIFIER:
+                        LexerTokenType t = tokenLookupTable.get(token.value);
+                        if (t != null && t != LexerTokenType.IDENTIFIER)
+                            screenedTokens.add(new LexerToken(t));
+                        else
+                            screenedTokens.add(token);
+                        break;
+
+                    case WHITE_SPACE:
+                    case BLOCK_COMMENT:
+                    case NEWLINE:
+                    case INLINE_COMMENT:
+                        break;
+
+                    default:
+                        screenedTokens.add(token);
+
+                }
+            }
+            List<String> list = new ArrayList<String>();
+            for (LexerToken t: screenedTokens)
+                list.add(t.type + " " + t.value);
+            return list.toString();
+        }
+    }
+}
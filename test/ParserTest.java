@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Syntax errors the parser recovers from, checked through both the streaming check and the AST building parse
+ */
+public class ParserTest {
+    @Test
+    public void tokensAfterTheProgramAreReported() throws Exception {
+        String program = "program p:\n"
+                + "var a : integer;\n"
+                + "begin\n"
+                + "    a := 1\n"
+                + "end p.\n"
+                + "a := @ ;; begin begin\n";
+        assertDiagnostics(program,
+                "6:1: Unexpected token IDENTIFIER Expected: end of program\n"
+                + "6:6: Unexpected character '@'\n"
+                + "7:1: Unexpected token END_OF_PROGRAM Expected: END\n");
+        assertDiagnostics("program p:\nbegin\nend p. x\n",
+                "3:8: Unexpected token IDENTIFIER Expected: end of program\n");
+        assertDiagnostics("program p:\nbegin\nend p. end\n",
+                "3:8: Unexpected token END Expected: end of program\n");
+    }
+
+    @Test
+    public void strayEndKeepsRecovering() throws Exception {
+        String program = "program p:\n"
+                + "var a, b : integer;\n"
+                + "begin\n"
+                + "    a := 1;\n"
+                + "    end;\n"
+                + "    a := 2 +;\n"
+                + "    b := ;\n"
+                + "    output(a)\n"
+                + "end p.\n";
+        assertDiagnostics(program,
+                "5:8: Unexpected token SEMICOLON Expected: IDENTIFIER\n"
+                + "6:13: Unexpected token SEMICOLON Expected: expression\n"
+                + "7:10: Unexpected token SEMICOLON Expected: expression\n");
+    }
+
+    @Test
+    public void testProgramsHaveNoDiagnostics() throws Exception {
+        for (int i = 1; i <= 15; i++) {
+            Path file = Paths.get(String.format("winzig_test_programs/winzig_%02d", i));
+            assertDiagnostics(SourceText.read(file).toString() + "\n\n", "");
+        }
+    }
+
+    private static void assertDiagnostics(String program, String expected) throws Exception {
+        Diagnostics checked = new Diagnostics();
+        new Parser(new StreamingLexer(new StringReader(program), 4096)).checkSyntax(checked);
+        assertEquals(expected, checked.toString(), program);
+
+        Diagnostics parsed = new Diagnostics();
+        new Parser(new Lexer().tokenize(program).stream()).parse(parsed);
+        assertEquals(expected, parsed.toString(), program);
+    }
+}
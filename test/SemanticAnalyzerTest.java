@@ -0,0 +1,141 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Declaration and type errors the SemanticAnalyzer reports, each at the first token of its node and in the order
+ * of its walk, and none for the test programs
+ */
+public class SemanticAnalyzerTest {
+    private static final String DECLARATIONS = "program p:\n"
+            + "type color = (red, green);\n"
+            + "var n : integer;\n"
+            + "    c : char;\n"
+            + "    k : color;\n"
+            + "    ok : boolean;\n"
+            + "function f(x : integer; y : char) : char;\n"
+            + "begin\n"
+            + "    return y\n"
+            + "end f;\n";
+
+    @Test
+    public void testProgramsHaveNoDiagnostics() throws Exception {
+        for (int i = 1; i <= 15; i++) {
+            String file = String.format("winzig_test_programs/winzig_%02d", i);
+            assertEquals("", analyze(SourceText.read(Paths.get(file)).toString()), file);
+        }
+    }
+
+    @Test
+    public void duplicateAndUndeclaredNames() throws Exception {
+        assertEquals("3:5: Duplicate declaration of a\n"
+                        + "3:11: Duplicate declaration of b\n"
+                        + "5:5: a is not a variable\n"
+                        + "6:14: Undeclared name c\n"
+                        + "7:5: End name q does not match p\n",
+                analyze("program p:\n"
+                        + "const a = 1;\n"
+                        + "var a, b, b : integer;\n"
+                        + "begin\n"
+                        + "    a := 1;\n"
+                        + "    b := a + c\n"
+                        + "end q.\n"));
+        //Parameters hide the program's names, and are gone after their function
+        assertEquals("6:12: Expected integer, found char\n"
+                        + "9:12: Undeclared name x\n",
+                analyze("program p:\n"
+                        + "var n : integer;\n"
+                        + "function f(n : char; x : integer) : integer;\n"
+                        + "begin\n"
+                        + "    x := 1;\n"
+                        + "    return n\n"
+                        + "end f;\n"
+                        + "begin\n"
+                        + "    output(x)\n"
+                        + "end p.\n"));
+    }
+
+    @Test
+    public void typeMismatches() throws Exception {
+        assertEquals("12:10: Expected integer, found char\n"
+                        + "13:11: Cannot compare integer with char\n"
+                        + "14:5: Cannot swap integer with char\n"
+                        + "15:8: Expected boolean, found integer\n"
+                        + "16:23: Expected integer, found char\n"
+                        + "16:11: Expected boolean, found char\n"
+                        + "18:15: Expected boolean, found integer\n"
+                        + "19:19: Expected integer, found char\n"
+                        + "20:10: Cannot read boolean\n"
+                        + "21:5: return outside a function\n",
+                analyze(DECLARATIONS
+                        + "begin\n"
+                        + "    n := 'a';\n"
+                        + "    ok := n < c;\n"
+                        + "    n :=: c;\n"
+                        + "    if n then output(n);\n"
+                        + "    while c do output(c);\n"
+                        + "    k := succ(red) + 1;\n"
+                        + "    ok := not n;\n"
+                        + "    n := ord(k) + chr(n);\n"
+                        + "    read(ok);\n"
+                        + "    return 1\n"
+                        + "end p.\n"));
+    }
+
+    @Test
+    public void argumentCountsAndTypes() throws Exception {
+        assertEquals("12:10: f takes 2 arguments, not 1\n"
+                        + "13:10: f takes 2 arguments, not 3\n"
+                        + "14:12: Expected integer, found char\n"
+                        + "14:17: Expected char, found integer\n"
+                        + "15:10: Expected char, found integer\n",
+                analyze(DECLARATIONS
+                        + "begin\n"
+                        + "    c := f(1);\n"
+                        + "    c := f(1, 'b', 2);\n"
+                        + "    c := f('b', 1);\n"
+                        + "    c := ord(f(1, 'b'))\n"
+                        + "end p.\n"));
+    }
+
+    @Test
+    public void caseLabelTypes() throws Exception {
+        assertEquals("14:9: Expected integer, found char\n"
+                        + "15:9: Expected integer, found color\n"
+                        + "16:12: Expected integer, found char\n"
+                        + "19:9: Expected color, found integer\n",
+                analyze(DECLARATIONS
+                        + "begin\n"
+                        + "    case n of\n"
+                        + "        1: output(1);\n"
+                        + "        'x': output(2);\n"
+                        + "        red..green: output(3);\n"
+                        + "        2..'z': output(4);\n"
+                        + "    end;\n"
+                        + "    case k of\n"
+                        + "        1: output(5);\n"
+                        + "        red..green: output(6);\n"
+                        + "    end\n"
+                        + "end p.\n"));
+    }
+
+    /**
+     * Diagnostics of a program as path:line:column: message lines, without the path, as winzigc -analyze reports
+     * them
+     */
+    private static String analyze(String program) throws Exception {
+        TokenBuffer tokens = new Lexer().tokenize(program);
+        Diagnostics diagnostics = new Diagnostics();
+        ParseResult result = new Parser(tokens.stream()).parse(diagnostics);
+        assertEquals("", diagnostics.toString(), "syntax errors");
+        new SemanticAnalyzer(result.tree(), diagnostics).analyze(result.root());
+        Diagnostic previous = null;
+        for (Diagnostic diagnostic: diagnostics) {
+            diagnostic.locate(program, tokens.tokenStart(diagnostic.token), previous);
+            previous = diagnostic;
+        }
+        return diagnostics.toString();
+    }
+}